@@ -27,8 +27,10 @@ import com.wjybxx.fastjgame.net.initializer.*;
 import com.wjybxx.fastjgame.utils.ConcurrentUtils;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.socket.SocketChannel;
+import it.unimi.dsi.fastutil.longs.LongCollection;
 import okhttp3.Response;
 
+import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.net.BindException;
 import java.util.Map;
@@ -80,25 +82,25 @@ class NetContextImp implements NetContext {
 
 	@Override
 	public TCPServerChannelInitializer newTcpServerInitializer(CodecHelper codecHelper) {
-		return new TCPServerChannelInitializer(localGuid, managerWrapper.getNetConfigManager().maxFrameLength(),
+		return new TCPServerChannelInitializer(localGuid, managerWrapper.getNetConfigManager(),
 				codecHelper, managerWrapper.getNetEventManager());
 	}
 
 	@Override
 	public TCPClientChannelInitializer newTcpClientInitializer(long remoteGuid, CodecHelper codecHelper) {
-		return new TCPClientChannelInitializer(localGuid, remoteGuid, managerWrapper.getNetConfigManager().maxFrameLength(),
+		return new TCPClientChannelInitializer(localGuid, remoteGuid, managerWrapper.getNetConfigManager(),
 				codecHelper, managerWrapper.getNetEventManager());
 	}
 
 	@Override
 	public WsServerChannelInitializer newWsServerInitializer(String websocketUrl, CodecHelper codecHelper) {
-		return new WsServerChannelInitializer(localGuid, websocketUrl, managerWrapper.getNetConfigManager().maxFrameLength(),
+		return new WsServerChannelInitializer(localGuid, websocketUrl, managerWrapper.getNetConfigManager(),
 				codecHelper, managerWrapper.getNetEventManager());
 	}
 
 	@Override
 	public WsClientChannelInitializer newWsClientInitializer(long remoteGuid, String websocketUrl, CodecHelper codecHelper) {
-		return new WsClientChannelInitializer(localGuid, remoteGuid, websocketUrl, managerWrapper.getNetConfigManager().maxFrameLength(),
+		return new WsClientChannelInitializer(localGuid, remoteGuid, websocketUrl, managerWrapper.getNetConfigManager(),
 				codecHelper, managerWrapper.getNetEventManager());
 	}
 
@@ -130,6 +132,24 @@ class NetContextImp implements NetContext {
 		});
 	}
 
+	@Override
+	public void broadcast(LongCollection clientGuids, @Nonnull Object message) {
+		broadcast(clientGuids, message, MessagePriority.NORMAL);
+	}
+
+	@Override
+	public void broadcast(LongCollection clientGuids, @Nonnull Object message, MessagePriority priority) {
+		if (clientGuids.isEmpty()) {
+			return;
+		}
+		// 拷贝一份，用户可能继续修改集合
+		final long[] clientGuidArray = clientGuids.toLongArray();
+		final SharedMessage sharedMessage = SharedMessage.newInstance(message);
+		netEventLoop.execute(() -> {
+			managerWrapper.getS2CSessionManager().broadcast(localGuid, clientGuidArray, sharedMessage, priority);
+		});
+	}
+
 	@Override
 	public ListenableFuture<?> connect(long remoteGuid, RoleType remoteRole, HostAndPort remoteAddress, ChannelInitializerSupplier initializerSupplier, SessionLifecycleAware<C2SSession> lifecycleAware, MessageHandler messageHandler) {
 		// 这里一定不是网络层，只有逻辑层才会调用connect
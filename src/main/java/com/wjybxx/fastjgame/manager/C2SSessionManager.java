@@ -39,6 +39,8 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
 
 /**
@@ -98,11 +100,21 @@ public class C2SSessionManager implements SessionManager {
                 if (sessionWrapper.getState() != null){
                     sessionWrapper.getState().execute();
                 }
+                // 更新可写状态
+                updateWritability(sessionWrapper);
+                // 通知用户这一帧丢弃的低优先级消息
+                reportShedMessages(sessionWrapper);
+                // 空闲之后缩小消息队列
+                sessionWrapper.getMessageQueue().trimIfNecessary(netTimeManager.getSystemMillTime());
                 // 检测超时的rpc调用
                 FastCollectionsUtils.removeIfAndThen(sessionWrapper.getRpcPromiseMap(),
                         (k, rpcPromiseInfo) -> netTimeManager.getSystemMillTime() >= rpcPromiseInfo.timeoutMs,
                         (k, rpcPromiseInfo) -> rpcPromiseInfo.rpcPromise.trySuccess(RpcResponse.TIMEOUT));
             }
+            // 兜底检查：消息溢出到磁盘失败的会话必须删除，不能跳过丢失的消息继续发送
+            FastCollectionsUtils.removeIfAndThen(userInfo.sessionWrapperMap,
+                    (k, sessionWrapper) -> sessionWrapper.getMessageQueue().isSpillOverflowed(),
+                    (k, sessionWrapper) -> afterRemoved(sessionWrapper, "spilled message is too much!"));
         }
     }
 
@@ -146,13 +158,28 @@ public class C2SSessionManager implements SessionManager {
         // 创建会话
         C2SSession session = new C2SSession(netContext, managerWrapper, serverGuid, serverType, hostAndPort);
         byte[] encryptedLoginToken = tokenManager.newEncryptedLoginToken(netContext.localGuid(), netContext.localRole(), serverGuid, serverType);
-        SessionWrapper sessionWrapper = new SessionWrapper(userInfo, initializerSupplier, lifecycleAware, messageHandler, session, encryptedLoginToken);
+        SessionWrapper sessionWrapper = new SessionWrapper(userInfo, initializerSupplier, lifecycleAware, messageHandler, session,
+                encryptedLoginToken, netConfigManager.maxReassemblyBytes(), netConfigManager.receiveWindow());
+        enableSpillIfNecessary(session, sessionWrapper.getMessageQueue());
         // 保存会话
         userInfo.sessionWrapperMap.put(session.getServerGuid(), sessionWrapper);
         // 初始为连接状态
         changeState(sessionWrapper, new ConnectingState(sessionWrapper));
     }
 
+    /**
+     * 服务器之间的会话启用待发送消息溢出到磁盘(玩家客户端不启用)
+     */
+    private void enableSpillIfNecessary(C2SSession session, MessageQueue messageQueue) {
+        if (!netConfigManager.messageSpillEnabled() || session.localRole() == RoleType.PLAYER) {
+            return;
+        }
+        SpilledMessageQueue spilledQueue = new SpilledMessageQueue(netConfigManager.messageSpillDir(),
+                session.localGuid() + "-" + session.remoteGuid(), netConfigManager.messageSpillSegmentSize(),
+                netConfigManager.messageSpillMaxSegments(), session::getCodecHelper);
+        messageQueue.getNeedSendQueue().enableSpill(spilledQueue, netConfigManager.messageSpillThreshold());
+    }
+
     /**
      * 如果session可用的话
      * @param localGuid form
@@ -166,40 +193,115 @@ public class C2SSessionManager implements SessionManager {
             return;
         }
         MessageQueue messageQueue = sessionWrapper.getMessageQueue();
+        shedIfNecessary(messageQueue);
         if (messageQueue.getCacheMessageNum() >= netConfigManager.clientMaxCacheNum()){
             // 缓存过多，删除会话
             removeSession(localGuid, serverGuid, "cacheMessageNum is too much!");
         }else {
             then.accept(sessionWrapper);
+            if (messageQueue.isSpillOverflowed()){
+                // 消息溢出到磁盘失败(未进入队列)，立即删除会话，不能跳过该消息继续发送之后的消息
+                removeSession(localGuid, serverGuid, "spilled message is too much!");
+                return;
+            }
+            updateWritability(sessionWrapper);
+        }
+    }
+
+    /**
+     * 缓存达到上限时，先丢弃可丢弃的低优先级消息，仍然超过上限才删除会话
+     */
+    private void shedIfNecessary(MessageQueue messageQueue) {
+        if (messageQueue.getCacheMessageNum() >= netConfigManager.clientMaxCacheNum()) {
+            messageQueue.shedMessages();
+        }
+    }
+
+    /**
+     * 通知用户上次通知以来丢弃的低优先级消息
+     */
+    private void reportShedMessages(SessionWrapper sessionWrapper) {
+        final int shedNum = sessionWrapper.getMessageQueue().pollUnreportedShedNum();
+        if (shedNum == 0) {
+            return;
         }
+        final C2SSession session = sessionWrapper.getSession();
+        session.addShedMessageCount(shedNum);
+        ConcurrentUtils.tryCommit(sessionWrapper.getNetContext().localEventLoop(), () -> {
+            sessionWrapper.getLifecycleAware().onMessageShed(session, shedNum);
+        });
+    }
+
+    /**
+     * 根据缓存的消息数更新会话的可写状态，在达到缓存上限之前通知用户减少发送
+     */
+    private void updateWritability(SessionWrapper sessionWrapper) {
+        final C2SSession session = sessionWrapper.getSession();
+        final boolean writable = session.isWritable();
+        final int cacheMessageNum = sessionWrapper.getMessageQueue().getCacheMessageNum();
+        // 有消息溢出到磁盘时也不可写
+        final boolean spilled = sessionWrapper.getMessageQueue().getSpilledMessageNum() > 0;
+        if (writable && (cacheMessageNum >= netConfigManager.clientCacheHighWaterMark() || spilled)) {
+            notifyWritabilityChanged(sessionWrapper, false);
+        } else if (!writable && cacheMessageNum <= netConfigManager.clientCacheLowWaterMark() && !spilled) {
+            notifyWritabilityChanged(sessionWrapper, true);
+        }
+    }
+
+    private void notifyWritabilityChanged(SessionWrapper sessionWrapper, boolean writable) {
+        final C2SSession session = sessionWrapper.getSession();
+        session.setWritable(writable);
+        ConcurrentUtils.tryCommit(sessionWrapper.getNetContext().localEventLoop(), () -> {
+            sessionWrapper.getLifecycleAware().onWritabilityChanged(session, writable);
+        });
     }
 
     /**
      * 向服务器发送一个消息,不保证立即发送，因为会话状态不确定，只保证最后一定会按顺序发送出去
+     * (可丢弃的低优先级消息在会话不可写时直接丢弃)
      * @param localGuid from
      * @param serverGuid to
      * @param message 消息内容
+     * @param priority 消息的优先级
      */
     @Override
-    public void send(long localGuid, long serverGuid, @Nonnull Object message){
+    public void send(long localGuid, long serverGuid, @Nonnull Object message, MessagePriority priority){
         ifSessionOk(localGuid, serverGuid, sessionWrapper -> {
+            if (priority.isSheddable() && !sessionWrapper.getSession().isWritable()) {
+                sessionWrapper.getMessageQueue().onMessageShed(1);
+                return;
+            }
             // 添加到待发送队列
-            UnsentOneWayMessage unsentOneWayMessage = new UnsentOneWayMessage(message);
+            UnsentOneWayMessage unsentOneWayMessage = new UnsentOneWayMessage(message, priority);
             sessionWrapper.state.addToNeedSendQueue(unsentOneWayMessage);
         });
     }
 
+    /**
+     * 向服务器发送一个不可靠的消息，只有验证成功的状态下才会发送，其它状态下直接丢弃
+     * @param localGuid from
+     * @param serverGuid to
+     * @param message 消息内容
+     */
+    @Override
+    public void sendUnreliable(long localGuid, long serverGuid, @Nonnull Object message) {
+        ifSessionOk(localGuid, serverGuid, sessionWrapper -> {
+            sessionWrapper.state.addUnreliable(message);
+        });
+    }
+
     /**
      * 发送rpc调用结果
      * @param localGuid form
      * @param serverGuid to
      * @param requestGuid rpc请求号
      * @param response rpc调用结果
+     * @param priority 异步rpc调用的结果的优先级
      */
     @Override
-    public void sendRpcResponse(long localGuid, long serverGuid, boolean sync, long requestGuid, @Nonnull RpcResponse response) {
+    public void sendRpcResponse(long localGuid, long serverGuid, boolean sync, long requestGuid, @Nonnull RpcResponse response, MessagePriority priority) {
         ifSessionOk(localGuid, serverGuid, sessionWrapper -> {
-            UnsentRpcResponse unsentRpcResponse = new UnsentRpcResponse(requestGuid, response);
+            UnsentRpcResponse unsentRpcResponse = new UnsentRpcResponse(requestGuid, sync, priority, response);
             if (sync) {
                 sessionWrapper.state.trySendImmediately(unsentRpcResponse);
             } else {
@@ -227,6 +329,7 @@ public class C2SSessionManager implements SessionManager {
             return;
         }
         MessageQueue messageQueue = sessionWrapper.getMessageQueue();
+        shedIfNecessary(messageQueue);
         if (messageQueue.getCacheMessageNum() >= netConfigManager.clientMaxCacheNum()){
             // 缓存过多，删除会话
             removeSession(localGuid, serverGuid, "cached message is too much!");
@@ -244,6 +347,12 @@ public class C2SSessionManager implements SessionManager {
                 // 添加到缓存队列，稍后发送
                 sessionWrapper.state.addToNeedSendQueue(rpcRequest);
             }
+            if (messageQueue.isSpillOverflowed()){
+                // 请求溢出到磁盘失败，删除会话时promise会收到SESSION_CLOSED
+                removeSession(localGuid, serverGuid, "spilled message is too much!");
+                return;
+            }
+            updateWritability(sessionWrapper);
         }
     }
 
@@ -295,6 +404,10 @@ public class C2SSessionManager implements SessionManager {
                 sessionWrapper.getState().closeChannel();
                 sessionWrapper.setState(null);
             }
+            // 释放未重组完成的分片
+            sessionWrapper.getFragmentBuffer().release();
+            // 删除溢出的段文件
+            sessionWrapper.getMessageQueue().release();
             logger.info("remove session by reason of {}, session info={}.", reason, session);
         }
     }
@@ -339,18 +452,21 @@ public class C2SSessionManager implements SessionManager {
 
     /**
      * 如果产生事件的channel可用的话，接下来干什么呢？
+     * 否则事件被丢弃，延迟解码的消息体会被释放。
      * @param then 接下来执行的逻辑
      */
     private <T extends NetEventParam> void ifEventChannelOK(Channel eventChannel, T eventParam, Consumer<C2SSessionState> then){
         SessionWrapper sessionWrapper = getSessionWrapper(eventParam.localGuid(), eventParam.remoteGuid());
         // 非法的channel
         if (sessionWrapper == null){
+            DeferredMessage.releaseBody(eventParam);
             NetUtils.closeQuietly(eventChannel);
             return;
         }
         // 校验收到消息的channel是否合法
         C2SSessionState sessionState = sessionWrapper.getState();
         if (!sessionState.isEventChannelOK(eventChannel)){
+            DeferredMessage.releaseBody(eventParam);
             NetUtils.closeQuietly(eventChannel);
             return;
         }
@@ -418,6 +534,50 @@ public class C2SSessionManager implements SessionManager {
             c2SSessionState.onRcvServerMessage(eventChannel, oneWayMessageEventParam);
         });
     }
+
+    /**
+     * 当收到服务器发来的分片时
+     * @param fragmentEventParam 服务器发来的分片
+     */
+    void onRevServerFragment(FragmentEventParam fragmentEventParam){
+        final Channel eventChannel = fragmentEventParam.channel();
+        ifEventChannelOK(eventChannel, fragmentEventParam, c2SSessionState -> {
+            c2SSessionState.onRcvServerFragment(eventChannel, fragmentEventParam);
+        });
+    }
+
+    /**
+     * 当收到服务器的重传请求时
+     * @param nackEventParam 服务器发来的重传请求
+     */
+    void onRevServerNack(NackEventParam nackEventParam){
+        final Channel eventChannel = nackEventParam.channel();
+        ifEventChannelOK(eventChannel, nackEventParam, c2SSessionState -> {
+            c2SSessionState.onRcvServerNack(eventChannel, nackEventParam);
+        });
+    }
+
+    /**
+     * 当收到服务器单独的确认包时
+     * @param ackEventParam 服务器发来的确认包
+     */
+    void onRevServerAck(AckEventParam ackEventParam){
+        final Channel eventChannel = ackEventParam.channel();
+        ifEventChannelOK(eventChannel, ackEventParam, c2SSessionState -> {
+            c2SSessionState.onRcvServerAck(eventChannel, ackEventParam);
+        });
+    }
+
+    /**
+     * 当收到服务器的不可靠消息时
+     * @param eventParam 服务器发来的不可靠消息
+     */
+    void onRevServerUnreliableMsg(UnreliableMessageEventParam eventParam){
+        final Channel eventChannel = eventParam.channel();
+        ifEventChannelOK(eventChannel, eventParam, c2SSessionState -> {
+            c2SSessionState.onRcvServerUnreliableMessage(eventChannel, eventParam);
+        });
+    }
     // endregion
 
     // ------------------------------------------------状态机------------------------------------------------
@@ -525,6 +685,42 @@ public class C2SSessionManager implements SessionManager {
             throw new IllegalStateException(this.getClass().getSimpleName());
         }
 
+        /**
+         * 当收到服务器发来的分片
+         * @param eventChannel 产生事件的channel
+         * @param fragmentEventParam 服务器发来的分片
+         */
+        protected void onRcvServerFragment(Channel eventChannel, FragmentEventParam fragmentEventParam){
+            throw new IllegalStateException(this.getClass().getSimpleName());
+        }
+
+        /**
+         * 当收到服务器的重传请求
+         * @param eventChannel 产生事件的channel
+         * @param nackEventParam 服务器发来的重传请求
+         */
+        protected void onRcvServerNack(Channel eventChannel, NackEventParam nackEventParam){
+            throw new IllegalStateException(this.getClass().getSimpleName());
+        }
+
+        /**
+         * 当收到服务器单独的确认包
+         * @param eventChannel 产生事件的channel
+         * @param ackEventParam 服务器发来的确认包
+         */
+        protected void onRcvServerAck(Channel eventChannel, AckEventParam ackEventParam){
+            throw new IllegalStateException(this.getClass().getSimpleName());
+        }
+
+        /**
+         * 当收到服务器的不可靠消息
+         * @param eventChannel 产生事件的channel
+         * @param eventParam 服务器发来的不可靠消息
+         */
+        protected void onRcvServerUnreliableMessage(Channel eventChannel, UnreliableMessageEventParam eventParam){
+            throw new IllegalStateException(this.getClass().getSimpleName());
+        }
+
         /**
          * 尝试立即发送一条消息，默认放在缓存队列中等待发送。
          * @param unsentMessage 未发送的消息
@@ -536,9 +732,18 @@ public class C2SSessionManager implements SessionManager {
         /**
          * 添加到待发送队列
          * @param unsentMessage 未发送的消息
+         * @return 溢出到磁盘失败时返回false，此时会话将被删除
          */
-        protected void addToNeedSendQueue(UnsentMessage unsentMessage) {
-            getMessageQueue().getNeedSendQueue().add(unsentMessage);
+        protected boolean addToNeedSendQueue(UnsentMessage unsentMessage) {
+            return getMessageQueue().getNeedSendQueue().add(unsentMessage);
+        }
+
+        /**
+         * 添加一个不可靠消息，默认直接丢弃(未建立连接时发送过时的消息没有意义)
+         * @param message 消息内容
+         */
+        protected void addUnreliable(Object message) {
+
         }
 
     }
@@ -649,6 +854,8 @@ public class C2SSessionManager implements SessionManager {
          */
         final void reconnect(String reason){
             NetUtils.closeQuietly(channel);
+            // 未发送的不可靠消息不会在新的channel上发送
+            getMessageQueue().dropUnreliable();
             changeState(sessionWrapper,new ConnectingState(sessionWrapper));
             logger.info("reconnect by reason of {}",reason);
         }
@@ -710,20 +917,33 @@ public class C2SSessionManager implements SessionManager {
                 removeSession(sessionWrapper.getLocalGuid(), resultParam.getServerGuid(), "server ack is error. ackInfo="+messageQueue.generateAckErrorInfo(resultParam.getAck()));
                 return;
             }
+            // 溢出到磁盘的消息是用之前的编解码器序列化的，新的编解码器不同时无法发送(会丢失消息)
+            if (!messageQueue.isSpillCompatible(resultParam.getCodecHelper())){
+                removeSession(sessionWrapper.getLocalGuid(), resultParam.getServerGuid(), "codecHelper changed, spilledMessageNum=" + messageQueue.getSpilledMessageNum());
+                return;
+            }
             // 更新消息队列
             sessionWrapper.getMessageQueue().updateSentQueue(resultParam.getAck());
             // 保存新的token
             sessionWrapper.setEncryptedToken(resultParam.getEncryptedToken());
+            // 该channel协商的消息分片器
+            sessionWrapper.setFragmenter(resultParam.getFragmenter());
+            // 该channel是否协商启用了连接内重传
+            sessionWrapper.setCapabilities(resultParam.getCapabilities());
+            // 该channel使用的编解码器(用户线程序列化消息时使用)
+            sessionWrapper.getSession().setCodecHelper(resultParam.getCodecHelper());
             changeState(sessionWrapper,new VerifiedState(sessionWrapper,channel));
         }
 
         @Override
         protected void onRcvServerRpcRequest(Channel eventChannel, RpcRequestEventParam rpcRequestEventParam) {
+            DeferredMessage.releaseBody(rpcRequestEventParam);
             reconnect("onRcvServerRpcRequest,but missing token result");
         }
 
         @Override
         protected void onRcvServerRpcResponse(Channel eventChannel, RpcResponseEventParam responseEventParam) {
+            DeferredMessage.releaseBody(responseEventParam);
             reconnect("onRcvServerRpcResponse,but missing token result");
         }
 
@@ -734,9 +954,32 @@ public class C2SSessionManager implements SessionManager {
 
         @Override
         protected void onRcvServerMessage(Channel eventChannel, OneWayMessageEventParam oneWayMessageEventParam) {
+            DeferredMessage.releaseBody(oneWayMessageEventParam);
             reconnect("onRcvServerMessage,but missing token result");
         }
 
+        @Override
+        protected void onRcvServerFragment(Channel eventChannel, FragmentEventParam fragmentEventParam) {
+            DeferredMessage.releaseBody(fragmentEventParam);
+            reconnect("onRcvServerFragment,but missing token result");
+        }
+
+        @Override
+        protected void onRcvServerNack(Channel eventChannel, NackEventParam nackEventParam) {
+            reconnect("onRcvServerNack,but missing token result");
+        }
+
+        @Override
+        protected void onRcvServerAck(Channel eventChannel, AckEventParam ackEventParam) {
+            reconnect("onRcvServerAck,but missing token result");
+        }
+
+        @Override
+        protected void onRcvServerUnreliableMessage(Channel eventChannel, UnreliableMessageEventParam eventParam) {
+            DeferredMessage.releaseBody(eventParam);
+            reconnect("onRcvServerUnreliableMessage,but missing token result");
+        }
+
     }
 
     /**
@@ -752,6 +995,10 @@ public class C2SSessionManager implements SessionManager {
          * 它的重要作用是避免双方缓存队列过大，尤其是降低服务器压力。
          */
         private int lastSendMessageTime;
+        /**
+         * 因确认超时而在当前channel上重传过的队首消息的sequence，同一个消息再次超时则重连
+         */
+        private long timeoutRetransmitSequence = -1;
 
         VerifiedState(SessionWrapper sessionWrapper, Channel channel) {
             super(sessionWrapper,channel);
@@ -787,10 +1034,14 @@ public class C2SSessionManager implements SessionManager {
         private void resend() {
             MessageQueue messageQueue= getMessageQueue();
             if (messageQueue.getSentQueue().size()>0){
-                for (NetMessage message:messageQueue.getSentQueue()){
-                    channel.write(message.build(messageQueue.getAck()));
+                // 重新计算ack超时时间
+                messageQueue.getSentQueue().resetTimeouts(nextAckTimeout());
+                // 已发送的消息sequence连续，可以打包发送
+                List<MessageTO> messageTOList = new ArrayList<>(messageQueue.getSentQueue().size());
+                for (int index = 0; index < messageQueue.getSentQueue().size(); index++){
+                    messageTOList.add(messageQueue.getSentQueue().get(index).build(messageQueue.piggybackAck()));
                 }
-                channel.flush();
+                channel.writeAndFlush(BatchMessageTO.wrapIfNecessary(messageTOList));
             }
         }
 
@@ -799,11 +1050,18 @@ public class C2SSessionManager implements SessionManager {
             MessageQueue messageQueue= getMessageQueue();
             // 检查消息超时
             if (messageQueue.getSentQueue().size()>0){
-                long firstMessageTimeout=messageQueue.getSentQueue().getFirst().getTimeout();
+                long firstMessageTimeout=messageQueue.getSentQueue().getFirstTimeout();
                 // 超时未收到第一条消息的ack
                 if (netTimeManager.getSystemMillTime()>=firstMessageTimeout){
-                    reconnect("first msg of sentQueue timeout.");
-                    return;
+                    long firstSequence = messageQueue.getSentQueue().getFirstSequence();
+                    // 启用了连接内重传时，先在当前channel上重传一次，同一个消息再次超时才重连
+                    if (!sessionWrapper.isRetransmitEnabled() || !channel.isActive() || firstSequence == timeoutRetransmitSequence){
+                        reconnect("first msg of sentQueue timeout.");
+                        return;
+                    }
+                    timeoutRetransmitSequence = firstSequence;
+                    logger.info("first msg of sentQueue timeout, retransmit, sequence={}", firstSequence);
+                    resend();
                 }
             }
 
@@ -818,30 +1076,97 @@ public class C2SSessionManager implements SessionManager {
             if (messageQueue.getNeedSendQueue().size() > 0){
                 flushAllUnsentMessage();
             }
+            // 不可靠消息在可靠消息之后发送
+            flushUnreliableMessage();
+
+            // 没有消息可以捎带ack时，检查是否需要单独确认
+            if (sessionWrapper.isDelayedAckEnabled() && messageQueue.isStandaloneAckNeeded(netTimeManager.getSystemMillTime(),
+                    netConfigManager.delayedAckCount(), netConfigManager.delayedAckTimeout())){
+                writeStandaloneAck();
+                return;
+            }
+            // 接收窗口明显增大时单独通告，避免服务器等待窗口
+            ReceiveWindow receiveWindow = sessionWrapper.getReceiveWindow();
+            if (sessionWrapper.isFlowControlEnabled() && messageQueue.isWindowUpdateNeeded(receiveWindow.available(), receiveWindow.getMaxWindow())){
+                writeStandaloneAck();
+            }
+        }
+
+        /**
+         * 立即发送单独的确认包，它不占用sequence，启用流量控制时携带接收窗口
+         */
+        private void writeStandaloneAck() {
+            MessageQueue messageQueue = getMessageQueue();
+            if (!sessionWrapper.isFlowControlEnabled()) {
+                channel.writeAndFlush(new AckMessageTO(messageQueue.standaloneAck(), messageQueue.getLastSequence()));
+                return;
+            }
+            int window = sessionWrapper.getReceiveWindow().available();
+            messageQueue.onWindowAdvertised(window);
+            channel.writeAndFlush(new AckMessageTO(messageQueue.standaloneAck(), messageQueue.getLastSequence(), window));
+        }
+
+        /**
+         * 发送所有待发送的不可靠消息，链路拥塞(netty的发送缓冲区超过高水位)时直接丢弃
+         */
+        private void flushUnreliableMessage() {
+            MessageQueue messageQueue = getMessageQueue();
+            if (!messageQueue.hasUnreliable()) {
+                return;
+            }
+            if (!channel.isWritable()) {
+                messageQueue.dropUnreliable();
+                return;
+            }
+            while (messageQueue.hasUnreliable()) {
+                channel.write(new UnreliableMessageTO(messageQueue.piggybackAck(), messageQueue.getLastSequence(), messageQueue.pollUnreliable()));
+            }
+            channel.flush();
+            lastSendMessageTime = netTimeManager.getSystemSecTime();
         }
 
         /** 发送所有待发送的消息 */
         private void flushAllUnsentMessage() {
             MessageQueue messageQueue = getMessageQueue();
-            // 发送消息
-            while (messageQueue.getNeedSendQueue().size() > 0){
-                UnsentMessage unsentMessage = messageQueue.getNeedSendQueue().removeFirst();
-                MessageTO messageTO = transferToSentMessage(unsentMessage, messageQueue);
-                channel.write(messageTO);
+            if (messageQueue.getNeedSendQueue().isEmpty()) {
+                return;
             }
-            channel.flush();
+            // 发送消息，分配的sequence连续，打包发送；超出服务器接收窗口(或溢出阈值)的消息留在待发送队列
+            List<MessageTO> messageTOList = new ArrayList<>(messageQueue.getNeedSendQueue().size());
+            while (messageQueue.isNextSendable(sessionWrapper.isFlowControlEnabled())){
+                UnsentMessage unsentMessage = messageQueue.getNeedSendQueue().pollFirst();
+                transferToSentMessage(unsentMessage, messageQueue, messageTOList);
+            }
+            if (messageTOList.isEmpty()) {
+                return;
+            }
+            channel.writeAndFlush(BatchMessageTO.wrapIfNecessary(messageTOList));
             lastSendMessageTime= netTimeManager.getSystemSecTime();
         }
 
+        /**
+         * 将一个消息包转换为已发送状态，过大的消息会被拆分为多个分片，分配连续的sequence
+         * @param messageTOList 用于接收转换后的消息
+         */
+        private void transferToSentMessage(UnsentMessage unsentMessage, MessageQueue messageQueue, List<MessageTO> messageTOList) {
+            MessageFragmenter fragmenter = sessionWrapper.getFragmenter();
+            List<UnsentMessage> fragments = null == fragmenter ? null : fragmenter.fragmentIfNecessary(unsentMessage);
+            if (null == fragments) {
+                messageTOList.add(transferToSentMessage(unsentMessage, messageQueue));
+                return;
+            }
+            for (UnsentMessage fragment : fragments) {
+                messageTOList.add(transferToSentMessage(fragment, messageQueue));
+            }
+        }
+
         /** 将一个消息包转换为已发送状态 */
         private MessageTO transferToSentMessage(UnsentMessage unsentMessage, MessageQueue messageQueue) {
             NetMessage netMessage = unsentMessage.build(messageQueue.nextSequence());
-            // 添加到已发送队列
-            messageQueue.getSentQueue().addLast(netMessage);
-            // 更新ack超时时间
-            netMessage.setTimeout(nextAckTimeout());
+            // 添加到已发送队列，并记录ack超时时间
+            messageQueue.getSentQueue().addLast(netMessage, nextAckTimeout());
             // 获取最新ack
-            return netMessage.build(messageQueue.getAck());
+            return netMessage.build(messageQueue.piggybackAck());
         }
 
         /**
@@ -859,14 +1184,14 @@ public class C2SSessionManager implements SessionManager {
                 return false;
             }
             MessageQueue messageQueue= getMessageQueue();
-            // 有待发送的逻辑包
-            if (messageQueue.getNeedSendQueue().size()>0){
+            // 有可以发送的逻辑包(因服务器的接收窗口而等待的消息不能代替ping包)
+            if (messageQueue.isNextSendable(sessionWrapper.isFlowControlEnabled())){
                 return false;
             }
             // 判断发送的最后一条消息的的等待确认时长是否过去了一半(降低都是无返回的消息时导致的超时概率)
             // 如果每次发的都是无返回的协议也太极限了，我们在游戏中不考虑这种情况,通过重连解决该问题
             if (messageQueue.getSentQueue().size()>0){
-                long ackTimeout=messageQueue.getSentQueue().getLast().getTimeout();
+                long ackTimeout=messageQueue.getSentQueue().getLastTimeout();
                 return ackTimeout - netTimeManager.getSystemMillTime() <= netConfigManager.ackTimeout()/2;
             }
             // 已经有一段时间没有向服务器发送消息了(session超时时间过去1/3)，保活和降低服务器内存压力
@@ -882,14 +1207,24 @@ public class C2SSessionManager implements SessionManager {
             // 大量的lambda表达式可能影响性能，目前先不优化，先注意可维护性。
             RpcRequestMessageTO requestTO = rpcRequestEventParam.messageTO();
             ifSequenceAndAckOk(requestTO, ()-> {
-               ConcurrentUtils.tryCommit(sessionWrapper.getNetContext().localEventLoop(), () -> {
+               final Object request = DeferredMessage.decodeIfNecessary(requestTO.getRequest(), DecodeStage.NET_EVENT_LOOP);
+               final ReceiveWindow receiveWindow = sessionWrapper.getReceiveWindow();
+               receiveWindow.onSubmitted();
+               boolean committed = ConcurrentUtils.tryCommit(sessionWrapper.getNetContext().localEventLoop(), () -> {
                    try {
-                       sessionWrapper.messageHandler.onRpcRequest(session, requestTO.getRequest(),
+                       sessionWrapper.messageHandler.onRpcRequest(session, DeferredMessage.decodeIfNecessary(request, DecodeStage.USER_EVENT_LOOP),
                                new StandardRpcResponseChannel(session, requestTO.isSync(), requestTO.getRequestGuid()));
                    } catch (Exception e){
                        ConcurrentUtils.rethrow(e);
+                   } finally {
+                       receiveWindow.onProcessed();
                    }
                });
+               // 用户线程已关闭，释放未解码的消息体
+               if (!committed) {
+                   receiveWindow.onProcessed();
+                   DeferredMessage.releaseIfDeferred(request);
+               }
             });
         }
 
@@ -900,10 +1235,12 @@ public class C2SSessionManager implements SessionManager {
                 RpcPromiseInfo rpcPromiseInfo = sessionWrapper.rpcPromiseMap.remove(responseMessageTO.getRequestGuid());
                 if (null != rpcPromiseInfo) {
                     // 为甚要try？因为其它地方可能会取消等
-                    rpcPromiseInfo.rpcPromise.trySuccess(responseMessageTO.getRpcResponse());
+                    rpcPromiseInfo.rpcPromise.trySuccess(DeferredMessage.decodeRpcResponse(responseMessageTO.getRpcResponse()));
+                } else {
+                    // 超时了
+                    DeferredMessage.releaseBody(responseMessageTO);
                 }
             });
-            // else 超时了
         }
 
         @Override
@@ -913,58 +1250,172 @@ public class C2SSessionManager implements SessionManager {
             logger.info("rcv ack pong");
         }
 
+        @Override
+        protected void onRcvServerFragment(Channel eventChannel, FragmentEventParam fragmentEventParam) {
+            // 分片在更新消息队列时已缓存，最后一部分到达时重组
+            ifSequenceAndAckOk(fragmentEventParam.messageTO(), ConcurrentUtils.NO_OP_TASK);
+        }
+
         @Override
         protected void onRcvServerMessage(Channel eventChannel, OneWayMessageEventParam oneWayMessageEventParam) {
             OneWayMessageTO oneWayMessageTO = oneWayMessageEventParam.messageTO();
-            ifSequenceAndAckOk(oneWayMessageTO, () -> {
-                // 提交到用户线程
-                ConcurrentUtils.tryCommit(sessionWrapper.getNetContext().localEventLoop(), () -> {
-                    try {
-                        sessionWrapper.messageHandler.onMessage(session, oneWayMessageTO.getMessage());
-                    } catch (Exception e){
-                        ConcurrentUtils.rethrow(e);
-                    }
-                });
+            ifSequenceAndAckOk(oneWayMessageTO, () -> commitMessage(oneWayMessageTO.getMessage()));
+        }
+
+        @Override
+        protected void onRcvServerUnreliableMessage(Channel eventChannel, UnreliableMessageEventParam eventParam) {
+            // 不可靠消息不占用sequence，不检查sequence是否连续，只检查捎带的ack
+            UnreliableMessageTO messageTO = eventParam.messageTO();
+            ifAckOk(messageTO, () -> commitMessage(messageTO.getMessage()));
+        }
+
+        /**
+         * 将服务器发来的单向消息提交给用户线程处理
+         * @param message 消息内容(可能需要延迟解码)
+         */
+        private void commitMessage(Object message) {
+            final Object decodedMessage = DeferredMessage.decodeIfNecessary(message, DecodeStage.NET_EVENT_LOOP);
+            final ReceiveWindow receiveWindow = sessionWrapper.getReceiveWindow();
+            receiveWindow.onSubmitted();
+            // 提交到用户线程
+            boolean committed = ConcurrentUtils.tryCommit(sessionWrapper.getNetContext().localEventLoop(), () -> {
+                try {
+                    sessionWrapper.messageHandler.onMessage(session, DeferredMessage.decodeIfNecessary(decodedMessage, DecodeStage.USER_EVENT_LOOP));
+                } catch (Exception e){
+                    ConcurrentUtils.rethrow(e);
+                } finally {
+                    receiveWindow.onProcessed();
+                }
+            });
+            // 用户线程已关闭，释放未解码的消息体
+            if (!committed) {
+                receiveWindow.onProcessed();
+                DeferredMessage.releaseIfDeferred(decodedMessage);
+            }
+        }
+
+        @Override
+        protected void onRcvServerNack(Channel eventChannel, NackEventParam nackEventParam) {
+            ifAckOk(nackEventParam.messageTO(), () -> {
+                long ack = nackEventParam.getAck();
+                if (getMessageQueue().tryRetransmit(ack, netTimeManager.getSystemMillTime(), netConfigManager.retransmitInterval())){
+                    logger.info("server request retransmit, ack={}, sequence={}", ack, nackEventParam.getSequence());
+                    resend();
+                }
+            });
+        }
+
+        @Override
+        protected void onRcvServerAck(Channel eventChannel, AckEventParam ackEventParam) {
+            // 启用延迟确认时，服务器以确认包代替ack-pong
+            hasPingMessage = false;
+            ifAckOk(ackEventParam.messageTO(), () -> {
+                // 服务器通告的接收窗口，待发送的消息在下一帧发送
+                if (sessionWrapper.isFlowControlEnabled() && ackEventParam.getWindow() != AckMessageTO.NO_WINDOW){
+                    getMessageQueue().updateRemoteWindow(ackEventParam.getAck(), ackEventParam.getWindow());
+                }
             });
         }
 
+        /**
+         * 用不占用sequence的包(重传请求、确认包、不可靠消息)捎带的ack更新已发送队列，不检查sequence。
+         * 当ack正确时执行指定逻辑，否则尝试重连矫正，延迟解码的消息体会被释放。
+         * @param messageTO 服务器发来的包
+         */
+        private void ifAckOk(MessageTO messageTO, Runnable then){
+            MessageQueue messageQueue = getMessageQueue();
+            // 服务器ack不对，尝试矫正
+            if (!messageQueue.isAckOK(messageTO.getAck())){
+                DeferredMessage.releaseBody(messageTO);
+                reconnect("server ack error,ackInfo="+messageQueue.generateAckErrorInfo(messageTO.getAck()));
+                return;
+            }
+            messageQueue.updateSentQueue(messageTO.getAck());
+            then.run();
+        }
+
         /**
          * 如果消息的ack和sequence正常的话，接下来做什么呢？
          * 当服务器发来的消息是期望的下一个消息，且ack正确时执行指定逻辑。
+         * 否则消息被丢弃，延迟解码的消息体会被释放。
          * @param messageTO 服务器发来的消息(pong包或业务逻辑包)
          */
         final void ifSequenceAndAckOk(MessageTO messageTO, Runnable then){
             MessageQueue messageQueue = getMessageQueue();
             // 不是期望的下一个消息,请求重传
             if (messageTO.getSequence() != messageQueue.getAck()+1){
+                DeferredMessage.releaseBody(messageTO);
+                if (sessionWrapper.isRetransmitEnabled()){
+                    // 重复的消息(重传导致)直接丢弃；中间有消息丢失时，请求服务器从ack之后开始重传，不需要重连
+                    if (messageTO.getSequence() > messageQueue.getAck()+1
+                            && messageQueue.tryNack(netTimeManager.getSystemMillTime(), netConfigManager.retransmitInterval())){
+                        channel.writeAndFlush(new NackMessageTO(messageQueue.getAck(), messageTO.getSequence()));
+                    }
+                    return;
+                }
                 reconnect("serverSequence != ack()+1, serverSequence=" + messageTO.getSequence() + ", ack="+messageQueue.getAck());
                 return;
             }
             // 服务器ack不对，尝试矫正
             if (!messageQueue.isAckOK(messageTO.getAck())){
+                DeferredMessage.releaseBody(messageTO);
                 reconnect("server ack error,ackInfo="+messageQueue.generateAckErrorInfo(messageTO.getAck()));
                 return;
             }
             messageQueue.setAck(messageTO.getSequence());
+            messageQueue.markAckPending(netTimeManager.getSystemMillTime());
             messageQueue.updateSentQueue(messageTO.getAck());
+            // 缓存分片，或者重组分片消息
+            if (!sessionWrapper.getFragmentBuffer().accept(messageTO)) {
+                removeSession(sessionWrapper.getLocalGuid(), session.getServerGuid(), "fragment reassembly failed");
+                return;
+            }
             then.run();
         }
 
         @Override
         protected void trySendImmediately(UnsentMessage unsentMessage) {
+            // 超出服务器的接收窗口(包括控制消息额外允许的部分)，放入待发送队列等待窗口
+            if (!getMessageQueue().isSendable(unsentMessage.priority(), sessionWrapper.isFlowControlEnabled())) {
+                getMessageQueue().getNeedSendQueue().add(unsentMessage);
+                return;
+            }
             // 当前状态下可发送消息
-            MessageTO messageTO = transferToSentMessage(unsentMessage, getMessageQueue());
-            // 立即发送
-            channel.writeAndFlush(messageTO);
+            if (null == sessionWrapper.getFragmenter()) {
+                MessageTO messageTO = transferToSentMessage(unsentMessage, getMessageQueue());
+                // 立即发送
+                channel.writeAndFlush(messageTO);
+                return;
+            }
+            List<MessageTO> messageTOList = new ArrayList<>(1);
+            transferToSentMessage(unsentMessage, getMessageQueue(), messageTOList);
+            channel.writeAndFlush(BatchMessageTO.wrapIfNecessary(messageTOList));
         }
 
         @Override
-        protected void addToNeedSendQueue(UnsentMessage unsentMessage) {
-            super.addToNeedSendQueue(unsentMessage);
+        protected boolean addToNeedSendQueue(UnsentMessage unsentMessage) {
+            if (!super.addToNeedSendQueue(unsentMessage)) {
+                // 溢出到磁盘失败，会话将被删除，不能再发送之后的消息
+                return false;
+            }
             // 缓存消息数超过阈值，立即尝试发送
             if (getMessageQueue().getNeedSendQueue().size() >= netConfigManager.flushThreshold()) {
                 flushAllUnsentMessage();
             }
+            return true;
+        }
+
+        @Override
+        protected void addUnreliable(Object message) {
+            if (!sessionWrapper.isUnreliableEnabled()) {
+                // 服务器不支持，退化为可靠的单向消息
+                addToNeedSendQueue(new UnsentOneWayMessage(message));
+                return;
+            }
+            getMessageQueue().addUnreliable(message, netConfigManager.maxUnreliableCacheNum());
+            if (getMessageQueue().getUnreliableNum() >= netConfigManager.flushThreshold()) {
+                flushUnreliableMessage();
+            }
         }
     }
 
@@ -1018,7 +1469,7 @@ public class C2SSessionManager implements SessionManager {
         /**
          * 客户端是消息队列
          */
-        private final MessageQueue messageQueue = new MessageQueue();
+        private final MessageQueue messageQueue;
         /**
          * 发送token次数
          */
@@ -1046,15 +1497,35 @@ public class C2SSessionManager implements SessionManager {
          */
         private final Long2ObjectMap<RpcPromiseInfo> rpcPromiseMap = new Long2ObjectOpenHashMap<>();
 
+        /**
+         * 当前channel协商的消息分片器，未启用分片时为null
+         */
+        private MessageFragmenter fragmenter;
+        /**
+         * 当前channel协商的扩展能力{@link NetCapabilities}
+         */
+        private int capabilities;
+        /**
+         * 分片重组缓冲区
+         */
+        private final FragmentBuffer fragmentBuffer;
+        /**
+         * 接收窗口(流量控制)
+         */
+        private final ReceiveWindow receiveWindow;
+
         SessionWrapper(UserInfo userInfo, ChannelInitializerSupplier initializerSupplier,
                        SessionLifecycleAware<C2SSession> lifecycleAware, MessageHandler messageHandler,
-                       C2SSession session, byte[] encryptedToken) {
+                       C2SSession session, byte[] encryptedToken, int maxReassemblyBytes, int receiveWindow) {
             this.userInfo = userInfo;
             this.initializerSupplier = initializerSupplier;
             this.lifecycleAware = lifecycleAware;
             this.messageHandler = messageHandler;
             this.session = session;
+            this.messageQueue = new MessageQueue(session.ackStatistics());
             this.encryptedToken = encryptedToken;
+            this.fragmentBuffer = new FragmentBuffer(maxReassemblyBytes);
+            this.receiveWindow = new ReceiveWindow(receiveWindow);
         }
 
         public C2SSession getSession() {
@@ -1112,6 +1583,54 @@ public class C2SSessionManager implements SessionManager {
         NetContext getNetContext() {
             return userInfo.netContext;
         }
+
+        MessageFragmenter getFragmenter() {
+            return fragmenter;
+        }
+
+        void setFragmenter(MessageFragmenter fragmenter) {
+            this.fragmenter = fragmenter;
+        }
+
+        /**
+         * 当前channel是否协商启用了连接内重传
+         */
+        boolean isRetransmitEnabled() {
+            return NetCapabilities.isEnabled(capabilities, NetCapabilities.RETRANSMIT);
+        }
+
+        /**
+         * 当前channel是否协商启用了延迟确认
+         */
+        boolean isDelayedAckEnabled() {
+            return NetCapabilities.isEnabled(capabilities, NetCapabilities.DELAYED_ACK);
+        }
+
+        /**
+         * 当前channel是否协商启用了流量控制
+         */
+        boolean isFlowControlEnabled() {
+            return NetCapabilities.isEnabled(capabilities, NetCapabilities.FLOW_CONTROL);
+        }
+
+        /**
+         * 当前channel是否协商启用了不可靠消息
+         */
+        boolean isUnreliableEnabled() {
+            return NetCapabilities.isEnabled(capabilities, NetCapabilities.UNRELIABLE);
+        }
+
+        ReceiveWindow getReceiveWindow() {
+            return receiveWindow;
+        }
+
+        void setCapabilities(int capabilities) {
+            this.capabilities = capabilities;
+        }
+
+        FragmentBuffer getFragmentBuffer() {
+            return fragmentBuffer;
+        }
     }
 
 }
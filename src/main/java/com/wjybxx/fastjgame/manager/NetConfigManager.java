@@ -21,6 +21,7 @@ import com.wjybxx.fastjgame.configwrapper.ConfigWrapper;
 import com.wjybxx.fastjgame.utils.ConfigLoader;
 
 import javax.annotation.concurrent.ThreadSafe;
+import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 
@@ -61,11 +62,30 @@ public class NetConfigManager  {
     private final int waitTokenResultTimeout;
     private final int loginTokenTimeout;
     private final int ackTimeout;
+    private final int retransmitInterval;
+    private final int delayedAckCount;
+    private final int delayedAckTimeout;
     private final int sessionTimeout;
 
     private final int serverMaxCacheNum;
     private final int clientMaxCacheNum;
     private final int flushThreshold;
+    private final int maxUnreliableCacheNum;
+    private final int cacheHighWaterMarkPercent;
+    private final int cacheLowWaterMarkPercent;
+    private final int receiveWindow;
+
+    private final int compressThreshold;
+    private final int streamCompressThreshold;
+    private final int maxUncompressedFrameLength;
+    private final int maxReassemblyBytes;
+    private final boolean serializeOnUserThread;
+
+    private final boolean messageSpillEnabled;
+    private final String messageSpillDir;
+    private final int messageSpillThreshold;
+    private final int messageSpillSegmentSize;
+    private final int messageSpillMaxSegments;
 
     private final int httpRequestTimeout;
     private final int httpSessionTimeout;
@@ -92,12 +112,31 @@ public class NetConfigManager  {
         serverMaxCacheNum = configWrapper.getAsInt("serverMaxCacheNum");
         clientMaxCacheNum = configWrapper.getAsInt("clientMaxCacheNum");
         flushThreshold = configWrapper.getAsInt("flushThreshold", 20);
+        maxUnreliableCacheNum = configWrapper.getAsInt("maxUnreliableCacheNum", 64);
+        cacheHighWaterMarkPercent = configWrapper.getAsInt("cacheHighWaterMarkPercent", 75);
+        cacheLowWaterMarkPercent = configWrapper.getAsInt("cacheLowWaterMarkPercent", 50);
+        receiveWindow = configWrapper.getAsInt("receiveWindow", 128);
+
+        compressThreshold = configWrapper.getAsInt("compressThreshold", 512);
+        streamCompressThreshold = configWrapper.getAsInt("streamCompressThreshold", 64);
+        maxUncompressedFrameLength = configWrapper.getAsInt("maxUncompressedFrameLength", 65536);
+        maxReassemblyBytes = configWrapper.getAsInt("maxReassemblyBytes", 1048576);
+        serializeOnUserThread = configWrapper.getAsBool("serializeOnUserThread", false);
+
+        messageSpillEnabled = configWrapper.getAsBool("messageSpillEnabled", false);
+        messageSpillDir = configWrapper.getAsString("messageSpillDir", "");
+        messageSpillThreshold = configWrapper.getAsInt("messageSpillThreshold", 100);
+        messageSpillSegmentSize = configWrapper.getAsInt("messageSpillSegmentSize", 4 * 1024 * 1024);
+        messageSpillMaxSegments = configWrapper.getAsInt("messageSpillMaxSegments", 64);
 
         connectMaxTryTimes = configWrapper.getAsInt("connectMaxTryTimes");
         connectTimeout = configWrapper.getAsInt("connectTimeout");
         waitTokenResultTimeout = configWrapper.getAsInt("waitTokenResultTimeout");
         loginTokenTimeout = configWrapper.getAsInt("loginTokenTimeout");
         ackTimeout = configWrapper.getAsInt("ackTimeout");
+        retransmitInterval = configWrapper.getAsInt("retransmitInterval", 1000);
+        delayedAckCount = configWrapper.getAsInt("delayedAckCount", 8);
+        delayedAckTimeout = configWrapper.getAsInt("delayedAckTimeout", 200);
         sessionTimeout = configWrapper.getAsInt("sessionTimeout");
 
 
@@ -179,6 +218,41 @@ public class NetConfigManager  {
         return clientMaxCacheNum;
     }
 
+    /**
+     * 服务器的会话缓存消息数达到该值时变为不可写
+     */
+    public int serverCacheHighWaterMark(){
+        return serverMaxCacheNum * cacheHighWaterMarkPercent / 100;
+    }
+
+    /**
+     * 服务器的会话缓存消息数降到该值时恢复可写
+     */
+    public int serverCacheLowWaterMark(){
+        return serverMaxCacheNum * cacheLowWaterMarkPercent / 100;
+    }
+
+    /**
+     * 客户端的会话缓存消息数达到该值时变为不可写
+     */
+    public int clientCacheHighWaterMark(){
+        return clientMaxCacheNum * cacheHighWaterMarkPercent / 100;
+    }
+
+    /**
+     * 客户端的会话缓存消息数降到该值时恢复可写
+     */
+    public int clientCacheLowWaterMark(){
+        return clientMaxCacheNum * cacheLowWaterMarkPercent / 100;
+    }
+
+    /**
+     * 协商启用流量控制时，会话的最大接收窗口(已提交给用户线程但还未处理的消息数上限)
+     */
+    public int receiveWindow(){
+        return receiveWindow;
+    }
+
     /**
      * 异步通信会话超时时间(秒)
      */
@@ -221,6 +295,27 @@ public class NetConfigManager  {
         return ackTimeout;
     }
 
+    /**
+     * 协商启用重传时，针对同一个ack的重传请求(以及重传)的最小间隔(毫秒)
+     */
+    public long retransmitInterval() {
+        return retransmitInterval;
+    }
+
+    /**
+     * 协商启用延迟确认时，未确认的消息数达到该值时发送单独的确认包
+     */
+    public int delayedAckCount() {
+        return delayedAckCount;
+    }
+
+    /**
+     * 协商启用延迟确认时，第一个未确认的消息等待该时长(毫秒)之后发送单独的确认包
+     */
+    public long delayedAckTimeout() {
+        return delayedAckTimeout;
+    }
+
     /**
      * okHttpClient请求超时时间(秒)
      */
@@ -255,4 +350,62 @@ public class NetConfigManager  {
     public int flushThreshold() {
         return flushThreshold;
     }
+
+    /** 协商启用不可靠消息时，等待发送的不可靠消息数上限，超过时丢弃最旧的消息 */
+    public int maxUnreliableCacheNum() {
+        return maxUnreliableCacheNum;
+    }
+
+    /** 协商启用逐包压缩时，包内容达到该字节数才压缩 */
+    public int compressThreshold() {
+        return compressThreshold;
+    }
+
+    /** 协商启用流式压缩时，包内容达到该字节数才压缩 */
+    public int streamCompressThreshold() {
+        return streamCompressThreshold;
+    }
+
+    /** 压缩包解压后允许的最大长度，避免恶意的压缩包 */
+    public int maxUncompressedFrameLength() {
+        return maxUncompressedFrameLength;
+    }
+
+    /** 每个会话重组分片消息时缓存的最大字节数，超过则关闭会话 */
+    public int maxReassemblyBytes() {
+        return maxReassemblyBytes;
+    }
+
+    /** 是否在发送消息的用户线程序列化消息，网络层只处理序列化之后的字节 */
+    public boolean serializeOnUserThread() {
+        return serializeOnUserThread;
+    }
+
+    /** 服务器之间的会话是否启用待发送消息溢出到磁盘 */
+    public boolean messageSpillEnabled() {
+        return messageSpillEnabled;
+    }
+
+    /** 溢出的段文件所在目录，未配置时使用系统临时目录下的fastjgame-spill */
+    public File messageSpillDir() {
+        if (messageSpillDir.trim().isEmpty()) {
+            return new File(System.getProperty("java.io.tmpdir"), "fastjgame-spill");
+        }
+        return new File(messageSpillDir.trim());
+    }
+
+    /** 内存中的待发送消息数达到该值时开始溢出，已发送未确认的消息数也不超过该值 */
+    public int messageSpillThreshold() {
+        return messageSpillThreshold;
+    }
+
+    /** 溢出的段文件大小(字节) */
+    public int messageSpillSegmentSize() {
+        return messageSpillSegmentSize;
+    }
+
+    /** 每个会话的段文件数量上限，超过时删除会话 */
+    public int messageSpillMaxSegments() {
+        return messageSpillMaxSegments;
+    }
 }
@@ -23,6 +23,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.concurrent.ThreadSafe;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * 网络事件管理器。
@@ -58,9 +60,39 @@ public class NetEventManager {
 	 */
 	public void publishEvent(NetEventType netEventType, NetEventParam eventParam){
 		// 一定不在NetEventLoop中，提交的netEventLoop线程
-		netEventLoopManager.eventLoop().execute(() -> {
-			onNetEvent(netEventType, eventParam);
-		});
+		try {
+			netEventLoopManager.eventLoop().execute(() -> {
+				onNetEvent(netEventType, eventParam);
+			});
+		} catch (RejectedExecutionException e) {
+			// NetEventLoop已关闭，事件被丢弃
+			DeferredMessage.releaseBody(eventParam);
+		}
+	}
+
+	/**
+	 * 按顺序发布一批网络事件，只提交一个任务到NetEventLoop。
+	 * (同一次读循环中解码出的事件)
+	 * @param netEventTypes 事件类型
+	 * @param eventParams 事件参数，与事件类型一一对应。调用之后不可以再修改。
+	 */
+	public void publishEvents(List<NetEventType> netEventTypes, List<NetEventParam> eventParams){
+		// 一定不在NetEventLoop中，提交的netEventLoop线程
+		try {
+			netEventLoopManager.eventLoop().execute(() -> {
+				for (int index = 0, size = netEventTypes.size(); index < size; index++) {
+					try {
+						onNetEvent(netEventTypes.get(index), eventParams.get(index));
+					} catch (Exception e) {
+						// 不影响后续的事件
+						logger.warn("onNetEvent {} caught exception", netEventTypes.get(index), e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// NetEventLoop已关闭，事件被丢弃
+			eventParams.forEach(DeferredMessage::releaseBody);
+		}
 	}
 
 	/**
@@ -108,6 +140,34 @@ public class NetEventManager {
 				c2SSessionManager.onRevServerOneWayMsg((OneWayMessageEventParam) eventParam);
 				break;
 
+			// 连接双方的分片
+			case C2S_FRAGMENT:
+				s2CSessionManager.onRcvClientFragment((FragmentEventParam) eventParam);
+				break;
+			case S2C_FRAGMENT:
+				c2SSessionManager.onRevServerFragment((FragmentEventParam) eventParam);
+				break;
+
+			// 连接双方的重传请求
+			case C2S_NACK:
+				s2CSessionManager.onRcvClientNack((NackEventParam) eventParam);
+				break;
+			case S2C_NACK:
+				c2SSessionManager.onRevServerNack((NackEventParam) eventParam);
+				break;
+			case C2S_ACK:
+				s2CSessionManager.onRcvClientAck((AckEventParam) eventParam);
+				break;
+			case S2C_ACK:
+				c2SSessionManager.onRevServerAck((AckEventParam) eventParam);
+				break;
+			case C2S_UNRELIABLE_MESSAGE:
+				s2CSessionManager.onRcvClientUnreliableMsg((UnreliableMessageEventParam) eventParam);
+				break;
+			case S2C_UNRELIABLE_MESSAGE:
+				c2SSessionManager.onRevServerUnreliableMsg((UnreliableMessageEventParam) eventParam);
+				break;
+
 			// http request
 			case HTTP_REQUEST:
 				httpSessionManager.onRcvHttpRequest((HttpRequestEventParam) eventParam);
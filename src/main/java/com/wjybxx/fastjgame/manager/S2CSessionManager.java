@@ -38,6 +38,8 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.net.BindException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
 
 /**
@@ -105,12 +107,26 @@ public class S2CSessionManager implements SessionManager {
             for (SessionWrapper sessionWrapper: userInfo.sessionWrapperMap.values()){
                 // 检查清空缓冲区
                 sessionWrapper.checkFlush();
+                // 没有消息可以捎带ack时，检查是否需要单独确认(或者通告接收窗口)
+                sessionWrapper.checkDelayedAck(netTimeManager.getSystemMillTime(),
+                        netConfigManager.delayedAckCount(), netConfigManager.delayedAckTimeout());
+                // 更新可写状态
+                updateWritability(sessionWrapper);
+                // 通知用户这一帧丢弃的低优先级消息
+                sessionWrapper.reportShedMessages();
+                // 空闲之后缩小消息队列
+                sessionWrapper.getMessageQueue().trimIfNecessary(netTimeManager.getSystemMillTime());
 
                 // 检测超时的rpc调用
                 FastCollectionsUtils.removeIfAndThen(sessionWrapper.getRpcPromiseMap(),
                         (long k, RpcPromiseInfo rpcPromiseInfo) -> netTimeManager.getSystemMillTime() >= rpcPromiseInfo.timeoutMs,
                         (long k, RpcPromiseInfo rpcPromiseInfo) -> rpcPromiseInfo.rpcPromise.trySuccess(RpcResponse.TIMEOUT));
             }
+            // 兜底检查：消息溢出到磁盘失败的会话必须删除，不能跳过丢失的消息继续发送
+            FastCollectionsUtils.removeIfAndThen(userInfo.sessionWrapperMap,
+                    (k, sessionWrapper) -> sessionWrapper.getMessageQueue().isSpillOverflowed(),
+                    (k, sessionWrapper) -> afterRemoved(sessionWrapper, "spilled message is too much! spilledMessageNum="
+                            + sessionWrapper.getMessageQueue().getSpilledMessageNum()));
         }
     }
 
@@ -164,27 +180,82 @@ public class S2CSessionManager implements SessionManager {
             logger.warn("client {} is removed, but try send message.",clientGuid);
             return;
         }
+        shedIfNecessary(sessionWrapper);
         if (sessionWrapper.getCacheMessageNum() >= netConfigManager.serverMaxCacheNum()){
             removeSession(localGuid, clientGuid,"cacheMessageNum is too much! cacheMessageNum="+sessionWrapper.getCacheMessageNum());
         }else {
             then.accept(sessionWrapper);
+            if (sessionWrapper.getMessageQueue().isSpillOverflowed()){
+                // 消息溢出到磁盘失败(未进入队列)，立即删除会话，不能跳过该消息继续发送之后的消息
+                removeSession(localGuid, clientGuid,"spilled message is too much! spilledMessageNum="+sessionWrapper.getMessageQueue().getSpilledMessageNum());
+                return;
+            }
+            updateWritability(sessionWrapper);
+        }
+    }
+
+    /**
+     * 缓存达到上限时，先丢弃可丢弃的低优先级消息，仍然超过上限才删除会话
+     */
+    private void shedIfNecessary(SessionWrapper sessionWrapper) {
+        if (sessionWrapper.getCacheMessageNum() >= netConfigManager.serverMaxCacheNum()) {
+            sessionWrapper.getMessageQueue().shedMessages();
         }
     }
 
+    /**
+     * 更新会话的可写状态，在达到缓存上限之前通知用户减少发送
+     */
+    private void updateWritability(SessionWrapper sessionWrapper) {
+        sessionWrapper.updateWritability(netConfigManager.serverCacheHighWaterMark(), netConfigManager.serverCacheLowWaterMark());
+    }
+
     /**
      * 发送一条单向消息
      * @param localGuid from
      * @param clientGuid to
      * @param message 消息内容
+     * @param priority 消息的优先级
+     */
+    @Override
+    public void send(long localGuid, long clientGuid, @Nonnull Object message, MessagePriority priority){
+        ifSessionOk(localGuid, clientGuid, sessionWrapper -> {
+            // 会话不可写时，可丢弃的消息不再进入缓存
+            if (priority.isSheddable() && !sessionWrapper.getSession().isWritable()) {
+                sessionWrapper.getMessageQueue().onMessageShed(1);
+                return;
+            }
+            sessionWrapper.write(new UnsentOneWayMessage(message, priority));
+        });
+    }
+
+    /**
+     * 发送一条不可靠的单向消息
+     * @param localGuid from
+     * @param clientGuid to
+     * @param message 消息内容
      */
     @Override
-    public void send(long localGuid, long clientGuid, @Nonnull Object message){
+    public void sendUnreliable(long localGuid, long clientGuid, @Nonnull Object message) {
         ifSessionOk(localGuid, clientGuid, sessionWrapper -> {
-            sessionWrapper.write(new UnsentOneWayMessage(message));
+            sessionWrapper.writeUnreliable(message, netConfigManager.maxUnreliableCacheNum());
         });
     }
 
 
+    /**
+     * 广播一条单向消息，消息体只编码一次，所有会话共享编码结果(重传时也使用该结果)。
+     * @param localGuid from
+     * @param clientGuids to
+     * @param sharedMessage 共享的消息
+     * @param priority 消息的优先级
+     */
+    public void broadcast(long localGuid, long[] clientGuids, @Nonnull SharedMessage sharedMessage, MessagePriority priority) {
+        for (long clientGuid : clientGuids) {
+            send(localGuid, clientGuid, sharedMessage, priority);
+        }
+    }
+
     /**
      * 发送rpc响应
      * @param localGuid 我的id
@@ -192,11 +263,12 @@ public class S2CSessionManager implements SessionManager {
      * @param sync 是否是同步rpc调用（目前服务器的监听方还未做缓存，后期可能会用上）
      * @param requestGuid 请求对应的编号
      * @param response 响应结果
+     * @param priority 异步rpc调用的结果的优先级
      */
     @Override
-    public void sendRpcResponse(long localGuid, long clientGuid, boolean sync, long requestGuid, @Nonnull RpcResponse response) {
+    public void sendRpcResponse(long localGuid, long clientGuid, boolean sync, long requestGuid, @Nonnull RpcResponse response, MessagePriority priority) {
         ifSessionOk(localGuid, clientGuid, sessionWrapper -> {
-            UnsentRpcResponse unsentRpcResponse = new UnsentRpcResponse(requestGuid, response);
+            UnsentRpcResponse unsentRpcResponse = new UnsentRpcResponse(requestGuid, sync, priority, response);
             if (sync) {
                 // 远程发来的同步rpc调用，立即返回
                 sessionWrapper.writeAndFlush(unsentRpcResponse);
@@ -224,6 +296,7 @@ public class S2CSessionManager implements SessionManager {
             responsePromise.trySuccess(RpcResponse.SESSION_CLOSED);
             return;
         }
+        shedIfNecessary(sessionWrapper);
         if (sessionWrapper.getCacheMessageNum() >= netConfigManager.serverMaxCacheNum()){
             removeSession(localGuid, clientGuid,"cached message is too much! cacheMessageNum="+sessionWrapper.getCacheMessageNum());
             responsePromise.trySuccess(RpcResponse.SESSION_CLOSED);
@@ -240,6 +313,12 @@ public class S2CSessionManager implements SessionManager {
                 // 添加到缓存队列，稍后发送
                 sessionWrapper.write(rpcRequest);
             }
+            if (sessionWrapper.getMessageQueue().isSpillOverflowed()){
+                // 请求溢出到磁盘失败，删除会话时promise会收到SESSION_CLOSED
+                removeSession(localGuid, clientGuid,"spilled message is too much! spilledMessageNum="+sessionWrapper.getMessageQueue().getSpilledMessageNum());
+                return;
+            }
+            updateWritability(sessionWrapper);
         }
     }
 
@@ -280,6 +359,11 @@ public class S2CSessionManager implements SessionManager {
         
         notifyClientExit(sessionWrapper.getChannel(),sessionWrapper);
 
+        // 释放未重组完成的分片
+        sessionWrapper.fragmentBuffer.release();
+        // 删除溢出的段文件
+        sessionWrapper.getMessageQueue().release();
+
         logger.info("remove session by reason of {}, session info={}.",reason, session);
 
         // 尝试提交到用户线程
@@ -466,13 +550,17 @@ public class S2CSessionManager implements SessionManager {
         UserInfo userInfo = userInfoMap.get(requestParam.localGuid());
         S2CSession session = new S2CSession(userInfo.netContext, userInfo.bindResult.getHostAndPort(), managerWrapper,
                 requestParam.getClientGuid(), clientToken.getClientRoleType());
+        session.setCodecHelper(requestParam.getCodecHelper());
 
-        SessionWrapper sessionWrapper = new SessionWrapper(userInfo, session, netConfigManager.flushThreshold());
+        SessionWrapper sessionWrapper = new SessionWrapper(userInfo, session, netConfigManager.flushThreshold(),
+                netConfigManager.maxReassemblyBytes(), netConfigManager.receiveWindow());
+        enableSpillIfNecessary(session, sessionWrapper.getMessageQueue());
         userInfo.sessionWrapperMap.put(requestParam.getClientGuid(),sessionWrapper);
 
         // 分配新的token并进入等待状态
         Token nextToken= tokenManager.newLoginSuccessToken(clientToken);
-        sessionWrapper.changeToWaitState(channel, requestParam.getSndTokenTimes(), clientToken, nextToken, nextSessionTimeout());
+        sessionWrapper.changeToWaitState(channel, requestParam.getFragmenter(), requestParam.getCapabilities(),
+                requestParam.getSndTokenTimes(), clientToken, nextToken, nextSessionTimeout());
 
         notifyTokenCheckSuccess(channel, requestParam, MessageQueue.INIT_ACK,nextToken);
         logger.info("client login success, sessionInfo={}",session);
@@ -484,6 +572,19 @@ public class S2CSessionManager implements SessionManager {
         return true;
     }
 
+    /**
+     * 服务器之间的会话启用待发送消息溢出到磁盘(玩家会话数量太多，不启用)
+     */
+    private void enableSpillIfNecessary(S2CSession session, MessageQueue messageQueue) {
+        if (!netConfigManager.messageSpillEnabled() || session.remoteRole() == RoleType.PLAYER) {
+            return;
+        }
+        SpilledMessageQueue spilledQueue = new SpilledMessageQueue(netConfigManager.messageSpillDir(),
+                session.localGuid() + "-" + session.remoteGuid(), netConfigManager.messageSpillSegmentSize(),
+                netConfigManager.messageSpillMaxSegments(), session::getCodecHelper);
+        messageQueue.getNeedSendQueue().enableSpill(spilledQueue, netConfigManager.messageSpillThreshold());
+    }
+
     private int nextSessionTimeout() {
         return netTimeManager.getSystemSecTime()+ netConfigManager.sessionTimeout();
     }
@@ -508,6 +609,12 @@ public class S2CSessionManager implements SessionManager {
             notifyTokenCheckFailed(channel, requestParam, FailReason.ACK);
             return false;
         }
+        // 溢出到磁盘的消息是用之前的编解码器序列化的，新的编解码器不同时无法发送(会丢失消息)，只能删除会话
+        if (!messageQueue.isSpillCompatible(requestParam.getCodecHelper())){
+            notifyTokenCheckFailed(channel, requestParam, FailReason.CODEC_CHANGED);
+            removeSession(requestParam.localGuid(), requestParam.getClientGuid(), "codecHelper changed, spilledMessageNum=" + messageQueue.getSpilledMessageNum());
+            return false;
+        }
         // ---- 这里验证成功 ack 和 token都验证通过
         // 禁用验证成功的token之前的token
         forbiddenTokenHelper.forbiddenPreToken(clientToken);
@@ -520,20 +627,19 @@ public class S2CSessionManager implements SessionManager {
         // 更新消息队列
         messageQueue.updateSentQueue(requestParam.getAck());
 
+        // 新channel使用的编解码器
+        sessionWrapper.getSession().setCodecHelper(requestParam.getCodecHelper());
+
         // 分配新的token并进入等待状态
         Token nextToken= tokenManager.nextToken(clientToken);
-        sessionWrapper.changeToWaitState(channel, requestParam.getSndTokenTimes(), clientToken, nextToken, nextSessionTimeout());
+        sessionWrapper.changeToWaitState(channel, requestParam.getFragmenter(), requestParam.getCapabilities(),
+                requestParam.getSndTokenTimes(), clientToken, nextToken, nextSessionTimeout());
 
         notifyTokenCheckSuccess(channel, requestParam, messageQueue.getAck(), nextToken);
         logger.info("client reconnect success, sessionInfo={}",sessionWrapper.getSession());
 
         // 重发已发送未确认的消息
-        if (messageQueue.getSentQueue().size()>0){
-            for (NetMessage message:messageQueue.getSentQueue()){
-                sessionWrapper.getChannel().write(message.build(messageQueue.getAck()));
-            }
-            sessionWrapper.getChannel().flush();
-        }
+        sessionWrapper.resendSentMessages();
         return true;
     }
 
@@ -595,51 +701,106 @@ public class S2CSessionManager implements SessionManager {
     void onRcvClientAckPing(AckPingPongEventParam ackPingParam){
         final Channel eventChannel = ackPingParam.channel();
         tryUpdateMessageQueue(eventChannel,ackPingParam,sessionWrapper -> {
-            // ack心跳包立即返回
-            sessionWrapper.writeAndFlush(new UnsentAckPingPong());
+            if (!sessionWrapper.isDelayedAckEnabled()){
+                // ack心跳包立即返回
+                sessionWrapper.writeAndFlush(new UnsentAckPingPong());
+                return;
+            }
+            // 启用延迟确认时，以单独的确认包代替pong(它不占用sequence，客户端不需要再确认)。
+            // 即使待发送的消息已捎带了ack也要返回，客户端只在收到pong或确认包时才认为ping已返回，否则不会再发送心跳。
+            sessionWrapper.flushAllUnsentMessage();
+            sessionWrapper.writeStandaloneAck();
         });
     }
 
     /**
-     * 尝试用message更新消息队列
+     * 获取事件所属的会话，事件必须来自会话当前的channel。
+     * 在当前channel收到客户端的任何包 => 客户端一定收到了token验证结果，
+     * 此时更新channel为已激活状态并禁用之前的token；同时更新会话的超时时间。
      * @param eventChannel 产生事件的channel
-     * @param eventParam 消息参数
-     * @param then 当且仅当message是当前channel上期望的下一个消息，且ack合法时执行。
+     * @param eventParam 事件参数
+     * @return 如果会话不存在或channel不是会话当前的channel，则返回null，此时已关闭eventChannel并释放延迟解码的消息体
      */
-    private <T extends MessageEventParam> void tryUpdateMessageQueue(Channel eventChannel, T eventParam, Consumer<SessionWrapper> then){
+    @Nullable
+    private SessionWrapper tryActivateSession(Channel eventChannel, MessageEventParam eventParam){
         SessionWrapper sessionWrapper = getSessionWrapper(eventParam.localGuid(), eventParam.remoteGuid());
-        if (null == sessionWrapper){
-            NetUtils.closeQuietly(eventChannel);
-            return;
-        }
         // 必须是相同的channel (isEventChannelOk)
-        if (eventChannel!=sessionWrapper.getChannel()){
+        if (null == sessionWrapper || eventChannel != sessionWrapper.getChannel()){
+            DeferredMessage.releaseBody(eventParam.messageTO());
             NetUtils.closeQuietly(eventChannel);
-            return;
+            return null;
         }
-        // 在新channel收到客户端的消息时 => 客户端一定收到了token验证结果
-        // 确定客户端已收到了新的token,更新channel为已激活状态，并添加禁用的token
         if (sessionWrapper.getPreToken() != null){
             sessionWrapper.changeToActiveState();
             forbiddenTokenHelper.forbiddenPreToken(sessionWrapper.getToken());
         }
         // 更新session超时时间
         sessionWrapper.setSessionTimeout(nextSessionTimeout());
+        return sessionWrapper;
+    }
+
+    /**
+     * 尝试用不占用sequence的包(重传请求、确认包、不可靠消息)捎带的ack更新已发送队列，不检查sequence
+     * @param eventChannel 产生事件的channel
+     * @param eventParam 事件参数
+     * @param then 当且仅当事件来自会话当前的channel，且ack合法时执行。
+     *             否则包被丢弃，延迟解码的消息体会被释放。
+     */
+    private <T extends MessageEventParam> void tryUpdateSentQueue(Channel eventChannel, T eventParam, Consumer<SessionWrapper> then){
+        SessionWrapper sessionWrapper = tryActivateSession(eventChannel, eventParam);
+        if (null == sessionWrapper){
+            return;
+        }
+        MessageQueue messageQueue = sessionWrapper.getMessageQueue();
+        // 客户端发来的ack错误
+        if (!messageQueue.isAckOK(eventParam.getAck())){
+            DeferredMessage.releaseBody(eventParam.messageTO());
+            return;
+        }
+        messageQueue.updateSentQueue(eventParam.getAck());
+        then.accept(sessionWrapper);
+    }
 
+    /**
+     * 尝试用message更新消息队列
+     * @param eventChannel 产生事件的channel
+     * @param eventParam 消息参数
+     * @param then 当且仅当message是当前channel上期望的下一个消息，且ack合法时执行。
+     *             否则消息被丢弃，延迟解码的消息体会被释放。
+     */
+    private <T extends MessageEventParam> void tryUpdateMessageQueue(Channel eventChannel, T eventParam, Consumer<SessionWrapper> then){
+        SessionWrapper sessionWrapper = tryActivateSession(eventChannel, eventParam);
+        if (null == sessionWrapper){
+            return;
+        }
         MessageTO message=eventParam.messageTO();
         MessageQueue messageQueue=sessionWrapper.getMessageQueue();
         // 不是期望的下一个消息
         if (message.getSequence()!=messageQueue.getAck()+1){
+            DeferredMessage.releaseBody(message);
+            // 中间有消息丢失，请求客户端从ack之后开始重传(重复的消息直接丢弃即可)
+            if (message.getSequence() > messageQueue.getAck()+1 && sessionWrapper.isRetransmitEnabled()
+                    && messageQueue.tryNack(netTimeManager.getSystemMillTime(), netConfigManager.retransmitInterval())){
+                sessionWrapper.getChannel().writeAndFlush(new NackMessageTO(messageQueue.getAck(), message.getSequence()));
+            }
             return;
         }
         // 客户端发来的ack错误
         if (!messageQueue.isAckOK(message.getAck())){
+            DeferredMessage.releaseBody(message);
             return;
         }
         // 更新消息队列
         messageQueue.setAck(message.getSequence());
+        messageQueue.markAckPending(netTimeManager.getSystemMillTime());
         messageQueue.updateSentQueue(message.getAck());
 
+        // 缓存分片，或者重组分片消息
+        if (!sessionWrapper.fragmentBuffer.accept(message)) {
+            removeSession(sessionWrapper.getLocalGuid(), eventParam.remoteGuid(), "fragment reassembly failed");
+            return;
+        }
+
         // 然后执行自己的逻辑
         then.accept(sessionWrapper);
     }
@@ -656,14 +817,25 @@ public class S2CSessionManager implements SessionManager {
             // 构建rpc结果通道
             StandardRpcResponseChannel rpcResponseChannel = new StandardRpcResponseChannel(sessionWrapper.session,
                     requestMessageTO.isSync(), requestMessageTO.getRequestGuid());
+            final Object request = DeferredMessage.decodeIfNecessary(requestMessageTO.getRequest(), DecodeStage.NET_EVENT_LOOP);
+            final ReceiveWindow receiveWindow = sessionWrapper.getReceiveWindow();
+            receiveWindow.onSubmitted();
             // 尝试提交到用户线程
-            ConcurrentUtils.tryCommit(userInfo.netContext.localEventLoop(), () -> {
+            boolean committed = ConcurrentUtils.tryCommit(userInfo.netContext.localEventLoop(), () -> {
                 try {
-                    userInfo.messageHandler.onRpcRequest(sessionWrapper.session, requestMessageTO.getRequest(), rpcResponseChannel);
+                    userInfo.messageHandler.onRpcRequest(sessionWrapper.session,
+                            DeferredMessage.decodeIfNecessary(request, DecodeStage.USER_EVENT_LOOP), rpcResponseChannel);
                 } catch (Exception e){
                     ConcurrentUtils.rethrow(e);
+                } finally {
+                    receiveWindow.onProcessed();
                 }
             });
+            // 用户线程已关闭，释放未解码的消息体
+            if (!committed) {
+                receiveWindow.onProcessed();
+                DeferredMessage.releaseIfDeferred(request);
+            }
         });
     }
 
@@ -677,11 +849,12 @@ public class S2CSessionManager implements SessionManager {
             RpcPromiseInfo rpcPromiseInfo = sessionWrapper.getRpcPromiseMap().remove(rpcResponseEventParam.messageTO().getRequestGuid());
             if (null == rpcPromiseInfo) {
                 // 可能超时了
+                DeferredMessage.releaseBody(rpcResponseEventParam.messageTO());
                 logger.warn("rpc may timeout");
                 return;
             }
             // 为什么用try系列方法？ 因为有竞争(取消等)
-            rpcPromiseInfo.rpcPromise.trySuccess(rpcResponseEventParam.messageTO().getRpcResponse());
+            rpcPromiseInfo.rpcPromise.trySuccess(DeferredMessage.decodeRpcResponse(rpcResponseEventParam.messageTO().getRpcResponse()));
         });
     }
 
@@ -693,15 +866,89 @@ public class S2CSessionManager implements SessionManager {
         final OneWayMessageTO oneWayMessageTO = oneWayMessageEventParam.messageTO();
 
         tryUpdateMessageQueue(eventChannel, oneWayMessageEventParam, sessionWrapper -> {
-            UserInfo userInfo = sessionWrapper.userInfo;
-            // 尝试提交到用户线程
-            ConcurrentUtils.tryCommit(userInfo.netContext.localEventLoop(), () -> {
-                try {
-                    userInfo.messageHandler.onMessage(sessionWrapper.session, oneWayMessageTO.getMessage());
-                } catch (Exception e){
-                    ConcurrentUtils.rethrow(e);
-                }
-            });
+            commitMessage(sessionWrapper, oneWayMessageTO.getMessage());
+        });
+    }
+
+    /**
+     * 将客户端发来的单向消息提交给用户线程处理
+     * @param message 消息内容(可能需要延迟解码)
+     */
+    private void commitMessage(SessionWrapper sessionWrapper, Object message) {
+        UserInfo userInfo = sessionWrapper.userInfo;
+        final Object decodedMessage = DeferredMessage.decodeIfNecessary(message, DecodeStage.NET_EVENT_LOOP);
+        final ReceiveWindow receiveWindow = sessionWrapper.getReceiveWindow();
+        receiveWindow.onSubmitted();
+        // 尝试提交到用户线程
+        boolean committed = ConcurrentUtils.tryCommit(userInfo.netContext.localEventLoop(), () -> {
+            try {
+                userInfo.messageHandler.onMessage(sessionWrapper.session,
+                        DeferredMessage.decodeIfNecessary(decodedMessage, DecodeStage.USER_EVENT_LOOP));
+            } catch (Exception e){
+                ConcurrentUtils.rethrow(e);
+            } finally {
+                receiveWindow.onProcessed();
+            }
+        });
+        // 用户线程已关闭，释放未解码的消息体
+        if (!committed) {
+            receiveWindow.onProcessed();
+            DeferredMessage.releaseIfDeferred(decodedMessage);
+        }
+    }
+
+    /**
+     * 当接收到客户端发送的分片时
+     * @param fragmentEventParam 分片参数
+     */
+    void onRcvClientFragment(FragmentEventParam fragmentEventParam) {
+        final Channel eventChannel = fragmentEventParam.channel();
+        // 分片在更新消息队列时已缓存，最后一部分到达时重组
+        tryUpdateMessageQueue(eventChannel, fragmentEventParam, sessionWrapper -> {});
+    }
+
+    /**
+     * 当接收到客户端的重传请求时
+     * 重传请求不占用sequence，不走{@link #tryUpdateMessageQueue(Channel, MessageEventParam, Consumer)}的sequence检查。
+     * @param nackEventParam 重传请求参数
+     */
+    void onRcvClientNack(NackEventParam nackEventParam) {
+        final Channel eventChannel = nackEventParam.channel();
+        tryUpdateSentQueue(eventChannel, nackEventParam, sessionWrapper -> {
+            long ack = nackEventParam.getAck();
+            if (sessionWrapper.getMessageQueue().tryRetransmit(ack, netTimeManager.getSystemMillTime(), netConfigManager.retransmitInterval())){
+                logger.info("client request retransmit, ack={}, sequence={}, sessionInfo={}", ack, nackEventParam.getSequence(), sessionWrapper.getSession());
+                sessionWrapper.resendSentMessages();
+            }
+        });
+    }
+
+    /**
+     * 当接收到客户端单独的确认包时
+     * 确认包不占用sequence，不走{@link #tryUpdateMessageQueue(Channel, MessageEventParam, Consumer)}的sequence检查。
+     * @param ackEventParam 确认包参数
+     */
+    void onRcvClientAck(AckEventParam ackEventParam) {
+        final Channel eventChannel = ackEventParam.channel();
+        tryUpdateSentQueue(eventChannel, ackEventParam, sessionWrapper -> {
+            // 客户端通告的接收窗口，待发送的消息在下一帧发送
+            if (sessionWrapper.isFlowControlEnabled() && ackEventParam.getWindow() != AckMessageTO.NO_WINDOW) {
+                sessionWrapper.getMessageQueue().updateRemoteWindow(ackEventParam.getAck(), ackEventParam.getWindow());
+            }
+        });
+    }
+
+    /**
+     * 当接收到客户端发送的不可靠消息时
+     * 不可靠消息不占用sequence，不走{@link #tryUpdateMessageQueue(Channel, MessageEventParam, Consumer)}的sequence检查，
+     * 收到即交给用户(捎带的ack仍然有效)。
+     * @param eventParam 不可靠消息参数
+     */
+    void onRcvClientUnreliableMsg(UnreliableMessageEventParam eventParam) {
+        final Channel eventChannel = eventParam.channel();
+        final UnreliableMessageTO messageTO = eventParam.messageTO();
+        tryUpdateSentQueue(eventChannel, eventParam, sessionWrapper -> {
+            commitMessage(sessionWrapper, messageTO.getMessage());
         });
     }
 
@@ -749,7 +996,7 @@ public class S2CSessionManager implements SessionManager {
         /**
          * 会话的消息队列
          */
-        private final MessageQueue messageQueue = new MessageQueue();
+        private final MessageQueue messageQueue;
         /**
          * 会话channel一定不为null
          */
@@ -784,11 +1031,30 @@ public class S2CSessionManager implements SessionManager {
          * 清空缓冲区的阈值，当缓冲区消息数达到该值值，清空待发送缓冲区
          */
         private final int flushThreshold;
+        /**
+         * 当前channel协商的消息分片器，未启用分片时为null
+         */
+        private MessageFragmenter fragmenter;
+        /**
+         * 当前channel协商的扩展能力{@link NetCapabilities}
+         */
+        private int capabilities;
+        /**
+         * 分片重组缓冲区
+         */
+        private final FragmentBuffer fragmentBuffer;
+        /**
+         * 接收窗口(流量控制)
+         */
+        private final ReceiveWindow receiveWindow;
 
-        SessionWrapper(UserInfo userInfo, S2CSession session, int flushThreshold) {
+        SessionWrapper(UserInfo userInfo, S2CSession session, int flushThreshold, int maxReassemblyBytes, int receiveWindow) {
             this.userInfo = userInfo;
             this.session = session;
+            this.messageQueue = new MessageQueue(session.ackStatistics());
             this.flushThreshold = flushThreshold;
+            this.fragmentBuffer = new FragmentBuffer(maxReassemblyBytes);
+            this.receiveWindow = new ReceiveWindow(receiveWindow);
         }
 
         S2CSession getSession() {
@@ -819,21 +1085,60 @@ public class S2CSessionManager implements SessionManager {
             return preToken;
         }
 
+        /**
+         * 当前channel是否协商启用了连接内重传
+         */
+        boolean isRetransmitEnabled() {
+            return NetCapabilities.isEnabled(capabilities, NetCapabilities.RETRANSMIT);
+        }
+
+        /**
+         * 当前channel是否协商启用了延迟确认
+         */
+        boolean isDelayedAckEnabled() {
+            return NetCapabilities.isEnabled(capabilities, NetCapabilities.DELAYED_ACK);
+        }
+
+        /**
+         * 当前channel是否协商启用了流量控制
+         */
+        boolean isFlowControlEnabled() {
+            return NetCapabilities.isEnabled(capabilities, NetCapabilities.FLOW_CONTROL);
+        }
+
+        /**
+         * 当前channel是否协商启用了不可靠消息
+         */
+        boolean isUnreliableEnabled() {
+            return NetCapabilities.isEnabled(capabilities, NetCapabilities.UNRELIABLE);
+        }
+
+        ReceiveWindow getReceiveWindow() {
+            return receiveWindow;
+        }
+
         /**
          * 切换到等待状态，即确认客户端收到新的token之前，新的token还不能生效
          * (等待客户端真正的产生消息,也就是收到了新的token)
          * @param channel 新的channel
+         * @param fragmenter 新的channel协商的消息分片器
+         * @param capabilities 新的channel协商的扩展能力
          * @param sndTokenTimes 这是对客户端第几次发送token验证
          * @param preToken 上一个token
          * @param nextToken 新的token
          * @param sessionTimeout 会话超时时间
          */
-        void changeToWaitState(Channel channel, int sndTokenTimes, Token preToken, Token nextToken, int sessionTimeout){
+        void changeToWaitState(Channel channel, MessageFragmenter fragmenter, int capabilities,
+                               int sndTokenTimes, Token preToken, Token nextToken, int sessionTimeout){
             this.channel=channel;
+            this.fragmenter=fragmenter;
+            this.capabilities=capabilities;
             this.token=nextToken;
             this.sessionTimeout =sessionTimeout;
             this.preToken=preToken;
             this.sndTokenTimes=sndTokenTimes;
+            // 旧channel上未发送的不可靠消息已过时，且新channel协商的能力可能不同
+            messageQueue.dropUnreliable();
         }
 
         /**
@@ -853,32 +1158,100 @@ public class S2CSessionManager implements SessionManager {
          * @param unsentMessage 为发送的原始消息
          */
         void write(UnsentMessage unsentMessage) {
-            messageQueue.getNeedSendQueue().add(unsentMessage);
+            if (!messageQueue.getNeedSendQueue().add(unsentMessage)) {
+                // 溢出到磁盘失败，会话将被删除，不能再发送之后的消息
+                return;
+            }
             if (messageQueue.getNeedSendQueue().size() >= flushThreshold) {
                 flushAllUnsentMessage();
             }
         }
 
+        /**
+         * 写入一个不可靠消息到缓存，它不占用sequence，发送之后不再保留
+         * @param message 消息内容
+         * @param maxCacheNum 等待发送的不可靠消息数上限，超过时丢弃最旧的消息
+         */
+        void writeUnreliable(Object message, int maxCacheNum) {
+            if (!isUnreliableEnabled()) {
+                // 客户端不支持，退化为可靠的单向消息
+                write(new UnsentOneWayMessage(message));
+                return;
+            }
+            messageQueue.addUnreliable(message, maxCacheNum);
+            if (messageQueue.getUnreliableNum() >= flushThreshold) {
+                flushUnreliableMessage();
+            }
+        }
+
+        /**
+         * 发送所有待发送的不可靠消息，链路拥塞(netty的发送缓冲区超过高水位)时直接丢弃
+         */
+        void flushUnreliableMessage() {
+            if (!messageQueue.hasUnreliable()) {
+                return;
+            }
+            if (!channel.isWritable()) {
+                messageQueue.dropUnreliable();
+                return;
+            }
+            while (messageQueue.hasUnreliable()) {
+                channel.write(new UnreliableMessageTO(messageQueue.piggybackAck(), messageQueue.getLastSequence(), messageQueue.pollUnreliable()));
+            }
+            channel.flush();
+        }
+
         /**
          * 清空缓存
          */
         void flushAllUnsentMessage() {
-            UnsentMessage unsentMessage;
-            while ((unsentMessage = messageQueue.getNeedSendQueue().pollFirst()) != null) {
-                MessageTO messageTO = transferToSentMessage(unsentMessage);
-                channel.write(messageTO);
+            if (messageQueue.getNeedSendQueue().isEmpty()) {
+                return;
             }
-            channel.flush();
+            // 分配的sequence连续，打包发送；超出对方接收窗口(或溢出阈值)的消息留在待发送队列
+            List<MessageTO> messageTOList = new ArrayList<>(messageQueue.getNeedSendQueue().size());
+            while (messageQueue.isNextSendable(isFlowControlEnabled())) {
+                transferToSentMessage(messageQueue.getNeedSendQueue().pollFirst(), messageTOList);
+            }
+            if (messageTOList.isEmpty()) {
+                return;
+            }
+            channel.writeAndFlush(BatchMessageTO.wrapIfNecessary(messageTOList));
         }
 
 
         /**
-         * 立即发送一个消息(不进入待发送队列，直接进入已发送队列)
+         * 立即发送一个消息(不进入待发送队列，直接进入已发送队列)。
+         * 超出客户端的接收窗口(包括控制消息额外允许的部分)时放入待发送队列，等待窗口。
          */
         void writeAndFlush(UnsentMessage unsentMessage){
-            MessageTO messageTO = transferToSentMessage(unsentMessage);
-            // 发送
-            channel.writeAndFlush(messageTO);
+            if (!messageQueue.isSendable(unsentMessage.priority(), isFlowControlEnabled())) {
+                messageQueue.getNeedSendQueue().add(unsentMessage);
+                return;
+            }
+            if (null == fragmenter) {
+                // 发送
+                channel.writeAndFlush(transferToSentMessage(unsentMessage));
+                return;
+            }
+            List<MessageTO> messageTOList = new ArrayList<>(1);
+            transferToSentMessage(unsentMessage, messageTOList);
+            channel.writeAndFlush(BatchMessageTO.wrapIfNecessary(messageTOList));
+        }
+
+        /**
+         * 将一个未发送消息转换为已发送消息，过大的消息会被拆分为多个分片，分配连续的sequence
+         * @param messageTOList 用于接收转换后的消息
+         */
+        private void transferToSentMessage(UnsentMessage unsentMessage, List<MessageTO> messageTOList) {
+            List<UnsentMessage> fragments = null == fragmenter ? null : fragmenter.fragmentIfNecessary(unsentMessage);
+            if (null == fragments) {
+                messageTOList.add(transferToSentMessage(unsentMessage));
+                return;
+            }
+            for (UnsentMessage fragment : fragments) {
+                messageTOList.add(transferToSentMessage(fragment));
+            }
         }
 
         /**
@@ -887,9 +1260,26 @@ public class S2CSessionManager implements SessionManager {
         private MessageTO transferToSentMessage(UnsentMessage unsentMessage) {
             // 分配sequence
             NetMessage netMessage = unsentMessage.build(messageQueue.nextSequence());
-            messageQueue.getSentQueue().addLast(netMessage);
+            // 服务器不检查确认超时(由客户端检查)
+            messageQueue.getSentQueue().addLast(netMessage, 0);
             // 发送前添加ack
-            return netMessage.build(messageQueue.getAck());
+            return netMessage.build(messageQueue.piggybackAck());
+        }
+
+        /**
+         * 重发所有已发送但未被确认的消息
+         */
+        void resendSentMessages() {
+            SentMessageQueue sentQueue = messageQueue.getSentQueue();
+            if (sentQueue.isEmpty()) {
+                return;
+            }
+            // 已发送的消息sequence连续，可以打包发送
+            List<MessageTO> messageTOList = new ArrayList<>(sentQueue.size());
+            for (int index = 0; index < sentQueue.size(); index++){
+                messageTOList.add(sentQueue.get(index).build(messageQueue.piggybackAck()));
+            }
+            channel.writeAndFlush(BatchMessageTO.wrapIfNecessary(messageTOList));
         }
 
         /**
@@ -899,6 +1289,76 @@ public class S2CSessionManager implements SessionManager {
             if (messageQueue.getNeedSendQueue().size() > 0) {
                 flushAllUnsentMessage();
             }
+            // 不可靠消息在可靠消息之后发送
+            flushUnreliableMessage();
+        }
+
+        /**
+         * 检查是否需要发送单独的确认包
+         * @param curMillTime 当前系统时间(毫秒)
+         * @param maxPendingCount 未确认的消息数达到该值时需要确认
+         * @param maxDelayMs 第一个未确认的消息等待了该时长(毫秒)时需要确认
+         */
+        void checkDelayedAck(long curMillTime, int maxPendingCount, long maxDelayMs) {
+            if (isDelayedAckEnabled() && messageQueue.isStandaloneAckNeeded(curMillTime, maxPendingCount, maxDelayMs)) {
+                writeStandaloneAck();
+                return;
+            }
+            // 接收窗口明显增大时单独通告，避免客户端等待窗口
+            if (isFlowControlEnabled() && messageQueue.isWindowUpdateNeeded(receiveWindow.available(), receiveWindow.getMaxWindow())) {
+                writeStandaloneAck();
+            }
+        }
+
+        /**
+         * 立即发送单独的确认包，它不占用sequence，启用流量控制时携带接收窗口
+         */
+        void writeStandaloneAck() {
+            if (!isFlowControlEnabled()) {
+                channel.writeAndFlush(new AckMessageTO(messageQueue.standaloneAck(), messageQueue.getLastSequence()));
+                return;
+            }
+            int window = receiveWindow.available();
+            messageQueue.onWindowAdvertised(window);
+            channel.writeAndFlush(new AckMessageTO(messageQueue.standaloneAck(), messageQueue.getLastSequence(), window));
+        }
+
+        /**
+         * 根据缓存的消息数更新会话的可写状态，状态改变时通知用户
+         * @param highWaterMark 缓存的消息数达到该值时不可写
+         * @param lowWaterMark 缓存的消息数降到该值时恢复可写
+         */
+        void updateWritability(int highWaterMark, int lowWaterMark) {
+            final boolean writable = session.isWritable();
+            final int cacheMessageNum = getCacheMessageNum();
+            // 有消息溢出到磁盘时也不可写
+            final boolean spilled = messageQueue.getSpilledMessageNum() > 0;
+            if (writable && (cacheMessageNum >= highWaterMark || spilled)) {
+                notifyWritabilityChanged(false);
+            } else if (!writable && cacheMessageNum <= lowWaterMark && !spilled) {
+                notifyWritabilityChanged(true);
+            }
+        }
+
+        /**
+         * 通知用户上次通知以来丢弃的低优先级消息
+         */
+        void reportShedMessages() {
+            final int shedNum = messageQueue.pollUnreportedShedNum();
+            if (shedNum == 0) {
+                return;
+            }
+            session.addShedMessageCount(shedNum);
+            ConcurrentUtils.tryCommit(userInfo.netContext.localEventLoop(), () -> {
+                userInfo.lifecycleAware.onMessageShed(session, shedNum);
+            });
+        }
+
+        private void notifyWritabilityChanged(boolean writable) {
+            session.setWritable(writable);
+            ConcurrentUtils.tryCommit(userInfo.netContext.localEventLoop(), () -> {
+                userInfo.lifecycleAware.onWritabilityChanged(session, writable);
+            });
         }
 
         /**
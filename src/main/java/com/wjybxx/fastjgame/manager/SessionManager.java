@@ -18,6 +18,7 @@ package com.wjybxx.fastjgame.manager;
 
 import com.wjybxx.fastjgame.concurrent.EventLoop;
 import com.wjybxx.fastjgame.concurrent.Promise;
+import com.wjybxx.fastjgame.net.MessagePriority;
 import com.wjybxx.fastjgame.net.RpcResponse;
 
 import javax.annotation.Nonnull;
@@ -37,8 +38,18 @@ public interface SessionManager {
      * @param localGuid 我的标识
      * @param remoteGuid 远程节点标识
      * @param message 单向消息内容
+     * @param priority 消息的优先级
      */
-    void send(long localGuid, long remoteGuid, @Nonnull Object message);
+    void send(long localGuid, long remoteGuid, @Nonnull Object message, MessagePriority priority);
+
+    /**
+     * 发送一个不可靠的单向消息到远程，它不占用sequence，不会重传，可能丢失
+     * (对方不支持时退化为{@link #send(long, long, Object, MessagePriority)})
+     * @param localGuid 我的标识
+     * @param remoteGuid 远程节点标识
+     * @param message 单向消息内容
+     */
+    void sendUnreliable(long localGuid, long remoteGuid, @Nonnull Object message);
 
     /**
      * 向远程发送一个rpc请求
@@ -58,8 +69,9 @@ public interface SessionManager {
      * @param sync 是否是同步rpc调用，如果是同步rpc调用，需要立即发送，不进入缓存。
      * @param requestGuid 请求对应的编号
      * @param response 响应结果
+     * @param priority 异步rpc调用的结果的优先级
      */
-    void sendRpcResponse(long localGuid, long remoteGuid, boolean sync, long requestGuid, @Nonnull RpcResponse response);
+    void sendRpcResponse(long localGuid, long remoteGuid, boolean sync, long requestGuid, @Nonnull RpcResponse response, MessagePriority priority);
 
     /**
      * 删除指定session
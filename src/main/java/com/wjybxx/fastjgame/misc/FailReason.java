@@ -60,4 +60,8 @@ public enum FailReason {
      * 旧请求
      */
     OLD_REQUEST,
+    /**
+     * 溢出到磁盘的消息使用的编解码器与新连接的不同
+     */
+    CODEC_CHANGED,
 }
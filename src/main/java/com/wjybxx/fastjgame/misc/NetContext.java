@@ -23,8 +23,10 @@ import com.wjybxx.fastjgame.net.*;
 import com.wjybxx.fastjgame.net.initializer.*;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.socket.SocketChannel;
+import it.unimi.dsi.fastutil.longs.LongCollection;
 import okhttp3.Response;
 
+import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.util.Map;
 
@@ -97,6 +99,26 @@ public interface NetContext {
 											SessionLifecycleAware<S2CSession> lifecycleAware,
 											MessageHandler messageHandler);
 
+	/**
+	 * 向本地监听的多个客户端会话广播一条单向消息。
+	 * 与逐个调用{@link S2CSession#sendMessage(Object)}不同，它只提交一个任务到网络线程，
+	 * 且消息体只序列化一次，所有会话共享编码结果，每个会话只编码自己的包头(见{@link SharedMessage})。
+	 *
+	 * @param clientGuids 客户端guid集合，方法返回后可以修改
+	 * @param message 消息内容，必须是不可变对象
+	 */
+	void broadcast(LongCollection clientGuids, @Nonnull Object message);
+
+	/**
+	 * 以指定的优先级向本地监听的多个客户端会话广播一条单向消息(见{@link #broadcast(LongCollection, Object)})。
+	 * 低价值的广播可以使用{@link MessagePriority#BULK}，会话压力过大时丢弃它们，而不是延迟其它消息或删除会话。
+	 *
+	 * @param clientGuids 客户端guid集合，方法返回后可以修改
+	 * @param message 消息内容，必须是不可变对象
+	 * @param priority 消息的优先级
+	 */
+	void broadcast(LongCollection clientGuids, @Nonnull Object message, MessagePriority priority);
+
 	/**
 	 * 连接远程某个端口
 	 * @param remoteGuid 远程角色guid
@@ -23,6 +23,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -35,9 +37,96 @@ public abstract class AbstractSession implements Session{
 
     private static final Logger logger = LoggerFactory.getLogger(AbstractSession.class);
 
+    /**
+     * 会话当前channel使用的编解码器，会话建立(或重连)成功时由网络线程设置，发送消息的用户线程读取。
+     * 启用{@link NetConfigManager#serializeOnUserThread()}时，用于在用户线程序列化消息。
+     */
+    private volatile CodecHelper codecHelper;
+    /**
+     * 会话的确认统计，由网络线程更新
+     */
+    private final AckStatistics ackStatistics = new AckStatistics();
+    /**
+     * 会话是否可写，由网络线程更新
+     */
+    private volatile boolean writable = true;
+    /**
+     * 被丢弃的低优先级消息数，只由网络线程更新
+     */
+    private volatile long shedMessageCount = 0;
+
     protected abstract NetConfigManager getNetConfigManager();
     protected abstract SessionManager getSessionManager();
 
+    @Override
+    public final AckStatistics ackStatistics() {
+        return ackStatistics;
+    }
+
+    @Override
+    public final boolean isWritable() {
+        return writable;
+    }
+
+    /**
+     * 更新会话的可写状态(网络线程)
+     * @param writable 新的可写状态
+     */
+    public final void setWritable(boolean writable) {
+        this.writable = writable;
+    }
+
+    @Override
+    public final long shedMessageCount() {
+        return shedMessageCount;
+    }
+
+    /**
+     * 增加被丢弃的消息数(网络线程)
+     * @param num 新丢弃的消息数
+     */
+    public final void addShedMessageCount(int num) {
+        this.shedMessageCount += num;
+    }
+
+    /**
+     * 会话当前channel使用的编解码器，会话第一次建立之前为null
+     */
+    @Nullable
+    public final CodecHelper getCodecHelper() {
+        return codecHelper;
+    }
+
+    /**
+     * 设置会话当前channel使用的编解码器
+     * @param codecHelper 编解码器帮助类
+     */
+    public final void setCodecHelper(CodecHelper codecHelper) {
+        this.codecHelper = codecHelper;
+    }
+
+    /**
+     * 如果启用了{@link NetConfigManager#serializeOnUserThread()}，则在当前线程(用户线程)序列化消息，
+     * 返回持有序列化结果的{@link SharedMessage}，之后网络层(包括重传)只使用序列化之后的字节，
+     * 发送之后修改消息对象也不会影响发送的内容。
+     *
+     * 会话还未建立时不知道channel使用的编解码器，此时返回原消息，仍然在IO线程序列化。
+     * {@link RawMessage}已经是编码好的内容，{@link CacheableMessage}的编码结果由codec缓存，也返回原消息。
+     * @param message 用户发送的消息
+     * @return 序列化之后的消息或原消息
+     * @throws IOException 序列化失败
+     */
+    private Object snapshot(Object message) throws IOException {
+        final CodecHelper codecHelper = this.codecHelper;
+        if (null == codecHelper || !getNetConfigManager().serializeOnUserThread() || message instanceof RawMessage
+                || message instanceof CacheableMessage) {
+            return message;
+        }
+        SharedMessage sharedMessage = SharedMessage.newInstance(message);
+        sharedMessage.encode(codecHelper.getMessageMapper(), codecHelper.getMessageSerializer());
+        return sharedMessage;
+    }
+
     @Override
     public final long localGuid() {
         return netContext().localGuid();
@@ -50,13 +139,40 @@ public abstract class AbstractSession implements Session{
 
     @Override
     public final void sendMessage(Object message) {
+        sendMessage(message, DeliveryMode.RELIABLE_ORDERED, MessagePriority.NORMAL);
+    }
+
+    @Override
+    public final void sendMessage(Object message, DeliveryMode deliveryMode) {
+        sendMessage(message, deliveryMode, MessagePriority.NORMAL);
+    }
+
+    @Override
+    public final void sendMessage(Object message, MessagePriority priority) {
+        sendMessage(message, DeliveryMode.RELIABLE_ORDERED, priority);
+    }
+
+    private void sendMessage(Object message, DeliveryMode deliveryMode, MessagePriority priority) {
         // 逻辑层检测，会话已关闭，立即返回
         if (!isActive()) {
             logger.info("session is already closed, send message failed.");
             return;
         }
+        final Object snapshot;
+        try {
+            snapshot = snapshot(message);
+        } catch (Exception e) {
+            logger.warn("serialize {} caught exception, send message failed.", message.getClass().getName(), e);
+            return;
+        }
+        if (deliveryMode == DeliveryMode.UNRELIABLE) {
+            netContext().netEventLoop().execute(() -> {
+                getSessionManager().sendUnreliable(localGuid(), remoteGuid(), snapshot);
+            });
+            return;
+        }
         netContext().netEventLoop().execute(() -> {
-            getSessionManager().send(localGuid(), remoteGuid(), message);
+            getSessionManager().send(localGuid(), remoteGuid(), snapshot, priority);
         });
     }
 
@@ -71,10 +187,17 @@ public abstract class AbstractSession implements Session{
         if (!isActive()) {
             return netContext().netEventLoop().newCompletedFuture(netContext().localEventLoop(), RpcResponse.SESSION_CLOSED);
         }
+        final Object snapshot;
+        try {
+            snapshot = snapshot(request);
+        } catch (Exception e) {
+            return netContext().netEventLoop().newCompletedFuture(netContext().localEventLoop(),
+                    new RpcResponse(RpcResultCode.LOCAL_EXCEPTION, e));
+        }
         // 提交执行
         final RpcPromise rpcPromise = netContext().netEventLoop().newRpcPromise(netContext().localEventLoop());
         netContext().netEventLoop().execute(() -> {
-            getSessionManager().rpc(localGuid(), remoteGuid(), request, timeoutMs, false, rpcPromise);
+            getSessionManager().rpc(localGuid(), remoteGuid(), snapshot, timeoutMs, false, rpcPromise);
         });
         // 返回给调用者
         return rpcPromise;
@@ -94,10 +217,16 @@ public abstract class AbstractSession implements Session{
         if (!isActive()) {
             return RpcResponse.SESSION_CLOSED;
         }
+        final Object snapshot;
+        try {
+            snapshot = snapshot(request);
+        } catch (Exception e) {
+            return new RpcResponse(RpcResultCode.LOCAL_EXCEPTION, e);
+        }
         final Promise<RpcResponse> rpcResponsePromise = netContext().netEventLoop().newPromise();
         // 提交执行
         netContext().netEventLoop().execute(() -> {
-            getSessionManager().rpc(localGuid(), remoteGuid(), request, timeoutMs, true, rpcResponsePromise);
+            getSessionManager().rpc(localGuid(), remoteGuid(), snapshot, timeoutMs, true, rpcResponsePromise);
         });
         // 限时等待
         rpcResponsePromise.awaitUninterruptibly(timeoutMs, TimeUnit.MILLISECONDS);
@@ -112,10 +241,21 @@ public abstract class AbstractSession implements Session{
      * @param sync 是否是同步rpc调用
      * @param requestGuid 请求id
      * @param rpcResponse 响应结果
+     * @param priority 异步rpc调用的结果的优先级
      */
-    final void sendRpcResponse(boolean sync, long requestGuid, @Nonnull RpcResponse rpcResponse) {
+    final void sendRpcResponse(boolean sync, long requestGuid, @Nonnull RpcResponse rpcResponse, MessagePriority priority) {
+        RpcResponse snapshot = rpcResponse;
+        if (rpcResponse.hasBody()) {
+            try {
+                snapshot = new RpcResponse(rpcResponse.getResultCode(), snapshot(rpcResponse.getBody()));
+            } catch (Exception e) {
+                logger.warn("serialize {} caught exception", rpcResponse.getBody().getClass().getName(), e);
+                snapshot = RpcResponse.newFailResponse(RpcResultCode.ERROR);
+            }
+        }
+        final RpcResponse finalResponse = snapshot;
         netContext().netEventLoop().execute(() -> {
-            getSessionManager().sendRpcResponse(localGuid(), remoteGuid(), sync, requestGuid, rpcResponse);
+            getSessionManager().sendRpcResponse(localGuid(), remoteGuid(), sync, requestGuid, finalResponse, priority);
         });
     }
 }
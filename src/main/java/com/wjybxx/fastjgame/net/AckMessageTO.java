@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * 单独的确认包传输对象，在没有可以捎带确认的消息时发送。
+ * 它不占用sequence，sequence为发送方上次分配的sequence，接收方不检查。
+ * 协商启用{@link NetCapabilities#FLOW_CONTROL}时，携带发送方的接收窗口。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@Immutable
+@TransferObject
+public class AckMessageTO extends MessageTO {
+
+	/**
+	 * 未携带接收窗口
+	 */
+	public static final int NO_WINDOW = -1;
+
+	/**
+	 * 接收窗口(消息数)，对方分配的sequence不应该超过 ack + window
+	 */
+	private final int window;
+
+	public AckMessageTO(long ack, long sequence) {
+		this(ack, sequence, NO_WINDOW);
+	}
+
+	public AckMessageTO(long ack, long sequence, int window) {
+		super(ack, sequence);
+		this.window = window;
+	}
+
+	public int getWindow() {
+		return window;
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * 会话的确认统计，用于观察延迟确认({@link NetCapabilities#DELAYED_ACK})的效果。
+ * 只由网络线程修改，任意线程可以读取。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@ThreadSafe
+public final class AckStatistics {
+
+    /**
+     * 捎带在普通消息中的确认次数(只统计确认了新消息的包)
+     */
+    private volatile long piggybackedAckCount;
+    /**
+     * 单独发送的确认包的数量
+     */
+    private volatile long standaloneAckCount;
+
+    /**
+     * 捎带在普通消息中的确认次数(只统计确认了新消息的包)
+     */
+    public long getPiggybackedAckCount() {
+        return piggybackedAckCount;
+    }
+
+    /**
+     * 单独发送的确认包的数量
+     */
+    public long getStandaloneAckCount() {
+        return standaloneAckCount;
+    }
+
+    /**
+     * 由网络线程调用
+     */
+    void incPiggybackedAckCount() {
+        piggybackedAckCount++;
+    }
+
+    /**
+     * 由网络线程调用
+     */
+    void incStandaloneAckCount() {
+        standaloneAckCount++;
+    }
+
+    @Override
+    public String toString() {
+        return "AckStatistics{" +
+                "piggybackedAckCount=" + piggybackedAckCount +
+                ", standaloneAckCount=" + standaloneAckCount +
+                "}";
+    }
+}
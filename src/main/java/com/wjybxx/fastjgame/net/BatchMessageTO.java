@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 批量消息的传输对象，将多个sequence连续的消息打包在一个网络包中发送。
+ * 所有消息共享同一个捎带确认的ack，{@link #getSequence()}为第一个消息的sequence。
+ *
+ * 如果该channel未协商{@link NetCapabilities#BATCH}，codec会将其拆分为独立的包发送，
+ * 因此上层不需要关心对方是否支持批量消息。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/7
+ * github - https://github.com/hl845740757
+ */
+@Immutable
+@TransferObject
+public class BatchMessageTO extends MessageTO {
+
+	/** 打包的消息，sequence连续 */
+	private final List<MessageTO> messages;
+
+	private BatchMessageTO(List<MessageTO> messages) {
+		super(messages.get(0).getAck(), messages.get(0).getSequence());
+		this.messages = Collections.unmodifiableList(messages);
+	}
+
+	public List<MessageTO> getMessages() {
+		return messages;
+	}
+
+	/**
+	 * 打包一组待发送的消息，只有一个消息时不打包。
+	 * @param messages 待发送的消息，ack相同，sequence连续，且不可以再修改
+	 * @return 用于发送的传输对象
+	 */
+	public static MessageTO wrapIfNecessary(List<MessageTO> messages) {
+		if (messages.size() == 1) {
+			return messages.get(0);
+		}
+		assert isConsecutive(messages) : "messages are not consecutive";
+		return new BatchMessageTO(messages);
+	}
+
+	private static boolean isConsecutive(List<MessageTO> messages) {
+		MessageTO first = messages.get(0);
+		for (int index = 1; index < messages.size(); index++) {
+			MessageTO messageTO = messages.get(index);
+			if (messageTO.getAck() != first.getAck() || messageTO.getSequence() != first.getSequence() + index) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
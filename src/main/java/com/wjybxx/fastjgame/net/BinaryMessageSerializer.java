@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import com.wjybxx.fastjgame.net.binary.BinaryInput;
+import com.wjybxx.fastjgame.net.binary.BinaryMessageCodec;
+import com.wjybxx.fastjgame.net.binary.BinaryOutput;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Constructor;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * 普通java消息类的二进制序列化工具。
+ * 每个消息类有一个{@link BinaryMessageCodec}，以字段编号标记的二进制格式直接读写byteBuf，编解码时不使用反射。
+ *
+ * 编解码器可以通过构造方法显式注册，未注册的消息类在{@link #init(MessageMapper)}时按照约定的命名查找
+ * (消息类的全限定名 + "Codec")，找不到时初始化失败。
+ * 使用{@link com.wjybxx.fastjgame.net.binary.BinaryMessage}注解的消息类，编解码器在编译时生成。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/9
+ * github - https://github.com/hl845740757
+ */
+@ThreadSafe
+public class BinaryMessageSerializer implements MessageSerializer {
+
+    /**
+     * 约定的编解码器类名后缀
+     */
+    private static final String CODEC_CLASS_SUFFIX = "Codec";
+
+    /**
+     * 消息类 -> 编解码器，编码时使用
+     */
+    private final Map<Class<?>, BinaryMessageCodec<?>> codecMap = new IdentityHashMap<>();
+    /**
+     * 消息的紧凑下标 -> 编解码器，通过协议id解码时使用
+     */
+    private BinaryMessageCodec<?>[] indexedCodecs;
+
+    /**
+     * @param codecs 显式注册的编解码器，优先于约定查找
+     */
+    public BinaryMessageSerializer(BinaryMessageCodec<?>... codecs) {
+        for (BinaryMessageCodec<?> codec : codecs) {
+            codecMap.put(codec.getMessageClass(), codec);
+        }
+    }
+
+    @Override
+    public void init(MessageMapper messageMapper) throws Exception {
+        for (Class<?> messageClazz : messageMapper.getAllMessageClasses()) {
+            if (!codecMap.containsKey(messageClazz)) {
+                codecMap.put(messageClazz, findCodec(messageClazz));
+            }
+        }
+        indexedCodecs = new BinaryMessageCodec<?>[messageMapper.getMessageCount()];
+        for (int index = 0; index < indexedCodecs.length; index++) {
+            indexedCodecs[index] = codecMap.get(messageMapper.getMessageClazzByIndex(index));
+        }
+    }
+
+    /**
+     * 按照约定的命名查找编解码器，只在初始化时执行
+     */
+    private static BinaryMessageCodec<?> findCodec(Class<?> messageClazz) throws Exception {
+        String codecClassName = messageClazz.getName() + CODEC_CLASS_SUFFIX;
+        Class<?> codecClazz;
+        try {
+            codecClazz = Class.forName(codecClassName, true, messageClazz.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("codec " + codecClassName + " of " + messageClazz.getName() + " not found", e);
+        }
+        if (!BinaryMessageCodec.class.isAssignableFrom(codecClazz)) {
+            throw new IllegalArgumentException(codecClassName + " is not a " + BinaryMessageCodec.class.getSimpleName());
+        }
+        Constructor<?> constructor = codecClazz.getDeclaredConstructor();
+        // 允许包级可见的编解码器
+        constructor.setAccessible(true);
+        BinaryMessageCodec<?> codec = (BinaryMessageCodec<?>) constructor.newInstance();
+        if (codec.getMessageClass() != messageClazz) {
+            throw new IllegalArgumentException(codecClassName + " messageClass is " + codec.getMessageClass().getName());
+        }
+        return codec;
+    }
+
+    @Override
+    public byte[] serialize(Object message) throws IOException {
+        ByteBuf byteBuf = Unpooled.buffer();
+        serialize(message, byteBuf);
+        byte[] result = new byte[byteBuf.readableBytes()];
+        byteBuf.readBytes(result);
+        return result;
+    }
+
+    /**
+     * 通过只计数的{@link BinaryOutput}遍历一次消息，不写入任何内容。
+     * (没有重写{@link #getSerializedSize(Object)}，codec编码时不额外遍历消息)
+     */
+    @Override
+    public boolean isSerializedSizeExceeded(Object message, int limit) throws IOException {
+        @SuppressWarnings("unchecked")
+        BinaryMessageCodec<Object> codec = (BinaryMessageCodec<Object>) findRegisteredCodec(message.getClass());
+        BinaryOutput sizeCounter = BinaryOutput.newSizeCounter();
+        codec.writeTo(message, sizeCounter);
+        return sizeCounter.getCountedSize() > limit;
+    }
+
+    @Override
+    public void serialize(Object message, ByteBuf byteBuf) throws IOException {
+        @SuppressWarnings("unchecked")
+        BinaryMessageCodec<Object> codec = (BinaryMessageCodec<Object>) findRegisteredCodec(message.getClass());
+        codec.writeTo(message, new BinaryOutput(byteBuf));
+    }
+
+    @Override
+    public <T> T deserialize(Class<T> messageClazz, byte[] messageBytes) throws IOException {
+        return deserialize(messageClazz, Unpooled.wrappedBuffer(messageBytes));
+    }
+
+    @Override
+    public <T> T deserialize(Class<T> messageClazz, ByteBuf messageBuf) throws IOException {
+        return read(findRegisteredCodec(messageClazz), messageBuf);
+    }
+
+    @Override
+    public Object deserialize(MessageMapper messageMapper, int messageId, ByteBuf messageBuf) throws IOException {
+        int index = messageMapper.getMessageIndex(messageId);
+        if (index < 0) {
+            throw new UnsupportedEncodingException("unregistered binary messageId " + messageId);
+        }
+        return read(indexedCodecs[index], messageBuf);
+    }
+
+    private static <T> T read(BinaryMessageCodec<T> codec, ByteBuf messageBuf) throws IOException {
+        T message = codec.readFrom(new BinaryInput(messageBuf));
+        if (messageBuf.isReadable()) {
+            throw new IOException("unread bytes " + messageBuf.readableBytes());
+        }
+        return message;
+    }
+
+    private <T> BinaryMessageCodec<T> findRegisteredCodec(Class<T> messageClazz) throws UnsupportedEncodingException {
+        @SuppressWarnings("unchecked")
+        BinaryMessageCodec<T> codec = (BinaryMessageCodec<T>) codecMap.get(messageClazz);
+        if (null == codec) {
+            throw new UnsupportedEncodingException("unregistered binary message class " + messageClazz.getName());
+        }
+        return codec;
+    }
+}
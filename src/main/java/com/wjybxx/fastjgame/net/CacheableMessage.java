@@ -0,0 +1,33 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+/**
+ * 可缓存编码结果的消息(标记接口)。
+ * 实现该接口的消息对象必须是不可变的，codec会按照对象的identity缓存它的编码结果({@link EncodedMessageCache})，
+ * 同一个对象再次发送(或重传)时不会重复序列化，适用于生命周期内会被大量发送的消息，如停服公告、静态配置、固定的rpc响应。
+ *
+ * 无法实现该接口的消息(如protoBuf生成的消息)，可以使用常量{@link SharedMessage}，或者预先编码为{@link RawMessage}。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+public interface CacheableMessage {
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import com.wjybxx.fastjgame.utils.NetUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.FastThreadLocal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * 常用的帧完整性校验策略。
+ *
+ * 1. {@link #sum()} 字节累加和，最初的协议使用的方式，用于兼容旧版本的对端。
+ * 2. {@link #crc32c()} CRC32C，可以检测出字节重排等累加和检测不出的错误。
+ *    JDK9及以上使用{@code java.util.zip.CRC32C}(有硬件指令支持)，JDK8下使用每次处理8字节的查表实现。
+ * 3. {@link #none()} 不校验，适用于可信的链路，如本机回环、同机房内服务器之间的连接。(TCP自身已有校验)
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/6
+ * github - https://github.com/hl845740757
+ */
+public final class ChecksumStrategies {
+
+    private ChecksumStrategies() {
+
+    }
+
+    /**
+     * 字节累加和
+     */
+    public static ChecksumStrategy sum() {
+        return SumChecksumStrategy.INSTANCE;
+    }
+
+    /**
+     * CRC32C
+     */
+    public static ChecksumStrategy crc32c() {
+        return Crc32cChecksumStrategy.INSTANCE;
+    }
+
+    /**
+     * 不进行校验，校验值总是0
+     */
+    public static ChecksumStrategy none() {
+        return NoneChecksumStrategy.INSTANCE;
+    }
+
+    private static class SumChecksumStrategy implements ChecksumStrategy {
+
+        private static final SumChecksumStrategy INSTANCE = new SumChecksumStrategy();
+
+        @Override
+        public long calChecksum(ByteBuf byteBuf, int offset, int length) {
+            return NetUtils.calChecksum(byteBuf, offset, length);
+        }
+    }
+
+    private static class NoneChecksumStrategy implements ChecksumStrategy {
+
+        private static final NoneChecksumStrategy INSTANCE = new NoneChecksumStrategy();
+
+        @Override
+        public long calChecksum(ByteBuf byteBuf, int offset, int length) {
+            return 0;
+        }
+    }
+
+    static class Crc32cChecksumStrategy implements ChecksumStrategy {
+
+        private static final Logger logger = LoggerFactory.getLogger(Crc32cChecksumStrategy.class);
+
+        private static final Crc32cChecksumStrategy INSTANCE = new Crc32cChecksumStrategy();
+
+        /**
+         * Castagnoli多项式(反转形式)
+         */
+        private static final int POLY = 0x82F63B78;
+        /**
+         * slicing-by-8 需要的8张表，连续存放以提高局部性
+         */
+        private static final int[] TABLE = newTable();
+
+        /**
+         * {@code new CRC32C()}，JDK8下为null
+         */
+        private static final MethodHandle JDK_CONSTRUCTOR;
+        /**
+         * {@code Checksum.update(ByteBuffer)}，JDK8下为null
+         */
+        private static final MethodHandle JDK_UPDATE;
+
+        static {
+            MethodHandle constructor = null;
+            MethodHandle update = null;
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                Class<?> crc32cClass = Class.forName("java.util.zip.CRC32C");
+                constructor = lookup.findConstructor(crc32cClass, MethodType.methodType(void.class))
+                        .asType(MethodType.methodType(Checksum.class));
+                update = lookup.findVirtual(Checksum.class, "update", MethodType.methodType(void.class, ByteBuffer.class));
+            } catch (ReflectiveOperationException e) {
+                logger.info("java.util.zip.CRC32C is unavailable, use table-driven implementation instead.");
+                constructor = null;
+                update = null;
+            }
+            JDK_CONSTRUCTOR = constructor;
+            JDK_UPDATE = update;
+        }
+
+        /**
+         * JDK的CRC32C对象是有状态的，每个线程缓存一个，避免每帧创建对象
+         */
+        private static final FastThreadLocal<Checksum> JDK_CHECKSUM = new FastThreadLocal<Checksum>() {
+            @Override
+            protected Checksum initialValue() throws Exception {
+                try {
+                    return (Checksum) JDK_CONSTRUCTOR.invokeExact();
+                } catch (Exception | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+
+        @Override
+        public long calChecksum(ByteBuf byteBuf, int offset, int length) {
+            if (JDK_UPDATE != null) {
+                return jdkCrc32c(byteBuf, offset, length);
+            } else {
+                return tableCrc32c(byteBuf, offset, length);
+            }
+        }
+
+        /**
+         * 当前JDK是否提供了{@code java.util.zip.CRC32C}
+         */
+        static boolean isJdkCrc32cAvailable() {
+            return JDK_UPDATE != null;
+        }
+
+        static long jdkCrc32c(ByteBuf byteBuf, int offset, int length) {
+            Checksum checksum = JDK_CHECKSUM.get();
+            checksum.reset();
+            try {
+                // nioBuffers不拷贝数据，只是创建视图
+                for (ByteBuffer byteBuffer : byteBuf.nioBuffers(offset, length)) {
+                    JDK_UPDATE.invokeExact(checksum, byteBuffer);
+                }
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+            return checksum.getValue();
+        }
+
+        static long tableCrc32c(ByteBuf byteBuf, int offset, int length) {
+            final int[] table = TABLE;
+            int crc = 0xFFFFFFFF;
+            int index = offset;
+            final int end = offset + length;
+            // 每次处理8个字节
+            for (; index + 8 <= end; index += 8) {
+                long word = byteBuf.getLongLE(index);
+                int low = (int) word ^ crc;
+                int high = (int) (word >>> 32);
+                crc = table[7 * 256 + (low & 0xFF)]
+                        ^ table[6 * 256 + ((low >>> 8) & 0xFF)]
+                        ^ table[5 * 256 + ((low >>> 16) & 0xFF)]
+                        ^ table[4 * 256 + (low >>> 24)]
+                        ^ table[3 * 256 + (high & 0xFF)]
+                        ^ table[2 * 256 + ((high >>> 8) & 0xFF)]
+                        ^ table[256 + ((high >>> 16) & 0xFF)]
+                        ^ table[high >>> 24];
+            }
+            // 剩余不足8个字节的部分
+            for (; index < end; index++) {
+                crc = (crc >>> 8) ^ table[(crc ^ byteBuf.getByte(index)) & 0xFF];
+            }
+            return (~crc) & 0xFFFFFFFFL;
+        }
+
+        private static int[] newTable() {
+            int[] table = new int[8 * 256];
+            for (int n = 0; n < 256; n++) {
+                int crc = n;
+                for (int k = 0; k < 8; k++) {
+                    crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLY : crc >>> 1;
+                }
+                table[n] = crc;
+            }
+            for (int n = 0; n < 256; n++) {
+                int crc = table[n];
+                for (int k = 1; k < 8; k++) {
+                    crc = (crc >>> 8) ^ table[crc & 0xFF];
+                    table[k * 256 + n] = crc;
+                }
+            }
+            return table;
+        }
+    }
+}
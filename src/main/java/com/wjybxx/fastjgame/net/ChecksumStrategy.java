@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 帧完整性校验策略。
+ * 编码时对帧内容计算校验值并写入checkSum字段，解码时重新计算并与checkSum字段比较，不一致则关闭连接。
+ * 通信双方必须使用相同的策略，否则所有帧都会校验失败。
+ *
+ * 可以为每个channelInitializer单独指定（见{@link CodecHelper}），
+ * 常用的实现见{@link ChecksumStrategies}。
+ *
+ * @apiNote
+ * 实现必须是线程安全的，它会被多个IO线程共享。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/6
+ * github - https://github.com/hl845740757
+ */
+public interface ChecksumStrategy {
+
+    /**
+     * 计算byteBuf指定区域字节的校验值
+     * @param byteBuf byteBuf
+     * @param offset 偏移量
+     * @param length 有效长度，不可越界
+     * @return 校验值
+     */
+    long calChecksum(ByteBuf byteBuf, int offset, int length);
+
+}
@@ -19,10 +19,17 @@ package com.wjybxx.fastjgame.net;
 import com.wjybxx.fastjgame.utils.ConcurrentUtils;
 
 /**
- * 编解码器帮助类，对{@link MessageMapper} 和 {@link MessageSerializer} 进行绑定。
+ * 编解码器帮助类，对{@link MessageMapper} 、{@link MessageSerializer} 、{@link ChecksumStrategy} 、{@link NetCapabilities}
+ * 和 {@link DecodeStage} 进行绑定。
+ * 未指定{@link ChecksumStrategy}时使用{@link ChecksumStrategies#sum()}，未指定扩展能力时为{@link NetCapabilities#NONE}，以兼容旧版本的对端；
+ * 未指定解码阶段时为{@link DecodeStage#IO_THREAD}。
+ * 需要指定这些选项时，通过{@link #newBuilder(MessageMapper, MessageSerializer)}或{@link #newBuilder(MessageMappingStrategy, MessageSerializer)}构建。
+ * 不同的消息需要使用不同的序列化器(或原样发送已编码的{@link RawMessage})时，使用{@link CompositeMessageSerializer}。
+ * 它还持有{@link CacheableMessage}的编码结果缓存，使用该帮助类的所有channel共享，
+ * 未指定上限时为{@link EncodedMessageCache#DEFAULT_MAX_BYTES}和{@link EncodedMessageCache#DEFAULT_MAX_COUNT}。
  *
  * 它持有的{@link MessageMapper}为不可变对象，{@link MessageSerializer}为事实不可变对象，
- * 它自身是<b>事实不可变对象</b>，因此它不是线程安全的；
+ * 它自身是<b>事实不可变对象</b>(编码结果缓存是线程安全的)，因此它不是线程安全的；
  * 事实不可变对象需要安全的发布才能保证线程安全；
  *
  * （全部域都是final不代表是不可变对象，引用的对象可能是可变的）
@@ -41,10 +48,31 @@ public final class CodecHelper {
      * 消息序列化器
      */
     private final MessageSerializer messageSerializer;
+    /**
+     * 帧完整性校验策略
+     */
+    private final ChecksumStrategy checksumStrategy;
+    /**
+     * 支持的扩展能力{@link NetCapabilities}，作为客户端时表示希望使用的能力，作为服务器时表示允许使用的能力
+     */
+    private final int capabilities;
+    /**
+     * 消息体的反序列化阶段
+     */
+    private final DecodeStage decodeStage;
+    /**
+     * {@link CacheableMessage}的编码结果缓存
+     */
+    private final EncodedMessageCache encodedMessageCache;
 
-    private CodecHelper(MessageMapper messageMapper, MessageSerializer messageSerializer) {
+    private CodecHelper(MessageMapper messageMapper, MessageSerializer messageSerializer, ChecksumStrategy checksumStrategy,
+                        int capabilities, DecodeStage decodeStage, EncodedMessageCache encodedMessageCache) {
         this.messageMapper = messageMapper;
         this.messageSerializer = messageSerializer;
+        this.checksumStrategy = checksumStrategy;
+        this.capabilities = capabilities;
+        this.decodeStage = decodeStage;
+        this.encodedMessageCache = encodedMessageCache;
     }
 
     public MessageMapper getMessageMapper() {
@@ -55,26 +83,110 @@ public final class CodecHelper {
         return messageSerializer;
     }
 
+    public ChecksumStrategy getChecksumStrategy() {
+        return checksumStrategy;
+    }
+
+    public int getCapabilities() {
+        return capabilities;
+    }
+
+    public DecodeStage getDecodeStage() {
+        return decodeStage;
+    }
+
+    /**
+     * 获取编码结果缓存，可以通过它查看命中次数等信息
+     */
+    public EncodedMessageCache getEncodedMessageCache() {
+        return encodedMessageCache;
+    }
+
     public static CodecHelper newInstance(MessageMapper messageMapper, MessageSerializer messageSerializer) {
-        try {
-            messageSerializer.init(messageMapper);
-            return new CodecHelper(messageMapper, messageSerializer);
-        } catch (Exception e){
-            ConcurrentUtils.rethrow(e);
-            // unreachable
-            return null;
-        }
+        return newBuilder(messageMapper, messageSerializer).build();
     }
 
     public static CodecHelper newInstance(MessageMappingStrategy messageMappingStrategy, MessageSerializer messageSerializer) {
-        try {
-            MessageMapper messageMapper = MessageMapper.newInstance(messageMappingStrategy);
-            messageSerializer.init(messageMapper);
-            return new CodecHelper(messageMapper, messageSerializer);
-        } catch (Exception e){
-            ConcurrentUtils.rethrow(e);
-            // unreachable
-            return null;
+        return newBuilder(messageMappingStrategy, messageSerializer).build();
+    }
+
+    /**
+     * 使用已创建的{@link MessageMapper}构建，未设置的选项使用默认值
+     */
+    public static Builder newBuilder(MessageMapper messageMapper, MessageSerializer messageSerializer) {
+        return new Builder(messageMapper, null, messageSerializer);
+    }
+
+    /**
+     * 通过{@link MessageMappingStrategy}创建{@link MessageMapper}并构建，未设置的选项使用默认值
+     */
+    public static Builder newBuilder(MessageMappingStrategy messageMappingStrategy, MessageSerializer messageSerializer) {
+        return new Builder(null, messageMappingStrategy, messageSerializer);
+    }
+
+    /**
+     * {@link CodecHelper}的构建器，默认值见{@link CodecHelper}的类文档
+     */
+    public static final class Builder {
+
+        private final MessageMapper messageMapper;
+        private final MessageMappingStrategy messageMappingStrategy;
+        private final MessageSerializer messageSerializer;
+
+        private ChecksumStrategy checksumStrategy = ChecksumStrategies.sum();
+        private int capabilities = NetCapabilities.NONE;
+        private DecodeStage decodeStage = DecodeStage.IO_THREAD;
+        private int encodedCacheMaxBytes = EncodedMessageCache.DEFAULT_MAX_BYTES;
+        private int encodedCacheMaxCount = EncodedMessageCache.DEFAULT_MAX_COUNT;
+
+        private Builder(MessageMapper messageMapper, MessageMappingStrategy messageMappingStrategy, MessageSerializer messageSerializer) {
+            this.messageMapper = messageMapper;
+            this.messageMappingStrategy = messageMappingStrategy;
+            this.messageSerializer = messageSerializer;
+        }
+
+        public Builder setChecksumStrategy(ChecksumStrategy checksumStrategy) {
+            this.checksumStrategy = checksumStrategy;
+            return this;
+        }
+
+        public Builder setCapabilities(int capabilities) {
+            this.capabilities = capabilities;
+            return this;
+        }
+
+        public Builder setDecodeStage(DecodeStage decodeStage) {
+            this.decodeStage = decodeStage;
+            return this;
+        }
+
+        /**
+         * @param encodedCacheMaxBytes 编码结果缓存的字节数上限，0表示不缓存
+         */
+        public Builder setEncodedCacheMaxBytes(int encodedCacheMaxBytes) {
+            this.encodedCacheMaxBytes = encodedCacheMaxBytes;
+            return this;
+        }
+
+        /**
+         * @param encodedCacheMaxCount 编码结果缓存的消息数上限，0表示不缓存
+         */
+        public Builder setEncodedCacheMaxCount(int encodedCacheMaxCount) {
+            this.encodedCacheMaxCount = encodedCacheMaxCount;
+            return this;
+        }
+
+        public CodecHelper build() {
+            try {
+                MessageMapper messageMapper = null != this.messageMapper ? this.messageMapper : MessageMapper.newInstance(messageMappingStrategy);
+                messageSerializer.init(messageMapper);
+                return new CodecHelper(messageMapper, messageSerializer, checksumStrategy, capabilities, decodeStage,
+                        EncodedMessageCache.newInstance(encodedCacheMaxBytes, encodedCacheMaxCount));
+            } catch (Exception e){
+                ConcurrentUtils.rethrow(e);
+                // unreachable
+                return null;
+            }
         }
     }
 }
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.ints.IntSets;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * 组合的消息序列化器，按照协议id将消息分派给不同的序列化器。
+ * 例如：大部分消息使用protoBuf，少量高频的消息(位置同步等)使用手写的编解码器，
+ * 另外一些在其它地方已经编码好的数据作为{@link RawMessage}原样发送。
+ *
+ * 每个子序列化器只会看到分派给它的消息：{@link #init(MessageMapper)}时为每个子序列化器创建一个只包含这些消息的{@link MessageMapper}，
+ * 因此{@link BinaryMessageSerializer}这类要求所有消息都有编解码器的实现也可以作为子序列化器。
+ * 编解码时通过消息的紧凑下标({@link MessageMapper#getMessageIndex(int)})直接找到对应的子序列化器。
+ *
+ * 注册为原始消息的协议id不能在{@link MessageMapper}中注册，codec收到这些协议时不反序列化，
+ * 直接将网络包的retainedSlice作为{@link RawMessage}交给用户。
+ *
+ * 通过{@link CodecHelper}绑定到channelInitializer，与其它序列化器的使用方式相同。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@ThreadSafe
+public class CompositeMessageSerializer implements MessageSerializer {
+
+    /**
+     * 未单独指定序列化器的消息使用的序列化器
+     */
+    private final MessageSerializer defaultSerializer;
+    /**
+     * 消息id -> 单独指定的序列化器
+     */
+    private final Int2ObjectMap<MessageSerializer> serializerMap;
+    /**
+     * 原始消息的协议id
+     */
+    private final IntSet rawMessageIds;
+
+    /**
+     * 初始化时使用的消息映射
+     */
+    private MessageMapper messageMapper;
+    /**
+     * 消息的紧凑下标 -> 序列化器
+     */
+    private MessageSerializer[] indexedSerializers;
+    /**
+     * 消息的紧凑下标 -> 序列化器初始化时使用的消息映射(只包含分派给它的消息)
+     */
+    private MessageMapper[] indexedMappers;
+
+    /**
+     * @param defaultSerializer 未单独指定序列化器的消息使用的序列化器
+     * @param serializerMap 消息id -> 单独指定的序列化器，同一个序列化器可以用于多个消息
+     */
+    public CompositeMessageSerializer(MessageSerializer defaultSerializer, Int2ObjectMap<MessageSerializer> serializerMap) {
+        this(defaultSerializer, serializerMap, IntSets.EMPTY_SET);
+    }
+
+    /**
+     * @param defaultSerializer 未单独指定序列化器的消息使用的序列化器
+     * @param serializerMap 消息id -> 单独指定的序列化器，同一个序列化器可以用于多个消息
+     * @param rawMessageIds 原始消息({@link RawMessage})的协议id
+     */
+    public CompositeMessageSerializer(MessageSerializer defaultSerializer, Int2ObjectMap<MessageSerializer> serializerMap,
+                                      IntSet rawMessageIds) {
+        this.defaultSerializer = defaultSerializer;
+        this.serializerMap = new Int2ObjectOpenHashMap<>(serializerMap);
+        this.rawMessageIds = new IntOpenHashSet(rawMessageIds);
+    }
+
+    @Override
+    public void init(MessageMapper messageMapper) throws Exception {
+        for (int messageId : serializerMap.keySet()) {
+            if (null == messageMapper.getMessageClazz(messageId)) {
+                throw new IllegalArgumentException("messageId " + messageId + " is not registered");
+            }
+        }
+        for (int messageId : rawMessageIds) {
+            Class<?> messageClazz = messageMapper.getMessageClazz(messageId);
+            if (null != messageClazz) {
+                throw new IllegalArgumentException("raw messageId " + messageId + " is registered by " + messageClazz.getName());
+            }
+        }
+        // 按照序列化器对消息分组，每个序列化器使用只包含自己的消息的映射进行初始化
+        Map<MessageSerializer, Object2IntMap<Class<?>>> groupMap = new IdentityHashMap<>();
+        groupMap.put(defaultSerializer, new Object2IntOpenHashMap<>());
+        for (Object2IntMap.Entry<Class<?>> entry : messageMapper.getMessageClazz2IdMap().object2IntEntrySet()) {
+            groupMap.computeIfAbsent(serializerOf(entry.getIntValue()), k -> new Object2IntOpenHashMap<>())
+                    .put(entry.getKey(), entry.getIntValue());
+        }
+        Map<MessageSerializer, MessageMapper> mapperMap = new IdentityHashMap<>();
+        for (Map.Entry<MessageSerializer, Object2IntMap<Class<?>>> entry : groupMap.entrySet()) {
+            Object2IntMap<Class<?>> mapping = entry.getValue();
+            MessageMapper subMapper = MessageMapper.newInstance(() -> mapping);
+            entry.getKey().init(subMapper);
+            mapperMap.put(entry.getKey(), subMapper);
+        }
+
+        indexedSerializers = new MessageSerializer[messageMapper.getMessageCount()];
+        indexedMappers = new MessageMapper[messageMapper.getMessageCount()];
+        for (int index = 0; index < indexedSerializers.length; index++) {
+            int messageId = messageMapper.getMessageId(messageMapper.getMessageClazzByIndex(index));
+            indexedSerializers[index] = serializerOf(messageId);
+            indexedMappers[index] = mapperMap.get(indexedSerializers[index]);
+        }
+        this.messageMapper = messageMapper;
+    }
+
+    private MessageSerializer serializerOf(int messageId) {
+        MessageSerializer serializer = serializerMap.get(messageId);
+        return null == serializer ? defaultSerializer : serializer;
+    }
+
+    /**
+     * 获取消息类对应的序列化器
+     */
+    private MessageSerializer serializerOf(Class<?> messageClazz) {
+        int index = messageMapper.getMessageIndex(messageMapper.getMessageId(messageClazz));
+        // 未注册的消息交给默认的序列化器处理(抛出异常)
+        return index < 0 ? defaultSerializer : indexedSerializers[index];
+    }
+
+    /**
+     * 协议id是否是原始消息
+     * @param messageId 协议id
+     * @return true/false
+     */
+    public boolean isRawMessage(int messageId) {
+        return rawMessageIds.contains(messageId);
+    }
+
+    /**
+     * 协议id是否是原始消息
+     * @param messageSerializer 编解码器使用的序列化器
+     * @param messageId 协议id
+     * @return 只有{@link CompositeMessageSerializer}才支持原始消息
+     */
+    public static boolean isRawMessage(MessageSerializer messageSerializer, int messageId) {
+        return messageSerializer instanceof CompositeMessageSerializer
+                && ((CompositeMessageSerializer) messageSerializer).isRawMessage(messageId);
+    }
+
+    @Override
+    public byte[] serialize(Object message) throws IOException {
+        if (message instanceof RawMessage) {
+            return ByteBufUtil.getBytes(((RawMessage) message).getContent());
+        }
+        return serializerOf(message.getClass()).serialize(message);
+    }
+
+    @Override
+    public int getSerializedSize(Object message) throws IOException {
+        if (message instanceof RawMessage) {
+            return ((RawMessage) message).getContent().readableBytes();
+        }
+        return serializerOf(message.getClass()).getSerializedSize(message);
+    }
+
+    @Override
+    public boolean isSerializedSizeExceeded(Object message, int limit) throws IOException {
+        if (message instanceof RawMessage) {
+            return ((RawMessage) message).getContent().readableBytes() > limit;
+        }
+        return serializerOf(message.getClass()).isSerializedSizeExceeded(message, limit);
+    }
+
+    @Override
+    public void serialize(Object message, ByteBuf byteBuf) throws IOException {
+        if (message instanceof RawMessage) {
+            ByteBuf content = ((RawMessage) message).getContent();
+            byteBuf.writeBytes(content, content.readerIndex(), content.readableBytes());
+            return;
+        }
+        serializerOf(message.getClass()).serialize(message, byteBuf);
+    }
+
+    @Override
+    public <T> T deserialize(Class<T> messageClazz, byte[] messageBytes) throws IOException {
+        return serializerOf(messageClazz).deserialize(messageClazz, messageBytes);
+    }
+
+    @Override
+    public <T> T deserialize(Class<T> messageClazz, ByteBuf messageBuf) throws IOException {
+        return serializerOf(messageClazz).deserialize(messageClazz, messageBuf);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 原始消息会拷贝内容(该方法不可以修改引用计数)，codec不会走到这里，而是直接使用网络包的retainedSlice。
+     */
+    @Override
+    public Object deserialize(MessageMapper messageMapper, int messageId, ByteBuf messageBuf) throws IOException {
+        if (rawMessageIds.contains(messageId)) {
+            ByteBuf content = Unpooled.buffer(messageBuf.readableBytes());
+            content.writeBytes(messageBuf);
+            return new RawMessage(messageId, content);
+        }
+        int index = this.messageMapper.getMessageIndex(messageId);
+        if (index < 0) {
+            throw new IOException("unregistered messageId " + messageId);
+        }
+        return indexedSerializers[index].deserialize(indexedMappers[index], messageId, messageBuf);
+    }
+}
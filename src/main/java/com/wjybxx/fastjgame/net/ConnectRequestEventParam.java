@@ -18,6 +18,8 @@ package com.wjybxx.fastjgame.net;
 
 import io.netty.channel.Channel;
 
+import javax.annotation.Nullable;
+
 /**
  * 连接请求事件参数
  * @author wjybxx
@@ -30,11 +32,25 @@ public class ConnectRequestEventParam implements NetEventParam{
     private final Channel channel;
     private final long localGuid;
     private final ConnectRequestTO connectRequestTO;
+    /** 该channel使用的编解码器帮助类 */
+    private final CodecHelper codecHelper;
+    /** 协商启用了{@link NetCapabilities#FRAGMENT}时，用于该channel的消息分片器 */
+    private final MessageFragmenter fragmenter;
+    /** 该channel协商的扩展能力{@link NetCapabilities} */
+    private final int capabilities;
 
     public ConnectRequestEventParam(Channel channel, long localGuid, ConnectRequestTO connectRequestTO) {
+        this(channel, localGuid, connectRequestTO, null, null, NetCapabilities.NONE);
+    }
+
+    public ConnectRequestEventParam(Channel channel, long localGuid, ConnectRequestTO connectRequestTO,
+                                    @Nullable CodecHelper codecHelper, @Nullable MessageFragmenter fragmenter, int capabilities) {
         this.localGuid = localGuid;
         this.channel = channel;
         this.connectRequestTO = connectRequestTO;
+        this.codecHelper = codecHelper;
+        this.fragmenter = fragmenter;
+        this.capabilities = capabilities;
     }
 
     public long getClientGuid() {
@@ -61,6 +77,20 @@ public class ConnectRequestEventParam implements NetEventParam{
         return connectRequestTO;
     }
 
+    @Nullable
+    public CodecHelper getCodecHelper() {
+        return codecHelper;
+    }
+
+    @Nullable
+    public MessageFragmenter getFragmenter() {
+        return fragmenter;
+    }
+
+    public int getCapabilities() {
+        return capabilities;
+    }
+
     @Override
     public Channel channel() {
         return channel;
@@ -50,12 +50,22 @@ public class ConnectRequestTO {
      * (服务器发送给客户端的，客户端只保存)
      */
     private final byte[] tokenBytes;
+    /**
+     * 客户端希望使用的扩展能力{@link NetCapabilities}
+     * (发送时由codec根据{@link CodecHelper}的配置填充，这里的值只在解码时有效)
+     */
+    private final int capabilities;
 
     public ConnectRequestTO(long clientGuid, int sndTokenTimes, long ack, byte[] tokenBytes) {
+        this(clientGuid, sndTokenTimes, ack, tokenBytes, NetCapabilities.NONE);
+    }
+
+    public ConnectRequestTO(long clientGuid, int sndTokenTimes, long ack, byte[] tokenBytes, int capabilities) {
         this.clientGuid = clientGuid;
         this.sndTokenTimes = sndTokenTimes;
         this.ack = ack;
         this.tokenBytes = tokenBytes;
+        this.capabilities = capabilities;
     }
 
     public long getClientGuid() {
@@ -73,4 +83,8 @@ public class ConnectRequestTO {
     public byte[] getTokenBytes() {
         return tokenBytes;
     }
+
+    public int getCapabilities() {
+        return capabilities;
+    }
 }
@@ -18,6 +18,7 @@ package com.wjybxx.fastjgame.net;
 
 import io.netty.channel.Channel;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 
 /**
@@ -42,11 +43,28 @@ public class ConnectResponseEventParam implements NetEventParam{
     /** 响应参数 */
     private final ConnectResponseTO responseTO;
 
+    /** 该channel使用的编解码器帮助类 */
+    private final CodecHelper codecHelper;
+
+    /** 协商启用了{@link NetCapabilities#FRAGMENT}时，用于该channel的消息分片器 */
+    private final MessageFragmenter fragmenter;
+
+    /** 该channel协商的扩展能力{@link NetCapabilities} */
+    private final int capabilities;
+
     public ConnectResponseEventParam(Channel channel, long localGuid, long serverGuid, ConnectResponseTO responseTO) {
+        this(channel, localGuid, serverGuid, responseTO, null, null, NetCapabilities.NONE);
+    }
+
+    public ConnectResponseEventParam(Channel channel, long localGuid, long serverGuid, ConnectResponseTO responseTO,
+                                     @Nullable CodecHelper codecHelper, @Nullable MessageFragmenter fragmenter, int capabilities) {
         this.localGuid = localGuid;
         this.channel = channel;
         this.serverGuid = serverGuid;
         this.responseTO = responseTO;
+        this.codecHelper = codecHelper;
+        this.fragmenter = fragmenter;
+        this.capabilities = capabilities;
     }
 
     public ConnectResponseTO getResponseTO() {
@@ -73,6 +91,20 @@ public class ConnectResponseEventParam implements NetEventParam{
         return responseTO.getEncryptedToken();
     }
 
+    @Nullable
+    public CodecHelper getCodecHelper() {
+        return codecHelper;
+    }
+
+    @Nullable
+    public MessageFragmenter getFragmenter() {
+        return fragmenter;
+    }
+
+    public int getCapabilities() {
+        return capabilities;
+    }
+
     @Override
     public Channel channel() {
         return channel;
@@ -44,12 +44,22 @@ public class ConnectResponseTO {
      * 被加密的token，客户端仅仅是负责保存token
      */
     private final byte[] encryptedToken;
+    /**
+     * 协商之后双方使用的扩展能力{@link NetCapabilities}
+     * (发送时由codec根据协商结果填充，这里的值只在解码时有效)
+     */
+    private final int capabilities;
 
     public ConnectResponseTO(int sndTokenTimes, boolean success, long ack, byte[] encryptedToken) {
+        this(sndTokenTimes, success, ack, encryptedToken, NetCapabilities.NONE);
+    }
+
+    public ConnectResponseTO(int sndTokenTimes, boolean success, long ack, byte[] encryptedToken, int capabilities) {
         this.sndTokenTimes = sndTokenTimes;
         this.success = success;
         this.ack = ack;
         this.encryptedToken = encryptedToken;
+        this.capabilities = capabilities;
     }
 
     public int getSndTokenTimes() {
@@ -67,4 +77,8 @@ public class ConnectResponseTO {
     public byte[] getEncryptedToken() {
         return encryptedToken;
     }
+
+    public int getCapabilities() {
+        return capabilities;
+    }
 }
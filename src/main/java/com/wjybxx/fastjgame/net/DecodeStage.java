@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+/**
+ * 消息体的反序列化阶段。
+ * 默认在IO线程(netty的channel线程)中解码，IO线程较忙或消息体较大时，可以将解码推迟到网络线程或用户线程，
+ * 此时codec只解析包头，消息体以{@link DeferredMessage}的形式(协议id + 引用计数的payload切片)传递。
+ *
+ * 通过{@link CodecHelper}为每个channelInitializer单独指定。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/8
+ * github - https://github.com/hl845740757
+ */
+public enum DecodeStage {
+
+    /**
+     * 在IO线程中解码(默认)，codec直接产生消息对象
+     */
+    IO_THREAD,
+
+    /**
+     * 在网络线程({@link com.wjybxx.fastjgame.eventloop.NetEventLoop})中解码，
+     * 在sequence和ack校验通过之后，提交给用户线程之前解码。
+     */
+    NET_EVENT_LOOP,
+
+    /**
+     * 在用户线程中解码，在调用{@link MessageHandler#onMessage(Session, Object)}
+     * 或{@link MessageHandler#onRpcRequest(Session, Object, RpcResponseChannel)}之前解码。
+     *
+     * 注意：rpc响应仍然在网络线程解码，因为rpc的结果可能被多个线程获取(如同步rpc调用)。
+     */
+    USER_EVENT_LOOP,
+    ;
+
+    /**
+     * 当前阶段是否需要在IO线程之后解码
+     */
+    public boolean isDeferred() {
+        return this != IO_THREAD;
+    }
+}
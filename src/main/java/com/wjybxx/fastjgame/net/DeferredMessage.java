@@ -0,0 +1,226 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.List;
+
+/**
+ * 延迟解码的消息体。
+ * 当{@link DecodeStage#isDeferred()}时，codec不在IO线程反序列化消息体，而是将协议id和payload切片封装为该对象，
+ * 在{@link DecodeStage}指定的阶段再解码。
+ *
+ * payload是一个retainedSlice，它会持有整个网络包，因此解码或丢弃消息时必须调用{@link #decode()}或{@link #release()}释放；
+ * 二者都是幂等的，且只释放一次。
+ *
+ * 分片消息({@link NetCapabilities#FRAGMENT})的最后一部分也使用该对象表示，它至少在NetEventLoop解码，
+ * 解码之前由会话调用{@link #assemble(List)}拼接之前收到的分片。
+ *
+ * 它在IO线程创建，经由{@link com.wjybxx.fastjgame.eventloop.NetEventLoop}和用户线程的任务队列传递，
+ * 任意时刻只有一个线程访问它(任务队列提供happens-before)，因此不需要同步。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/8
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public final class DeferredMessage {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeferredMessage.class);
+
+    /**
+     * 解码阶段
+     */
+    private final DecodeStage decodeStage;
+    /**
+     * 协议id
+     */
+    private final int messageId;
+    private final MessageMapper messageMapper;
+    private final MessageSerializer messageSerializer;
+    /**
+     * 是否是分片消息的最后一部分
+     */
+    private final boolean fragmented;
+    /**
+     * 消息内容，解码或释放之后为null
+     */
+    private ByteBuf payload;
+    /**
+     * 解码结果
+     */
+    private Object message;
+
+    public DeferredMessage(DecodeStage decodeStage, int messageId, ByteBuf payload,
+                           MessageMapper messageMapper, MessageSerializer messageSerializer) {
+        this(decodeStage, messageId, payload, messageMapper, messageSerializer, false);
+    }
+
+    public DeferredMessage(DecodeStage decodeStage, int messageId, ByteBuf payload,
+                           MessageMapper messageMapper, MessageSerializer messageSerializer, boolean fragmented) {
+        this.fragmented = fragmented;
+        this.decodeStage = decodeStage;
+        this.messageId = messageId;
+        this.payload = payload;
+        this.messageMapper = messageMapper;
+        this.messageSerializer = messageSerializer;
+    }
+
+    public DecodeStage getDecodeStage() {
+        return decodeStage;
+    }
+
+    public int getMessageId() {
+        return messageId;
+    }
+
+    public boolean isFragmented() {
+        return fragmented;
+    }
+
+    /**
+     * 在payload之前拼接之前收到的分片，组成完整的消息体。
+     * @param fragments 之前收到的分片，按sequence排序，所有权转移给该对象
+     */
+    public void assemble(List<ByteBuf> fragments) {
+        if (null == payload) {
+            fragments.forEach(ByteBuf::release);
+            return;
+        }
+        ByteBuf[] components = fragments.toArray(new ByteBuf[fragments.size() + 1]);
+        components[fragments.size()] = payload;
+        // 组合而不是拷贝，释放组合的byteBuf时会释放所有分片
+        payload = Unpooled.wrappedBuffer(components.length, components);
+    }
+
+    /**
+     * 解码消息体，并释放payload。
+     * 多次调用返回第一次解码的结果。
+     * @return 为了不影响该连接上的其它消息，解码失败返回null；已经{@link #release()}的消息也返回null。
+     */
+    @Nullable
+    public Object decode() {
+        if (null == payload) {
+            return message;
+        }
+        if (CompositeMessageSerializer.isRawMessage(messageSerializer, messageId)) {
+            // 原始消息不反序列化，payload交给用户释放
+            message = new RawMessage(messageId, payload);
+            payload = null;
+            return message;
+        }
+        try {
+            message = messageSerializer.deserialize(messageMapper, messageId, payload);
+        } catch (Exception e) {
+            logger.warn("deserialize messageId {} caught exception", messageId, e);
+        } finally {
+            payload.release();
+            payload = null;
+        }
+        return message;
+    }
+
+    /**
+     * 丢弃消息时释放payload
+     */
+    public void release() {
+        if (null != payload) {
+            payload.release();
+            payload = null;
+        }
+    }
+
+    /**
+     * 如果消息是延迟解码的，且它的解码阶段不晚于当前阶段，则进行解码。
+     * @param message 消息对象或{@link DeferredMessage}
+     * @param currentStage 当前所处的阶段
+     * @return 解码后的消息，或原对象(不需要在当前阶段解码时)
+     */
+    public static Object decodeIfNecessary(@Nullable Object message, DecodeStage currentStage) {
+        if (message instanceof DeferredMessage) {
+            DeferredMessage deferredMessage = (DeferredMessage) message;
+            if (deferredMessage.decodeStage.compareTo(currentStage) <= 0) {
+                return deferredMessage.decode();
+            }
+        }
+        return message;
+    }
+
+    /**
+     * 如果消息是延迟解码的，则释放它持有的payload；如果是收到的{@link RawMessage}，则释放它的内容
+     * @param message 消息对象、{@link DeferredMessage}或{@link RawMessage}
+     */
+    public static void releaseIfDeferred(@Nullable Object message) {
+        if (message instanceof DeferredMessage) {
+            ((DeferredMessage) message).release();
+        } else if (message instanceof RawMessage) {
+            ((RawMessage) message).release();
+        }
+    }
+
+    /**
+     * 解码rpc响应中延迟解码的body。
+     * rpc响应总是在网络线程解码(见{@link DecodeStage#USER_EVENT_LOOP})。
+     * @param rpcResponse 收到的rpc响应
+     * @return 解码之后的rpc响应，如果body解码失败，则返回{@link RpcResultCode#LOCAL_EXCEPTION}
+     */
+    public static RpcResponse decodeRpcResponse(RpcResponse rpcResponse) {
+        if (!(rpcResponse.getBody() instanceof DeferredMessage)) {
+            return rpcResponse;
+        }
+        Object body = ((DeferredMessage) rpcResponse.getBody()).decode();
+        if (null == body) {
+            return new RpcResponse(RpcResultCode.LOCAL_EXCEPTION, null);
+        }
+        return new RpcResponse(rpcResponse.getResultCode(), body);
+    }
+
+    /**
+     * 丢弃消息时，释放它的消息体持有的payload
+     * @param messageTO 丢弃的消息
+     */
+    public static void releaseBody(MessageTO messageTO) {
+        if (messageTO instanceof OneWayMessageTO) {
+            releaseIfDeferred(((OneWayMessageTO) messageTO).getMessage());
+        } else if (messageTO instanceof RpcRequestMessageTO) {
+            releaseIfDeferred(((RpcRequestMessageTO) messageTO).getRequest());
+        } else if (messageTO instanceof RpcResponseMessageTO) {
+            releaseIfDeferred(((RpcResponseMessageTO) messageTO).getRpcResponse().getBody());
+        } else if (messageTO instanceof FragmentMessageTO) {
+            ((FragmentMessageTO) messageTO).getFragment().release();
+        } else if (messageTO instanceof UnreliableMessageTO) {
+            releaseIfDeferred(((UnreliableMessageTO) messageTO).getMessage());
+        }
+    }
+
+    /**
+     * 丢弃网络事件时，如果是消息事件，则释放它的消息体持有的payload
+     * @param eventParam 丢弃的事件
+     */
+    public static void releaseBody(NetEventParam eventParam) {
+        if (eventParam instanceof MessageEventParam) {
+            releaseBody(((MessageEventParam) eventParam).messageTO());
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+/**
+ * 单向消息的投递方式
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+public enum DeliveryMode {
+
+	/**
+	 * 可靠有序：占用sequence，进入已发送队列直到被确认，断线重连之后重传，接收方按sequence顺序交给用户。
+	 */
+	RELIABLE_ORDERED,
+
+	/**
+	 * 不可靠：不占用sequence，不进入已发送队列，不会重传，接收方收到之后直接交给用户。
+	 * 适用于很快就会过时的高频消息(如位置同步)，过时的消息重传没有意义，只会占用内存并在重连之后阻塞链路。
+	 * 1. 与其它消息之间没有顺序保证。
+	 * 2. 会话未建立连接、链路拥塞或等待发送的不可靠消息过多时会丢弃(待发送的只保留最新的一部分)。
+	 * 3. 不会分片，消息体不能超过帧长度限制。
+	 * 4. 对方不支持时(未协商{@link NetCapabilities#UNRELIABLE})退化为{@link #RELIABLE_ORDERED}。
+	 */
+	UNRELIABLE,
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link CacheableMessage}的编码结果缓存，按照消息对象的identity缓存，每个{@link CodecHelper}一个。
+ *
+ * 编码结果存储在池化的byteBuf中，缓存持有一个引用；
+ * 使用者通过{@link #acquire(Object, MessageSerializer)}获得编码结果的retainedDuplicate，使用完毕之后释放，
+ * 因此淘汰时只需要释放缓存持有的引用，正在写入的网络包不受影响。
+ * 重传队列引用的是消息对象而不是编码结果，重传时再次查询缓存(已淘汰则重新编码)。
+ *
+ * 缓存的总字节数和消息数都有上限，超出任意一个时淘汰最近最少使用的编码结果(LRU)；超过字节数上限的单个消息不缓存。
+ * 消息数上限避免大量很小的消息占满缓存(每个缓存项都有map节点和byteBuf对象的额外开销)。
+ * 多个IO线程会并发的访问，访问时加锁，序列化在锁外进行。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@ThreadSafe
+public final class EncodedMessageCache {
+
+    /**
+     * 默认的缓存字节数上限
+     */
+    public static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+    /**
+     * 默认的缓存消息数上限
+     */
+    public static final int DEFAULT_MAX_COUNT = 4096;
+
+    /**
+     * 缓存的字节数上限
+     */
+    private final int maxBytes;
+    /**
+     * 缓存的消息数上限
+     */
+    private final int maxCount;
+    /**
+     * 消息对象(identity) -> 编码结果，访问顺序
+     */
+    private final LinkedHashMap<IdentityKey, ByteBuf> cacheMap = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * 当前缓存的字节数
+     */
+    private long cachedBytes;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    private EncodedMessageCache(int maxBytes, int maxCount) {
+        this.maxBytes = maxBytes;
+        this.maxCount = maxCount;
+    }
+
+    /**
+     * 获取消息的编码结果，未缓存时进行编码并缓存。
+     * @param message 不可变的消息对象
+     * @param messageSerializer 序列化器，必须是创建该缓存的{@link CodecHelper}的序列化器
+     * @return 编码结果的retainedDuplicate，使用者负责释放
+     */
+    public ByteBuf acquire(Object message, MessageSerializer messageSerializer) throws IOException {
+        final IdentityKey key = new IdentityKey(message);
+        synchronized (this) {
+            ByteBuf cached = cacheMap.get(key);
+            if (null != cached) {
+                hitCount++;
+                return cached.retainedDuplicate();
+            }
+            missCount++;
+        }
+        // 在锁外序列化，竞争时最多多编码几次
+        ByteBuf encoded = encode(message, messageSerializer);
+        if (maxCount == 0 || encoded.readableBytes() > maxBytes) {
+            // 不缓存，所有权交给使用者
+            return encoded;
+        }
+        synchronized (this) {
+            ByteBuf cached = cacheMap.get(key);
+            if (null != cached) {
+                encoded.release();
+                return cached.retainedDuplicate();
+            }
+            cacheMap.put(key, encoded);
+            cachedBytes += encoded.readableBytes();
+            evictIfNecessary();
+            return encoded.retainedDuplicate();
+        }
+    }
+
+    private static ByteBuf encode(Object message, MessageSerializer messageSerializer) throws IOException {
+        int serializedSize = messageSerializer.getSerializedSize(message);
+        ByteBuf encoded = ByteBufAllocator.DEFAULT.buffer(serializedSize >= 0 ? serializedSize : 256);
+        try {
+            messageSerializer.serialize(message, encoded);
+            return encoded;
+        } catch (Throwable e) {
+            encoded.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 淘汰最近最少使用的编码结果，直到字节数和消息数都不超过上限
+     */
+    private void evictIfNecessary() {
+        Iterator<Map.Entry<IdentityKey, ByteBuf>> iterator = cacheMap.entrySet().iterator();
+        while ((cachedBytes > maxBytes || cacheMap.size() > maxCount) && iterator.hasNext()) {
+            ByteBuf evicted = iterator.next().getValue();
+            iterator.remove();
+            cachedBytes -= evicted.readableBytes();
+            evictionCount++;
+            evicted.release();
+        }
+    }
+
+    /**
+     * 释放所有缓存的编码结果。
+     * 缓存随{@link CodecHelper}一直存在，如果不再使用某个{@link CodecHelper}，应该调用该方法归还池化的内存。
+     */
+    public synchronized void clear() {
+        cacheMap.values().forEach(ByteBuf::release);
+        cacheMap.clear();
+        cachedBytes = 0;
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    public synchronized int getCachedCount() {
+        return cacheMap.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "EncodedMessageCache{" +
+                "maxBytes=" + maxBytes +
+                ", maxCount=" + maxCount +
+                ", cachedBytes=" + cachedBytes +
+                ", cachedCount=" + cacheMap.size() +
+                ", hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", evictionCount=" + evictionCount +
+                '}';
+    }
+
+    /**
+     * 创建一个编码结果缓存，消息数上限为{@link #DEFAULT_MAX_COUNT}
+     * @param maxBytes 缓存的字节数上限，0表示不缓存
+     * @return cache
+     */
+    public static EncodedMessageCache newInstance(int maxBytes) {
+        return newInstance(maxBytes, DEFAULT_MAX_COUNT);
+    }
+
+    /**
+     * 创建一个编码结果缓存
+     * @param maxBytes 缓存的字节数上限，0表示不缓存
+     * @param maxCount 缓存的消息数上限，0表示不缓存
+     * @return cache
+     */
+    public static EncodedMessageCache newInstance(int maxBytes, int maxCount) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes " + maxBytes);
+        }
+        if (maxCount < 0) {
+            throw new IllegalArgumentException("maxCount " + maxCount);
+        }
+        return new EncodedMessageCache(maxBytes, maxCount);
+    }
+
+    /**
+     * 按照对象的identity比较的key
+     */
+    private static final class IdentityKey {
+
+        private final Object message;
+
+        private IdentityKey(Object message) {
+            this.message = message;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IdentityKey && ((IdentityKey) o).message == message;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(message);
+        }
+    }
+}
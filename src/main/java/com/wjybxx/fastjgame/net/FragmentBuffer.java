@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net;
+
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 会话的分片重组缓冲区({@link NetCapabilities#FRAGMENT})。
+ *
+ * 分片已经通过了消息队列的sequence和ack检查，因此是连续且不重复的(重连之后对方只会重传未确认的分片)；
+ * 缓冲区属于会话而不是channel，断线重连不影响已收到的分片。
+ * 分片是网络包的retainedSlice，重组时组合而不拷贝，会话关闭时必须调用{@link #release()}。
+ *
+ * 只在NetEventLoop中使用。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/10
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public final class FragmentBuffer {
+
+    /**
+     * 允许缓存的最大字节数
+     */
+    private final int maxBytes;
+    /**
+     * 已收到的分片
+     */
+    private final List<ByteBuf> fragments = new ArrayList<>();
+    /**
+     * 已缓存的字节数
+     */
+    private int bufferedBytes = 0;
+
+    public FragmentBuffer(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 处理一个通过了sequence和ack检查的消息：
+     * 分片被缓存；分片消息的最后一部分与缓存的分片组合为完整的消息体；其它消息不变。
+     * @param messageTO 收到的消息
+     * @return 超出缓存上限，或分片消息不完整时返回false(消息体已释放)，此时应该关闭会话
+     */
+    public boolean accept(MessageTO messageTO) {
+        if (messageTO instanceof FragmentMessageTO) {
+            return append((FragmentMessageTO) messageTO);
+        }
+        return assemble(messageTO);
+    }
+
+    /**
+     * 缓存一个分片
+     * @param fragmentMessageTO 收到的分片，所有权转移给缓冲区
+     * @return 超出缓存上限时返回false(分片已释放)
+     */
+    private boolean append(FragmentMessageTO fragmentMessageTO) {
+        ByteBuf fragment = fragmentMessageTO.getFragment();
+        if (fragment.readableBytes() > maxBytes - bufferedBytes) {
+            fragment.release();
+            return false;
+        }
+        bufferedBytes += fragment.readableBytes();
+        fragments.add(fragment);
+        return true;
+    }
+
+    /**
+     * 如果消息是分片消息的最后一部分，则将缓存的分片交给它，组成完整的消息体。
+     * @param messageTO 收到的消息
+     * @return 消息与缓存的分片不匹配时返回false(消息体已释放)
+     */
+    private boolean assemble(MessageTO messageTO) {
+        Object body = bodyOf(messageTO);
+        boolean fragmented = body instanceof DeferredMessage && ((DeferredMessage) body).isFragmented();
+        if (fragments.isEmpty()) {
+            if (fragmented) {
+                DeferredMessage.releaseBody(messageTO);
+                return false;
+            }
+            return true;
+        }
+        if (!fragmented) {
+            // 分片消息还未结束就收到了其它消息
+            DeferredMessage.releaseBody(messageTO);
+            release();
+            return false;
+        }
+        ((DeferredMessage) body).assemble(new ArrayList<>(fragments));
+        fragments.clear();
+        bufferedBytes = 0;
+        return true;
+    }
+
+    private static Object bodyOf(MessageTO messageTO) {
+        if (messageTO instanceof OneWayMessageTO) {
+            return ((OneWayMessageTO) messageTO).getMessage();
+        }
+        if (messageTO instanceof RpcRequestMessageTO) {
+            return ((RpcRequestMessageTO) messageTO).getRequest();
+        }
+        if (messageTO instanceof RpcResponseMessageTO) {
+            return ((RpcResponseMessageTO) messageTO).getRpcResponse().getBody();
+        }
+        return null;
+    }
+
+    /**
+     * 释放缓存的分片
+     */
+    public void release() {
+        fragments.forEach(ByteBuf::release);
+        fragments.clear();
+        bufferedBytes = 0;
+    }
+}
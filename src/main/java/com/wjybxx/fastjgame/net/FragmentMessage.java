@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net;
+
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 已发送的分片，在收到对方的确认之前保留在已发送队列中，重传时使用同一个分片。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/10
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public class FragmentMessage extends NetMessage {
+
+	/** 分片内容，编码结果的切片 */
+	private final ByteBuf fragment;
+
+	public FragmentMessage(long sequence, ByteBuf fragment) {
+		super(sequence);
+		this.fragment = fragment;
+	}
+
+	@Override
+	public FragmentMessageTO build(long ack) {
+		return new FragmentMessageTO(ack, sequence, fragment);
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net;
+
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * 分片传输对象，大消息的消息体的一部分。
+ *
+ * 发送时fragment是编码结果的切片(非池化内存，由GC回收)；
+ * 接收时fragment是网络包的retainedSlice，会话重组或丢弃分片时必须释放。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/10
+ * github - https://github.com/hl845740757
+ */
+@Immutable
+@TransferObject
+public class FragmentMessageTO extends MessageTO {
+
+	/** 分片内容 */
+	private final ByteBuf fragment;
+
+	public FragmentMessageTO(long ack, long sequence, ByteBuf fragment) {
+		super(ack, sequence);
+		this.fragment = fragment;
+	}
+
+	public ByteBuf getFragment() {
+		return fragment;
+	}
+}
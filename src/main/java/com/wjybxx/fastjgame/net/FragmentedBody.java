@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net;
+
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * 分片消息的最后一部分，替换原消息的消息体，随原消息一起发送。
+ * codec写入原消息的协议id，并添加{@link NetPackageType#FLAG_FRAGMENTED}标记，
+ * 接收方将它与之前收到的分片组合之后再解码。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/10
+ * github - https://github.com/hl845740757
+ */
+@Immutable
+public final class FragmentedBody {
+
+    /**
+     * 原消息的协议id
+     */
+    private final int messageId;
+    /**
+     * 编码结果的最后一部分，使用者不可以修改它的索引和内容，应该使用它的duplicate。
+     */
+    private final ByteBuf lastFragment;
+
+    public FragmentedBody(int messageId, ByteBuf lastFragment) {
+        this.messageId = messageId;
+        this.lastFragment = lastFragment;
+    }
+
+    public int getMessageId() {
+        return messageId;
+    }
+
+    public ByteBuf getLastFragment() {
+        return lastFragment;
+    }
+}
@@ -16,15 +16,31 @@
 
 package com.wjybxx.fastjgame.net;
 
-
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.wjybxx.fastjgame.utils.JsonUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 
 import javax.annotation.concurrent.ThreadSafe;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 /**
  * json消息序列化工具。
- * 使用Google的Gson序列化。
+ * 使用Google的Gson序列化，默认使用{@link JsonUtils#getGson()}，与项目中其它地方的json配置保持一致。
+ *
+ * 在{@link #init(MessageMapper)}时为每一个消息类预先构建{@link TypeAdapter}，编解码时不再进行类型解析；
+ * 并且直接以utf-8编码在byteBuf上流式的读写，不产生中间的字节数组和字符串。
+ *
  * @author wjybxx
  * @version 1.0
  * date - 2019/4/27 10:23
@@ -33,18 +49,354 @@ import java.io.IOException;
 @ThreadSafe
 public class JsonMessageSerializer implements MessageSerializer {
 
+    /**
+     * {@link #serialize(Object)}时缓冲区的初始大小
+     */
+    private static final int DEFAULT_BUFFER_SIZE = 256;
+
+    /**
+     * Gson是线程安全的，可以共享
+     */
+    private final Gson gson;
+    /**
+     * 消息类 -> TypeAdapter，编码时使用
+     */
+    private final Map<Class<?>, TypeAdapter<?>> adapterMap = new IdentityHashMap<>();
+    /**
+     * 消息的紧凑下标 -> TypeAdapter，通过协议id解码时使用
+     */
+    private TypeAdapter<?>[] indexedAdapters;
+
+    public JsonMessageSerializer() {
+        this(JsonUtils.getGson());
+    }
+
+    /**
+     * @param gson 指定配置的gson
+     */
+    public JsonMessageSerializer(Gson gson) {
+        this.gson = gson;
+    }
+
     @Override
     public void init(MessageMapper messageMapper) {
-
+        for (Class<?> messageClazz : messageMapper.getAllMessageClasses()) {
+            adapterMap.put(messageClazz, gson.getAdapter(messageClazz));
+        }
+        indexedAdapters = new TypeAdapter<?>[messageMapper.getMessageCount()];
+        for (int index = 0; index < indexedAdapters.length; index++) {
+            indexedAdapters[index] = adapterMap.get(messageMapper.getMessageClazzByIndex(index));
+        }
     }
 
     @Override
     public <T> T deserialize(Class<T> messageClazz, byte[] messageBytes) throws IOException {
-        return JsonUtils.parseJsonBytes(messageBytes, messageClazz);
+        return deserialize(messageClazz, Unpooled.wrappedBuffer(messageBytes));
+    }
+
+    @Override
+    public <T> T deserialize(Class<T> messageClazz, ByteBuf messageBuf) throws IOException {
+        return read(findAdapter(messageClazz), messageBuf);
+    }
+
+    @Override
+    public Object deserialize(MessageMapper messageMapper, int messageId, ByteBuf messageBuf) throws IOException {
+        int index = messageMapper.getMessageIndex(messageId);
+        if (index < 0) {
+            throw new UnsupportedEncodingException("unregistered json messageId " + messageId);
+        }
+        return read(indexedAdapters[index], messageBuf);
+    }
+
+    private <T> T read(TypeAdapter<T> adapter, ByteBuf messageBuf) throws IOException {
+        // 直接从byteBuf中解码utf-8字符，不拷贝到中间数组
+        JsonReader jsonReader = gson.newJsonReader(new ByteBufUtf8Reader(messageBuf));
+        // 与Gson.fromJson的行为保持一致
+        jsonReader.setLenient(true);
+        T message = adapter.read(jsonReader);
+        messageBuf.skipBytes(messageBuf.readableBytes());
+        return message;
+    }
+
+    @Override
+    public byte[] serialize(Object message) throws IOException {
+        // 先写入池化的缓冲区(扩容不产生垃圾)，长度确定后只拷贝一次到结果数组
+        ByteBuf byteBuf = ByteBufAllocator.DEFAULT.heapBuffer(DEFAULT_BUFFER_SIZE);
+        try {
+            serialize(message, byteBuf);
+            return ByteBufUtil.getBytes(byteBuf);
+        } finally {
+            byteBuf.release();
+        }
     }
 
     @Override
-    public byte[] serialize(Object message) {
-        return JsonUtils.toJsonBytes(message);
+    public void serialize(Object message, ByteBuf byteBuf) throws IOException {
+        // json的长度无法提前计算，直接以utf-8编码流式的写入byteBuf，不产生中间的字符串和字节数组
+        write(message, new ByteBufUtf8Writer(byteBuf));
+    }
+
+    /**
+     * json的长度无法提前计算({@link #getSerializedSize(Object)}返回-1，codec编码时不额外遍历消息)，
+     * 这里只计算utf-8编码之后的字节数，不保存序列化结果。
+     */
+    @Override
+    public boolean isSerializedSizeExceeded(Object message, int limit) throws IOException {
+        Utf8CountingWriter countingWriter = new Utf8CountingWriter();
+        write(message, countingWriter);
+        return countingWriter.getCount() > limit;
+    }
+
+    private void write(Object message, Writer writer) throws IOException {
+        @SuppressWarnings("unchecked")
+        TypeAdapter<Object> adapter = (TypeAdapter<Object>) findAdapter(message.getClass());
+        JsonWriter jsonWriter = gson.newJsonWriter(writer);
+        // 与Gson.toJson的行为保持一致
+        jsonWriter.setHtmlSafe(gson.htmlSafe());
+        jsonWriter.setLenient(true);
+        adapter.write(jsonWriter, message);
+        jsonWriter.flush();
+    }
+
+    private <T> TypeAdapter<T> findAdapter(Class<T> messageClazz) {
+        @SuppressWarnings("unchecked")
+        TypeAdapter<T> adapter = (TypeAdapter<T>) adapterMap.get(messageClazz);
+        if (null == adapter) {
+            // 未注册的类(如测试时直接调用)，由gson查找，gson内部也有缓存
+            return gson.getAdapter(messageClazz);
+        }
+        return adapter;
+    }
+
+    /**
+     * 以utf-8编码直接写入byteBuf的Writer，不缓冲，不持有多余的内存
+     */
+    static final class ByteBufUtf8Writer extends Writer {
+
+        private final ByteBuf byteBuf;
+        /**
+         * 上一次写入的未配对的高代理项
+         */
+        private char pendingHighSurrogate;
+
+        ByteBufUtf8Writer(ByteBuf byteBuf) {
+            this.byteBuf = byteBuf;
+        }
+
+        @Override
+        public void write(int c) {
+            writeChar((char) c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            for (int index = off, end = off + len; index < end; index++) {
+                writeChar(cbuf[index]);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            for (int index = off, end = off + len; index < end; index++) {
+                writeChar(str.charAt(index));
+            }
+        }
+
+        private void writeChar(char c) {
+            if (pendingHighSurrogate != 0) {
+                char high = pendingHighSurrogate;
+                pendingHighSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int codePoint = Character.toCodePoint(high, c);
+                    byteBuf.writeByte(0xF0 | (codePoint >>> 18));
+                    byteBuf.writeByte(0x80 | ((codePoint >>> 12) & 0x3F));
+                    byteBuf.writeByte(0x80 | ((codePoint >>> 6) & 0x3F));
+                    byteBuf.writeByte(0x80 | (codePoint & 0x3F));
+                    return;
+                }
+                // 未配对的代理项，与jdk的行为一致，替换为'?'
+                byteBuf.writeByte('?');
+            }
+            if (c < 0x80) {
+                byteBuf.writeByte(c);
+            } else if (c < 0x800) {
+                byteBuf.writeByte(0xC0 | (c >>> 6));
+                byteBuf.writeByte(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c)) {
+                pendingHighSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                byteBuf.writeByte('?');
+            } else {
+                byteBuf.writeByte(0xE0 | (c >>> 12));
+                byteBuf.writeByte(0x80 | ((c >>> 6) & 0x3F));
+                byteBuf.writeByte(0x80 | (c & 0x3F));
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (pendingHighSurrogate != 0) {
+                pendingHighSurrogate = 0;
+                byteBuf.writeByte('?');
+            }
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+    }
+
+    /**
+     * 只计算utf-8编码之后的字节数的Writer。
+     * 代理项按每个2字节计算：代理对与{@link ByteBufUtf8Writer}的4字节相同，未配对的代理项(写为'?')会多算，不会少算。
+     */
+    static final class Utf8CountingWriter extends Writer {
+
+        private int count = 0;
+
+        @Override
+        public void write(int c) {
+            count += utf8Length((char) c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            for (int index = off, end = off + len; index < end; index++) {
+                count += utf8Length(cbuf[index]);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            for (int index = off, end = off + len; index < end; index++) {
+                count += utf8Length(str.charAt(index));
+            }
+        }
+
+        private static int utf8Length(char c) {
+            if (c < 0x80) {
+                return 1;
+            }
+            if (c < 0x800 || Character.isSurrogate(c)) {
+                return 2;
+            }
+            return 3;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        @Override
+        public void flush() {
+
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+
+    /**
+     * 直接从byteBuf中解码utf-8字符的Reader，读取byteBuf的可读部分，不缓冲，不修改引用计数
+     */
+    static final class ByteBufUtf8Reader extends Reader {
+
+        private static final char REPLACEMENT_CHAR = '\uFFFD';
+
+        private final ByteBuf byteBuf;
+        private int readerIndex;
+        private final int writerIndex;
+        /**
+         * 4字节utf-8编码产生的代理对中，尚未返回的低代理项
+         */
+        private char pendingLowSurrogate;
+
+        ByteBufUtf8Reader(ByteBuf byteBuf) {
+            this.byteBuf = byteBuf;
+            this.readerIndex = byteBuf.readerIndex();
+            this.writerIndex = byteBuf.writerIndex();
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (pendingLowSurrogate == 0 && readerIndex >= writerIndex) {
+                return -1;
+            }
+            int count = 0;
+            while (count < len) {
+                if (pendingLowSurrogate != 0) {
+                    cbuf[off + count++] = pendingLowSurrogate;
+                    pendingLowSurrogate = 0;
+                    continue;
+                }
+                if (readerIndex >= writerIndex) {
+                    break;
+                }
+                cbuf[off + count++] = decodeChar();
+            }
+            return count;
+        }
+
+        private char decodeChar() {
+            int b0 = byteBuf.getByte(readerIndex++) & 0xFF;
+            if (b0 < 0x80) {
+                return (char) b0;
+            }
+            if (b0 >= 0xC2 && b0 < 0xE0) {
+                int b1 = nextContinuation();
+                return b1 < 0 ? REPLACEMENT_CHAR : (char) (((b0 & 0x1F) << 6) | b1);
+            }
+            if (b0 >= 0xE0 && b0 < 0xF0) {
+                int b1 = nextContinuation();
+                int b2 = b1 < 0 ? -1 : nextContinuation();
+                if (b2 < 0) {
+                    return REPLACEMENT_CHAR;
+                }
+                int c = ((b0 & 0x0F) << 12) | (b1 << 6) | b2;
+                return c < 0x800 || Character.isSurrogate((char) c) ? REPLACEMENT_CHAR : (char) c;
+            }
+            if (b0 >= 0xF0 && b0 < 0xF5) {
+                int b1 = nextContinuation();
+                int b2 = b1 < 0 ? -1 : nextContinuation();
+                int b3 = b2 < 0 ? -1 : nextContinuation();
+                if (b3 < 0) {
+                    return REPLACEMENT_CHAR;
+                }
+                int codePoint = ((b0 & 0x07) << 18) | (b1 << 12) | (b2 << 6) | b3;
+                if (codePoint < 0x10000 || codePoint > Character.MAX_CODE_POINT) {
+                    return REPLACEMENT_CHAR;
+                }
+                pendingLowSurrogate = Character.lowSurrogate(codePoint);
+                return Character.highSurrogate(codePoint);
+            }
+            return REPLACEMENT_CHAR;
+        }
+
+        /**
+         * 读取一个后续字节
+         * @return 后续字节的有效位，如果不是后续字节则返回-1(不消耗该字节)
+         */
+        private int nextContinuation() {
+            if (readerIndex >= writerIndex) {
+                return -1;
+            }
+            int b = byteBuf.getByte(readerIndex) & 0xFF;
+            if ((b & 0xC0) != 0x80) {
+                return -1;
+            }
+            readerIndex++;
+            return b & 0x3F;
+        }
+
+        @Override
+        public void close() {
+            // 不释放byteBuf，由调用者负责
+        }
     }
 }
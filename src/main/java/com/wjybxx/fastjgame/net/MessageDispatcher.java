@@ -0,0 +1,242 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基于{@link MessageMapper}的消息分发器，它本身是一个{@link MessageHandler}，可以直接作为会话的消息处理器。
+ *
+ * 启动时为每个消息类注册特定类型的处理器({@link TypedMessageHandler}、{@link TypedRpcRequestHandler})，
+ * 处理器按照{@link MessageMapper#getMessageIndex(int)}存放在数组中，分发时不需要instanceof判断，也不需要对Class进行hash查找。
+ *
+ * 以下消息交给fallback处理器({@link MessageHandler})处理：
+ * 1. 编解码异常导致的null消息。
+ * 2. 未注册处理器的消息。
+ * 3. {@link RawMessage}，它的内容是未解码的字节，不是协议类的实例，因此总是交给fallback处理器。
+ * 如果没有fallback处理器，则单向消息会被丢弃(原始消息会被释放)，rpc请求返回{@link RpcResultCode#BAD_REQUEST}。
+ *
+ * 注册需要在启动阶段完成(在交给{@link com.wjybxx.fastjgame.misc.NetContext}之前)，注册完毕之后可以调用
+ * {@link #checkAllMessageHandled()}检查是否每个消息都有对应的处理器。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public final class MessageDispatcher implements MessageHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageDispatcher.class);
+
+    private final MessageMapper messageMapper;
+    /**
+     * 找不到处理器时的处理器
+     */
+    private final MessageHandler fallbackHandler;
+    /**
+     * 消息类->紧凑下标的缓存，-1表示未在{@link MessageMapper}中注册(包括{@link RawMessage})
+     */
+    private final ClassValue<Integer> messageIndexCache = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return indexOf(type);
+        }
+    };
+    /**
+     * 紧凑下标->单向消息处理器
+     */
+    private final TypedMessageHandler<Object>[] messageHandlers;
+    /**
+     * 紧凑下标->rpc请求处理器
+     */
+    private final TypedRpcRequestHandler<Object>[] rpcRequestHandlers;
+    /**
+     * 紧凑下标->是否不需要处理器(如只作为rpc结果的消息)
+     */
+    private final boolean[] ignoredMessages;
+
+    @SuppressWarnings("unchecked")
+    private MessageDispatcher(MessageMapper messageMapper, @Nullable MessageHandler fallbackHandler) {
+        this.messageMapper = messageMapper;
+        this.fallbackHandler = fallbackHandler;
+        int messageCount = messageMapper.getMessageCount();
+        this.messageHandlers = new TypedMessageHandler[messageCount];
+        this.rpcRequestHandlers = new TypedRpcRequestHandler[messageCount];
+        this.ignoredMessages = new boolean[messageCount];
+    }
+
+    /**
+     * 注册单向消息处理器
+     *
+     * @param messageClazz 消息类，必须在{@link MessageMapper}中注册(不支持子类)
+     * @param handler 处理器
+     * @param <T> 消息类型
+     * @return this
+     */
+    @SuppressWarnings("unchecked")
+    public <T> MessageDispatcher registerMessageHandler(Class<T> messageClazz, TypedMessageHandler<? super T> handler) {
+        int index = checkedIndexOf(messageClazz);
+        if (messageHandlers[index] != null) {
+            throw new IllegalArgumentException("messageClazz " + messageClazz.getCanonicalName() + " register messageHandler more than once");
+        }
+        messageHandlers[index] = (TypedMessageHandler<Object>) handler;
+        return this;
+    }
+
+    /**
+     * 注册rpc请求处理器
+     *
+     * @param requestClazz 请求类，必须在{@link MessageMapper}中注册(不支持子类)
+     * @param handler 处理器
+     * @param <T> 请求类型
+     * @return this
+     */
+    @SuppressWarnings("unchecked")
+    public <T> MessageDispatcher registerRpcRequestHandler(Class<T> requestClazz, TypedRpcRequestHandler<? super T> handler) {
+        int index = checkedIndexOf(requestClazz);
+        if (rpcRequestHandlers[index] != null) {
+            throw new IllegalArgumentException("requestClazz " + requestClazz.getCanonicalName() + " register rpcRequestHandler more than once");
+        }
+        rpcRequestHandlers[index] = (TypedRpcRequestHandler<Object>) handler;
+        return this;
+    }
+
+    /**
+     * 声明某个消息不需要处理器(如只作为rpc结果，或只由本端发送的消息)，{@link #checkAllMessageHandled()}不再检查它。
+     *
+     * @param messageClazz 消息类
+     * @return this
+     */
+    public MessageDispatcher ignoreMessage(Class<?> messageClazz) {
+        ignoredMessages[checkedIndexOf(messageClazz)] = true;
+        return this;
+    }
+
+    /**
+     * 检查{@link MessageMapper}中的每个消息都注册了单向消息处理器或rpc请求处理器(或声明了不需要处理器)。
+     *
+     * @return this
+     * @throws IllegalStateException 存在没有处理器的消息时抛出，异常信息中包含所有缺少处理器的消息类
+     */
+    public MessageDispatcher checkAllMessageHandled() throws IllegalStateException {
+        List<String> unhandledMessages = new ArrayList<>();
+        for (int index = 0; index < messageHandlers.length; index++) {
+            if (messageHandlers[index] == null && rpcRequestHandlers[index] == null && !ignoredMessages[index]) {
+                unhandledMessages.add(messageMapper.getMessageClazzByIndex(index).getCanonicalName());
+            }
+        }
+        if (unhandledMessages.size() > 0) {
+            throw new IllegalStateException(unhandledMessages.size() + " messages have no handler: " + unhandledMessages);
+        }
+        return this;
+    }
+
+    public MessageMapper getMessageMapper() {
+        return messageMapper;
+    }
+
+    @Override
+    public void onMessage(Session session, @Nullable Object message) throws Exception {
+        int index = message == null ? -1 : messageIndexOf(message);
+        TypedMessageHandler<Object> handler = index < 0 ? null : messageHandlers[index];
+        if (null != handler) {
+            handler.onMessage(session, message);
+            return;
+        }
+        if (null != fallbackHandler) {
+            fallbackHandler.onMessage(session, message);
+            return;
+        }
+        logger.warn("session {} message {} has no handler, discard.", session, messageNameOf(message));
+        if (message instanceof RawMessage) {
+            ((RawMessage) message).release();
+        }
+    }
+
+    @Override
+    public void onRpcRequest(Session session, @Nullable Object request, RpcResponseChannel responseChannel) throws Exception {
+        int index = request == null ? -1 : messageIndexOf(request);
+        TypedRpcRequestHandler<Object> handler = index < 0 ? null : rpcRequestHandlers[index];
+        if (null != handler) {
+            handler.onRpcRequest(session, request, responseChannel);
+            return;
+        }
+        if (null != fallbackHandler) {
+            fallbackHandler.onRpcRequest(session, request, responseChannel);
+            return;
+        }
+        logger.warn("session {} request {} has no handler, response BAD_REQUEST.", session, messageNameOf(request));
+        if (request instanceof RawMessage) {
+            ((RawMessage) request).release();
+        }
+        responseChannel.writeFailure(RpcResultCode.BAD_REQUEST);
+    }
+
+    /**
+     * 获取消息的紧凑下标，{@link RawMessage}返回-1
+     */
+    private int messageIndexOf(Object message) {
+        return messageIndexCache.get(message.getClass());
+    }
+
+    private int indexOf(Class<?> messageClazz) {
+        if (!messageMapper.getMessageClazz2IdMap().containsKey(messageClazz)) {
+            return -1;
+        }
+        return messageMapper.getMessageIndex(messageMapper.getMessageId(messageClazz));
+    }
+
+    private int checkedIndexOf(Class<?> messageClazz) {
+        int index = indexOf(messageClazz);
+        if (index < 0) {
+            throw new IllegalArgumentException("messageClazz " + messageClazz.getCanonicalName() + " is not registered in messageMapper");
+        }
+        return index;
+    }
+
+    private static String messageNameOf(@Nullable Object message) {
+        if (message == null) {
+            return "null";
+        }
+        if (message instanceof RawMessage) {
+            return "RawMessage(" + ((RawMessage) message).getMessageId() + ")";
+        }
+        return message.getClass().getSimpleName();
+    }
+
+    /**
+     * 创建一个消息分发器
+     *
+     * @param messageMapper 消息映射，一般是{@link CodecHelper#getMessageMapper()}
+     * @param fallbackHandler 找不到处理器时的处理器，可以为null
+     * @return dispatcher
+     */
+    public static MessageDispatcher newInstance(MessageMapper messageMapper, @Nullable MessageHandler fallbackHandler) {
+        return new MessageDispatcher(messageMapper, fallbackHandler);
+    }
+
+    public static MessageDispatcher newInstance(MessageMapper messageMapper) {
+        return newInstance(messageMapper, null);
+    }
+}
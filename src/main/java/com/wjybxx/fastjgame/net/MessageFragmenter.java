@@ -0,0 +1,159 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 消息分片器，在{@link com.wjybxx.fastjgame.eventloop.NetEventLoop}分配sequence之前拆分过大的消息。
+ *
+ * 分片必须在分配sequence之前进行(每个分片占用一个sequence，以便独立的确认和重传)，
+ * 因此先通过{@link MessageSerializer#isSerializedSizeExceeded(Object, int)}判断消息是否可能超过限制，
+ * 不会超过的消息(绝大多数)不做任何处理，仍然由codec序列化到池化的缓冲区；
+ * 可能超过限制的消息会在NetEventLoop中序列化一次：
+ * 1. 实际没有超过限制时，使用{@link SharedMessage}缓存编码结果，codec直接使用该结果，不会重复序列化。
+ * 2. 超过限制时，编码结果拆分为n-1个{@link UnsentFragment}和一个消息体为{@link FragmentedBody}的原消息。
+ *
+ * 编码结果是非池化的堆内存，由GC回收(与{@link SharedMessage}相同，分片在重传队列中的生命周期无法预知)。
+ * {@link CacheableMessage}通过{@link EncodedMessageCache}编码，没有超过限制时不替换消息体。
+ *
+ * 由codec在协商启用{@link NetCapabilities#FRAGMENT}之后创建，随连接事件交给会话使用。
+ * 它是不可变对象，可以在多个线程之间共享。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/10
+ * github - https://github.com/hl845740757
+ */
+@ThreadSafe
+public final class MessageFragmenter {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageFragmenter.class);
+    /**
+     * 为网络包的包头(帧长度、校验和、包类型、ack、sequence、rpc字段、协议id)以及流式压缩的额外开销预留的空间
+     */
+    private static final int FRAME_OVERHEAD_RESERVED = 128;
+
+    private final MessageMapper messageMapper;
+    private final MessageSerializer messageSerializer;
+    private final EncodedMessageCache encodedMessageCache;
+    /**
+     * 每个分片的最大字节数
+     */
+    private final int maxFragmentLength;
+
+    private MessageFragmenter(MessageMapper messageMapper, MessageSerializer messageSerializer,
+                              EncodedMessageCache encodedMessageCache, int maxFragmentLength) {
+        this.messageMapper = messageMapper;
+        this.messageSerializer = messageSerializer;
+        this.encodedMessageCache = encodedMessageCache;
+        this.maxFragmentLength = maxFragmentLength;
+    }
+
+    public int getMaxFragmentLength() {
+        return maxFragmentLength;
+    }
+
+    /**
+     * 如果消息体序列化之后超过了分片长度，则进行拆分
+     * @param unsentMessage 未发送的消息
+     * @return 用于代替原消息的一组消息，按顺序分配sequence；不需要替换时返回null。
+     */
+    @Nullable
+    public List<UnsentMessage> fragmentIfNecessary(UnsentMessage unsentMessage) {
+        Object body = unsentMessage.getBody();
+        if (null == body) {
+            return null;
+        }
+        // 共享消息和原始消息已经有编码结果
+        final boolean encodedBody = body instanceof SharedMessage || body instanceof RawMessage;
+        SharedMessage sharedMessage = null;
+        final ByteBuf encoded;
+        try {
+            if (!encodedBody && body instanceof CacheableMessage) {
+                encoded = encodeCacheable(body);
+                if (null == encoded) {
+                    return null;
+                }
+            } else {
+                if (!encodedBody && !messageSerializer.isSerializedSizeExceeded(body, maxFragmentLength)) {
+                    return null;
+                }
+                sharedMessage = SharedMessage.newInstance(body);
+                encoded = sharedMessage.encode(messageMapper, messageSerializer);
+            }
+        } catch (Exception e) {
+            // 交给codec处理(与未启用分片时一致)
+            logger.warn("encode {} caught exception", body.getClass().getName(), e);
+            return null;
+        }
+        final int length = encoded.readableBytes();
+        if (length <= maxFragmentLength) {
+            // 使用编码结果，避免codec再次序列化
+            return encodedBody ? null : Collections.singletonList(unsentMessage.replaceBody(sharedMessage));
+        }
+        final int fragmentNum = (length + maxFragmentLength - 1) / maxFragmentLength;
+        final List<UnsentMessage> result = new ArrayList<>(fragmentNum);
+        int index = encoded.readerIndex();
+        for (int remain = fragmentNum; remain > 1; remain--, index += maxFragmentLength) {
+            result.add(new UnsentFragment(encoded.slice(index, maxFragmentLength)));
+        }
+        Object message = body instanceof SharedMessage ? ((SharedMessage) body).getMessage() : body;
+        int messageId = message instanceof RawMessage ? ((RawMessage) message).getMessageId() : messageMapper.getMessageId(message.getClass());
+        ByteBuf lastFragment = encoded.slice(index, encoded.writerIndex() - index);
+        result.add(unsentMessage.replaceBody(new FragmentedBody(messageId, lastFragment)));
+        return result;
+    }
+
+    /**
+     * 通过缓存获取{@link CacheableMessage}的编码结果
+     * @param body 可缓存编码结果的消息
+     * @return 没有超过分片长度时返回null(codec会从缓存中获取编码结果)；
+     * 否则返回编码结果的非池化拷贝(分片会被重传队列引用，不能引用缓存中可能被淘汰的编码结果)
+     */
+    @Nullable
+    private ByteBuf encodeCacheable(Object body) throws IOException {
+        ByteBuf cached = encodedMessageCache.acquire(body, messageSerializer);
+        try {
+            return cached.readableBytes() <= maxFragmentLength ? null : Unpooled.copiedBuffer(cached);
+        } finally {
+            cached.release();
+        }
+    }
+
+    /**
+     * 创建一个分片器
+     * @param codecHelper 该连接使用的编解码器
+     * @param maxFrameLength 该连接的最大帧长度
+     * @return messageFragmenter
+     */
+    public static MessageFragmenter newInstance(CodecHelper codecHelper, int maxFrameLength) {
+        return new MessageFragmenter(codecHelper.getMessageMapper(), codecHelper.getMessageSerializer(),
+                codecHelper.getEncodedMessageCache(), Math.max(1, maxFrameLength - FRAME_OVERHEAD_RESERVED));
+    }
+}
@@ -17,6 +17,7 @@
 package com.wjybxx.fastjgame.net;
 
 import com.wjybxx.fastjgame.utils.ConcurrentUtils;
+import it.unimi.dsi.fastutil.HashCommon;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
@@ -24,6 +25,7 @@ import it.unimi.dsi.fastutil.objects.Object2IntMaps;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 
 import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Set;
 
@@ -31,6 +33,11 @@ import java.util.Set;
  * 消息对象映射器，存储消息id到消息类的映射关系。
  * 它是不可变对象，是天然的线程安全的；
  *
+ * 编解码是最热的路径，因此它额外构建了一个紧凑的注册表：
+ * 1. 编码时通过{@link ClassValue}缓存消息类对应的id，不需要对Class进行hash查找。
+ * 2. 所有的消息id被重新映射为[0, n)的紧凑下标({@link #getMessageIndex(int)})，
+ * 序列化器可以据此构建数组，解码时直接通过下标找到对应的解析器，而不需要接触Class。
+ *
  * @author wjybxx
  * @version 1.0
  * date - 2019/4/27 13:47
@@ -39,29 +46,62 @@ import java.util.Set;
 @ThreadSafe
 public final class MessageMapper {
 
+    /**
+     * 消息id的跨度不超过消息数的该倍数时，使用直接寻址的数组作为id到下标的映射
+     */
+    private static final int DIRECT_INDEX_RANGE_FACTOR = 4;
+    /**
+     * 消息id的跨度不超过该值时，总是使用直接寻址的数组
+     */
+    private static final int DIRECT_INDEX_MIN_RANGE = 1024;
+
     /**
      * 消息类->消息id的映射
      */
     private final Object2IntMap<Class<?>> messageClazz2IdMap;
 
     /**
-     * 消息id->消息类的映射
+     * 消息类->消息id的缓存(编码使用)
+     */
+    private final ClassValue<Integer> messageIdCache = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return messageClazz2IdMap.getInt(type);
+        }
+    };
+
+    /**
+     * 消息id->紧凑下标的映射(解码使用)
+     */
+    private final MessageIndexer messageIndexer;
+
+    /**
+     * 紧凑下标->消息类
      */
-    private final Int2ObjectMap<Class<?>> messageId2ClazzMap;
+    private final Class<?>[] indexedMessageClasses;
 
     private MessageMapper(Object2IntMap<Class<?>> messageClazz2IdMap, Int2ObjectMap<Class<?>> messageId2ClazzMap) {
         this.messageClazz2IdMap = messageClazz2IdMap;
-        this.messageId2ClazzMap = messageId2ClazzMap;
+
+        // 按照id排序，使得下标是确定的
+        int[] messageIds = messageId2ClazzMap.keySet().toIntArray();
+        Arrays.sort(messageIds);
+        this.messageIndexer = MessageIndexer.newInstance(messageIds);
+        this.indexedMessageClasses = new Class<?>[messageIds.length];
+        for (int index = 0; index < messageIds.length; index++) {
+            indexedMessageClasses[index] = messageId2ClazzMap.get(messageIds[index]);
+        }
     }
 
     /**
      * 通过协议id获取到对应的协议类。
      *
      * @param messageId 消息id
-     * @return
+     * @return 如果消息id未注册，则返回null
      */
     public final Class<?> getMessageClazz(int messageId){
-        return messageId2ClazzMap.get(messageId);
+        int index = messageIndexer.indexOf(messageId);
+        return index < 0 ? null : indexedMessageClasses[index];
     }
 
     /**
@@ -71,7 +111,35 @@ public final class MessageMapper {
      * @return
      */
     public final int getMessageId(Class<?> messageClazz){
-        return messageClazz2IdMap.getInt(messageClazz);
+        return messageIdCache.get(messageClazz);
+    }
+
+    /**
+     * 获取消息数量，紧凑下标的范围为[0, messageCount)
+     */
+    public final int getMessageCount() {
+        return indexedMessageClasses.length;
+    }
+
+    /**
+     * 通过协议id获取它的紧凑下标。
+     * 下标按照消息id的大小顺序分配，序列化器可以在{@link MessageSerializer#init(MessageMapper)}时据此构建数组。
+     *
+     * @param messageId 消息id
+     * @return 如果消息id未注册，则返回-1
+     */
+    public final int getMessageIndex(int messageId) {
+        return messageIndexer.indexOf(messageId);
+    }
+
+    /**
+     * 通过紧凑下标获取对应的协议类。
+     *
+     * @param index {@link #getMessageIndex(int)}的返回值
+     * @return 协议类
+     */
+    public final Class<?> getMessageClazzByIndex(int index) {
+        return indexedMessageClasses[index];
     }
 
     /**
@@ -112,4 +180,84 @@ public final class MessageMapper {
             return null;
         }
     }
+
+    /**
+     * 消息id到紧凑下标的映射。
+     * 消息id比较集中时，使用直接寻址的数组；
+     * 消息id比较稀疏时(如使用类名hashCode作为id的策略)，使用开放寻址的int数组(负载因子不超过0.5)，不产生装箱，一般一到两次探测即可命中。
+     */
+    private static final class MessageIndexer {
+
+        /**
+         * 直接寻址时的最小id，开放寻址时无意义
+         */
+        private final int minMessageId;
+        /**
+         * 直接寻址时: 下标为(messageId - minMessageId)；开放寻址时：下标为槽位，值为消息id。
+         */
+        private final int[] keys;
+        /**
+         * 消息的紧凑下标，-1表示空槽位
+         */
+        private final int[] indexes;
+        /**
+         * 开放寻址时的槽位掩码，直接寻址时为-1
+         */
+        private final int mask;
+
+        private MessageIndexer(int minMessageId, int[] keys, int[] indexes, int mask) {
+            this.minMessageId = minMessageId;
+            this.keys = keys;
+            this.indexes = indexes;
+            this.mask = mask;
+        }
+
+        int indexOf(int messageId) {
+            if (mask < 0) {
+                // 直接寻址，减法溢出时转换为long也能正确判断越界
+                long offset = (long) messageId - minMessageId;
+                return offset < 0 || offset >= indexes.length ? -1 : indexes[(int) offset];
+            }
+            for (int slot = HashCommon.mix(messageId) & mask; ; slot = (slot + 1) & mask) {
+                int index = indexes[slot];
+                if (index < 0 || keys[slot] == messageId) {
+                    return index;
+                }
+            }
+        }
+
+        /**
+         * @param sortedMessageIds 排好序的消息id
+         */
+        static MessageIndexer newInstance(int[] sortedMessageIds) {
+            int count = sortedMessageIds.length;
+            if (count == 0) {
+                return new MessageIndexer(0, new int[0], new int[0], -1);
+            }
+            long range = (long) sortedMessageIds[count - 1] - sortedMessageIds[0] + 1;
+            if (range <= Math.max(DIRECT_INDEX_MIN_RANGE, (long) count * DIRECT_INDEX_RANGE_FACTOR)) {
+                int minMessageId = sortedMessageIds[0];
+                int[] indexes = new int[(int) range];
+                Arrays.fill(indexes, -1);
+                for (int index = 0; index < count; index++) {
+                    indexes[sortedMessageIds[index] - minMessageId] = index;
+                }
+                return new MessageIndexer(minMessageId, null, indexes, -1);
+            }
+            int capacity = HashCommon.nextPowerOfTwo(count * 2);
+            int[] keys = new int[capacity];
+            int[] indexes = new int[capacity];
+            Arrays.fill(indexes, -1);
+            int mask = capacity - 1;
+            for (int index = 0; index < count; index++) {
+                int slot = HashCommon.mix(sortedMessageIds[index]) & mask;
+                while (indexes[slot] >= 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = sortedMessageIds[index];
+                indexes[slot] = index;
+            }
+            return new MessageIndexer(0, keys, indexes, mask);
+        }
+    }
 }
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+/**
+ * 待发送消息的优先级，每个优先级一个队列，发送时先清空高优先级的队列。
+ * 优先级只影响还未发送的消息(还未分配sequence)，清空时按取出的顺序分配sequence，
+ * 因此对方仍然按sequence连续的顺序接收，确认和重传不受影响。
+ *
+ * 注意：只有相同优先级的消息之间保持发送顺序，不同优先级之间没有顺序保证。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+public enum MessagePriority {
+
+	/**
+	 * 控制消息，如ack-ping、同步rpc的请求和结果。
+	 * 对方的接收窗口耗尽时仍然可以发送少量的控制消息，见{@link MessageQueue#CONTROL_RESERVED_CREDIT}。
+	 */
+	CONTROL,
+
+	/**
+	 * 需要优先发送的异步rpc响应，通过{@link RpcResponseChannel#write(RpcResponse, MessagePriority)}显式指定，
+	 * 它会先于之前排队的普通消息发送(与它们之间没有顺序保证)。
+	 */
+	RPC,
+
+	/**
+	 * 普通消息，单向消息、异步rpc请求和结果的默认优先级(它们之间的顺序保证见{@link Session})。
+	 */
+	NORMAL,
+
+	/**
+	 * 大批量的低价值消息，如聊天、广播。
+	 * 会话不可写时新的消息直接丢弃，缓存达到上限时先丢弃该队列中的所有消息，仍然超过上限才删除会话。
+	 * 丢弃的消息通过{@link SessionLifecycleAware#onMessageShed(Session, int)}通知用户。
+	 */
+	BULK,
+
+	;
+
+	/**
+	 * 压力过大时是否可以丢弃
+	 */
+	public boolean isSheddable() {
+		return this == BULK;
+	}
+}
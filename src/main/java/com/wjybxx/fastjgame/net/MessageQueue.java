@@ -18,7 +18,7 @@ package com.wjybxx.fastjgame.net;
 
 import com.wjybxx.fastjgame.misc.LongSequencer;
 
-import java.util.LinkedList;
+import java.util.ArrayDeque;
 
 /**
  * 消息队列，可与tcp的收发缓冲区比较
@@ -33,6 +33,11 @@ import java.util.LinkedList;
  * |    0~n    |      0~n      |
  * |---------------------------
  *
+ * needSendQueue按优先级({@link MessagePriority})分为多个队列，消息取出之后才分配sequence，因此sequence始终连续。
+ *
+ * 不可靠消息({@link DeliveryMode#UNRELIABLE})不占用sequence，不在上面的视图中，
+ * 它们在{@link #unreliableQueue}中等待发送，发送之后不再保留。
+ *
  * @author wjybxx
  * @version 1.0
  * date - 2019/4/27 11:43
@@ -43,6 +48,10 @@ public final class MessageQueue {
      * 初始ACK
      */
     public static final int INIT_ACK = 0;
+    /**
+     * 检查缩容的间隔(毫秒)，间隔内的峰值消息数远小于队列容量时缩容
+     */
+    private static final long TRIM_INTERVAL_MS = 30 * 1000;
     /**
      * 序号分配器
      */
@@ -53,14 +62,85 @@ public final class MessageQueue {
     private long ack = INIT_ACK;
     /**
      * 已发送待确认的消息，只要发送过就不会再放入 {@link #needSendQueue}
-     * Q:为什么不使用arrayList?
-     * A: 1.存在大量的删除操作 2.太占用内存。 3.遍历很少
+     * Q:为什么不使用LinkedList?
+     * A: 1.删除总是发生在队首，循环数组只需要移动下标 2.每个消息一个节点太占用内存 3.重发时遍历数组对缓存更友好
      */
-    private final LinkedList<NetMessage> sentQueue = new LinkedList<>();
+    private final SentMessageQueue sentQueue = new SentMessageQueue();
     /**
      * 待发送的消息,还没有尝试发送过的消息
      */
-    private final LinkedList<UnsentMessage> needSendQueue = new LinkedList<>();
+    private final UnsentMessageQueue needSendQueue = new UnsentMessageQueue();
+    /**
+     * 下次检查缩容的时间
+     */
+    private long nextTrimTimeMs = 0;
+
+    // -----------------连接内重传(NetCapabilities.RETRANSMIT)
+    /**
+     * 上次发送重传请求时的ack
+     */
+    private long nackAck = -1;
+    /**
+     * 可以再次为同一个ack发送重传请求的时间
+     */
+    private long nextNackTimeMs = 0;
+    /**
+     * 上次响应重传请求时对方的ack
+     */
+    private long retransmitAck = -1;
+    /**
+     * 可以再次为同一个ack重传的时间
+     */
+    private long nextRetransmitTimeMs = 0;
+
+    // -----------------延迟确认(NetCapabilities.DELAYED_ACK)
+    /**
+     * 已接收但还没有确认给对方(捎带或单独确认)的消息数
+     */
+    private int pendingAckCount = 0;
+    /**
+     * 第一个未确认的消息的接收时间
+     */
+    private long firstPendingAckTimeMs = 0;
+    /**
+     * 确认统计
+     */
+    private final AckStatistics ackStatistics;
+
+    // -----------------流量控制(NetCapabilities.FLOW_CONTROL)
+    /**
+     * 控制消息({@link MessagePriority#CONTROL}，如ack-ping、同步rpc)在对方的接收窗口(或溢出阈值)之外额外允许分配的sequence数。
+     * 窗口耗尽时控制消息仍然可以发送，心跳和同步调用不需要等待窗口。
+     */
+    public static final int CONTROL_RESERVED_CREDIT = 8;
+    /**
+     * 对方允许分配的最大sequence(对方通告的 ack + 接收窗口)，收到第一次通告之前不限制
+     */
+    private long sendLimitSequence = Long.MAX_VALUE;
+    /**
+     * 上次通告给对方的最大sequence，只有明显增大时才需要再次通告
+     */
+    private long advertisedLimitSequence = INIT_ACK;
+
+    // -----------------不可靠消息(NetCapabilities.UNRELIABLE)
+    /**
+     * 待发送的不可靠消息，只保留最新的一部分
+     */
+    private final ArrayDeque<Object> unreliableQueue = new ArrayDeque<>();
+    /**
+     * 丢弃的不可靠消息数
+     */
+    private long droppedUnreliableNum = 0;
+
+    // -----------------优先级与丢弃(MessagePriority)
+    /**
+     * 已丢弃但还未通知用户的消息数
+     */
+    private int unreportedShedNum = 0;
+
+    public MessageQueue(AckStatistics ackStatistics) {
+        this.ackStatistics = ackStatistics;
+    }
 
     // -----------------对方返回的ack
 
@@ -78,7 +158,7 @@ public final class MessageQueue {
     private long getAckLowerBound(){
         // 有已发送未确认的消息，那么它的上一个就是ack下界
         if (sentQueue.size()>0){
-            return sentQueue.getFirst().getSequence()-1;
+            return sentQueue.getFirstSequence()-1;
         }
         // 都已确认，且没有新消息，那么上次分配的就是ack下界
         return sequencer.get();
@@ -90,7 +170,7 @@ public final class MessageQueue {
     private long getAckUpperBound(){
         // 有已发送待确认的消息，那么它的最后一个就是ack上界
         if (sentQueue.size()>0){
-            return sentQueue.getLast().getSequence();
+            return sentQueue.getLastSequence();
         }
         // 都已确认，且没有新消息，那么上次分配的就是ack上界
         return sequencer.get();
@@ -105,12 +185,54 @@ public final class MessageQueue {
         if (!isAckOK(ack)){
             throw new IllegalArgumentException(generateAckErrorInfo(ack));
         }
-        while (sentQueue.size()>0){
-            if (sentQueue.getFirst().getSequence()>ack){
-                break;
-            }
-            sentQueue.removeFirst();
+        // 已发送的消息sequence连续，直接移动队首
+        sentQueue.removeUntil(ack);
+    }
+
+    /**
+     * 收到不连续的消息时，是否可以发送重传请求。
+     * 同一个ack在间隔内只请求一次，避免sequence不连续之后的每个消息都触发一次请求。
+     * @param curMillTime 当前系统时间(毫秒)
+     * @param interval 间隔(毫秒)
+     * @return 返回true表示可以发送，并记录本次请求
+     */
+    public boolean tryNack(long curMillTime, long interval) {
+        if (ack == nackAck && curMillTime < nextNackTimeMs) {
+            return false;
         }
+        nackAck = ack;
+        nextNackTimeMs = curMillTime + interval;
+        return true;
+    }
+
+    /**
+     * 收到对方的重传请求时，是否需要重传。
+     * 同一个ack在间隔内只重传一次，重传的消息还在路上时，对方可能会再次请求。
+     * @param remoteAck 对方的ack
+     * @param curMillTime 当前系统时间(毫秒)
+     * @param interval 间隔(毫秒)
+     * @return 返回true表示需要重传，并记录本次重传
+     */
+    public boolean tryRetransmit(long remoteAck, long curMillTime, long interval) {
+        if (remoteAck == retransmitAck && curMillTime < nextRetransmitTimeMs) {
+            return false;
+        }
+        retransmitAck = remoteAck;
+        nextRetransmitTimeMs = curMillTime + interval;
+        return true;
+    }
+
+    /**
+     * 周期性的检查队列是否需要缩容，会话空闲之后归还峰值时分配的数组。
+     * @param curMillTime 当前系统时间(毫秒)
+     */
+    public void trimIfNecessary(long curMillTime) {
+        if (curMillTime < nextTrimTimeMs) {
+            return;
+        }
+        nextTrimTimeMs = curMillTime + TRIM_INTERVAL_MS;
+        sentQueue.trim();
+        needSendQueue.trim();
     }
 
     /**
@@ -132,23 +254,261 @@ public final class MessageQueue {
         return ack;
     }
 
+    /**
+     * 获取上次分配的包的编号
+     */
+    public long getLastSequence() {
+        return sequencer.get();
+    }
+
+    /**
+     * 接收了一个新消息，它需要被确认
+     * @param curMillTime 当前系统时间(毫秒)
+     */
+    public void markAckPending(long curMillTime) {
+        if (pendingAckCount == 0) {
+            firstPendingAckTimeMs = curMillTime;
+        }
+        pendingAckCount++;
+    }
+
+    /**
+     * 获取发送消息时捎带的ack，所有已接收的消息都随之确认。
+     * @return ack
+     */
+    public long piggybackAck() {
+        if (pendingAckCount > 0) {
+            pendingAckCount = 0;
+            ackStatistics.incPiggybackedAckCount();
+        }
+        return ack;
+    }
+
+    /**
+     * 是否需要发送单独的确认包。
+     * 有待发送的消息时不需要，待发送的消息会捎带确认。
+     * @param curMillTime 当前系统时间(毫秒)
+     * @param maxPendingCount 未确认的消息数达到该值时需要确认
+     * @param maxDelayMs 第一个未确认的消息等待了该时长(毫秒)时需要确认
+     * @return true/false
+     */
+    public boolean isStandaloneAckNeeded(long curMillTime, int maxPendingCount, long maxDelayMs) {
+        if (pendingAckCount == 0 || needSendQueue.size() > 0) {
+            return false;
+        }
+        return pendingAckCount >= maxPendingCount || curMillTime - firstPendingAckTimeMs >= maxDelayMs;
+    }
+
+    /**
+     * 获取单独的确认包的ack，所有已接收的消息都随之确认。
+     * @return ack
+     */
+    public long standaloneAck() {
+        pendingAckCount = 0;
+        ackStatistics.incStandaloneAckCount();
+        return ack;
+    }
+
     public void setAck(long ack) {
         this.ack = ack;
     }
 
-    public LinkedList<NetMessage> getSentQueue() {
+    public SentMessageQueue getSentQueue() {
         return sentQueue;
     }
 
-    public LinkedList<UnsentMessage> getNeedSendQueue() {
+    public UnsentMessageQueue getNeedSendQueue() {
         return needSendQueue;
     }
 
     /**
-     * 获取当前缓存的消息数
+     * 更新对方通告的接收窗口。
+     * 窗口不会收缩(对方在窗口变小时不会通告)，因此只在允许的最大sequence增大时更新。
+     * @param remoteAck 对方通告窗口时的ack
+     * @param window 对方的接收窗口
+     */
+    public void updateRemoteWindow(long remoteAck, int window) {
+        long limit = remoteAck + window;
+        if (sendLimitSequence == Long.MAX_VALUE || limit > sendLimitSequence) {
+            sendLimitSequence = limit;
+        }
+    }
+
+    /**
+     * 对方的接收窗口是否还允许为指定优先级的消息分配新的sequence，控制消息额外允许{@link #CONTROL_RESERVED_CREDIT}个
+     * @param priority 消息的优先级
+     */
+    public boolean hasSendCredit(MessagePriority priority) {
+        if (sendLimitSequence == Long.MAX_VALUE) {
+            return true;
+        }
+        return sequencer.get() < sendLimitSequence + reservedCredit(priority);
+    }
+
+    /**
+     * 是否可以发送指定优先级的消息(分配sequence)。
+     * 1. 启用流量控制时，不能超过对方的接收窗口。
+     * 2. 启用溢出时，已发送未确认的消息数不超过溢出阈值，其余的消息留在待发送队列(可能在磁盘上)，保证内存中的消息有上限。
+     * 控制消息在以上两个限制之外都额外允许{@link #CONTROL_RESERVED_CREDIT}个。
+     * @param priority 消息的优先级
+     * @param flowControlEnabled 是否启用了流量控制
+     * @return true/false
+     */
+    public boolean isSendable(MessagePriority priority, boolean flowControlEnabled) {
+        if (flowControlEnabled && !hasSendCredit(priority)) {
+            return false;
+        }
+        return !needSendQueue.isSpillEnabled() || sentQueue.size() < needSendQueue.getSpillThreshold() + reservedCredit(priority);
+    }
+
+    /**
+     * 待发送队列的下一个消息是否可以发送
+     * @param flowControlEnabled 是否启用了流量控制
+     * @return 待发送队列为空时返回false
+     */
+    public boolean isNextSendable(boolean flowControlEnabled) {
+        MessagePriority priority = needSendQueue.peekPriority();
+        return null != priority && isSendable(priority, flowControlEnabled);
+    }
+
+    private static int reservedCredit(MessagePriority priority) {
+        return priority == MessagePriority.CONTROL ? CONTROL_RESERVED_CREDIT : 0;
+    }
+
+    /**
+     * 是否需要向对方通告接收窗口。
+     * 允许对方分配的最大sequence比上次通告的增大了窗口的一半时才通告，避免频繁的小窗口更新。
+     * @param window 当前的接收窗口
+     * @param maxWindow 最大接收窗口
+     * @return true/false
+     */
+    public boolean isWindowUpdateNeeded(int window, int maxWindow) {
+        return ack + window - advertisedLimitSequence >= Math.max(1, maxWindow / 2);
+    }
+
+    /**
+     * 记录通告给对方的接收窗口
+     * @param window 通告的接收窗口
+     */
+    public void onWindowAdvertised(int window) {
+        advertisedLimitSequence = ack + window;
+    }
+
+    /**
+     * 添加一个待发送的不可靠消息，超过上限时丢弃最旧的消息
+     * @param message 消息内容
+     * @param maxCacheNum 待发送的不可靠消息数上限
+     */
+    public void addUnreliable(Object message, int maxCacheNum) {
+        while (unreliableQueue.size() >= maxCacheNum && unreliableQueue.size() > 0) {
+            unreliableQueue.pollFirst();
+            droppedUnreliableNum++;
+        }
+        unreliableQueue.addLast(message);
+    }
+
+    /**
+     * 是否有待发送的不可靠消息
+     */
+    public boolean hasUnreliable() {
+        return unreliableQueue.size() > 0;
+    }
+
+    /**
+     * 获取待发送的不可靠消息数，不可靠消息不计入缓存的消息数
+     */
+    public int getUnreliableNum() {
+        return unreliableQueue.size();
+    }
+
+    /**
+     * 取出最早的一个待发送的不可靠消息
+     */
+    public Object pollUnreliable() {
+        return unreliableQueue.pollFirst();
+    }
+
+    /**
+     * 丢弃所有待发送的不可靠消息(链路拥塞或连接断开时)
+     */
+    public void dropUnreliable() {
+        droppedUnreliableNum += unreliableQueue.size();
+        unreliableQueue.clear();
+    }
+
+    /**
+     * 获取丢弃的不可靠消息总数
+     */
+    public long getDroppedUnreliableNum() {
+        return droppedUnreliableNum;
+    }
+
+    /**
+     * 丢弃待发送队列中所有可丢弃的消息({@link MessagePriority#isSheddable()})，缓存达到上限时调用
+     * @return 丢弃的消息数
+     */
+    public int shedMessages() {
+        int num = 0;
+        for (MessagePriority priority : MessagePriority.values()) {
+            if (priority.isSheddable()) {
+                num += needSendQueue.clear(priority);
+            }
+        }
+        onMessageShed(num);
+        return num;
+    }
+
+    /**
+     * 丢弃了一些消息(或者还未进入队列的消息)
+     * @param num 丢弃的消息数
+     */
+    public void onMessageShed(int num) {
+        unreportedShedNum += num;
+    }
+
+    /**
+     * 获取并清零还未通知用户的丢弃消息数
+     */
+    public int pollUnreportedShedNum() {
+        int num = unreportedShedNum;
+        unreportedShedNum = 0;
+        return num;
+    }
+
+    /**
+     * 获取当前缓存在内存中的消息数(不包括溢出到磁盘的消息)
      */
     public int getCacheMessageNum(){
-        return sentQueue.size() + needSendQueue.size();
+        return sentQueue.size() + needSendQueue.size() - needSendQueue.getSpilledCount();
+    }
+
+    /**
+     * 获取溢出到磁盘的消息数
+     */
+    public int getSpilledMessageNum() {
+        return needSendQueue.getSpilledCount();
+    }
+
+    /**
+     * 溢出到磁盘的消息是否已达到上限(或写入失败)，此时会话应该被删除
+     */
+    public boolean isSpillOverflowed() {
+        return needSendQueue.isSpillOverflowed();
+    }
+
+    /**
+     * 溢出到磁盘的消息能否通过新channel的编解码器发送，不能时会话应该被删除
+     * @param codecHelper 新的channel使用的编解码器
+     */
+    public boolean isSpillCompatible(CodecHelper codecHelper) {
+        return needSendQueue.isSpillCompatible(codecHelper);
+    }
+
+    /**
+     * 释放消息队列持有的外部资源(溢出的段文件)，会话删除时调用
+     */
+    public void release() {
+        needSendQueue.closeSpill();
     }
 
     @Override
@@ -156,8 +516,8 @@ public final class MessageQueue {
         return "MessageQueue{" +
                 "sequencer=" + sequencer +
                 ", ack=" + ack +
-                ", sentQueueSize=" + sentQueue.size() +
-                ", needSendQueueSize=" + needSendQueue.size() +
+                ", sentQueue=" + sentQueue +
+                ", needSendQueue=" + needSendQueue +
                 "}";
     }
 }
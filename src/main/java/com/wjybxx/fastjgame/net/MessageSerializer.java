@@ -16,6 +16,9 @@
 
 package com.wjybxx.fastjgame.net;
 
+import com.wjybxx.fastjgame.utils.NetUtils;
+import io.netty.buffer.ByteBuf;
+
 import java.io.IOException;
 
 /**
@@ -53,6 +56,46 @@ public interface MessageSerializer {
      */
     byte[] serialize(Object message) throws IOException;
 
+    /**
+     * 获取消息序列化之后的字节数，编码时可据此一次性分配恰好大小的缓冲区。
+     * 默认实现无法提前计算。
+     * @param message 一个具体的消息对象
+     * @return 序列化之后的字节数，如果无法提前计算，则返回-1，此时缓冲区会在写入时自动扩容。
+     */
+    default int getSerializedSize(Object message) throws IOException {
+        return -1;
+    }
+
+    /**
+     * 判断消息序列化之后的字节数是否会超过指定值。
+     * {@link MessageFragmenter}据此判断消息是否需要在分配sequence之前序列化并拆分，不会超过时消息留给codec序列化。
+     * 默认实现通过{@link #getSerializedSize(Object)}判断，无法提前计算时保守的返回true。
+     * 无法提前计算大小的序列化器应该重写该方法(只计算字节数，不保存序列化结果)。
+     *
+     * @param message 一个具体的消息对象
+     * @param limit 字节数上限
+     * @return 返回false时，序列化之后的字节数一定不超过limit
+     */
+    default boolean isSerializedSizeExceeded(Object message, int limit) throws IOException {
+        int serializedSize = getSerializedSize(message);
+        return serializedSize < 0 || serializedSize > limit;
+    }
+
+    /**
+     * 直接将对象序列化到byteBuf中（从writerIndex开始写入）。
+     * 默认实现会先序列化为字节数组再写入，子类如果支持直接写入byteBuf，应该重写该方法，
+     * 以避免每个消息一次数组分配与内存拷贝。
+     *
+     * @apiNote
+     * 实现不可以持有byteBuf的引用，也不可以修改它的引用计数。
+     *
+     * @param message 一个具体的消息对象
+     * @param byteBuf 序列化的目标缓冲区，方法返回后writerIndex增加了消息的字节数
+     */
+    default void serialize(Object message, ByteBuf byteBuf) throws IOException {
+        byteBuf.writeBytes(serialize(message));
+    }
+
     /**
      * 反序列化对象
      * @param messageClazz 消息对应的class
@@ -60,4 +103,43 @@ public interface MessageSerializer {
      * @return 反序列化之后的消息对象
      */
     <T> T deserialize(Class<T> messageClazz, byte[] messageBytes) throws IOException;
+
+    /**
+     * 直接从byteBuf中反序列化对象，消息内容为byteBuf中所有的可读字节。
+     * 默认实现会先将内容拷贝到一个字节数组中，子类如果支持直接从byteBuf（或其nio视图）中读取，应该重写该方法，
+     * 以避免每个消息一次数组分配与内存拷贝。
+     *
+     * @apiNote
+     * 1. 实现不可以持有byteBuf的引用，也不可以修改它的引用计数，byteBuf由调用者负责释放。
+     * 2. 方法返回之后 readableBytes == 0
+     *
+     * @param messageClazz 消息对应的class
+     * @param messageBuf 消息对应的byteBuf，可读部分为完整的消息内容
+     * @return 反序列化之后的消息对象
+     */
+    default <T> T deserialize(Class<T> messageClazz, ByteBuf messageBuf) throws IOException {
+        return deserialize(messageClazz, NetUtils.readRemainBytes(messageBuf));
+    }
+
+    /**
+     * 通过协议id直接反序列化对象，消息内容为byteBuf中所有的可读字节。
+     * 默认实现通过{@link MessageMapper#getMessageClazz(int)}找到消息类，再调用{@link #deserialize(Class, ByteBuf)}，
+     * 子类可以在{@link #init(MessageMapper)}时根据{@link MessageMapper#getMessageIndex(int)}构建数组，
+     * 解码时直接通过下标找到对应的解析器，而不需要接触Class。
+     *
+     * @apiNote
+     * 与{@link #deserialize(Class, ByteBuf)}的约束相同。
+     *
+     * @param messageMapper 初始化时使用的消息映射器
+     * @param messageId 消息id
+     * @param messageBuf 消息对应的byteBuf，可读部分为完整的消息内容
+     * @return 反序列化之后的消息对象
+     */
+    default Object deserialize(MessageMapper messageMapper, int messageId, ByteBuf messageBuf) throws IOException {
+        Class<?> messageClazz = messageMapper.getMessageClazz(messageId);
+        if (null == messageClazz) {
+            throw new IOException("unregistered messageId " + messageId);
+        }
+        return deserialize(messageClazz, messageBuf);
+    }
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * 重传请求传输对象。
+ * ack为接收方已按序收到的最大sequence，发送方需要重发该ack之后的所有消息；
+ * sequence为接收方收到的不连续的消息的sequence，仅用于日志，重传请求本身不占用sequence。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@Immutable
+@TransferObject
+public class NackMessageTO extends MessageTO {
+
+	public NackMessageTO(long ack, long sequence) {
+		super(ack, sequence);
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+/**
+ * 网络层的扩展能力(协议版本)。
+ * 每一种能力占一个bit，连接建立时由双方协商：
+ * 1. 客户端在连接请求中携带自己希望使用的能力。
+ * 2. 服务器取双方都支持的部分，在连接成功的响应中返回。
+ * 3. 双方在连接响应之后的所有包都按照协商的结果编解码。
+ *
+ * 旧版本的客户端不会携带能力字段，协商结果为{@link #NONE}，因此旧客户端可以连接新服务器；
+ * 而旧版本的服务器无法识别携带能力字段的连接请求，因此客户端只应该对已升级的服务器开启扩展能力。
+ *
+ * 支持的能力通过{@link CodecHelper}为每个channelInitializer单独指定。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/7
+ * github - https://github.com/hl845740757
+ */
+public final class NetCapabilities {
+
+    /**
+     * 不使用任何扩展能力，即最初的协议
+     */
+    public static final int NONE = 0;
+
+    /**
+     * 紧凑的包头：
+     * 帧长度使用varint编码，校验和为4字节，
+     * ack和sequence使用相对于该channel上一个包的增量编码(zigzag varint)，
+     * requestGuid、messageId、rpc结果码使用varint编码。
+     * (需要使用{@link com.wjybxx.fastjgame.net.codec.NetFrameDecoder}进行分帧)
+     */
+    public static final int COMPACT_HEADER = 1;
+
+    /**
+     * 批量消息：多个sequence连续的消息共享一个包头和ack，打包在一个网络包中发送。
+     * (见{@link BatchMessageTO}，需要使用{@link com.wjybxx.fastjgame.net.codec.NetFrameDecoder}进行分帧)
+     */
+    public static final int BATCH = 1 << 1;
+
+    /**
+     * 逐包压缩：LZ4 block格式，压缩率一般，速度非常快。
+     */
+    public static final int COMPRESS_LZ4 = 1 << 2;
+    /**
+     * 逐包压缩：deflate，压缩率较高，速度较慢。
+     */
+    public static final int COMPRESS_DEFLATE = 1 << 3;
+    /**
+     * 流式压缩：deflate，一个channel上的所有压缩包共享压缩上下文，小而相似的包也可以获得较好的压缩率，
+     * 但每个channel需要额外的内存。
+     */
+    public static final int COMPRESS_DEFLATE_STREAM = 1 << 4;
+
+    /**
+     * 所有的压缩方式，协商之后最多保留一种，优先级：LZ4 > DEFLATE_STREAM > DEFLATE
+     */
+    public static final int COMPRESSION_MASK = COMPRESS_LZ4 | COMPRESS_DEFLATE | COMPRESS_DEFLATE_STREAM;
+
+    /**
+     * 分片消息：序列化之后超过帧长度限制的消息体拆分为多个分片发送，每个分片占用一个sequence，独立的确认和重传，
+     * 接收方在会话上重组之后再解码(见{@link MessageFragmenter}和{@link FragmentBuffer})。
+     */
+    public static final int FRAGMENT = 1 << 5;
+    /**
+     * 连接内重传：接收方发现sequence不连续时不再要求重连，而是丢弃之后的消息并发送重传请求({@link NetPackageType#NACK})，
+     * 发送方在当前channel上重发对方ack之后的所有消息；客户端的第一次确认超时也先在当前channel上重传，再次超时才重连。
+     */
+    public static final int RETRANSMIT = 1 << 6;
+    /**
+     * 延迟确认：接收方收到一定数量的消息或经过一定时间之后，如果没有可以捎带确认的消息，则发送单独的确认包({@link NetPackageType#ACK})，
+     * 服务器收到ack-ping时也返回确认包而不是占用sequence的ack-pong，单向推送为主的会话不再依赖心跳包确认。
+     */
+    public static final int DELAYED_ACK = 1 << 7;
+    /**
+     * 流量控制：确认包({@link NetPackageType#ACK})额外携带接收窗口(消息数)，发送方分配的sequence不超过对方通告的ack + 窗口，
+     * 超出部分留在待发送队列，由会话的可写状态({@link Session#isWritable()})通知用户减速，而不是直接触发缓存上限删除会话。
+     */
+    public static final int FLOW_CONTROL = 1 << 8;
+    /**
+     * 不可靠消息：{@link DeliveryMode#UNRELIABLE}的单向消息使用{@link NetPackageType#UNRELIABLE_MESSAGE}发送，
+     * 它不占用sequence，不进入已发送队列，不会重传，接收方收到之后直接交给用户；未协商时退化为可靠有序的单向消息。
+     */
+    public static final int UNRELIABLE = 1 << 9;
+
+    private NetCapabilities() {
+
+    }
+
+    /**
+     * 是否启用了指定能力
+     * @param capabilities 能力集合
+     * @param capability 要检查的能力
+     * @return true/false
+     */
+    public static boolean isEnabled(int capabilities, int capability) {
+        return (capabilities & capability) != 0;
+    }
+
+    /**
+     * 规范化协商的结果：压缩方式最多保留一种。
+     * @param capabilities 双方都支持的能力
+     * @return 最终使用的能力
+     */
+    public static int normalize(int capabilities) {
+        int compression = capabilities & COMPRESSION_MASK;
+        if (compression == 0) {
+            return capabilities;
+        }
+        int selected;
+        if (isEnabled(compression, COMPRESS_LZ4)) {
+            selected = COMPRESS_LZ4;
+        } else if (isEnabled(compression, COMPRESS_DEFLATE_STREAM)) {
+            selected = COMPRESS_DEFLATE_STREAM;
+        } else {
+            selected = COMPRESS_DEFLATE;
+        }
+        return (capabilities & ~COMPRESSION_MASK) | selected;
+    }
+}
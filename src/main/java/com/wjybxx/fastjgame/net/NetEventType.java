@@ -84,6 +84,46 @@ public enum NetEventType implements NumberEnum {
 	 */
 	HTTP_REQUEST(11),
 
+	// ------------------------------------ 分片消息 ---------------------------------------
+	/**
+	 * 作为连接的客户端方发来的分片
+	 */
+	C2S_FRAGMENT(12),
+	/**
+	 * 作为连接的服务器方发来的分片
+	 */
+	S2C_FRAGMENT(13),
+
+	// ------------------------------------ 重传请求 ---------------------------------------
+	/**
+	 * 作为连接的客户端方发来的重传请求
+	 */
+	C2S_NACK(14),
+	/**
+	 * 作为连接的服务器方发来的重传请求
+	 */
+	S2C_NACK(15),
+
+	// ------------------------------------ 单独的确认包 ---------------------------------------
+	/**
+	 * 作为连接的客户端方发来的确认包
+	 */
+	C2S_ACK(16),
+	/**
+	 * 作为连接的服务器方发来的确认包
+	 */
+	S2C_ACK(17),
+
+	// ------------------------------------ 不可靠消息 ---------------------------------------
+	/**
+	 * 作为连接的客户端方发来的不可靠消息
+	 */
+	C2S_UNRELIABLE_MESSAGE(18),
+	/**
+	 * 作为连接的服务器方发来的不可靠消息
+	 */
+	S2C_UNRELIABLE_MESSAGE(19),
+
 	;
 
 	/** 枚举对应的唯一数字 */
@@ -23,6 +23,7 @@ import javax.annotation.concurrent.NotThreadSafe;
  * 它由网络层构建，网络层使用，且不会共享，因此字段不必是final(final有一定消耗)。
  *
  * 一个包的{@link #sequence}不会改变，但是ack会在每次发送的时候改变。
+ * 消息的确认超时时间由{@link SentMessageQueue}统一存放。
  *
  * 2019年7月30日进行了重命名，避免和protoBuf的message搞混淆。
  *
@@ -37,11 +38,6 @@ public abstract class NetMessage {
      * 当前包id。一个网络包一旦被构建，则不再改变！
      */
     protected long sequence;
-    /**
-     * 消息确认超时时间
-     * 发送的时候设置超时时间
-     */
-    private long timeout;
 
     public NetMessage(long sequence) {
         this.sequence = sequence;
@@ -51,14 +47,6 @@ public abstract class NetMessage {
         return sequence;
     }
 
-    public long getTimeout() {
-        return timeout;
-    }
-
-    public void setTimeout(long timeout) {
-        this.timeout = timeout;
-    }
-
     /**
      * 构建传输对象
      * @param ack 捎带确认
@@ -21,7 +21,7 @@ import com.wjybxx.fastjgame.enummapper.NumberEnumMapper;
 import com.wjybxx.fastjgame.utils.EnumUtils;
 
 /**
- * 网络包类型 -- 7种
+ * 网络包类型 -- 9种
  * (严格来说还有一个：http网络包，不过由于不是自定义格式，因此不在这里)
  *
  * @author wjybxx
@@ -64,8 +64,51 @@ public enum NetPackageType implements NumberEnum {
 	 */
 	ACK_PONG((byte)7),
 
+	/**
+	 * 批量消息包，包含多个sequence连续的3/4/5/6/7类型的消息。(需要协商{@link NetCapabilities#BATCH})
+	 */
+	BATCH((byte)8),
+
+	/**
+	 * 分片包，一个大消息的消息体的一部分，最后一部分随原消息一起发送(带有{@link #FLAG_FRAGMENTED}标记)。(需要协商{@link NetCapabilities#FRAGMENT})
+	 */
+	FRAGMENT((byte)9),
+	/**
+	 * 重传请求，接收方发现sequence不连续时发送，ack为接收方已按序收到的最大sequence，请求对方重发ack之后的所有消息。
+	 * 它不占用sequence，不进入已发送队列，sequence字段为触发请求的消息的sequence(仅用于日志)。(需要协商{@link NetCapabilities#RETRANSMIT})
+	 */
+	NACK((byte)10),
+	/**
+	 * 确认包，只携带ack，在没有可以捎带确认的消息时发送。
+	 * 它不占用sequence，不进入已发送队列，sequence字段为发送方上次分配的sequence(使紧凑包头的增量保持很小)。(需要协商{@link NetCapabilities#DELAYED_ACK})
+	 * 协商{@link NetCapabilities#FLOW_CONTROL}时，额外携带接收方的接收窗口(消息数)，也用于单独通告窗口。
+	 */
+	ACK((byte)11),
+	/**
+	 * 不可靠的单向消息包，捎带确认，但不占用sequence，不进入已发送队列，不会重传，也不会分片或打包。
+	 * sequence字段为发送方上次分配的sequence(使紧凑包头的增量保持很小)。(需要协商{@link NetCapabilities#UNRELIABLE})
+	 */
+	UNRELIABLE_MESSAGE((byte)12),
+
 	;
 
+	/**
+	 * 包类型字节中，低5位为包类型，高3位为标记位
+	 */
+	public static final int TYPE_MASK = 0x1F;
+	/**
+	 * 扩展标记：连接请求/连接响应包中携带了能力字段{@link NetCapabilities}
+	 */
+	public static final int FLAG_EXTENDED = 0x80;
+	/**
+	 * 压缩标记：包类型之后的内容是压缩的，格式为 varint32 压缩前的长度 + 压缩的内容(需要协商压缩方式)
+	 */
+	public static final int FLAG_COMPRESSED = 0x40;
+	/**
+	 * 分片标记：3/4/5类型的包的消息体是分片消息的最后一部分，需要与之前收到的{@link #FRAGMENT}包组合之后才能解码
+	 */
+	public static final int FLAG_FRAGMENTED = 0x20;
+
 	public final byte pkgType;
 
 	NetPackageType(byte pkgType) {
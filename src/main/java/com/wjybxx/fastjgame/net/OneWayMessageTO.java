@@ -29,7 +29,7 @@ import javax.annotation.concurrent.Immutable;
 @Immutable
 public class OneWayMessageTO extends MessageTO{
 
-	/** 消息内容，必须是不可变对象 */
+	/** 消息内容，必须是不可变对象(延迟解码时为{@link DeferredMessage}) */
 	private final Object message;
 
 	public OneWayMessageTO(long ack, long sequence, Object message) {
@@ -16,9 +16,12 @@
 
 package com.wjybxx.fastjgame.net;
 
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.MessageLite;
 import com.google.protobuf.Parser;
 import com.wjybxx.fastjgame.utils.ReflectionUtils;
+import io.netty.buffer.ByteBuf;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
@@ -36,6 +39,10 @@ import java.util.Map;
 public class ProtoBufMessageSerializer implements MessageSerializer {
 
     private final Map<Class<?>, Parser<?>> parserMap = new IdentityHashMap<>();
+    /**
+     * 消息的紧凑下标 -> parser，通过协议id解码时使用
+     */
+    private Parser<?>[] indexedParsers;
 
     @Override
     public void init(MessageMapper messageMapper) throws Exception{
@@ -43,12 +50,44 @@ public class ProtoBufMessageSerializer implements MessageSerializer {
             Parser<?> parser= ReflectionUtils.findParser(messageClazz);
             parserMap.put(messageClazz, parser);
         }
+        indexedParsers = new Parser<?>[messageMapper.getMessageCount()];
+        for (int index = 0; index < indexedParsers.length; index++) {
+            indexedParsers[index] = parserMap.get(messageMapper.getMessageClazzByIndex(index));
+        }
     }
 
     @Override
     public byte[] serialize(Object message) throws UnsupportedEncodingException {
+        return checkMessage(message).toByteArray();
+    }
+
+    @Override
+    public int getSerializedSize(Object message) throws IOException {
+        // protoBuf会缓存计算结果，后续writeTo时不会重复计算
+        return checkMessage(message).getSerializedSize();
+    }
+
+    @Override
+    public void serialize(Object message, ByteBuf byteBuf) throws IOException {
+        MessageLite messageLite = checkMessage(message);
+        int size = messageLite.getSerializedSize();
+        byteBuf.ensureWritable(size);
+        if (byteBuf.nioBufferCount() != 1) {
+            // 由多个组件构成的byteBuf，nio视图是一份拷贝，不能在其上写入
+            byteBuf.writeBytes(messageLite.toByteArray());
+            return;
+        }
+        // 直接在byteBuf的nio视图上写入，不产生中间数组
+        int writerIndex = byteBuf.writerIndex();
+        CodedOutputStream codedOutputStream = CodedOutputStream.newInstance(byteBuf.nioBuffer(writerIndex, size));
+        messageLite.writeTo(codedOutputStream);
+        codedOutputStream.checkNoSpaceLeft();
+        byteBuf.writerIndex(writerIndex + size);
+    }
+
+    private static MessageLite checkMessage(Object message) throws UnsupportedEncodingException {
         if (message instanceof MessageLite){
-            return ((MessageLite) message).toByteArray();
+            return (MessageLite) message;
         }else {
             throw new UnsupportedEncodingException("not protoBuf class " + message.getClass().getSimpleName());
         }
@@ -56,11 +95,37 @@ public class ProtoBufMessageSerializer implements MessageSerializer {
 
     @Override
     public <T> T deserialize(Class<T> messageClazz, byte[] messageBytes) throws IOException {
+        return findParser(messageClazz).parseFrom(messageBytes);
+    }
+
+    @Override
+    public <T> T deserialize(Class<T> messageClazz, ByteBuf messageBuf) throws IOException {
+        return parseFrom(findParser(messageClazz), messageBuf);
+    }
+
+    @Override
+    public Object deserialize(MessageMapper messageMapper, int messageId, ByteBuf messageBuf) throws IOException {
+        int index = messageMapper.getMessageIndex(messageId);
+        if (index < 0) {
+            throw new UnsupportedEncodingException("unregistered protoBuf messageId " + messageId);
+        }
+        return parseFrom(indexedParsers[index], messageBuf);
+    }
+
+    private static <T> T parseFrom(Parser<T> parser, ByteBuf messageBuf) throws IOException {
+        // 直接在byteBuf的nio视图上解析，不拷贝到中间数组 (未开启aliasing，bytes字段会被拷贝，不会引用byteBuf)
+        CodedInputStream codedInputStream = CodedInputStream.newInstance(messageBuf.nioBuffer());
+        T message = parser.parseFrom(codedInputStream);
+        messageBuf.skipBytes(messageBuf.readableBytes());
+        return message;
+    }
+
+    private <T> Parser<T> findParser(Class<T> messageClazz) throws UnsupportedEncodingException {
         @SuppressWarnings("unchecked")
         Parser<T> parser = (Parser<T>) parserMap.get(messageClazz);
         if (parser == null){
             throw new UnsupportedEncodingException("unregistered protoBuf class " + messageClazz.getSimpleName());
         }
-        return parser.parseFrom(messageBytes);
+        return parser;
     }
 }
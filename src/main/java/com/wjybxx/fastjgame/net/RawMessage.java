@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * 原始消息：消息体是已经编码好的字节(如在其它地方编码好的数据、转发的消息)，
+ * 网络层不调用{@link MessageSerializer}，直接将内容写入网络包(组合而不是拷贝)。
+ *
+ * 发送方：content的可读部分为消息体，网络层不修改它的索引和引用计数。
+ * 未确认的消息需要重传，content会被重传队列引用直到被确认，因此应该使用由GC回收的非池化缓冲区
+ * (如{@link Unpooled#wrappedBuffer(byte[])})，发送之后不可以修改它的内容(与{@link SharedMessage}的约束相同)。
+ *
+ * 接收方：协议id需要在{@link CompositeMessageSerializer}中注册为原始消息，收到的content是网络包的retainedSlice，
+ * 用户处理完毕之后需要调用{@link #release()}；网络层丢弃消息时会自动释放。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@Immutable
+public final class RawMessage {
+
+    /**
+     * 协议id，不需要在{@link MessageMapper}中注册
+     */
+    private final int messageId;
+    /**
+     * 消息内容
+     */
+    private final ByteBuf content;
+
+    public RawMessage(int messageId, ByteBuf content) {
+        this.messageId = messageId;
+        this.content = content;
+    }
+
+    public int getMessageId() {
+        return messageId;
+    }
+
+    public ByteBuf getContent() {
+        return content;
+    }
+
+    /**
+     * 接收方处理完毕之后释放消息内容
+     */
+    public void release() {
+        content.release();
+    }
+
+    @Override
+    public String toString() {
+        return "RawMessage{" +
+                "messageId=" + messageId +
+                ", length=" + content.readableBytes() +
+                '}';
+    }
+}
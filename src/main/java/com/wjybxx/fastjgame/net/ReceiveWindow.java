@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 会话的接收窗口(流量控制{@link NetCapabilities#FLOW_CONTROL})。
+ * 网络线程将消息提交给用户线程时计数，用户线程处理完之后减少计数，
+ * 接收窗口 = 最大窗口 - 已提交但用户线程还未处理的消息数，对方据此限制发送速度。
+ *
+ * 窗口只以消息数计，不通告字节数：单个消息的大小已被最大帧长度和最大重组长度限制，
+ * 因此积压的字节数不超过 最大窗口 * maxReassemblyBytes，对方仍然可以据此估算并限制内存。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@ThreadSafe
+public class ReceiveWindow {
+
+    /**
+     * 最大接收窗口(消息数)
+     */
+    private final int maxWindow;
+    /**
+     * 已提交到用户线程但还未处理的消息数
+     */
+    private final AtomicInteger pendingCount = new AtomicInteger(0);
+
+    public ReceiveWindow(int maxWindow) {
+        this.maxWindow = maxWindow;
+    }
+
+    public int getMaxWindow() {
+        return maxWindow;
+    }
+
+    /**
+     * 网络线程将一个消息提交给用户线程(提交失败时需要调用{@link #onProcessed()})
+     */
+    public void onSubmitted() {
+        pendingCount.incrementAndGet();
+    }
+
+    /**
+     * 用户线程处理完一个消息
+     */
+    public void onProcessed() {
+        pendingCount.decrementAndGet();
+    }
+
+    /**
+     * 当前可用的接收窗口
+     */
+    public int available() {
+        return Math.max(0, maxWindow - pendingCount.get());
+    }
+
+    @Override
+    public String toString() {
+        return "ReceiveWindow{" +
+                "maxWindow=" + maxWindow +
+                ", pendingCount=" + pendingCount.get() +
+                '}';
+    }
+}
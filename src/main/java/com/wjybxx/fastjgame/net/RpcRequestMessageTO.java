@@ -34,7 +34,7 @@ public class RpcRequestMessageTO extends MessageTO {
 	private final boolean sync;
 	/** rpc请求编号，用于返回消息 */
 	private final long requestGuid;
-	/** rpc请求内容 */
+	/** rpc请求内容(延迟解码时为{@link DeferredMessage}) */
 	private final Object request;
 
 	public RpcRequestMessageTO(long ack, long sequence, boolean sync, long requestGuid, Object request) {
@@ -41,9 +41,20 @@ public interface RpcResponseChannel {
 	void writeFailure(@Nonnull RpcResultCode errorCode);
 
 	/**
-	 * 返回rpc调用结果。
+	 * 返回rpc调用结果，异步调用的结果以{@link MessagePriority#NORMAL}发送，
+	 * 与之前发送的单向消息和异步rpc请求之间保持顺序(见{@link Session})。
 	 * @param rpcResponse rpc调用结果
 	 */
-	void write(@Nonnull RpcResponse rpcResponse);
+	default void write(@Nonnull RpcResponse rpcResponse) {
+		write(rpcResponse, MessagePriority.NORMAL);
+	}
+
+	/**
+	 * 以指定的优先级返回rpc调用结果(同步调用的结果总是立即发送，忽略该参数)。
+	 * 指定{@link MessagePriority#RPC}时结果会先于之前排队的普通消息发送，但不再与它们保持顺序。
+	 * @param rpcResponse rpc调用结果
+	 * @param priority 异步调用的结果的优先级
+	 */
+	void write(@Nonnull RpcResponse rpcResponse, @Nonnull MessagePriority priority);
 
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import it.unimi.dsi.fastutil.HashCommon;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 已发送待确认的消息队列，基于2的幂大小的循环数组实现。
+ *
+ * 已发送的消息sequence总是连续的(分配sequence之后立即入队)，因此只需要记录队首的sequence，
+ * 对方确认时通过sequence的差值直接计算出需要移除的消息数，不需要逐个比较。
+ * 消息的确认超时时间存放在独立的long数组中，检查超时不需要访问消息对象。
+ *
+ * 队列容量按需翻倍，会话空闲之后通过{@link #trim()}逐渐缩小，避免大量会话长期持有峰值时的数组。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public final class SentMessageQueue {
+
+    /**
+     * 初始容量(2的幂)
+     */
+    static final int INITIAL_CAPACITY = 8;
+
+    private NetMessage[] messages = new NetMessage[INITIAL_CAPACITY];
+    /**
+     * 消息的确认超时时间，下标与{@link #messages}一致
+     */
+    private long[] timeouts = new long[INITIAL_CAPACITY];
+    /**
+     * 队首下标
+     */
+    private int head = 0;
+    private int size = 0;
+    /**
+     * 队首消息的sequence，队列为空时无意义
+     */
+    private long firstSequence;
+    /**
+     * 上次{@link #trim()}以来的最大消息数
+     */
+    private int peakSize = 0;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 当前数组的容量
+     */
+    int capacity() {
+        return messages.length;
+    }
+
+    /**
+     * 添加一个刚分配sequence的消息到队尾
+     *
+     * @param netMessage 消息，它的sequence必须紧接着队尾消息的sequence
+     * @param timeout 消息的确认超时时间
+     */
+    public void addLast(NetMessage netMessage, long timeout) {
+        if (size == 0) {
+            firstSequence = netMessage.getSequence();
+        } else if (netMessage.getSequence() != firstSequence + size) {
+            throw new IllegalArgumentException("expected sequence " + (firstSequence + size) + ", but " + netMessage.getSequence());
+        }
+        if (size == messages.length) {
+            resize(messages.length << 1);
+        }
+        int index = (head + size) & (messages.length - 1);
+        messages[index] = netMessage;
+        timeouts[index] = timeout;
+        size++;
+        if (size > peakSize) {
+            peakSize = size;
+        }
+    }
+
+    /**
+     * 获取队列中的第index个消息
+     * @param index [0, size)
+     */
+    public NetMessage get(int index) {
+        checkIndex(index);
+        return messages[(head + index) & (messages.length - 1)];
+    }
+
+    public long getFirstSequence() {
+        checkIndex(0);
+        return firstSequence;
+    }
+
+    public long getLastSequence() {
+        checkIndex(0);
+        return firstSequence + size - 1;
+    }
+
+    public long getFirstTimeout() {
+        checkIndex(0);
+        return timeouts[head];
+    }
+
+    public long getLastTimeout() {
+        checkIndex(0);
+        return timeouts[(head + size - 1) & (messages.length - 1)];
+    }
+
+    /**
+     * 重传时更新所有消息的确认超时时间
+     * @param timeout 新的超时时间
+     */
+    public void resetTimeouts(long timeout) {
+        int mask = messages.length - 1;
+        for (int i = 0; i < size; i++) {
+            timeouts[(head + i) & mask] = timeout;
+        }
+    }
+
+    /**
+     * 移除sequence小于等于ack的所有消息
+     *
+     * @param ack 对方确认的sequence
+     * @return 移除的消息数
+     */
+    public int removeUntil(long ack) {
+        if (size == 0 || ack < firstSequence) {
+            return 0;
+        }
+        int removeCount = (int) Math.min(ack - firstSequence + 1, size);
+        int mask = messages.length - 1;
+        for (int i = 0; i < removeCount; i++) {
+            // 释放引用，以便gc
+            messages[(head + i) & mask] = null;
+        }
+        head = (head + removeCount) & mask;
+        size -= removeCount;
+        firstSequence += removeCount;
+        return removeCount;
+    }
+
+    /**
+     * 如果上次调用以来的峰值消息数远小于当前容量，则缩小容量。
+     * 应该周期性的调用，峰值在每次调用后重新计算。
+     */
+    public void trim() {
+        int newCapacity = trimmedCapacity(messages.length, peakSize);
+        if (newCapacity < messages.length) {
+            resize(newCapacity);
+        }
+        peakSize = size;
+    }
+
+    private void resize(int newCapacity) {
+        NetMessage[] newMessages = new NetMessage[newCapacity];
+        long[] newTimeouts = new long[newCapacity];
+        int mask = messages.length - 1;
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) & mask;
+            newMessages[i] = messages[index];
+            newTimeouts[i] = timeouts[index];
+        }
+        messages = newMessages;
+        timeouts = newTimeouts;
+        head = 0;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+    }
+
+    /**
+     * 计算缩容后的容量，峰值不超过容量的1/4时缩小为峰值的2倍(向上取2的幂)，不小于初始容量
+     */
+    static int trimmedCapacity(int capacity, int peakSize) {
+        if (capacity <= INITIAL_CAPACITY || peakSize > capacity >>> 2) {
+            return capacity;
+        }
+        return Math.max(INITIAL_CAPACITY, HashCommon.nextPowerOfTwo(peakSize << 1));
+    }
+
+    @Override
+    public String toString() {
+        return "SentMessageQueue{" +
+                "size=" + size +
+                ", capacity=" + messages.length +
+                (size > 0 ? ", firstSequence=" + firstSequence : "") +
+                "}";
+    }
+}
@@ -34,6 +34,14 @@ import javax.annotation.Nonnull;
  * 2. 同步rpc和同步rpc之间，先发的必然先到。也就是 同步调用与同步调用之间有顺序保证。
  *  方法：{@link #syncRpc(Object)}
  *
+ * 3. 不可靠的单向消息({@link DeliveryMode#UNRELIABLE})与任何消息之间都没有顺序保证，也可能丢失。
+ *  方法：{@link #sendMessage(Object, DeliveryMode)}
+ *
+ * 4. 以上保证只针对默认优先级({@link MessagePriority#NORMAL})，不同优先级的消息之间没有顺序保证。
+ *  异步rpc的结果默认也是普通优先级，满足保证1；通过{@link RpcResponseChannel#write(RpcResponse, MessagePriority)}
+ *  指定{@link MessagePriority#RPC}时，结果会先于之前发送的普通消息发送。
+ *  方法：{@link #sendMessage(Object, MessagePriority)}
+ *
  * Q: 为什么不没提供同步调用 与 异步调用 之间的顺序保证？
  * A: 基于这样的考虑：同步调用表示一种更迫切的需求，期望更快的处理，更快的返回，而异步调用没有这样的语义。
  *
@@ -88,6 +96,21 @@ public interface Session {
      */
     void sendMessage(Object message);
 
+    /**
+     * 以指定的投递方式发送一个单向消息给对方
+     * @param message 单向消息
+     * @param deliveryMode 投递方式，{@link DeliveryMode#RELIABLE_ORDERED}等同于{@link #sendMessage(Object)}
+     */
+    void sendMessage(Object message, DeliveryMode deliveryMode);
+
+    /**
+     * 以指定的优先级发送一个可靠有序的单向消息给对方，待发送的消息中高优先级的先发送。
+     * 只有相同优先级的消息之间保持顺序，{@link MessagePriority#BULK}的消息在会话压力过大时可能被丢弃。
+     * @param message 单向消息
+     * @param priority 优先级，{@link MessagePriority#NORMAL}等同于{@link #sendMessage(Object)}
+     */
+    void sendMessage(Object message, MessagePriority priority);
+
     /**
      * 发送一个rpc请求给对方，会使用默认的超时时间（配置文件中指定）。
      * @param request rpc请求对象
@@ -123,6 +146,25 @@ public interface Session {
      */
     boolean isActive();
 
+    /**
+     * 会话的确认统计(捎带确认与单独确认的次数)
+     */
+    AckStatistics ackStatistics();
+
+    /**
+     * 会话当前是否可写。
+     * 待发送和待确认的消息数超过高水位时变为不可写，降到低水位以下时恢复可写，
+     * 状态改变时通知{@link SessionLifecycleAware#onWritabilityChanged(Session, boolean)}。
+     * 不可写时仍然可以发送消息，但应该减少发送，缓存达到上限时会话会被删除。
+     */
+    boolean isWritable();
+
+    /**
+     * 会话压力过大时被丢弃的低优先级({@link MessagePriority#BULK})消息数，
+     * 丢弃时会通知{@link SessionLifecycleAware#onMessageShed(Session, int)}。
+     */
+    long shedMessageCount();
+
     /**
      * 关闭当前session
      *
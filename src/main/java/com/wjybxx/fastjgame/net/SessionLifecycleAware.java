@@ -38,4 +38,25 @@ public interface SessionLifecycleAware<T extends Session> {
      * @param session 注册时的会话信息
      */
     void onSessionDisconnected(T session);
+
+    /**
+     * 当会话的可写状态{@link Session#isWritable()}改变时调用(用户线程)。
+     * 不可写表示待发送和待确认的消息过多(通常是对方处理太慢)，用户应该减少发送或合并消息，
+     * 否则达到缓存上限之后会话会被删除。
+     * @param session 注册时的会话信息
+     * @param writable 新的可写状态
+     */
+    default void onWritabilityChanged(T session, boolean writable) {
+
+    }
+
+    /**
+     * 当会话压力过大，丢弃了低优先级({@link MessagePriority#BULK})的待发送消息时调用(用户线程)，每帧最多调用一次。
+     * 丢弃低优先级的消息代替了删除会话，用户可以据此降低广播等消息的频率。
+     * @param session 注册时的会话信息
+     * @param shedNum 本次丢弃的消息数
+     */
+    default void onMessageShed(T session, int shedNum) {
+
+    }
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+
+/**
+ * 共享的消息，用于将同一个消息发送给大量的会话(如广播场景更新)。
+ *
+ * 消息体只序列化一次，编码结果缓存在一个共享的byteBuf中，每个会话的网络包只包含自己的包头(ack/sequence)，
+ * 消息体通过共享byteBuf的retainedDuplicate进行组合(或拷贝)，重传时同样使用缓存的编码结果。
+ *
+ * 缓存的byteBuf是非池化的堆内存，由GC回收：
+ * 共享消息会被多个会话的重传队列引用，生命周期无法预知，如果使用池化的内存，则必须跟踪每一个会话的确认与关闭。
+ *
+ * 注意：
+ * 1. 消息对象必须是不可变对象，发送之后不可以修改。
+ * 2. 编码结果与{@link MessageMapper}和{@link MessageSerializer}相关，只缓存第一次使用的编解码器的结果，
+ * 会话使用不同的{@link CodecHelper}时，其它的编解码器每次都会重新编码(结果仍然正确)。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/9
+ * github - https://github.com/hl845740757
+ */
+@ThreadSafe
+public final class SharedMessage {
+
+    /**
+     * 消息对象
+     */
+    private final Object message;
+    /**
+     * 编码结果缓存，可能在多个IO线程中并发的访问
+     */
+    private volatile EncodedBody encodedBody;
+
+    private SharedMessage(Object message) {
+        this.message = message;
+    }
+
+    public Object getMessage() {
+        return message;
+    }
+
+    /**
+     * 获取编码后的消息体
+     * @param messageMapper 编解码器使用的消息映射
+     * @param messageSerializer 编解码器使用的序列化器
+     * @return 共享的byteBuf，可读部分为消息内容，使用者不可以修改它的索引和内容，应该使用它的duplicate。
+     */
+    public ByteBuf encode(MessageMapper messageMapper, MessageSerializer messageSerializer) throws IOException {
+        if (message instanceof RawMessage) {
+            // 已经是编码好的内容
+            return ((RawMessage) message).getContent();
+        }
+        EncodedBody cached = encodedBody;
+        if (null != cached && cached.messageMapper == messageMapper && cached.messageSerializer == messageSerializer) {
+            return cached.body;
+        }
+        int serializedSize = messageSerializer.getSerializedSize(message);
+        ByteBuf body = Unpooled.buffer(serializedSize >= 0 ? serializedSize : 256);
+        messageSerializer.serialize(message, body);
+        if (null == cached) {
+            // 竞争时最多多编码几次，结果是一样的
+            encodedBody = new EncodedBody(messageMapper, messageSerializer, body);
+        }
+        return body;
+    }
+
+    /**
+     * 创建一个共享消息
+     * @param message 消息对象，如果已经是共享消息，则直接返回
+     * @return 共享消息
+     */
+    public static SharedMessage newInstance(@Nonnull Object message) {
+        if (message instanceof SharedMessage) {
+            return (SharedMessage) message;
+        }
+        return new SharedMessage(message);
+    }
+
+    private static final class EncodedBody {
+
+        private final MessageMapper messageMapper;
+        private final MessageSerializer messageSerializer;
+        private final ByteBuf body;
+
+        private EncodedBody(MessageMapper messageMapper, MessageSerializer messageSerializer, ByteBuf body) {
+            this.messageMapper = messageMapper;
+            this.messageSerializer = messageSerializer;
+            this.body = body;
+        }
+    }
+}
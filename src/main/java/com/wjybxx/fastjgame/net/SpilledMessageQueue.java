@@ -0,0 +1,454 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.internal.PlatformDependent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 溢出到磁盘的待发送消息队列，是{@link UnsentMessageQueue}的尾部。
+ *
+ * 对方重启或长时间停顿时，服务器之间的待发送消息可能大量堆积，超过内存阈值之后，
+ * 消息体使用会话当前的{@link CodecHelper}直接序列化到会话独占的内存映射段文件中；
+ * 发送时按顺序读回，消息体为持有序列化结果的{@link RawMessage}，codec直接写入网络包(与直接发送的编码结果相同)。
+ * 只有{@link MessagePriority#NORMAL}的消息会溢出，即单向消息、异步rpc请求和结果。
+ * 段文件中的消息绑定了写入时的消息映射和序列化器，重连之后编解码器不同时不能发送，会话必须被删除，
+ * 见{@link #isCompatible(CodecHelper)}。
+ *
+ * 段文件的数量有上限，读完的段最多保留一个用于循环使用，其它的立即删除；
+ * 超过上限或写入失败时{@link #offer(UnsentMessage)}返回false，队列进入溢出状态(之后的写入都失败)，
+ * 消息不会被静默丢弃，调用者必须立即删除会话(与缓存上限的处理相同)，否则对方会收到缺少消息的连续序列。
+ * 会话删除时必须调用{@link #close()}删除所有段文件。
+ *
+ * 只在NetEventLoop中使用。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public final class SpilledMessageQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpilledMessageQueue.class);
+
+    /**
+     * 段文件名序号，避免同一个进程中的不同会话(不同的NetEventLoop可能有相同的guid)使用相同的文件
+     */
+    private static final AtomicInteger fileSequencer = new AtomicInteger(0);
+
+    private static final byte KIND_ONE_WAY_MESSAGE = 1;
+    private static final byte KIND_RPC_REQUEST = 2;
+    private static final byte KIND_RPC_RESPONSE = 3;
+
+    /**
+     * 没有消息体时写入的协议id
+     */
+    private static final int NO_BODY = -1;
+
+    /**
+     * 段文件所在目录
+     */
+    private final File dir;
+    /**
+     * 段文件名前缀
+     */
+    private final String fileNamePrefix;
+    /**
+     * 段文件大小，超过该大小的单条记录独占一个段
+     */
+    private final int segmentSize;
+    /**
+     * 段文件数量上限(包括保留的空闲段)
+     */
+    private final int maxSegments;
+    /**
+     * 会话当前使用的编解码器，会话第一次建立之前为null
+     */
+    private final Supplier<CodecHelper> codecHelperSupplier;
+
+    /**
+     * 使用中的段，队首为正在读的段，队尾为正在写的段
+     */
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    /**
+     * 保留的一个已读完的段，循环使用
+     */
+    private Segment idleSegment;
+    /**
+     * 队列中的消息数
+     */
+    private int size = 0;
+    /**
+     * 是否已溢出(段数量超过上限或写入失败)
+     */
+    private boolean overflowed = false;
+    /**
+     * 队列中的消息序列化时使用的编解码器，队列为空时为null
+     */
+    private CodecHelper spilledCodecHelper;
+
+    public SpilledMessageQueue(File dir, String fileNamePrefix, int segmentSize, int maxSegments,
+                               Supplier<CodecHelper> codecHelperSupplier) {
+        this.dir = dir;
+        this.fileNamePrefix = fileNamePrefix + "-" + fileSequencer.incrementAndGet();
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.codecHelperSupplier = codecHelperSupplier;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * 队列中的消息能否通过指定的编解码器发送，即与写入时使用的消息映射和序列化器相同(队列为空时总是可以)。
+     * 消息体写入时已经序列化，通过不同的编解码器发送时对方无法正确解码。
+     * @param codecHelper 新的channel使用的编解码器
+     */
+    public boolean isCompatible(CodecHelper codecHelper) {
+        return size == 0 || (spilledCodecHelper.getMessageMapper() == codecHelper.getMessageMapper()
+                && spilledCodecHelper.getMessageSerializer() == codecHelper.getMessageSerializer());
+    }
+
+    /**
+     * 是否可以写入消息，会话第一次建立之前还不能序列化消息，此时消息应该留在内存中。
+     * (队列不为空时编解码器一定已经存在，因此留在内存中不影响顺序)
+     */
+    public boolean isReady() {
+        return null != codecHelperSupplier.get();
+    }
+
+    /**
+     * 尝试将消息写入段文件，调用前必须确保{@link #isReady()}。
+     * @param unsentMessage 待发送的消息
+     * @return 写入成功返回true；超过上限或写入失败时返回false，此时消息未进入队列，会话必须被删除
+     */
+    public boolean offer(UnsentMessage unsentMessage) {
+        if (overflowed) {
+            return false;
+        }
+        final CodecHelper codecHelper = codecHelperSupplier.get();
+        assert null != codecHelper;
+        if (!isCompatible(codecHelper)) {
+            // 同一个队列中的消息必须使用相同的编解码器
+            overflowed = true;
+            logger.warn("codecHelper changed, spilled codecHelper={}, current codecHelper={}", spilledCodecHelper, codecHelper);
+            return false;
+        }
+        try {
+            if (!append(unsentMessage, codecHelper)) {
+                overflowed = true;
+                logger.warn("spilled queue overflowed, segments={}, message={}", segments.size(), unsentMessage.getClass().getSimpleName());
+                return false;
+            }
+        } catch (IOException e) {
+            overflowed = true;
+            logger.warn("spill {} caught exception", unsentMessage.getClass().getSimpleName(), e);
+            return false;
+        }
+        if (size == 0) {
+            spilledCodecHelper = codecHelper;
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * 移除并返回队首的消息
+     * @return 如果队列为空，则返回null
+     */
+    @Nullable
+    public UnsentMessage poll() {
+        if (size == 0) {
+            return null;
+        }
+        Segment head = segments.peekFirst();
+        assert null != head;
+        int length = head.content.getInt(head.readIndex);
+        // 直接在映射区域上解析记录
+        UnsentMessage unsentMessage = decode(head.content.slice(head.readIndex + 4, length));
+        head.readIndex += 4 + length;
+        if (--size == 0) {
+            spilledCodecHelper = null;
+        }
+        if (head.readIndex == head.writeIndex) {
+            recycle(segments.pollFirst());
+        }
+        return unsentMessage;
+    }
+
+    /**
+     * 删除所有的段文件，会话删除时调用
+     */
+    public void close() {
+        Segment segment;
+        while ((segment = segments.pollFirst()) != null) {
+            segment.delete();
+        }
+        if (null != idleSegment) {
+            idleSegment.delete();
+            idleSegment = null;
+        }
+        size = 0;
+        spilledCodecHelper = null;
+    }
+
+    /**
+     * 将消息直接编码到段文件的映射区域中
+     * @return 超过段数量上限时返回false
+     */
+    private boolean append(UnsentMessage unsentMessage, CodecHelper codecHelper) throws IOException {
+        Segment tail = segments.peekLast();
+        if (null != tail && tryWrite(tail, unsentMessage, codecHelper)) {
+            return true;
+        }
+        // 当前段剩余空间不足，写入新段
+        Segment segment = nextSegment(segmentSize);
+        if (null == segment) {
+            return false;
+        }
+        if (!tryWrite(segment, unsentMessage, codecHelper)) {
+            // 超过段大小的记录(少见)，先编码到临时缓冲区得到长度，再分配独占的段
+            recycle(segment);
+            ByteBuf record = Unpooled.buffer();
+            writeRecord(record, unsentMessage, codecHelper);
+            segment = nextSegment(4 + record.readableBytes());
+            if (null == segment) {
+                return false;
+            }
+            segment.content.writeInt(record.readableBytes());
+            segment.content.writeBytes(record);
+            segment.writeIndex = segment.content.writerIndex();
+        }
+        segments.addLast(segment);
+        return true;
+    }
+
+    /**
+     * 尝试将记录写入段的剩余空间
+     * @return 剩余空间不足时返回false，已写入的部分会被之后的记录覆盖
+     */
+    private static boolean tryWrite(Segment segment, UnsentMessage unsentMessage, CodecHelper codecHelper) throws IOException {
+        if (segment.capacity - segment.writeIndex <= 4) {
+            return false;
+        }
+        final ByteBuf content = segment.content;
+        // 预留记录长度
+        content.writerIndex(segment.writeIndex + 4);
+        try {
+            writeRecord(content, unsentMessage, codecHelper);
+        } catch (IndexOutOfBoundsException e) {
+            // 映射区域不能扩容，写满时抛出该异常
+            return false;
+        }
+        content.setInt(segment.writeIndex, content.writerIndex() - segment.writeIndex - 4);
+        segment.writeIndex = content.writerIndex();
+        return true;
+    }
+
+    /**
+     * 获取一个可以容纳recordLength字节的新段
+     * @return 超过段数量上限时返回null
+     */
+    private Segment nextSegment(int recordLength) throws IOException {
+        if (null != idleSegment && idleSegment.capacity >= recordLength) {
+            Segment segment = idleSegment;
+            idleSegment = null;
+            return segment;
+        }
+        int segmentCount = segments.size() + (null == idleSegment ? 0 : 1);
+        if (segmentCount >= maxSegments) {
+            // 空闲的段不够大，删除它腾出名额
+            if (null == idleSegment || segments.size() >= maxSegments) {
+                return null;
+            }
+            idleSegment.delete();
+            idleSegment = null;
+        }
+        if (!dir.exists() && !dir.mkdirs() && !dir.exists()) {
+            throw new IOException("create dir failed, dir=" + dir.getAbsolutePath());
+        }
+        File file = new File(dir, fileNamePrefix + "-" + fileSequencer.incrementAndGet() + ".spill");
+        return new Segment(file, Math.max(segmentSize, recordLength));
+    }
+
+    /**
+     * 回收读完的段，最多保留一个正常大小的段
+     */
+    private void recycle(Segment segment) {
+        if (null == idleSegment && segment.capacity == segmentSize) {
+            segment.readIndex = 0;
+            segment.writeIndex = 0;
+            segment.content.clear();
+            idleSegment = segment;
+        } else {
+            segment.delete();
+        }
+    }
+
+    // ------------------------------------------------ 记录编解码 ---------------------------------------
+
+    private static void writeRecord(ByteBuf out, UnsentMessage unsentMessage, CodecHelper codecHelper) throws IOException {
+        if (unsentMessage instanceof UnsentOneWayMessage) {
+            out.writeByte(KIND_ONE_WAY_MESSAGE);
+        } else if (unsentMessage instanceof UnsentRpcRequest) {
+            UnsentRpcRequest rpcRequest = (UnsentRpcRequest) unsentMessage;
+            out.writeByte(KIND_RPC_REQUEST);
+            out.writeLong(rpcRequest.getRpcRequestGuid());
+            out.writeBoolean(rpcRequest.isSync());
+        } else if (unsentMessage instanceof UnsentRpcResponse) {
+            // 同步调用的结果是控制消息，不会溢出，因此恢复时sync总是false，优先级总是NORMAL
+            UnsentRpcResponse rpcResponse = (UnsentRpcResponse) unsentMessage;
+            assert !rpcResponse.isSync() && rpcResponse.priority() == MessagePriority.NORMAL;
+            out.writeByte(KIND_RPC_RESPONSE);
+            out.writeLong(rpcResponse.getRequestGuid());
+            out.writeInt(rpcResponse.getRpcResponse().getResultCode().getNumber());
+        } else {
+            throw new IOException("unsupported unsentMessage " + unsentMessage.getClass().getName());
+        }
+        writeBody(out, unsentMessage.getBody(), codecHelper);
+    }
+
+    /**
+     * 写入消息体的协议id和序列化结果
+     */
+    private static void writeBody(ByteBuf out, Object body, CodecHelper codecHelper) throws IOException {
+        if (null == body) {
+            out.writeInt(NO_BODY);
+            return;
+        }
+        final MessageMapper messageMapper = codecHelper.getMessageMapper();
+        final MessageSerializer messageSerializer = codecHelper.getMessageSerializer();
+        Object message = body instanceof SharedMessage ? ((SharedMessage) body).getMessage() : body;
+        if (message instanceof RawMessage) {
+            out.writeInt(((RawMessage) message).getMessageId());
+        } else {
+            out.writeInt(messageMapper.getMessageId(message.getClass()));
+        }
+        if (body instanceof SharedMessage || message instanceof RawMessage) {
+            // 已编码的内容(或与其它会话共享的编码结果)直接拷贝
+            ByteBuf encodedBody = SharedMessage.newInstance(body).encode(messageMapper, messageSerializer);
+            out.writeBytes(encodedBody, encodedBody.readerIndex(), encodedBody.readableBytes());
+        } else {
+            messageSerializer.serialize(message, out);
+        }
+    }
+
+    private static UnsentMessage decode(ByteBuf record) {
+        byte kind = record.readByte();
+        switch (kind) {
+            case KIND_ONE_WAY_MESSAGE:
+                return new UnsentOneWayMessage(readBody(record));
+            case KIND_RPC_REQUEST: {
+                long rpcRequestGuid = record.readLong();
+                boolean sync = record.readBoolean();
+                return new UnsentRpcRequest(rpcRequestGuid, sync, readBody(record));
+            }
+            case KIND_RPC_RESPONSE: {
+                long requestGuid = record.readLong();
+                RpcResultCode resultCode = RpcResultCode.forNumber(record.readInt());
+                return new UnsentRpcResponse(requestGuid, new RpcResponse(resultCode, readBody(record)));
+            }
+            default:
+                throw new IllegalStateException("unexpected kind " + kind);
+        }
+    }
+
+    /**
+     * 读取消息体，返回持有序列化结果的{@link RawMessage}。
+     * 消息发送之后会被重传队列引用直到被确认，而段在读完之后会被复用或删除，
+     * 因此消息体必须拷贝到由GC回收的缓冲区中(见{@link RawMessage}的约束)，这是读回时唯一的一次拷贝。
+     */
+    private static RawMessage readBody(ByteBuf record) {
+        int messageId = record.readInt();
+        if (messageId == NO_BODY) {
+            return null;
+        }
+        ByteBuf content = Unpooled.buffer(record.readableBytes());
+        content.writeBytes(record);
+        return new RawMessage(messageId, content);
+    }
+
+    @Override
+    public String toString() {
+        return "SpilledMessageQueue{" +
+                "size=" + size +
+                ", segments=" + segments.size() +
+                ", overflowed=" + overflowed +
+                '}';
+    }
+
+    /**
+     * 内存映射的段文件
+     */
+    private static final class Segment {
+
+        private final File file;
+        private final int capacity;
+        private final MappedByteBuffer buffer;
+        /**
+         * 映射区域的ByteBuf视图(不能扩容，不负责释放映射)，写入时writerIndex为正在写的记录的位置
+         */
+        private final ByteBuf content;
+        private int readIndex = 0;
+        private int writeIndex = 0;
+
+        private Segment(File file, int capacity) throws IOException {
+            this.file = file;
+            this.capacity = capacity;
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                randomAccessFile.setLength(capacity);
+                // 映射在channel关闭之后仍然有效
+                this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+            this.content = Unpooled.wrappedBuffer(buffer).clear();
+        }
+
+        /**
+         * 解除映射并删除文件
+         */
+        private void delete() {
+            PlatformDependent.freeDirectBuffer(buffer);
+            if (!file.delete()) {
+                logger.warn("delete spill segment failed, file={}", file.getAbsolutePath());
+            }
+        }
+    }
+}
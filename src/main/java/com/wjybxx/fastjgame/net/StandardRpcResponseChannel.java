@@ -52,9 +52,9 @@ public class StandardRpcResponseChannel implements RpcResponseChannel{
 	}
 
 	@Override
-	public final void write(@Nonnull RpcResponse rpcResponse) {
+	public final void write(@Nonnull RpcResponse rpcResponse, @Nonnull MessagePriority priority) {
         if (writable.compareAndSet(true, false)) {
-            session.sendRpcResponse(sync, requestGuid, rpcResponse);
+            session.sendRpcResponse(sync, requestGuid, rpcResponse, priority);
         } else {
             throw new IllegalStateException("ResponseChannel can't be reused!");
         }
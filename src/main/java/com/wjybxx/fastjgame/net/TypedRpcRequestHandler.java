@@ -0,0 +1,40 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+/**
+ * 特定类型的Rpc请求处理器，注册到{@link MessageDispatcher}。
+ *
+ * @param <T> 请求类型
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@FunctionalInterface
+public interface TypedRpcRequestHandler<T> {
+
+    /**
+     * 处理该会话发来的Rpc请求
+     * @param session 会话信息
+     * @param request rpc请求，不为null
+     * @param responseChannel 返回结果的通道
+     * @throws Exception error
+     */
+    void onRpcRequest(Session session, T request, RpcResponseChannel responseChannel) throws Exception;
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import io.netty.channel.Channel;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * 不可靠消息事件参数
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@Immutable
+public class UnreliableMessageEventParam extends MessageEventParam {
+
+    /** remoteGuid */
+    private final long remoteGuid;
+    /** 不可靠消息 */
+    private final UnreliableMessageTO unreliableMessageTO;
+
+    public UnreliableMessageEventParam(Channel channel, long localGuid, long remoteGuid, UnreliableMessageTO unreliableMessageTO) {
+        super(channel, localGuid);
+        this.remoteGuid = remoteGuid;
+        this.unreliableMessageTO = unreliableMessageTO;
+    }
+
+    @Override
+    public UnreliableMessageTO messageTO() {
+        return unreliableMessageTO;
+    }
+
+    @Override
+    public long remoteGuid() {
+        return remoteGuid;
+    }
+}
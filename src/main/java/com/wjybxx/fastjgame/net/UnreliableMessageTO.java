@@ -0,0 +1,46 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * 不可靠消息传输对象({@link DeliveryMode#UNRELIABLE})。
+ * 它不占用sequence，不进入已发送队列，不会重传，接收方收到之后直接交给用户，不检查sequence是否连续；
+ * ack为捎带确认，sequence为发送方上次分配的sequence(使紧凑包头的增量保持很小)。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@Immutable
+@TransferObject
+public class UnreliableMessageTO extends MessageTO {
+
+	/** 消息内容，必须是不可变对象(延迟解码时为{@link DeferredMessage}) */
+	private final Object message;
+
+	public UnreliableMessageTO(long ack, long sequence, Object message) {
+		super(ack, sequence);
+		this.message = message;
+	}
+
+	public Object getMessage() {
+		return message;
+	}
+}
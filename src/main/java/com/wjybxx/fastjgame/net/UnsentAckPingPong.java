@@ -33,4 +33,9 @@ public class UnsentAckPingPong implements UnsentMessage{
 	public AckPingPongMessage build(long sequence) {
 		return new AckPingPongMessage(sequence);
 	}
+
+	@Override
+	public MessagePriority priority() {
+		return MessagePriority.CONTROL;
+	}
 }
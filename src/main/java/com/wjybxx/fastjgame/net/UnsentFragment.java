@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 未发送的分片
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/10
+ * github - https://github.com/hl845740757
+ */
+public class UnsentFragment implements UnsentMessage{
+
+	/** 分片内容，编码结果的切片 */
+	private ByteBuf fragment;
+
+	public UnsentFragment(ByteBuf fragment) {
+		this.fragment = fragment;
+	}
+
+	@Override
+	public FragmentMessage build(long sequence) {
+		return new FragmentMessage(sequence, fragment);
+	}
+}
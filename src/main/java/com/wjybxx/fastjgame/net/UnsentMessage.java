@@ -16,6 +16,8 @@
 
 package com.wjybxx.fastjgame.net;
 
+import javax.annotation.Nullable;
+
 /**
  * 未发送的消息，它只由网络层使用，并且不会共享，因此字段不必final.
  * (final会增加一定的消耗)
@@ -39,4 +41,30 @@ public interface UnsentMessage {
 	 * @return 用于真正发送的消息体结构。
 	 */
 	NetMessage build(long sequence);
+
+	/**
+	 * 获取消息体，用于判断是否需要分片({@link MessageFragmenter})。
+	 * @return 没有消息体时返回null
+	 */
+	@Nullable
+	default Object getBody() {
+		return null;
+	}
+
+	/**
+	 * 使用新的消息体创建一个相同的未发送消息，用于分片({@link MessageFragmenter})。
+	 * @param body 新的消息体，编码结果与原消息体相同
+	 * @return 新的未发送消息
+	 */
+	default UnsentMessage replaceBody(Object body) {
+		throw new UnsupportedOperationException(getClass().getName());
+	}
+
+	/**
+	 * 获取消息的优先级，决定它在待发送队列中的位置({@link UnsentMessageQueue})。
+	 * @return 默认为{@link MessagePriority#NORMAL}
+	 */
+	default MessagePriority priority() {
+		return MessagePriority.NORMAL;
+	}
 }
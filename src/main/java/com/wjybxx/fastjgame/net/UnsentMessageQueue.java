@@ -0,0 +1,285 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 待发送的消息队列(还没有尝试发送过的消息)，每个优先级({@link MessagePriority})一个基于2的幂大小的循环数组。
+ * 取出时先取高优先级的消息，相同优先级的消息先进先出。消息在取出之后才分配sequence，因此优先级不影响sequence的连续性。
+ * 容量按需翻倍，会话空闲之后通过{@link #trim()}逐渐缩小，缩容规则与{@link SentMessageQueue}一致。
+ * 启用溢出({@link #enableSpill(SpilledMessageQueue, int)})之后，{@link MessagePriority#NORMAL}队列在内存中的消息数达到阈值时，
+ * 之后的普通消息写入磁盘，内存中的普通消息发送完之后再按顺序读回；其它优先级的消息不溢出。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public final class UnsentMessageQueue {
+
+    private static final MessagePriority[] PRIORITIES = MessagePriority.values();
+
+    /**
+     * 每个优先级的队列，下标为{@link MessagePriority#ordinal()}
+     */
+    private final Lane[] lanes;
+    /**
+     * 内存中的消息数
+     */
+    private int size = 0;
+    /**
+     * 溢出到磁盘的部分({@link MessagePriority#NORMAL}队列的尾部)，未启用时为null
+     */
+    private SpilledMessageQueue spilledQueue;
+    /**
+     * 普通队列在内存中的消息数达到该值时开始溢出
+     */
+    private int spillThreshold;
+
+    public UnsentMessageQueue() {
+        lanes = new Lane[PRIORITIES.length];
+        for (int index = 0; index < lanes.length; index++) {
+            lanes[index] = new Lane();
+        }
+    }
+
+    /**
+     * 待发送的消息数(包括溢出到磁盘的消息)
+     */
+    public int size() {
+        return null == spilledQueue ? size : size + spilledQueue.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 获取指定优先级在内存中的消息数
+     */
+    public int size(MessagePriority priority) {
+        return lanes[priority.ordinal()].size;
+    }
+
+    /**
+     * 指定优先级的队列当前数组的容量
+     */
+    int capacity(MessagePriority priority) {
+        return lanes[priority.ordinal()].messages.length;
+    }
+
+    /**
+     * 启用溢出到磁盘
+     * @param spilledQueue 溢出的消息队列
+     * @param spillThreshold 普通队列在内存中的消息数达到该值时开始溢出
+     */
+    public void enableSpill(SpilledMessageQueue spilledQueue, int spillThreshold) {
+        this.spilledQueue = spilledQueue;
+        this.spillThreshold = spillThreshold;
+    }
+
+    public boolean isSpillEnabled() {
+        return null != spilledQueue;
+    }
+
+    public int getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * 溢出到磁盘的消息数
+     */
+    public int getSpilledCount() {
+        return null == spilledQueue ? 0 : spilledQueue.size();
+    }
+
+    /**
+     * 溢出队列是否已溢出(达到段文件上限或写入失败)，此时会话必须被删除
+     */
+    public boolean isSpillOverflowed() {
+        return null != spilledQueue && spilledQueue.isOverflowed();
+    }
+
+    /**
+     * 溢出到磁盘的消息能否通过指定的编解码器发送
+     * @see SpilledMessageQueue#isCompatible(CodecHelper)
+     */
+    public boolean isSpillCompatible(CodecHelper codecHelper) {
+        return null == spilledQueue || spilledQueue.isCompatible(codecHelper);
+    }
+
+    /**
+     * 删除溢出的段文件，会话删除时调用
+     */
+    public void closeSpill() {
+        if (null != spilledQueue) {
+            spilledQueue.close();
+        }
+    }
+
+    /**
+     * 添加一个消息到对应优先级的队尾
+     * @return 如果消息需要溢出到磁盘但写入失败，则返回false，此时消息未进入队列，会话必须立即被删除
+     */
+    public boolean add(UnsentMessage unsentMessage) {
+        final MessagePriority priority = unsentMessage.priority();
+        final Lane lane = lanes[priority.ordinal()];
+        // 已经开始溢出时，之后的普通消息都要溢出，以保证顺序
+        if (null != spilledQueue && priority == MessagePriority.NORMAL
+                && (spilledQueue.size() > 0 || lane.size >= spillThreshold) && spilledQueue.isReady()) {
+            return spilledQueue.offer(unsentMessage);
+        }
+        lane.add(unsentMessage);
+        size++;
+        return true;
+    }
+
+    /**
+     * 移除并返回优先级最高的队列的队首消息
+     * @return 如果队列为空，则返回null
+     */
+    public UnsentMessage pollFirst() {
+        for (int index = 0; index < lanes.length; index++) {
+            Lane lane = lanes[index];
+            if (lane.size > 0) {
+                size--;
+                return lane.pollFirst();
+            }
+            // 内存中的普通消息发送完之后，读回溢出的消息
+            if (index == MessagePriority.NORMAL.ordinal() && null != spilledQueue && spilledQueue.size() > 0) {
+                UnsentMessage unsentMessage = spilledQueue.poll();
+                if (null != unsentMessage) {
+                    return unsentMessage;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取下一个将被{@link #pollFirst()}取出的消息的优先级
+     * @return 如果队列为空，则返回null
+     */
+    public MessagePriority peekPriority() {
+        for (int index = 0; index < lanes.length; index++) {
+            if (lanes[index].size > 0) {
+                return PRIORITIES[index];
+            }
+            if (index == MessagePriority.NORMAL.ordinal() && null != spilledQueue && spilledQueue.size() > 0) {
+                return MessagePriority.NORMAL;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 丢弃指定优先级的所有消息
+     * @param priority 要丢弃的优先级
+     * @return 丢弃的消息数
+     */
+    public int clear(MessagePriority priority) {
+        int num = lanes[priority.ordinal()].clear();
+        size -= num;
+        return num;
+    }
+
+    /**
+     * 如果上次调用以来的峰值消息数远小于当前容量，则缩小容量。
+     * 应该周期性的调用，峰值在每次调用后重新计算。
+     */
+    public void trim() {
+        for (Lane lane : lanes) {
+            lane.trim();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "UnsentMessageQueue{" +
+                "size=" + size +
+                ", spilledQueue=" + spilledQueue +
+                "}";
+    }
+
+    /**
+     * 一个优先级的消息，基于2的幂大小的循环数组
+     */
+    private static final class Lane {
+
+        private UnsentMessage[] messages = new UnsentMessage[SentMessageQueue.INITIAL_CAPACITY];
+        /**
+         * 队首下标
+         */
+        private int head = 0;
+        private int size = 0;
+        /**
+         * 上次{@link #trim()}以来的最大消息数
+         */
+        private int peakSize = 0;
+
+        void add(UnsentMessage unsentMessage) {
+            if (size == messages.length) {
+                resize(messages.length << 1);
+            }
+            messages[(head + size) & (messages.length - 1)] = unsentMessage;
+            size++;
+            if (size > peakSize) {
+                peakSize = size;
+            }
+        }
+
+        UnsentMessage pollFirst() {
+            UnsentMessage unsentMessage = messages[head];
+            // 释放引用，以便gc
+            messages[head] = null;
+            head = (head + 1) & (messages.length - 1);
+            size--;
+            return unsentMessage;
+        }
+
+        int clear() {
+            int num = size;
+            int mask = messages.length - 1;
+            for (int i = 0; i < num; i++) {
+                messages[(head + i) & mask] = null;
+            }
+            head = 0;
+            size = 0;
+            return num;
+        }
+
+        void trim() {
+            int newCapacity = SentMessageQueue.trimmedCapacity(messages.length, peakSize);
+            if (newCapacity < messages.length) {
+                resize(newCapacity);
+            }
+            peakSize = size;
+        }
+
+        private void resize(int newCapacity) {
+            UnsentMessage[] newMessages = new UnsentMessage[newCapacity];
+            int mask = messages.length - 1;
+            for (int i = 0; i < size; i++) {
+                newMessages[i] = messages[(head + i) & mask];
+            }
+            messages = newMessages;
+            head = 0;
+        }
+    }
+}
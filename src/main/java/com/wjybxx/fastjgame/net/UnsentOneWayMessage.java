@@ -27,13 +27,35 @@ public class UnsentOneWayMessage implements UnsentMessage{
 
 	/** 单向消息的结构体，具体怎么解析，不做限制 */
 	private Object message;
+	/** 消息的优先级 */
+	private MessagePriority priority;
 
 	public UnsentOneWayMessage(Object message) {
+		this(message, MessagePriority.NORMAL);
+	}
+
+	public UnsentOneWayMessage(Object message, MessagePriority priority) {
 		this.message = message;
+		this.priority = priority;
 	}
 
 	@Override
 	public NetMessage build(long sequence) {
 		return new OneWayMessage(sequence, message);
 	}
+
+	@Override
+	public Object getBody() {
+		return message;
+	}
+
+	@Override
+	public UnsentMessage replaceBody(Object body) {
+		return new UnsentOneWayMessage(body, priority);
+	}
+
+	@Override
+	public MessagePriority priority() {
+		return priority;
+	}
 }
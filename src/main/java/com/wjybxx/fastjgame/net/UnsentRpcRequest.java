@@ -42,6 +42,10 @@ public class UnsentRpcRequest implements UnsentMessage{
 		return rpcRequestGuid;
 	}
 
+	public boolean isSync() {
+		return sync;
+	}
+
 	public Object getRequest() {
 		return request;
 	}
@@ -50,4 +54,20 @@ public class UnsentRpcRequest implements UnsentMessage{
 	public NetMessage build(long sequence) {
 		return new RpcRequestMessage(sequence, sync, rpcRequestGuid, request);
 	}
+
+	@Override
+	public Object getBody() {
+		return request;
+	}
+
+	@Override
+	public UnsentMessage replaceBody(Object body) {
+		return new UnsentRpcRequest(rpcRequestGuid, sync, body);
+	}
+
+	@Override
+	public MessagePriority priority() {
+		// 同步调用的一方在阻塞等待，不受接收窗口的限制
+		return sync ? MessagePriority.CONTROL : MessagePriority.NORMAL;
+	}
 }
@@ -26,16 +26,60 @@ package com.wjybxx.fastjgame.net;
 public class UnsentRpcResponse implements UnsentMessage{
 
 	private long requestGuid;
+	/** 是否是同步rpc调用的结果，对方在阻塞等待 */
+	private boolean sync;
+	/** 异步rpc调用的结果的优先级，同步调用的结果总是{@link MessagePriority#CONTROL} */
+	private MessagePriority priority;
 	/** rpc响应结果，网络层不对其做限制 */
 	private RpcResponse rpcResponse;
 
 	public UnsentRpcResponse(long requestGuid, RpcResponse rpcResponse) {
+		this(requestGuid, false, rpcResponse);
+	}
+
+	public UnsentRpcResponse(long requestGuid, boolean sync, RpcResponse rpcResponse) {
+		this(requestGuid, sync, MessagePriority.NORMAL, rpcResponse);
+	}
+
+	/**
+	 * @param priority 异步调用的结果的优先级，默认{@link MessagePriority#NORMAL}，与单向消息、异步rpc请求之间保持顺序
+	 */
+	public UnsentRpcResponse(long requestGuid, boolean sync, MessagePriority priority, RpcResponse rpcResponse) {
 		this.requestGuid = requestGuid;
+		this.sync = sync;
+		this.priority = priority;
 		this.rpcResponse = rpcResponse;
 	}
 
+	public long getRequestGuid() {
+		return requestGuid;
+	}
+
+	public boolean isSync() {
+		return sync;
+	}
+
+	public RpcResponse getRpcResponse() {
+		return rpcResponse;
+	}
+
 	@Override
 	public NetMessage build(long sequence) {
 		return new RpcResponseMessage(sequence, requestGuid, rpcResponse);
 	}
+
+	@Override
+	public Object getBody() {
+		return rpcResponse.hasBody() ? rpcResponse.getBody() : null;
+	}
+
+	@Override
+	public UnsentMessage replaceBody(Object body) {
+		return new UnsentRpcResponse(requestGuid, sync, priority, new RpcResponse(rpcResponse.getResultCode(), body));
+	}
+
+	@Override
+	public MessagePriority priority() {
+		return sync ? MessagePriority.CONTROL : priority;
+	}
 }
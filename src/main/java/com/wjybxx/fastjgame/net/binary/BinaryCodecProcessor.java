@@ -0,0 +1,553 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.binary;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * 为{@link BinaryMessage}消息类生成{@link BinaryMessageCodec}的注解处理器。
+ *
+ * 生成的编解码器与手写的编解码器完全相同：按字段编号直接读写{@link BinaryOutput}/{@link BinaryInput}，
+ * 单值字段跳过默认值，不认识的字段跳过，运行时不使用反射。
+ *
+ * 通过META-INF/services注册，依赖game-net的项目编译时自动执行(也可以用javac的-processor参数显式指定)。
+ * game-net自身编译时需要关闭注解处理(-proc:none)，因为此时处理器还未编译。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+public class BinaryCodecProcessor extends AbstractProcessor {
+
+    private static final String CODEC_CLASS_SUFFIX = "Codec";
+
+    private Types typeUtils;
+    private Elements elementUtils;
+    private Messager messager;
+
+    private TypeMirror stringType;
+    private TypeMirror collectionType;
+    private TypeMirror arrayListType;
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(BinaryMessage.class.getCanonicalName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (annotations.isEmpty()) {
+            return false;
+        }
+        ensureInited();
+        for (TypeElement typeElement : ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(BinaryMessage.class))) {
+            MessageInfo messageInfo = parseMessage(typeElement);
+            if (null == messageInfo) {
+                continue;
+            }
+            try {
+                generateCodec(messageInfo);
+            } catch (IOException e) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "generate codec failed: " + e, typeElement);
+            }
+        }
+        return true;
+    }
+
+    private void ensureInited() {
+        if (null != typeUtils) {
+            return;
+        }
+        typeUtils = processingEnv.getTypeUtils();
+        elementUtils = processingEnv.getElementUtils();
+        messager = processingEnv.getMessager();
+        stringType = elementUtils.getTypeElement(String.class.getCanonicalName()).asType();
+        collectionType = typeUtils.erasure(elementUtils.getTypeElement(Collection.class.getCanonicalName()).asType());
+        arrayListType = typeUtils.erasure(elementUtils.getTypeElement(ArrayList.class.getCanonicalName()).asType());
+    }
+
+    // ------------------------------------------------ 解析 ------------------------------------------
+
+    /**
+     * 解析消息类，不合法时输出错误并返回null
+     */
+    private MessageInfo parseMessage(TypeElement typeElement) {
+        if (typeElement.getKind() != ElementKind.CLASS || typeElement.getModifiers().contains(Modifier.ABSTRACT)) {
+            return error(typeElement, "@BinaryMessage must be a non-abstract class");
+        }
+        if (typeElement.getNestingKind() != NestingKind.TOP_LEVEL) {
+            return error(typeElement, "@BinaryMessage must be a top-level class");
+        }
+        if (!typeElement.getTypeParameters().isEmpty()) {
+            return error(typeElement, "@BinaryMessage can't be generic");
+        }
+        if (!hasAccessibleNoArgConstructor(typeElement)) {
+            return error(typeElement, "@BinaryMessage requires a non-private no-arg constructor");
+        }
+
+        List<FieldInfo> fieldInfoList = new ArrayList<>();
+        Map<Integer, VariableElement> numberMap = new HashMap<>();
+        boolean success = true;
+        for (VariableElement field : ElementFilter.fieldsIn(typeElement.getEnclosedElements())) {
+            BinaryField binaryField = field.getAnnotation(BinaryField.class);
+            if (null == binaryField) {
+                continue;
+            }
+            int number = binaryField.number();
+            if (number < WireFormat.MIN_FIELD_NUMBER || number > WireFormat.MAX_FIELD_NUMBER) {
+                error(field, "field number must be in [" + WireFormat.MIN_FIELD_NUMBER + "," + WireFormat.MAX_FIELD_NUMBER + "]");
+                success = false;
+                continue;
+            }
+            VariableElement duplicate = numberMap.put(number, field);
+            if (null != duplicate) {
+                error(field, "field number " + number + " is already used by " + duplicate.getSimpleName());
+                success = false;
+                continue;
+            }
+            FieldInfo fieldInfo = parseField(typeElement, field, number, binaryField.zigzag());
+            if (null == fieldInfo) {
+                success = false;
+                continue;
+            }
+            fieldInfoList.add(fieldInfo);
+        }
+        if (!success) {
+            return null;
+        }
+        // 按字段编号写入
+        fieldInfoList.sort(Comparator.comparingInt(fieldInfo -> fieldInfo.number));
+        return new MessageInfo(typeElement, fieldInfoList);
+    }
+
+    private boolean hasAccessibleNoArgConstructor(TypeElement typeElement) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(typeElement.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private FieldInfo parseField(TypeElement typeElement, VariableElement field, int number, boolean zigzag) {
+        if (field.getModifiers().contains(Modifier.STATIC)) {
+            return error(field, "@BinaryField can't be static");
+        }
+        TypeMirror fieldType = field.asType();
+        boolean repeated = isRepeated(fieldType);
+        TypeMirror valueType;
+        if (repeated) {
+            List<? extends TypeMirror> typeArguments = ((DeclaredType) fieldType).getTypeArguments();
+            if (typeArguments.size() != 1) {
+                return error(field, "repeated field must be declared as List<E>/Collection<E>/ArrayList<E>");
+            }
+            valueType = typeArguments.get(0);
+        } else {
+            valueType = fieldType;
+        }
+        ValueKind valueKind = valueKindOf(valueType, repeated, zigzag);
+        if (null == valueKind) {
+            return error(field, "unsupported field type " + fieldType);
+        }
+        if (zigzag && valueKind != ValueKind.SINT32 && valueKind != ValueKind.SINT64) {
+            return error(field, "zigzag is only supported by int/long fields");
+        }
+
+        FieldInfo fieldInfo = new FieldInfo(field, number, repeated, valueKind, valueType);
+        if (valueKind == ValueKind.MESSAGE) {
+            fieldInfo.codecClassName = codecCanonicalNameOf((TypeElement) typeUtils.asElement(valueType));
+        }
+        if (!field.getModifiers().contains(Modifier.PRIVATE)) {
+            fieldInfo.getter = "message." + field.getSimpleName();
+            // final的List字段只需要读取
+            if (!field.getModifiers().contains(Modifier.FINAL)) {
+                fieldInfo.setterPrefix = "message." + field.getSimpleName() + " = ";
+                fieldInfo.setterSuffix = "";
+            } else if (!repeated) {
+                return error(field, "@BinaryField can't be final");
+            }
+            return fieldInfo;
+        }
+        // private字段通过getter/setter访问
+        String capitalizedName = capitalize(field.getSimpleName().toString());
+        ExecutableElement getter = findMethod(typeElement, "get" + capitalizedName, 0, fieldType);
+        if (null == getter && fieldType.getKind() == TypeKind.BOOLEAN) {
+            getter = findMethod(typeElement, "is" + capitalizedName, 0, fieldType);
+        }
+        if (null == getter) {
+            return error(field, "private @BinaryField requires a non-private getter");
+        }
+        fieldInfo.getter = "message." + getter.getSimpleName() + "()";
+        ExecutableElement setter = findMethod(typeElement, "set" + capitalizedName, 1, fieldType);
+        if (null != setter) {
+            fieldInfo.setterPrefix = "message." + setter.getSimpleName() + "(";
+            fieldInfo.setterSuffix = ")";
+        } else if (!repeated || !field.getModifiers().contains(Modifier.FINAL)) {
+            return error(field, "private @BinaryField requires a non-private setter");
+        }
+        return fieldInfo;
+    }
+
+    /**
+     * 是否是列表字段：Collection的子类型，且可以赋值为ArrayList(读取时字段为null需要创建)
+     */
+    private boolean isRepeated(TypeMirror fieldType) {
+        if (fieldType.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        TypeMirror erasure = typeUtils.erasure(fieldType);
+        return typeUtils.isAssignable(erasure, collectionType) && typeUtils.isAssignable(arrayListType, erasure);
+    }
+
+    /**
+     * @param boxed 是否是列表的元素(基本类型使用包装类型)，单值字段不支持包装类型(无法区分null与默认值)
+     */
+    private ValueKind valueKindOf(TypeMirror valueType, boolean boxed, boolean zigzag) {
+        TypeMirror primitiveType = unboxedTypeOf(valueType);
+        if (null == primitiveType) {
+            primitiveType = valueType;
+        } else if (!boxed) {
+            return null;
+        }
+        switch (primitiveType.getKind()) {
+            case BOOLEAN:
+                return ValueKind.BOOL;
+            case BYTE:
+                return ValueKind.BYTE;
+            case SHORT:
+                return ValueKind.SHORT;
+            case CHAR:
+                return ValueKind.CHAR;
+            case INT:
+                return zigzag ? ValueKind.SINT32 : ValueKind.INT32;
+            case LONG:
+                return zigzag ? ValueKind.SINT64 : ValueKind.INT64;
+            case FLOAT:
+                return ValueKind.FLOAT;
+            case DOUBLE:
+                return ValueKind.DOUBLE;
+            case ARRAY:
+                return ((ArrayType) valueType).getComponentType().getKind() == TypeKind.BYTE ? ValueKind.BYTES : null;
+            case DECLARED:
+                if (typeUtils.isSameType(valueType, stringType)) {
+                    return ValueKind.STRING;
+                }
+                TypeElement valueElement = (TypeElement) typeUtils.asElement(valueType);
+                // 嵌套消息：非泛型的类，由约定命名的编解码器编解码
+                if (valueElement.getKind() == ElementKind.CLASS && valueElement.getTypeParameters().isEmpty()) {
+                    return ValueKind.MESSAGE;
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return 如果不是包装类型，则返回null
+     */
+    private TypeMirror unboxedTypeOf(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        try {
+            return typeUtils.unboxedType(type);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private ExecutableElement findMethod(TypeElement typeElement, String name, int paramCount, TypeMirror fieldType) {
+        for (ExecutableElement method : ElementFilter.methodsIn(typeElement.getEnclosedElements())) {
+            if (!method.getSimpleName().contentEquals(name)
+                    || method.getParameters().size() != paramCount
+                    || method.getModifiers().contains(Modifier.PRIVATE)
+                    || method.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            TypeMirror type = paramCount == 0 ? method.getReturnType() : method.getParameters().get(0).asType();
+            if (typeUtils.isSameType(type, fieldType)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 约定的编解码器类名：将消息类名的最后一段加上后缀(嵌套类的编解码器是其外部类的嵌套类)
+     */
+    private static String codecCanonicalNameOf(TypeElement typeElement) {
+        return typeElement.getQualifiedName() + CODEC_CLASS_SUFFIX;
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private <T> T error(Element element, String msg) {
+        messager.printMessage(Diagnostic.Kind.ERROR, msg, element);
+        return null;
+    }
+
+    // ------------------------------------------------ 生成 ------------------------------------------
+
+    private void generateCodec(MessageInfo messageInfo) throws IOException {
+        TypeElement typeElement = messageInfo.typeElement;
+        String packageName = elementUtils.getPackageOf(typeElement).getQualifiedName().toString();
+        String messageClassName = typeElement.getSimpleName().toString();
+        String codecClassName = messageClassName + CODEC_CLASS_SUFFIX;
+        String qualifiedCodecClassName = packageName.isEmpty() ? codecClassName : packageName + "." + codecClassName;
+
+        StringBuilder sb = new StringBuilder(2048);
+        if (!packageName.isEmpty()) {
+            sb.append("package ").append(packageName).append(";\n\n");
+        }
+        sb.append("import com.wjybxx.fastjgame.net.binary.BinaryInput;\n");
+        sb.append("import com.wjybxx.fastjgame.net.binary.BinaryMessageCodec;\n");
+        sb.append("import com.wjybxx.fastjgame.net.binary.BinaryOutput;\n");
+        sb.append("import com.wjybxx.fastjgame.net.binary.WireFormat;\n\n");
+        sb.append("import java.io.IOException;\n\n");
+        sb.append("/**\n");
+        sb.append(" * {@link ").append(messageClassName).append("}的编解码器，由{@link ")
+                .append(BinaryCodecProcessor.class.getCanonicalName()).append("}生成，不要手动修改。\n");
+        sb.append(" */\n");
+        sb.append("public final class ").append(codecClassName)
+                .append(" implements BinaryMessageCodec<").append(messageClassName).append("> {\n\n");
+
+        // 嵌套消息的编解码器
+        Map<String, String> codecFieldMap = new LinkedHashMap<>();
+        for (FieldInfo fieldInfo : messageInfo.fieldInfoList) {
+            if (null != fieldInfo.codecClassName && !codecFieldMap.containsKey(fieldInfo.codecClassName)) {
+                codecFieldMap.put(fieldInfo.codecClassName, "CODEC_" + codecFieldMap.size());
+            }
+        }
+        for (Map.Entry<String, String> entry : codecFieldMap.entrySet()) {
+            sb.append("    private static final ").append(entry.getKey()).append(' ').append(entry.getValue())
+                    .append(" = new ").append(entry.getKey()).append("();\n");
+        }
+        if (!codecFieldMap.isEmpty()) {
+            sb.append('\n');
+        }
+
+        sb.append("    @Override\n");
+        sb.append("    public Class<").append(messageClassName).append("> getMessageClass() {\n");
+        sb.append("        return ").append(messageClassName).append(".class;\n");
+        sb.append("    }\n\n");
+
+        appendWriteTo(sb, messageInfo, codecFieldMap);
+        sb.append('\n');
+        appendReadFrom(sb, messageInfo, codecFieldMap);
+        sb.append("}\n");
+
+        JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(qualifiedCodecClassName, typeElement);
+        try (Writer writer = sourceFile.openWriter()) {
+            writer.write(sb.toString());
+        }
+    }
+
+    private void appendWriteTo(StringBuilder sb, MessageInfo messageInfo, Map<String, String> codecFieldMap) {
+        String messageClassName = messageInfo.typeElement.getSimpleName().toString();
+        sb.append("    @Override\n");
+        sb.append("    public void writeTo(").append(messageClassName).append(" message, BinaryOutput output) throws IOException {\n");
+        for (FieldInfo fieldInfo : messageInfo.fieldInfoList) {
+            String value = fieldInfo.field.getSimpleName() + "Value";
+            sb.append("        final ").append(fieldInfo.field.asType()).append(' ').append(value)
+                    .append(" = ").append(fieldInfo.getter).append(";\n");
+            if (fieldInfo.repeated) {
+                sb.append("        if (null != ").append(value).append(") {\n");
+                sb.append("            for (").append(fieldInfo.valueType).append(" element : ").append(value).append(") {\n");
+                sb.append("                ").append(writeStatement(fieldInfo, "element", codecFieldMap)).append('\n');
+                sb.append("            }\n");
+                sb.append("        }\n");
+            } else {
+                sb.append("        if (").append(fieldInfo.valueKind.nonDefaultCondition(value)).append(") {\n");
+                sb.append("            ").append(writeStatement(fieldInfo, value, codecFieldMap)).append('\n');
+                sb.append("        }\n");
+            }
+        }
+        sb.append("    }\n");
+    }
+
+    private static String writeStatement(FieldInfo fieldInfo, String value, Map<String, String> codecFieldMap) {
+        if (fieldInfo.valueKind == ValueKind.MESSAGE) {
+            return "output.writeMessage(" + fieldInfo.number + ", " + codecFieldMap.get(fieldInfo.codecClassName) + ", " + value + ");";
+        }
+        return "output." + fieldInfo.valueKind.writeMethod + "(" + fieldInfo.number + ", " + value + ");";
+    }
+
+    private void appendReadFrom(StringBuilder sb, MessageInfo messageInfo, Map<String, String> codecFieldMap) {
+        String messageClassName = messageInfo.typeElement.getSimpleName().toString();
+        sb.append("    @Override\n");
+        sb.append("    public ").append(messageClassName).append(" readFrom(BinaryInput input) throws IOException {\n");
+        sb.append("        ").append(messageClassName).append(" message = new ").append(messageClassName).append("();\n");
+        sb.append("        for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {\n");
+        sb.append("            switch (WireFormat.getTagFieldNumber(tag)) {\n");
+        for (FieldInfo fieldInfo : messageInfo.fieldInfoList) {
+            String read = readExpression(fieldInfo, codecFieldMap);
+            sb.append("                case ").append(fieldInfo.number).append(": {\n");
+            if (fieldInfo.repeated) {
+                String value = fieldInfo.field.getSimpleName() + "Value";
+                sb.append("                    ").append(fieldInfo.field.asType()).append(' ').append(value)
+                        .append(" = ").append(fieldInfo.getter).append(";\n");
+                if (null != fieldInfo.setterPrefix) {
+                    sb.append("                    if (null == ").append(value).append(") {\n");
+                    sb.append("                        ").append(value).append(" = new java.util.ArrayList<>();\n");
+                    sb.append("                        ").append(fieldInfo.setterPrefix).append(value).append(fieldInfo.setterSuffix).append(";\n");
+                    sb.append("                    }\n");
+                }
+                sb.append("                    ").append(value).append(".add(").append(read).append(");\n");
+            } else {
+                sb.append("                    ").append(fieldInfo.setterPrefix).append(read).append(fieldInfo.setterSuffix).append(";\n");
+            }
+            sb.append("                    break;\n");
+            sb.append("                }\n");
+        }
+        sb.append("                default:\n");
+        sb.append("                    input.skipField(tag);\n");
+        sb.append("                    break;\n");
+        sb.append("            }\n");
+        sb.append("        }\n");
+        sb.append("        return message;\n");
+        sb.append("    }\n");
+    }
+
+    private static String readExpression(FieldInfo fieldInfo, Map<String, String> codecFieldMap) {
+        if (fieldInfo.valueKind == ValueKind.MESSAGE) {
+            return "input.readMessage(" + codecFieldMap.get(fieldInfo.codecClassName) + ")";
+        }
+        return fieldInfo.valueKind.readCast + "input." + fieldInfo.valueKind.readMethod + "()";
+    }
+
+    // ------------------------------------------------ 模型 ------------------------------------------
+
+    /**
+     * 字段值的编码方式
+     */
+    private enum ValueKind {
+        BOOL("writeBool", "readBool", ""),
+        BYTE("writeInt32", "readInt32", "(byte) "),
+        SHORT("writeInt32", "readInt32", "(short) "),
+        CHAR("writeInt32", "readInt32", "(char) "),
+        INT32("writeInt32", "readInt32", ""),
+        SINT32("writeSInt32", "readSInt32", ""),
+        INT64("writeInt64", "readInt64", ""),
+        SINT64("writeSInt64", "readSInt64", ""),
+        FLOAT("writeFloat", "readFloat", ""),
+        DOUBLE("writeDouble", "readDouble", ""),
+        STRING("writeString", "readString", ""),
+        BYTES("writeBytes", "readBytes", ""),
+        MESSAGE(null, null, "");
+
+        final String writeMethod;
+        final String readMethod;
+        final String readCast;
+
+        ValueKind(String writeMethod, String readMethod, String readCast) {
+            this.writeMethod = writeMethod;
+            this.readMethod = readMethod;
+            this.readCast = readCast;
+        }
+
+        /**
+         * 单值字段不是默认值的条件(默认值不写入)
+         */
+        String nonDefaultCondition(String value) {
+            switch (this) {
+                case BOOL:
+                    return value;
+                case FLOAT:
+                    return "Float.floatToRawIntBits(" + value + ") != 0";
+                case DOUBLE:
+                    return "Double.doubleToRawLongBits(" + value + ") != 0";
+                case STRING:
+                    return "null != " + value + " && " + value + ".length() > 0";
+                case BYTES:
+                    return "null != " + value + " && " + value + ".length > 0";
+                case MESSAGE:
+                    return "null != " + value;
+                default:
+                    return value + " != 0";
+            }
+        }
+    }
+
+    private static class MessageInfo {
+
+        final TypeElement typeElement;
+        final List<FieldInfo> fieldInfoList;
+
+        MessageInfo(TypeElement typeElement, List<FieldInfo> fieldInfoList) {
+            this.typeElement = typeElement;
+            this.fieldInfoList = fieldInfoList;
+        }
+    }
+
+    private static class FieldInfo {
+
+        final VariableElement field;
+        final int number;
+        final boolean repeated;
+        final ValueKind valueKind;
+        /**
+         * 单值字段为字段类型，列表字段为元素类型
+         */
+        final TypeMirror valueType;
+        /**
+         * 嵌套消息的编解码器类名
+         */
+        String codecClassName;
+        /**
+         * 读取字段的表达式
+         */
+        String getter;
+        /**
+         * 赋值语句的前缀和后缀，final的列表字段为null
+         */
+        String setterPrefix;
+        String setterSuffix;
+
+        FieldInfo(VariableElement field, int number, boolean repeated, ValueKind valueKind, TypeMirror valueType) {
+            this.field = field;
+            this.number = number;
+            this.repeated = repeated;
+            this.valueKind = valueKind;
+            this.valueType = valueType;
+        }
+    }
+}
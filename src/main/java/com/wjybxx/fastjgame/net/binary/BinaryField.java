@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.binary;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * {@link BinaryMessage}消息类中需要编解码的字段，编号规则见{@link BinaryMessageCodec}。
+ *
+ * 支持的字段类型：
+ * 1. boolean、byte、short、char、int、long(varint)，float、double(定长)；
+ * 2. String、byte[]；
+ * 3. 嵌套的消息，需要有约定命名的编解码器(如使用{@link BinaryMessage}生成)；
+ * 4. 以上类型的List(基本类型使用包装类型)，以重复的tag写入，读取时字段为null则创建{@link java.util.ArrayList}。
+ *
+ * 字段可以是非private的，也可以是private的但有对应的getter/setter(final的List字段不需要setter)。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface BinaryField {
+
+    /**
+     * 字段编号，一旦发布不可以修改，也不可以复用
+     */
+    int number();
+
+    /**
+     * int/long(及其包装类型)字段是否使用zigzag编码(sint32/sint64)，负数较多时使用。
+     * 注意：修改该值是不兼容的修改。
+     */
+    boolean zigzag() default false;
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wjybxx.fastjgame.net.binary;
+
+import com.wjybxx.fastjgame.utils.NetUtils;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 二进制消息的输入，直接从byteBuf中读取。
+ * 读取的范围为创建时byteBuf的可读部分，读取嵌套消息时范围限定为嵌套消息的内容。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/9
+ * github - https://github.com/hl845740757
+ */
+public final class BinaryInput {
+
+    private final ByteBuf byteBuf;
+    /**
+     * 当前消息的结束位置(不包含)
+     */
+    private int limit;
+
+    public BinaryInput(ByteBuf byteBuf) {
+        this.byteBuf = byteBuf;
+        this.limit = byteBuf.writerIndex();
+    }
+
+    /**
+     * 读取下一个字段的tag
+     * @return 当前消息已读取完毕时返回0
+     */
+    public int readTag() throws IOException {
+        if (byteBuf.readerIndex() >= limit) {
+            return 0;
+        }
+        int tag = NetUtils.readVarInt32(byteBuf);
+        if (WireFormat.getTagFieldNumber(tag) < WireFormat.MIN_FIELD_NUMBER) {
+            throw new IOException("invalid tag " + tag);
+        }
+        return tag;
+    }
+
+    public int readInt32() {
+        return (int) NetUtils.readVarInt64(byteBuf);
+    }
+
+    public long readInt64() {
+        return NetUtils.readVarInt64(byteBuf);
+    }
+
+    public int readSInt32() {
+        return (int) readSInt64();
+    }
+
+    public long readSInt64() {
+        return NetUtils.decodeZigZag64(NetUtils.readVarInt64(byteBuf));
+    }
+
+    public boolean readBool() {
+        return NetUtils.readVarInt64(byteBuf) != 0;
+    }
+
+    public float readFloat() {
+        return Float.intBitsToFloat(byteBuf.readIntLE());
+    }
+
+    public double readDouble() {
+        return Double.longBitsToDouble(byteBuf.readLongLE());
+    }
+
+    public String readString() throws IOException {
+        int length = readLength();
+        String value = byteBuf.toString(byteBuf.readerIndex(), length, StandardCharsets.UTF_8);
+        byteBuf.skipBytes(length);
+        return value;
+    }
+
+    public byte[] readBytes() throws IOException {
+        byte[] value = new byte[readLength()];
+        byteBuf.readBytes(value);
+        return value;
+    }
+
+    /**
+     * 读取一个嵌套的消息
+     * @param codec 嵌套消息的编解码器
+     * @return 嵌套的消息
+     */
+    public <T> T readMessage(BinaryMessageCodec<T> codec) throws IOException {
+        final int length = readLength();
+        final int end = byteBuf.readerIndex() + length;
+        final int parentLimit = limit;
+        limit = end;
+        try {
+            T value = codec.readFrom(this);
+            if (byteBuf.readerIndex() != end) {
+                throw new IOException("message length mismatch, expected end " + end + ", readerIndex " + byteBuf.readerIndex());
+            }
+            return value;
+        } finally {
+            limit = parentLimit;
+        }
+    }
+
+    /**
+     * 跳过一个不认识的字段
+     * @param tag {@link #readTag()}的返回值
+     */
+    public void skipField(int tag) throws IOException {
+        switch (WireFormat.getTagWireType(tag)) {
+            case WireFormat.WIRE_TYPE_VARINT:
+                NetUtils.readVarInt64(byteBuf);
+                break;
+            case WireFormat.WIRE_TYPE_FIXED64:
+                byteBuf.skipBytes(8);
+                break;
+            case WireFormat.WIRE_TYPE_LENGTH_DELIMITED:
+                byteBuf.skipBytes(readLength());
+                break;
+            case WireFormat.WIRE_TYPE_FIXED32:
+                byteBuf.skipBytes(4);
+                break;
+            default:
+                throw new IOException("invalid wire type, tag " + tag);
+        }
+    }
+
+    private int readLength() throws IOException {
+        int length = NetUtils.readVarInt32(byteBuf);
+        if (length < 0 || length > limit - byteBuf.readerIndex()) {
+            throw new IOException("invalid length " + length + ", remain " + (limit - byteBuf.readerIndex()));
+        }
+        return length;
+    }
+}
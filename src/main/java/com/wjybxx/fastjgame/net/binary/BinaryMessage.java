@@ -0,0 +1,42 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.binary;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记一个需要在编译时生成{@link BinaryMessageCodec}的消息类。
+ * {@link BinaryCodecProcessor}为其生成 类名 + "Codec" 的编解码器(与消息类在同一个包下)，
+ * {@link com.wjybxx.fastjgame.net.BinaryMessageSerializer}按照约定的命名找到它，编解码时不使用反射。
+ *
+ * 要求：
+ * 1. 顶层类，非抽象，没有泛型参数，有非private的无参构造方法；
+ * 2. 需要编解码的字段使用{@link BinaryField}注解，只处理该类自身声明的字段。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface BinaryMessage {
+
+}
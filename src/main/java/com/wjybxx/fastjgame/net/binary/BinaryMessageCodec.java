@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wjybxx.fastjgame.net.binary;
+
+import java.io.IOException;
+
+/**
+ * 一个消息类的二进制编解码器，以字段编号标记的二进制格式({@link WireFormat})直接读写byteBuf，运行时不使用反射。
+ *
+ * 编解码器按照约定命名为 消息类的全限定名 + "Codec"(如 com.a.LoginRequest -> com.a.LoginRequestCodec)，
+ * 由{@link com.wjybxx.fastjgame.net.BinaryMessageSerializer}在初始化时查找，也可以显式的注册。
+ * 它可以手写，也可以使用{@link BinaryMessage}和{@link BinaryField}注解消息类，由{@link BinaryCodecProcessor}在编译时生成。
+ *
+ * <h3>字段编号与schema演进规则</h3>
+ * <pre>
+ * 1. 每个字段有一个唯一的编号，编号一旦发布，不可以修改，也不可以复用(删除的字段编号应该注释保留)。
+ * 2. 新增字段使用新的编号。旧版本读取时会根据线类型跳过不认识的字段，新版本读取旧数据时，新增的字段保持默认值。
+ * 3. 默认值(0、false、null、空字符串)不写入，因此读取时字段缺失等同于默认值，不可以依赖"字段是否存在"表达语义。
+ * 4. 字段的线类型不可以修改：int32/int64/bool可以互相转换(都是varint，int32以符号扩展的方式写入)；
+ *    sint32/sint64之间可以互相转换(zigzag)，但与int32/int64不兼容；string与bytes兼容；其它的修改都不兼容。
+ * 5. 列表字段以重复的tag写入，读取时逐个添加，因此单个值的字段可以升级为列表字段(反之会只保留最后一个值)。
+ * </pre>
+ *
+ * 实现必须是无状态的(或事实不可变的)，以便在多个IO线程中共享。
+ *
+ * @param <T> 消息类型
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/9
+ * github - https://github.com/hl845740757
+ */
+public interface BinaryMessageCodec<T> {
+
+    /**
+     * 负责编解码的消息类
+     */
+    Class<T> getMessageClass();
+
+    /**
+     * 按字段编号写入消息的所有字段
+     * @param message 消息对象
+     * @param output 输出
+     */
+    void writeTo(T message, BinaryOutput output) throws IOException;
+
+    /**
+     * 读取消息，直到{@link BinaryInput#readTag()}返回0。
+     * 不认识的字段必须调用{@link BinaryInput#skipField(int)}跳过。
+     * @param input 输入
+     * @return 消息对象
+     */
+    T readFrom(BinaryInput input) throws IOException;
+}
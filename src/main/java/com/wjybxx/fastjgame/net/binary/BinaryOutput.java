@@ -0,0 +1,210 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wjybxx.fastjgame.net.binary;
+
+import com.wjybxx.fastjgame.utils.NetUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+
+/**
+ * 二进制消息的输出，直接写入byteBuf。
+ *
+ * 它不跳过默认值，编解码器应该自己跳过单值字段的默认值(见{@link BinaryMessageCodec}的演进规则)，
+ * 列表字段的每一个元素都需要写入。
+ *
+ * 通过{@link #newSizeCounter()}创建的输出只计算字节数而不写入，用于提前计算消息序列化之后的大小，
+ * 结果与写入byteBuf的字节数完全相同。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/9
+ * github - https://github.com/hl845740757
+ */
+public final class BinaryOutput {
+
+    /**
+     * 嵌套消息预留的长度字段字节数，可以表示小于16K的消息，更大的消息需要移动内容
+     */
+    private static final int RESERVED_MESSAGE_LENGTH_SIZE = 2;
+    private static final int MAX_RESERVED_MESSAGE_LENGTH = (1 << 14) - 1;
+
+    /**
+     * 为null时只计算字节数
+     */
+    private final ByteBuf byteBuf;
+    /**
+     * 只计算字节数时，已经"写入"的字节数
+     */
+    private int countedSize = 0;
+
+    public BinaryOutput(@Nonnull ByteBuf byteBuf) {
+        this.byteBuf = byteBuf;
+    }
+
+    private BinaryOutput() {
+        this.byteBuf = null;
+    }
+
+    /**
+     * 创建一个只计算字节数而不写入的输出
+     */
+    public static BinaryOutput newSizeCounter() {
+        return new BinaryOutput();
+    }
+
+    /**
+     * 获取计算的字节数，只对{@link #newSizeCounter()}创建的输出有效
+     */
+    public int getCountedSize() {
+        return countedSize;
+    }
+
+    private void writeTag(int fieldNumber, int wireType) {
+        writeRawVarInt32(WireFormat.makeTag(fieldNumber, wireType));
+    }
+
+    /**
+     * 负数以符号扩展的方式写入(10个字节)，以兼容int64，负数较多时应使用{@link #writeSInt32(int, int)}
+     */
+    public void writeInt32(int fieldNumber, int value) {
+        writeTag(fieldNumber, WireFormat.WIRE_TYPE_VARINT);
+        writeRawVarInt64(value);
+    }
+
+    public void writeInt64(int fieldNumber, long value) {
+        writeTag(fieldNumber, WireFormat.WIRE_TYPE_VARINT);
+        writeRawVarInt64(value);
+    }
+
+    /**
+     * zigzag编码，绝对值小的负数也只需要较少的字节
+     */
+    public void writeSInt32(int fieldNumber, int value) {
+        writeSInt64(fieldNumber, value);
+    }
+
+    public void writeSInt64(int fieldNumber, long value) {
+        writeTag(fieldNumber, WireFormat.WIRE_TYPE_VARINT);
+        writeRawVarInt64(NetUtils.encodeZigZag64(value));
+    }
+
+    public void writeBool(int fieldNumber, boolean value) {
+        writeTag(fieldNumber, WireFormat.WIRE_TYPE_VARINT);
+        if (null == byteBuf) {
+            countedSize += 1;
+        } else {
+            byteBuf.writeByte(value ? 1 : 0);
+        }
+    }
+
+    public void writeFloat(int fieldNumber, float value) {
+        writeTag(fieldNumber, WireFormat.WIRE_TYPE_FIXED32);
+        if (null == byteBuf) {
+            countedSize += 4;
+        } else {
+            byteBuf.writeIntLE(Float.floatToRawIntBits(value));
+        }
+    }
+
+    public void writeDouble(int fieldNumber, double value) {
+        writeTag(fieldNumber, WireFormat.WIRE_TYPE_FIXED64);
+        if (null == byteBuf) {
+            countedSize += 8;
+        } else {
+            byteBuf.writeLongLE(Double.doubleToRawLongBits(value));
+        }
+    }
+
+    /**
+     * 以utf-8编码写入字符串，不产生中间的字节数组
+     */
+    public void writeString(int fieldNumber, @Nonnull CharSequence value) {
+        writeTag(fieldNumber, WireFormat.WIRE_TYPE_LENGTH_DELIMITED);
+        final int length = ByteBufUtil.utf8Bytes(value);
+        writeRawVarInt32(length);
+        if (null == byteBuf) {
+            countedSize += length;
+        } else {
+            ByteBufUtil.writeUtf8(byteBuf, value);
+        }
+    }
+
+    public void writeBytes(int fieldNumber, @Nonnull byte[] value) {
+        writeTag(fieldNumber, WireFormat.WIRE_TYPE_LENGTH_DELIMITED);
+        writeRawVarInt32(value.length);
+        if (null == byteBuf) {
+            countedSize += value.length;
+        } else {
+            byteBuf.writeBytes(value);
+        }
+    }
+
+    /**
+     * 写入一个嵌套的消息
+     * @param codec 嵌套消息的编解码器
+     * @param value 嵌套的消息
+     */
+    public <T> void writeMessage(int fieldNumber, BinaryMessageCodec<T> codec, @Nonnull T value) throws IOException {
+        writeTag(fieldNumber, WireFormat.WIRE_TYPE_LENGTH_DELIMITED);
+        if (null == byteBuf) {
+            final int contentSize = countedSize;
+            codec.writeTo(value, this);
+            final int length = countedSize - contentSize;
+            countedSize += length <= MAX_RESERVED_MESSAGE_LENGTH ? RESERVED_MESSAGE_LENGTH_SIZE : NetUtils.computeVarInt32Size(length);
+            return;
+        }
+        // 消息长度无法提前计算，预留长度字段，写完内容之后再填充
+        final int lengthIndex = byteBuf.writerIndex();
+        byteBuf.writeZero(RESERVED_MESSAGE_LENGTH_SIZE);
+        final int contentIndex = byteBuf.writerIndex();
+        codec.writeTo(value, this);
+        final int length = byteBuf.writerIndex() - contentIndex;
+        if (length <= MAX_RESERVED_MESSAGE_LENGTH) {
+            // 固定2字节的varint(长度小于128时是冗余的编码，解码结果相同)
+            byteBuf.setByte(lengthIndex, (length & 0x7F) | 0x80);
+            byteBuf.setByte(lengthIndex + 1, length >>> 7);
+            return;
+        }
+        // 很少出现的大消息，移动内容以写入完整的长度字段
+        ByteBuf content = byteBuf.copy(contentIndex, length);
+        try {
+            byteBuf.writerIndex(lengthIndex);
+            NetUtils.writeVarInt32(byteBuf, length);
+            byteBuf.writeBytes(content);
+        } finally {
+            content.release();
+        }
+    }
+
+    private void writeRawVarInt32(int value) {
+        if (null == byteBuf) {
+            countedSize += NetUtils.computeVarInt32Size(value);
+        } else {
+            NetUtils.writeVarInt32(byteBuf, value);
+        }
+    }
+
+    private void writeRawVarInt64(long value) {
+        if (null == byteBuf) {
+            countedSize += NetUtils.computeVarInt64Size(value);
+        } else {
+            NetUtils.writeVarInt64(byteBuf, value);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wjybxx.fastjgame.net.binary;
+
+/**
+ * 二进制消息的线格式(与protoBuf的线格式一致)。
+ *
+ * 每个字段以tag开头，tag = (字段编号 << 3) | 线类型，以varint32编码；
+ * 线类型决定了字段内容的长度，因此读取方不认识的字段可以直接跳过，这是字段可以增删的基础。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/9
+ * github - https://github.com/hl845740757
+ */
+public final class WireFormat {
+
+    /**
+     * varint编码: int32、int64、sint32(zigzag)、sint64(zigzag)、bool、enum
+     */
+    public static final int WIRE_TYPE_VARINT = 0;
+    /**
+     * 固定8字节: fixed64、double
+     */
+    public static final int WIRE_TYPE_FIXED64 = 1;
+    /**
+     * varint32长度前缀 + 内容: string、bytes、嵌套消息
+     */
+    public static final int WIRE_TYPE_LENGTH_DELIMITED = 2;
+    /**
+     * 固定4字节: fixed32、float
+     */
+    public static final int WIRE_TYPE_FIXED32 = 5;
+
+    /**
+     * 最小的字段编号
+     */
+    public static final int MIN_FIELD_NUMBER = 1;
+    /**
+     * 最大的字段编号
+     */
+    public static final int MAX_FIELD_NUMBER = (1 << 29) - 1;
+
+    private static final int TAG_TYPE_BITS = 3;
+    private static final int TAG_TYPE_MASK = (1 << TAG_TYPE_BITS) - 1;
+
+    private WireFormat() {
+
+    }
+
+    public static int makeTag(int fieldNumber, int wireType) {
+        return (fieldNumber << TAG_TYPE_BITS) | wireType;
+    }
+
+    public static int getTagFieldNumber(int tag) {
+        return tag >>> TAG_TYPE_BITS;
+    }
+
+    public static int getTagWireType(int tag) {
+        return tag & TAG_TYPE_MASK;
+    }
+}
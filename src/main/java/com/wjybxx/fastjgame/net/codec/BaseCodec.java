@@ -16,18 +16,26 @@
 
 package com.wjybxx.fastjgame.net.codec;
 
+import com.wjybxx.fastjgame.manager.NetConfigManager;
+import com.wjybxx.fastjgame.manager.NetEventManager;
 import com.wjybxx.fastjgame.net.*;
+import com.wjybxx.fastjgame.net.codec.compress.FrameCompressor;
+import com.wjybxx.fastjgame.net.codec.compress.FrameCompressors;
 import com.wjybxx.fastjgame.utils.NetUtils;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.PromiseCombiner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * 最开始时为分离的Encoder和Decoder。
@@ -38,6 +46,14 @@ import java.io.IOException;
  * 它不是线程安全的，也不可共享。
  *
  * baseCodec作为解码过程的最后一步和编码过程的第一步
+ *
+ * 扩展能力{@link NetCapabilities}在连接请求和连接响应中协商，协商完成之后(连接响应之后的包)按照协商结果编解码。
+ * 启用{@link NetCapabilities#COMPACT_HEADER}时，需要配合{@link NetFrameDecoder}使用。
+ * 启用{@link NetCapabilities#FRAGMENT}时，大消息由会话在分配sequence之前拆分({@link MessageFragmenter})，codec只负责分片的编解码，
+ * 重组由会话完成(分片需要经过消息队列的确认，且重连之后不能丢失)。
+ * 启用{@link NetCapabilities#RETRANSMIT}时，codec只负责重传请求({@link NetPackageType#NACK})的编解码，重传由会话完成。
+ * 启用{@link NetCapabilities#DELAYED_ACK}时，codec只负责单独的确认包({@link NetPackageType#ACK})的编解码，何时确认由会话决定。
+ * 启用{@link NetCapabilities#UNRELIABLE}时，不可靠消息({@link NetPackageType#UNRELIABLE_MESSAGE})与单向消息的格式相同，但不会分片。
  * @author wjybxx
  * @version 1.0
  * date - 2019/5/7 12:26
@@ -46,13 +62,104 @@ import java.io.IOException;
 public abstract class BaseCodec extends ChannelDuplexHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(BaseCodec.class);
+    /**
+     * 当序列化器无法提前计算消息大小时，为消息体预分配的空间
+     */
+    private static final int DEFAULT_BODY_SIZE_HINT = 256;
+    /**
+     * 紧凑包头下，为varint编码的帧长度预留的空间(varint32最多5个字节)
+     */
+    private static final int COMPACT_LENGTH_FIELD_RESERVED = 5;
 
     final MessageMapper messageMapper;
     final MessageSerializer messageSerializer;
+    final ChecksumStrategy checksumStrategy;
+    private final NetEventManager netEventManager;
+    /**
+     * 该channel使用的编解码器帮助类，连接建立之后交给会话使用
+     */
+    private final CodecHelper codecHelper;
+    /**
+     * {@link CacheableMessage}的编码结果缓存，使用同一个{@link CodecHelper}的channel共享
+     */
+    private final EncodedMessageCache encodedMessageCache;
+    /**
+     * 消息体的反序列化阶段
+     */
+    private final DecodeStage decodeStage;
+    /**
+     * 配置的扩展能力
+     */
+    private final int localCapabilities;
+    /**
+     * 逐包压缩的阈值
+     */
+    private final int compressThreshold;
+    /**
+     * 流式压缩的阈值
+     */
+    private final int streamCompressThreshold;
+    /**
+     * 压缩包解压后的最大长度
+     */
+    private final int maxUncompressedFrameLength;
+    /**
+     * 消息分片器，协商启用{@link NetCapabilities#FRAGMENT}之后交给会话使用
+     */
+    private final MessageFragmenter fragmenter;
+
+    /**
+     * 是否已完成扩展能力协商(每个channel只协商一次)
+     */
+    private boolean negotiated = false;
+    /**
+     * 协商之后使用的扩展能力
+     */
+    private int capabilities = NetCapabilities.NONE;
+    /**
+     * 是否使用紧凑的包头
+     */
+    private boolean compactHeader = false;
+    /**
+     * 批量消息包的最大长度，协商启用{@link NetCapabilities#BATCH}之后有效
+     */
+    private int maxBatchFrameLength;
+    /**
+     * 协商的压缩器，未启用压缩时为null
+     */
+    private FrameCompressor compressor;
+    /**
+     * 协商的压缩方式使用的压缩阈值
+     */
+    private int activeCompressThreshold;
+    /**
+     * 当前正在解码的包的标记位
+     */
+    private int readingPkgFlags;
+
+    // 一次读循环(channelRead ... channelReadComplete)中解码出的事件，在channelReadComplete时批量发布
+    private List<NetEventType> pendingEventTypes = new ArrayList<>();
+    private List<NetEventParam> pendingEventParams = new ArrayList<>();
+
+    // 紧凑包头下，ack和sequence相对于该channel上一个包进行增量编码
+    private long lastWriteAck;
+    private long lastWriteSequence;
+    private long lastReadAck;
+    private long lastReadSequence;
 
-    protected BaseCodec(CodecHelper codecHelper) {
+    protected BaseCodec(CodecHelper codecHelper, NetConfigManager netConfigManager, NetEventManager netEventManager) {
+        this.netEventManager = netEventManager;
+        this.codecHelper = codecHelper;
+        this.encodedMessageCache = codecHelper.getEncodedMessageCache();
         this.messageMapper = codecHelper.getMessageMapper();
         this.messageSerializer = codecHelper.getMessageSerializer();
+        this.checksumStrategy = codecHelper.getChecksumStrategy();
+        this.decodeStage = codecHelper.getDecodeStage();
+        this.localCapabilities = codecHelper.getCapabilities();
+        this.compressThreshold = netConfigManager.compressThreshold();
+        this.streamCompressThreshold = netConfigManager.streamCompressThreshold();
+        this.maxUncompressedFrameLength = netConfigManager.maxUncompressedFrameLength();
+        this.fragmenter = MessageFragmenter.newInstance(codecHelper, netConfigManager.maxFrameLength());
     }
 
     @Override
@@ -65,8 +172,15 @@ public abstract class BaseCodec extends ChannelDuplexHandler {
     public void channelRead(ChannelHandlerContext ctx, Object byteBuf) throws Exception {
         ByteBuf msg= (ByteBuf) byteBuf;
         try {
-            long realSum = msg.readLong();
-            long logicSum = NetUtils.calChecksum(msg,msg.readerIndex(),msg.readableBytes());
+            long realSum;
+            long logicSum;
+            if (compactHeader) {
+                realSum = msg.readUnsignedInt();
+                logicSum = checksumStrategy.calChecksum(msg,msg.readerIndex(),msg.readableBytes()) & 0xFFFFFFFFL;
+            } else {
+                realSum = msg.readLong();
+                logicSum = checksumStrategy.calChecksum(msg,msg.readerIndex(),msg.readableBytes());
+            }
             if (realSum != logicSum){
                 // 校验和不一致
                 closeCtx(ctx,"realSum="+realSum + ", logicSum="+logicSum);
@@ -74,19 +188,88 @@ public abstract class BaseCodec extends ChannelDuplexHandler {
             }
             // 任何编解码出现问题都会在上层消息判断哪里出现问题，这里并不处理channel数据是否异常
             byte pkgTypeNumber = msg.readByte();
-            NetPackageType netPackageType = NetPackageType.forNumber(pkgTypeNumber);
+            NetPackageType netPackageType = NetPackageType.forNumber((byte) (pkgTypeNumber & NetPackageType.TYPE_MASK));
             if (null == netPackageType){
                 // 约定之外的包类型
                 closeCtx(ctx,"null==netEventType " + pkgTypeNumber);
                 return;
             }
-            readMsg(ctx, netPackageType, msg);
+            readingPkgFlags = pkgTypeNumber & ~NetPackageType.TYPE_MASK & 0xFF;
+            if (isReadingPkgFlagSet(NetPackageType.FLAG_COMPRESSED)) {
+                readCompressedMsg(ctx, netPackageType, msg);
+            } else {
+                readMsg(ctx, netPackageType, msg);
+            }
         }finally {
             // 解码结束，释放资源
             msg.release();
         }
     }
 
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        // 一次读循环结束，批量发布该循环中解码出的事件
+        flushPendingEvents();
+        super.channelReadComplete(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        flushPendingEvents();
+        super.channelInactive(ctx);
+    }
+
+    /**
+     * 发布一个网络事件。
+     * 事件先缓存下来，在本次读循环结束时({@link #channelReadComplete(ChannelHandlerContext)})与其它事件一起发布，
+     * 一个tcp包中的多个消息只需要提交一次任务到NetEventLoop。
+     * @param netEventType 事件类型
+     * @param eventParam 事件参数
+     */
+    protected final void publishEvent(NetEventType netEventType, NetEventParam eventParam) {
+        pendingEventTypes.add(netEventType);
+        pendingEventParams.add(eventParam);
+    }
+
+    private void flushPendingEvents() {
+        final int size = pendingEventTypes.size();
+        if (size == 0) {
+            return;
+        }
+        if (size == 1) {
+            netEventManager.publishEvent(pendingEventTypes.get(0), pendingEventParams.get(0));
+            pendingEventTypes.clear();
+            pendingEventParams.clear();
+            return;
+        }
+        // 列表转交给NetEventLoop，这里使用新的列表
+        netEventManager.publishEvents(pendingEventTypes, pendingEventParams);
+        pendingEventTypes = new ArrayList<>();
+        pendingEventParams = new ArrayList<>();
+    }
+
+    /**
+     * 解压之后再读取
+     */
+    private void readCompressedMsg(ChannelHandlerContext ctx, NetPackageType netPackageType, ByteBuf msg) throws Exception {
+        if (null == compressor) {
+            closeCtx(ctx, "unexpected compressed package " + netPackageType);
+            return;
+        }
+        int uncompressedLength = NetUtils.readVarInt32(msg);
+        if (uncompressedLength < 0 || uncompressedLength > maxUncompressedFrameLength) {
+            closeCtx(ctx, "uncompressedLength=" + uncompressedLength + ", maxUncompressedFrameLength=" + maxUncompressedFrameLength);
+            return;
+        }
+        ByteBuf content = compressor.allocate(ctx.alloc(), uncompressedLength);
+        try {
+            compressor.decompress(msg, content, uncompressedLength);
+            readMsg(ctx, netPackageType, content);
+        } finally {
+            content.release();
+        }
+    }
+
     /**
      * 子类真正的读取数据
      * @param ctx ctx
@@ -95,6 +278,75 @@ public abstract class BaseCodec extends ChannelDuplexHandler {
      */
     protected abstract void readMsg(ChannelHandlerContext ctx, NetPackageType netPackageType, ByteBuf msg) throws Exception;
 
+    // ---------------------------------------------- 能力协商  ---------------------------------------
+    /**
+     * 该channel支持的扩展能力
+     * @param ctx ctx，用于检查pipeline
+     * @return 配置的扩展能力中该channel可以支持的部分
+     */
+    final int supportedCapabilities(ChannelHandlerContext ctx) {
+        int result = localCapabilities;
+        if (null == ctx.pipeline().get(NetFrameDecoder.class)) {
+            // 紧凑包头和批量消息需要自定义的分帧解码器支持
+            result &= ~(NetCapabilities.COMPACT_HEADER | NetCapabilities.BATCH);
+        }
+        return result;
+    }
+
+    /**
+     * 是否已完成扩展能力协商
+     */
+    final boolean isNegotiated() {
+        return negotiated;
+    }
+
+    /**
+     * 完成扩展能力协商，之后的包都按照协商的结果编解码。
+     * @param ctx ctx
+     * @param capabilities 协商的结果
+     */
+    final void completeNegotiation(ChannelHandlerContext ctx, int capabilities) {
+        this.negotiated = true;
+        this.capabilities = capabilities;
+        if (NetCapabilities.isEnabled(capabilities, NetCapabilities.COMPACT_HEADER)) {
+            compactHeader = true;
+            lastWriteAck = 0;
+            lastWriteSequence = 0;
+            lastReadAck = 0;
+            lastReadSequence = 0;
+            ctx.pipeline().get(NetFrameDecoder.class).changeToCompact();
+        }
+        if (NetCapabilities.isEnabled(capabilities, NetCapabilities.BATCH)) {
+            // 双方的帧长度限制相同
+            maxBatchFrameLength = ctx.pipeline().get(NetFrameDecoder.class).getMaxFrameLength();
+        }
+        compressor = FrameCompressors.newCompressor(capabilities);
+        if (null != compressor) {
+            activeCompressThreshold = compressor.isStateful() ? streamCompressThreshold : compressThreshold;
+        }
+    }
+
+    /**
+     * 协商之后使用的扩展能力
+     */
+    final int getCapabilities() {
+        return capabilities;
+    }
+
+    final CodecHelper getCodecHelper() {
+        return codecHelper;
+    }
+
+    /**
+     * 获取会话在该channel上使用的消息分片器
+     * @param capabilities 该channel协商的扩展能力
+     * @return 未启用{@link NetCapabilities#FRAGMENT}时返回null
+     */
+    @Nullable
+    final MessageFragmenter fragmenterOf(int capabilities) {
+        return NetCapabilities.isEnabled(capabilities, NetCapabilities.FRAGMENT) ? fragmenter : null;
+    }
+
     // ---------------------------------------------- 协议1、2  ---------------------------------------
     /**
      * 编码协议1 - 连接请求
@@ -103,12 +355,19 @@ public abstract class BaseCodec extends ChannelDuplexHandler {
      */
     final void writeConnectRequest(ChannelHandlerContext ctx, ConnectRequestTO msgTO, ChannelPromise promise) {
         byte[] encryptedToken=msgTO.getTokenBytes();
-        int contentLength = 8 + 4 + 8 + encryptedToken.length;
-        ByteBuf byteBuf = newInitializedByteBuf(ctx, contentLength, NetPackageType.CONNECT_REQUEST);
+        // 只有未协商时才请求扩展能力，未请求时与旧协议完全一致
+        int requestCapabilities = negotiated ? NetCapabilities.NONE : supportedCapabilities(ctx);
+        boolean extended = requestCapabilities != NetCapabilities.NONE;
+
+        int contentLength = 8 + 4 + 8 + (extended ? 4 : 0) + encryptedToken.length;
+        ByteBuf byteBuf = newInitializedByteBuf(ctx, contentLength, pkgTypeNumber(NetPackageType.CONNECT_REQUEST, extended));
 
         byteBuf.writeLong(msgTO.getClientGuid());
         byteBuf.writeInt(msgTO.getSndTokenTimes());
         byteBuf.writeLong(msgTO.getAck());
+        if (extended) {
+            byteBuf.writeInt(requestCapabilities);
+        }
         byteBuf.writeBytes(encryptedToken);
         appendSumAndWrite(ctx, byteBuf, promise);
     }
@@ -120,23 +379,29 @@ public abstract class BaseCodec extends ChannelDuplexHandler {
         long clientGuid=msg.readLong();
         int sndTokenTimes=msg.readInt();
         long ack=msg.readLong();
+        int capabilities = isReadingPkgFlagSet(NetPackageType.FLAG_EXTENDED) ? msg.readInt() : NetCapabilities.NONE;
         byte[] encryptedToken= NetUtils.readRemainBytes(msg);
 
-        return new ConnectRequestTO(clientGuid, sndTokenTimes, ack, encryptedToken);
+        return new ConnectRequestTO(clientGuid, sndTokenTimes, ack, encryptedToken, capabilities);
     }
 
     /**
      * 编码协议2 - 连接响应
+     * @param responseCapabilities 协商的扩展能力，如果为{@link NetCapabilities#NONE}，则与旧协议完全一致
      */
-    final void writeConnectResponse(ChannelHandlerContext ctx, ConnectResponseTO msgTO, ChannelPromise promise) {
+    final void writeConnectResponse(ChannelHandlerContext ctx, ConnectResponseTO msgTO, int responseCapabilities, ChannelPromise promise) {
         byte[] encryptedToken=msgTO.getEncryptedToken();
+        boolean extended = responseCapabilities != NetCapabilities.NONE;
 
-        int contentLength = 4 + 1 + 8 + encryptedToken.length;
-        ByteBuf byteBuf = newInitializedByteBuf(ctx, contentLength, NetPackageType.CONNECT_RESPONSE);
+        int contentLength = 4 + 1 + 8 + (extended ? 4 : 0) + encryptedToken.length;
+        ByteBuf byteBuf = newInitializedByteBuf(ctx, contentLength, pkgTypeNumber(NetPackageType.CONNECT_RESPONSE, extended));
 
         byteBuf.writeInt(msgTO.getSndTokenTimes());
         byteBuf.writeByte(msgTO.isSuccess()?1:0);
         byteBuf.writeLong(msgTO.getAck());
+        if (extended) {
+            byteBuf.writeInt(responseCapabilities);
+        }
         byteBuf.writeBytes(msgTO.getEncryptedToken());
 
         appendSumAndWrite(ctx, byteBuf, promise);
@@ -149,9 +414,10 @@ public abstract class BaseCodec extends ChannelDuplexHandler {
         int sndTokenTimes=msg.readInt();
         boolean success=msg.readByte()==1;
         long ack=msg.readLong();
+        int capabilities = isReadingPkgFlagSet(NetPackageType.FLAG_EXTENDED) ? msg.readInt() : NetCapabilities.NONE;
         byte[] encryptedToken= NetUtils.readRemainBytes(msg);
 
-        return new ConnectResponseTO(sndTokenTimes, success, ack, encryptedToken);
+        return new ConnectResponseTO(sndTokenTimes, success, ack, encryptedToken, capabilities);
     }
 
     // ---------------------------------------------- 协议3、4 ---------------------------------------
@@ -161,44 +427,47 @@ public abstract class BaseCodec extends ChannelDuplexHandler {
     final void writeRpcRequestMessage(ChannelHandlerContext ctx, RpcRequestMessageTO messageTO, ChannelPromise promise) throws Exception{
         // 发送的时候不可能为null
         Object body = messageTO.getRequest();
-        int messageId = messageMapper.getMessageId(body.getClass());
-        byte[] messageBytes= messageSerializer.serialize(body);
+        int messageId = messageIdOf(body);
 
-        int contentLength = 8 + 8 + 1 + 8 + 4 + messageBytes.length;
-        ByteBuf byteBuf = newInitializedByteBuf(ctx, contentLength, NetPackageType.RPC_REQUEST);
-        // 捎带确认消息
-        byteBuf.writeLong(messageTO.getAck());
-        byteBuf.writeLong(messageTO.getSequence());
-        // rpc请求内容
-        byteBuf.writeByte(messageTO.isSync() ? 1 : 0);
-        byteBuf.writeLong(messageTO.getRequestGuid());
-        byteBuf.writeInt(messageId);
-        byteBuf.writeBytes(messageBytes);
+        int contentLength = 8 + 8 + 1 + 8 + 4 + bodySizeHint(body);
+        ByteBuf byteBuf = newInitializedByteBuf(ctx, contentLength, bodyPkgTypeNumber(NetPackageType.RPC_REQUEST, body));
+        try {
+            // 捎带确认消息
+            writeAckAndSequence(byteBuf, messageTO.getAck(), messageTO.getSequence());
+            // rpc请求内容
+            byteBuf = writeRpcRequestContent(byteBuf, messageTO, messageId, true);
+        } catch (Throwable e) {
+            byteBuf.release();
+            throw e;
+        }
+        updateWriteAckAndSequence(messageTO.getAck(), messageTO.getSequence());
         appendSumAndWrite(ctx, byteBuf, promise);
     }
 
+    private ByteBuf writeRpcRequestContent(ByteBuf byteBuf, RpcRequestMessageTO messageTO, int messageId, boolean composable) throws IOException {
+        byteBuf.writeByte(messageTO.isSync() ? 1 : 0);
+        writeRequestGuid(byteBuf, messageTO.getRequestGuid());
+        writeMessageId(byteBuf, messageId);
+        return writeBody(byteBuf, messageTO.getRequest(), composable);
+    }
+
     /**
      * 3. 解码rpc请求包
      */
     final RpcRequestMessageTO readRpcRequestMessage(ByteBuf msg) {
         // 捎带确认消息
-        long ack= msg.readLong();
-        long sequence = msg.readLong();
+        long ack = readAck(msg);
+        long sequence = readSequence(msg);
         // rpc内容
-        boolean sync = msg.readByte() == 1;
-        long requestGuid = msg.readLong();
-        int messageId = msg.readInt();
-        byte[] messageBytes = NetUtils.readRemainBytes(msg);
+        return readRpcRequestContent(ack, sequence, msg, isReadingPkgFlagSet(NetPackageType.FLAG_FRAGMENTED));
+    }
 
-        Object request = null;
-        try {
-            Class<?> messageClazz = messageMapper.getMessageClazz(messageId);
-            assert null != messageClazz:"messageId " + messageId + " clazz not found";
-            request = messageSerializer.deserialize(messageClazz, messageBytes);
-        }catch (Exception e){
-            // 为了不影响该连接上的其它消息，需要捕获异常
-            logger.warn("deserialize messageId {} caught exception", messageId, e);
-        }
+    private RpcRequestMessageTO readRpcRequestContent(long ack, long sequence, ByteBuf msg, boolean fragmented) {
+        boolean sync = msg.readByte() == 1;
+        long requestGuid = readRequestGuid(msg);
+        int messageId = readMessageId(msg);
+        // 直接从frame中反序列化，不拷贝到中间数组
+        Object request = tryReadMessage(messageId, msg, fragmented);
         return new RpcRequestMessageTO(ack, sequence, sync, requestGuid, request);
     }
 
@@ -209,34 +478,44 @@ public abstract class BaseCodec extends ChannelDuplexHandler {
         final int baseLength = 8 + 8 + 8 + 4;
         if (RpcResultCode.hasBody(messageTO.getResultCode())) {
             Object body = messageTO.getBody();
-            int messageId = messageMapper.getMessageId(body.getClass());
-            byte[] messageBytes= messageSerializer.serialize(body);
-
-            int contentLength = baseLength + 4 + messageBytes.length;
-            ByteBuf byteBuf = newInitializedByteBuf(ctx, contentLength, NetPackageType.RPC_RESPONSE);
+            int messageId = messageIdOf(body);
 
-            writeResponseCommon(messageTO, byteBuf);
-
-            byteBuf.writeInt(messageId);
-            byteBuf.writeBytes(messageBytes);
+            int contentLength = baseLength + 4 + bodySizeHint(body);
+            ByteBuf byteBuf = newInitializedByteBuf(ctx, contentLength, bodyPkgTypeNumber(NetPackageType.RPC_RESPONSE, body));
+            try {
+                // 捎带确认信息
+                writeAckAndSequence(byteBuf, messageTO.getAck(), messageTO.getSequence());
+                // 响应内容
+                byteBuf = writeRpcResponseContent(byteBuf, messageTO, messageId, true);
+            } catch (Throwable e) {
+                byteBuf.release();
+                throw e;
+            }
 
+            updateWriteAckAndSequence(messageTO.getAck(), messageTO.getSequence());
             appendSumAndWrite(ctx, byteBuf, promise);
         } else {
             ByteBuf byteBuf = newInitializedByteBuf(ctx, baseLength, NetPackageType.RPC_RESPONSE);
 
-            writeResponseCommon(messageTO, byteBuf);
+            writeAckAndSequence(byteBuf, messageTO.getAck(), messageTO.getSequence());
+            writeRpcResponseContent(byteBuf, messageTO, 0, true);
 
+            updateWriteAckAndSequence(messageTO.getAck(), messageTO.getSequence());
             appendSumAndWrite(ctx, byteBuf, promise);
         }
     }
 
-    private void writeResponseCommon(RpcResponseMessageTO messageTO, ByteBuf byteBuf) {
-        // 捎带确认信息
-        byteBuf.writeLong(messageTO.getAck());
-        byteBuf.writeLong(messageTO.getSequence());
-        // 响应内容
-        byteBuf.writeLong(messageTO.getRequestGuid());
-        byteBuf.writeInt(messageTO.getResultCode().getNumber());
+    /**
+     * @param messageId 结果码表示有body时有效
+     */
+    private ByteBuf writeRpcResponseContent(ByteBuf byteBuf, RpcResponseMessageTO messageTO, int messageId, boolean composable) throws IOException {
+        writeRequestGuid(byteBuf, messageTO.getRequestGuid());
+        writeVarIntIfCompact(byteBuf, messageTO.getResultCode().getNumber());
+        if (RpcResultCode.hasBody(messageTO.getResultCode())) {
+            writeMessageId(byteBuf, messageId);
+            return writeBody(byteBuf, messageTO.getBody(), composable);
+        }
+        return byteBuf;
     }
 
     /**
@@ -244,16 +523,19 @@ public abstract class BaseCodec extends ChannelDuplexHandler {
      */
     final RpcResponseMessageTO readRpcResponseMessage(ByteBuf msg) {
         // 捎带确认信息
-        long ack= msg.readLong();
-        long sequence = msg.readLong();
+        long ack = readAck(msg);
+        long sequence = readSequence(msg);
         // 响应内容
-        long requestGuid = msg.readLong();
-        RpcResultCode resultCode = RpcResultCode.forNumber(msg.readInt());
+        return readRpcResponseContent(ack, sequence, msg, isReadingPkgFlagSet(NetPackageType.FLAG_FRAGMENTED));
+    }
+
+    private RpcResponseMessageTO readRpcResponseContent(long ack, long sequence, ByteBuf msg, boolean fragmented) {
+        long requestGuid = readRequestGuid(msg);
+        RpcResultCode resultCode = RpcResultCode.forNumber(readVarIntIfCompact(msg));
         Object body = null;
         if (RpcResultCode.hasBody(resultCode)) {
-            int messageId = msg.readInt();
-            byte[] messageBytes = NetUtils.readRemainBytes(msg);
-            body = tryReadMessage(messageId, messageBytes);
+            int messageId = readMessageId(msg);
+            body = tryReadMessage(messageId, msg, fragmented);
         }
         return new RpcResponseMessageTO(ack, sequence, requestGuid, new RpcResponse(resultCode, body));
     }
@@ -265,53 +547,192 @@ public abstract class BaseCodec extends ChannelDuplexHandler {
      */
     final void writeOneWayMessage(ChannelHandlerContext ctx, OneWayMessageTO msgTO, ChannelPromise promise) throws IOException {
         Object message = msgTO.getMessage();
-        int messageId = messageMapper.getMessageId(message.getClass());
-        byte[] messageBytes= messageSerializer.serialize(message);
+        int messageId = messageIdOf(message);
 
-        int contentLength = 8 + 8 + 4 + messageBytes.length;
-        ByteBuf byteBuf = newInitializedByteBuf(ctx, contentLength, NetPackageType.ONE_WAY_MESSAGE);
-        // 捎带确认
-        byteBuf.writeLong(msgTO.getAck());
-        byteBuf.writeLong(msgTO.getSequence());
-        // 消息内容
-        byteBuf.writeInt(messageId);
-        byteBuf.writeBytes(messageBytes);
+        int contentLength = 8 + 8 + 4 + bodySizeHint(message);
+        ByteBuf byteBuf = newInitializedByteBuf(ctx, contentLength, bodyPkgTypeNumber(NetPackageType.ONE_WAY_MESSAGE, message));
+        try {
+            // 捎带确认
+            writeAckAndSequence(byteBuf, msgTO.getAck(), msgTO.getSequence());
+            // 消息内容
+            byteBuf = writeOneWayMessageContent(byteBuf, msgTO, messageId, true);
+        } catch (Throwable e) {
+            byteBuf.release();
+            throw e;
+        }
 
+        updateWriteAckAndSequence(msgTO.getAck(), msgTO.getSequence());
         appendSumAndWrite(ctx, byteBuf, promise);
     }
 
+    private ByteBuf writeOneWayMessageContent(ByteBuf byteBuf, OneWayMessageTO msgTO, int messageId, boolean composable) throws IOException {
+        writeMessageId(byteBuf, messageId);
+        return writeBody(byteBuf, msgTO.getMessage(), composable);
+    }
+
     /**
      * 7.解码单向协议
      */
     final OneWayMessageTO readOneWayMessage(ByteBuf msg) {
         // 捎带确认
-        long ack = msg.readLong();
-        long sequence = msg.readLong();
+        long ack = readAck(msg);
+        long sequence = readSequence(msg);
         // 消息内容
-        int messageId = msg.readInt();
-        byte[] messageBytes = NetUtils.readRemainBytes(msg);
-        Object message = tryReadMessage(messageId, messageBytes);
+        return readOneWayMessageContent(ack, sequence, msg, isReadingPkgFlagSet(NetPackageType.FLAG_FRAGMENTED));
+    }
+
+    private OneWayMessageTO readOneWayMessageContent(long ack, long sequence, ByteBuf msg, boolean fragmented) {
+        int messageId = readMessageId(msg);
+        Object message = tryReadMessage(messageId, msg, fragmented);
         return new OneWayMessageTO(ack, sequence, message);
     }
 
     /**
      * 尝试解码消息
+     * 如果配置了延迟解码，则返回{@link DeferredMessage}，它持有payload的retainedSlice，由后续阶段解码或释放。
+     * 分片消息的最后一部分总是返回{@link DeferredMessage}，由会话重组之后再解码(至少在NetEventLoop解码)。
+     * 原始消息不解码，返回持有payload的retainedSlice的{@link RawMessage}。
      * @param messageId 协议id
-     * @param messageBytes 协议内容
+     * @param msg 网络包，剩余的可读部分为协议内容
+     * @param fragmented 是否是分片消息的最后一部分
      * @return 为了不引用该连接上的其它消息，如果解码失败返回null。
      */
     @Nullable
-    private Object tryReadMessage(int messageId, byte[] messageBytes) {
+    private Object tryReadMessage(int messageId, ByteBuf msg, boolean fragmented) {
+        if (fragmented) {
+            DecodeStage fragmentDecodeStage = decodeStage.isDeferred() ? decodeStage : DecodeStage.NET_EVENT_LOOP;
+            return new DeferredMessage(fragmentDecodeStage, messageId, msg.readRetainedSlice(msg.readableBytes()),
+                    messageMapper, messageSerializer, true);
+        }
+        if (CompositeMessageSerializer.isRawMessage(messageSerializer, messageId)) {
+            return new RawMessage(messageId, msg.readRetainedSlice(msg.readableBytes()));
+        }
+        if (decodeStage.isDeferred()) {
+            return new DeferredMessage(decodeStage, messageId, msg.readRetainedSlice(msg.readableBytes()),
+                    messageMapper, messageSerializer);
+        }
         Object message = null;
         try {
-            Class<?> messageClazz = messageMapper.getMessageClazz(messageId);
-            message = messageSerializer.deserialize(messageClazz, messageBytes);
+            // 通过协议id直接找到解析器，不需要查找Class
+            message = messageSerializer.deserialize(messageMapper, messageId, msg);
         }catch (Exception e){
             // 为了不影响该连接上的其它消息，需要捕获异常
             logger.warn("deserialize messageId {} caught exception", messageId, e);
         }
         return message;
     }
+
+    /**
+     * 获取消息体的协议id
+     * @param body 消息体，可能是{@link SharedMessage}、{@link FragmentedBody}或{@link RawMessage}
+     */
+    private int messageIdOf(Object body) {
+        if (body instanceof FragmentedBody) {
+            return ((FragmentedBody) body).getMessageId();
+        }
+        Object message = body instanceof SharedMessage ? ((SharedMessage) body).getMessage() : body;
+        if (message instanceof RawMessage) {
+            return ((RawMessage) message).getMessageId();
+        }
+        return messageMapper.getMessageId(message.getClass());
+    }
+
+    /**
+     * 计算包类型字节，消息体是分片消息的最后一部分时添加{@link NetPackageType#FLAG_FRAGMENTED}标记
+     */
+    private static byte bodyPkgTypeNumber(NetPackageType netPackageType, Object body) {
+        return body instanceof FragmentedBody ? (byte) (netPackageType.pkgType | NetPackageType.FLAG_FRAGMENTED) : netPackageType.pkgType;
+    }
+
+    /**
+     * 获取消息体需要预分配的空间。
+     * 如果序列化器可以提前计算消息大小，那么frame可以一次分配恰好的大小。
+     * @param body 消息体
+     * @return 预分配的字节数
+     */
+    private int bodySizeHint(Object body) throws IOException {
+        ByteBuf encodedBody = encodedBodyOf(body);
+        if (null != encodedBody) {
+            // 可以组合时，frame只包含包头
+            return isEncodedBodyComposable() ? 0 : encodedBody.readableBytes();
+        }
+        if (body instanceof CacheableMessage && isEncodedBodyComposable()) {
+            return 0;
+        }
+        int serializedSize = messageSerializer.getSerializedSize(body);
+        return serializedSize >= 0 ? serializedSize : DEFAULT_BODY_SIZE_HINT;
+    }
+
+    /**
+     * 获取已编码的消息体：{@link SharedMessage}的编码结果，{@link FragmentedBody}的最后一部分，或{@link RawMessage}的内容
+     * @return 其它消息体返回null
+     */
+    @Nullable
+    private ByteBuf encodedBodyOf(Object body) throws IOException {
+        if (body instanceof RawMessage) {
+            return ((RawMessage) body).getContent();
+        }
+        if (body instanceof SharedMessage) {
+            return ((SharedMessage) body).encode(messageMapper, messageSerializer);
+        }
+        if (body instanceof FragmentedBody) {
+            return ((FragmentedBody) body).getLastFragment();
+        }
+        return null;
+    }
+
+    /**
+     * 已编码的消息体(共享的编码结果、分片、原始消息)是否可以直接组合到frame中(而不是拷贝)。
+     * 压缩会重写整个frame，因此启用压缩时直接拷贝。
+     */
+    private boolean isEncodedBodyComposable() {
+        return null == compressor;
+    }
+
+    /**
+     * 将消息体直接序列化到frame中。该方法不释放frame：失败时frame仍由调用者持有并负责释放；
+     * 成功时调用者持有的是返回的frame(可能是组合了原frame的{@link CompositeByteBuf})。
+     * {@link SharedMessage}只编码一次，之后拷贝编码结果，或者与编码结果的retainedDuplicate组合为一个{@link CompositeByteBuf}。
+     * {@link CacheableMessage}的编码结果从{@link EncodedMessageCache}获取，写入方式相同。
+     * @param byteBuf 已写入消息头的frame
+     * @param body 消息体
+     * @param composable 是否可以返回组合的frame，消息体是frame的最后一部分时才可以组合
+     * @return 写入消息体之后的frame
+     */
+    private ByteBuf writeBody(ByteBuf byteBuf, Object body, boolean composable) throws IOException {
+        ByteBuf encodedBody = encodedBodyOf(body);
+        if (null != encodedBody) {
+            return writeEncodedBody(byteBuf, encodedBody, composable);
+        }
+        if (body instanceof CacheableMessage) {
+            ByteBuf cachedBody = encodedMessageCache.acquire(body, messageSerializer);
+            try {
+                return writeEncodedBody(byteBuf, cachedBody, composable);
+            } finally {
+                cachedBody.release();
+            }
+        }
+        messageSerializer.serialize(body, byteBuf);
+        return byteBuf;
+    }
+
+    /**
+     * 写入已编码的内容：拷贝，或者与它的retainedDuplicate组合为一个{@link CompositeByteBuf}。
+     * @param byteBuf 已写入消息头的frame
+     * @param encodedBody 已编码的内容，不修改它的索引
+     * @param composable 是否可以返回组合的frame，内容是frame的最后一部分时才可以组合
+     * @return 写入内容之后的frame
+     */
+    private ByteBuf writeEncodedBody(ByteBuf byteBuf, ByteBuf encodedBody, boolean composable) {
+        if (composable && isEncodedBodyComposable()) {
+            CompositeByteBuf frame = byteBuf.alloc().compositeBuffer(2);
+            frame.addComponents(true, byteBuf, encodedBody.retainedDuplicate());
+            return frame;
+        }
+        byteBuf.writeBytes(encodedBody, encodedBody.readerIndex(), encodedBody.readableBytes());
+        return byteBuf;
+    }
+
     // ---------------------------------------------- 协议6/7  ---------------------------------------
     /**
      * 编码协议6/7 - ack心跳包
@@ -321,8 +742,8 @@ public abstract class BaseCodec extends ChannelDuplexHandler {
         int contentLength = 8 + 8;
         ByteBuf byteBuf = newInitializedByteBuf(ctx, contentLength, netPackageType);
 
-        byteBuf.writeLong(msgTO.getAck());
-        byteBuf.writeLong(msgTO.getSequence());
+        writeAckAndSequence(byteBuf, msgTO.getAck(), msgTO.getSequence());
+        updateWriteAckAndSequence(msgTO.getAck(), msgTO.getSequence());
         appendSumAndWrite(ctx, byteBuf, promise);
     }
 
@@ -330,10 +751,351 @@ public abstract class BaseCodec extends ChannelDuplexHandler {
      * 解码协议6/7 - ack心跳包
      */
     final AckPingPongMessageTO readAckPingPongMessage(ByteBuf msg) {
-        long ack = msg.readLong();
-        long sequence = msg.readLong();
+        long ack = readAck(msg);
+        long sequence = readSequence(msg);
         return new AckPingPongMessageTO(ack, sequence);
     }
+
+    // ---------------------------------------------- 协议8  ---------------------------------------
+    /**
+     * 编码协议8 - 批量消息包。
+     * 未协商{@link NetCapabilities#BATCH}时拆分为独立的包；
+     * 超过最大帧长度时拆分为多个批量消息包，每个包都是完整的(包含ack和第一个消息的sequence)。
+     *
+     * 每个消息的格式为：byte 包类型(可能带有{@link NetPackageType#FLAG_FRAGMENTED}标记)，int 消息长度，消息内容(除ack和sequence以外的部分)
+     *
+     * @param ackPingPongType 心跳包在该端的类型
+     */
+    final void writeBatchMessage(ChannelHandlerContext ctx, BatchMessageTO msgTO, ChannelPromise promise,
+                                 NetPackageType ackPingPongType) throws Exception {
+        PromiseCombiner promiseCombiner = new PromiseCombiner();
+        if (!NetCapabilities.isEnabled(capabilities, NetCapabilities.BATCH)) {
+            for (MessageTO messageTO : msgTO.getMessages()) {
+                ChannelPromise elementPromise = ctx.newPromise();
+                promiseCombiner.add(elementPromise);
+                write(ctx, messageTO, elementPromise);
+            }
+            promiseCombiner.finish(promise);
+            return;
+        }
+
+        final long ack = msgTO.getAck();
+        ByteBuf byteBuf = null;
+        long firstSequence = 0;
+        long lastSequence = 0;
+        try {
+            for (MessageTO messageTO : msgTO.getMessages()) {
+                if (null == byteBuf) {
+                    firstSequence = lastSequence = messageTO.getSequence();
+                    byteBuf = newBatchByteBuf(ctx, ack, firstSequence);
+                }
+                int elementIndex = byteBuf.writerIndex();
+                writeBatchElement(byteBuf, messageTO, ackPingPongType);
+                if (byteBuf.readableBytes() > maxBatchFrameLength && messageTO.getSequence() != firstSequence) {
+                    // 超出最大帧长度，该消息放入下一个包
+                    byteBuf.writerIndex(elementIndex);
+                    ByteBuf fullByteBuf = byteBuf;
+                    // 已交给channel，之后由channel负责释放
+                    byteBuf = null;
+                    promiseCombiner.add(flushBatchByteBuf(ctx, fullByteBuf, ack, lastSequence));
+
+                    firstSequence = messageTO.getSequence();
+                    byteBuf = newBatchByteBuf(ctx, ack, firstSequence);
+                    writeBatchElement(byteBuf, messageTO, ackPingPongType);
+                }
+                lastSequence = messageTO.getSequence();
+            }
+        } catch (Throwable e) {
+            // 未交给channel的包仍由这里持有，需要释放
+            if (null != byteBuf) {
+                byteBuf.release();
+            }
+            throw e;
+        }
+        promiseCombiner.add(flushBatchByteBuf(ctx, byteBuf, ack, lastSequence));
+        promiseCombiner.finish(promise);
+    }
+
+    private ByteBuf newBatchByteBuf(ChannelHandlerContext ctx, long ack, long firstSequence) {
+        ByteBuf byteBuf = newInitializedByteBuf(ctx, DEFAULT_BODY_SIZE_HINT, NetPackageType.BATCH);
+        writeAckAndSequence(byteBuf, ack, firstSequence);
+        return byteBuf;
+    }
+
+    private ChannelPromise flushBatchByteBuf(ChannelHandlerContext ctx, ByteBuf byteBuf, long ack, long lastSequence) {
+        ChannelPromise elementPromise = ctx.newPromise();
+        updateWriteAckAndSequence(ack, lastSequence);
+        appendSumAndWrite(ctx, byteBuf, elementPromise);
+        return elementPromise;
+    }
+
+    /**
+     * 写入批量消息中的一个消息
+     */
+    private void writeBatchElement(ByteBuf byteBuf, MessageTO messageTO, NetPackageType ackPingPongType) throws IOException {
+        int typeIndex = byteBuf.writerIndex();
+        // 包类型 + 长度占位
+        byteBuf.writeByte(0);
+        byteBuf.writeInt(0);
+        byte elementTypeNumber;
+        if (messageTO instanceof OneWayMessageTO) {
+            OneWayMessageTO oneWayMessageTO = (OneWayMessageTO) messageTO;
+            elementTypeNumber = bodyPkgTypeNumber(NetPackageType.ONE_WAY_MESSAGE, oneWayMessageTO.getMessage());
+            writeOneWayMessageContent(byteBuf, oneWayMessageTO, messageIdOf(oneWayMessageTO.getMessage()), false);
+        } else if (messageTO instanceof RpcResponseMessageTO) {
+            RpcResponseMessageTO responseMessageTO = (RpcResponseMessageTO) messageTO;
+            elementTypeNumber = bodyPkgTypeNumber(NetPackageType.RPC_RESPONSE, responseMessageTO.getBody());
+            int messageId = RpcResultCode.hasBody(responseMessageTO.getResultCode()) ?
+                    messageIdOf(responseMessageTO.getBody()) : 0;
+            writeRpcResponseContent(byteBuf, responseMessageTO, messageId, false);
+        } else if (messageTO instanceof RpcRequestMessageTO) {
+            RpcRequestMessageTO requestMessageTO = (RpcRequestMessageTO) messageTO;
+            elementTypeNumber = bodyPkgTypeNumber(NetPackageType.RPC_REQUEST, requestMessageTO.getRequest());
+            writeRpcRequestContent(byteBuf, requestMessageTO, messageIdOf(requestMessageTO.getRequest()), false);
+        } else if (messageTO instanceof FragmentMessageTO) {
+            elementTypeNumber = NetPackageType.FRAGMENT.pkgType;
+            writeEncodedBody(byteBuf, ((FragmentMessageTO) messageTO).getFragment(), false);
+        } else if (messageTO instanceof AckPingPongMessageTO) {
+            elementTypeNumber = ackPingPongType.pkgType;
+        } else {
+            throw new IllegalArgumentException("unexpected batch element " + messageTO.getClass().getName());
+        }
+        byteBuf.setByte(typeIndex, elementTypeNumber);
+        byteBuf.setInt(typeIndex + 1, byteBuf.writerIndex() - typeIndex - 1 - 4);
+    }
+
+    /**
+     * 解码协议8 - 批量消息包，拆分为普通的消息
+     * @param ackPingPongType 对方发来的心跳包的类型
+     */
+    final List<MessageTO> readBatchMessage(ByteBuf msg, NetPackageType ackPingPongType) {
+        long ack = readAck(msg);
+        long sequence = readSequence(msg);
+        List<MessageTO> result = new ArrayList<>();
+        try {
+            while (msg.isReadable()) {
+                byte elementTypeNumber = msg.readByte();
+                ByteBuf element = msg.readSlice(msg.readInt());
+                NetPackageType elementType = NetPackageType.forNumber((byte) (elementTypeNumber & NetPackageType.TYPE_MASK));
+                boolean fragmented = (elementTypeNumber & NetPackageType.FLAG_FRAGMENTED) != 0;
+                if (elementType == NetPackageType.ONE_WAY_MESSAGE) {
+                    result.add(readOneWayMessageContent(ack, sequence, element, fragmented));
+                } else if (elementType == NetPackageType.RPC_RESPONSE) {
+                    result.add(readRpcResponseContent(ack, sequence, element, fragmented));
+                } else if (elementType == NetPackageType.RPC_REQUEST) {
+                    result.add(readRpcRequestContent(ack, sequence, element, fragmented));
+                } else if (elementType == NetPackageType.FRAGMENT) {
+                    result.add(readFragmentContent(ack, sequence, element));
+                } else if (elementType == ackPingPongType) {
+                    result.add(new AckPingPongMessageTO(ack, sequence));
+                } else {
+                    throw new IllegalStateException("unexpected batch element type " + elementTypeNumber);
+                }
+                sequence++;
+            }
+        } catch (Throwable e) {
+            // 已解析的延迟解码消息(持有retain的消息体)不会再被发布，需要释放
+            result.forEach(DeferredMessage::releaseBody);
+            throw e;
+        }
+        if (compactHeader) {
+            // 下一个包的sequence相对于该包的最后一个消息
+            lastReadSequence = sequence - 1;
+        }
+        return result;
+    }
+
+    // ---------------------------------------------- 协议9  ---------------------------------------
+    /**
+     * 编码协议9 - 分片包
+     */
+    final void writeFragmentMessage(ChannelHandlerContext ctx, FragmentMessageTO msgTO, ChannelPromise promise) {
+        ByteBuf fragment = msgTO.getFragment();
+        int contentLength = 8 + 8 + (isEncodedBodyComposable() ? 0 : fragment.readableBytes());
+        ByteBuf byteBuf = newInitializedByteBuf(ctx, contentLength, NetPackageType.FRAGMENT);
+
+        writeAckAndSequence(byteBuf, msgTO.getAck(), msgTO.getSequence());
+        byteBuf = writeEncodedBody(byteBuf, fragment, true);
+
+        updateWriteAckAndSequence(msgTO.getAck(), msgTO.getSequence());
+        appendSumAndWrite(ctx, byteBuf, promise);
+    }
+
+    /**
+     * 解码协议9 - 分片包
+     */
+    final FragmentMessageTO readFragmentMessage(ByteBuf msg) {
+        long ack = readAck(msg);
+        long sequence = readSequence(msg);
+        return readFragmentContent(ack, sequence, msg);
+    }
+
+    private FragmentMessageTO readFragmentContent(long ack, long sequence, ByteBuf msg) {
+        // 分片由会话重组，持有网络包的retainedSlice，不拷贝
+        return new FragmentMessageTO(ack, sequence, msg.readRetainedSlice(msg.readableBytes()));
+    }
+
+    // ---------------------------------------------- 协议10  ---------------------------------------
+    /**
+     * 编码协议10 - 重传请求
+     */
+    final void writeNackMessage(ChannelHandlerContext ctx, NackMessageTO msgTO, ChannelPromise promise) {
+        int contentLength = 8 + 8;
+        ByteBuf byteBuf = newInitializedByteBuf(ctx, contentLength, NetPackageType.NACK);
+
+        writeAckAndSequence(byteBuf, msgTO.getAck(), msgTO.getSequence());
+        updateWriteAckAndSequence(msgTO.getAck(), msgTO.getSequence());
+        appendSumAndWrite(ctx, byteBuf, promise);
+    }
+
+    /**
+     * 解码协议10 - 重传请求
+     */
+    final NackMessageTO readNackMessage(ByteBuf msg) {
+        long ack = readAck(msg);
+        long sequence = readSequence(msg);
+        return new NackMessageTO(ack, sequence);
+    }
+
+    // ---------------------------------------------- 协议11  ---------------------------------------
+    /**
+     * 编码协议11 - 单独的确认包
+     */
+    final void writeAckMessage(ChannelHandlerContext ctx, AckMessageTO msgTO, ChannelPromise promise) {
+        int contentLength = 8 + 8 + 4;
+        ByteBuf byteBuf = newInitializedByteBuf(ctx, contentLength, NetPackageType.ACK);
+
+        writeAckAndSequence(byteBuf, msgTO.getAck(), msgTO.getSequence());
+        // 流量控制时携带接收窗口
+        if (NetCapabilities.isEnabled(capabilities, NetCapabilities.FLOW_CONTROL)) {
+            writeVarIntIfCompact(byteBuf, Math.max(0, msgTO.getWindow()));
+        }
+        updateWriteAckAndSequence(msgTO.getAck(), msgTO.getSequence());
+        appendSumAndWrite(ctx, byteBuf, promise);
+    }
+
+    /**
+     * 解码协议11 - 单独的确认包
+     */
+    final AckMessageTO readAckMessage(ByteBuf msg) {
+        long ack = readAck(msg);
+        long sequence = readSequence(msg);
+        int window = NetCapabilities.isEnabled(capabilities, NetCapabilities.FLOW_CONTROL) ? readVarIntIfCompact(msg) : AckMessageTO.NO_WINDOW;
+        return new AckMessageTO(ack, sequence, window);
+    }
+
+    // ---------------------------------------------- 协议12  ---------------------------------------
+    /**
+     * 编码协议12 - 不可靠消息
+     */
+    final void writeUnreliableMessage(ChannelHandlerContext ctx, UnreliableMessageTO msgTO, ChannelPromise promise) throws IOException {
+        Object message = msgTO.getMessage();
+        int messageId = messageIdOf(message);
+
+        int contentLength = 8 + 8 + 4 + bodySizeHint(message);
+        ByteBuf byteBuf = newInitializedByteBuf(ctx, contentLength, NetPackageType.UNRELIABLE_MESSAGE);
+        try {
+            // 捎带确认
+            writeAckAndSequence(byteBuf, msgTO.getAck(), msgTO.getSequence());
+            // 消息内容
+            writeMessageId(byteBuf, messageId);
+            byteBuf = writeBody(byteBuf, message, true);
+        } catch (Throwable e) {
+            byteBuf.release();
+            throw e;
+        }
+
+        updateWriteAckAndSequence(msgTO.getAck(), msgTO.getSequence());
+        appendSumAndWrite(ctx, byteBuf, promise);
+    }
+
+    /**
+     * 解码协议12 - 不可靠消息
+     */
+    final UnreliableMessageTO readUnreliableMessage(ByteBuf msg) {
+        long ack = readAck(msg);
+        long sequence = readSequence(msg);
+        int messageId = readMessageId(msg);
+        Object message = tryReadMessage(messageId, msg, false);
+        return new UnreliableMessageTO(ack, sequence, message);
+    }
+
+    // ---------------------------------------------- 公共字段  ---------------------------------------
+    /**
+     * 写入捎带确认的ack和sequence。
+     * 紧凑包头下写入的是相对于上一个包的增量，包编码成功之后需要调用{@link #updateWriteAckAndSequence(long, long)}
+     */
+    private void writeAckAndSequence(ByteBuf byteBuf, long ack, long sequence) {
+        if (compactHeader) {
+            NetUtils.writeVarInt64(byteBuf, NetUtils.encodeZigZag64(ack - lastWriteAck));
+            NetUtils.writeVarInt64(byteBuf, NetUtils.encodeZigZag64(sequence - lastWriteSequence));
+        } else {
+            byteBuf.writeLong(ack);
+            byteBuf.writeLong(sequence);
+        }
+    }
+
+    /**
+     * 包编码成功，更新增量编码的基准值。
+     * (编码失败的包不会发送出去，因此不能更新)
+     */
+    private void updateWriteAckAndSequence(long ack, long sequence) {
+        lastWriteAck = ack;
+        lastWriteSequence = sequence;
+    }
+
+    private long readAck(ByteBuf msg) {
+        if (compactHeader) {
+            lastReadAck += NetUtils.decodeZigZag64(NetUtils.readVarInt64(msg));
+            return lastReadAck;
+        } else {
+            return msg.readLong();
+        }
+    }
+
+    private long readSequence(ByteBuf msg) {
+        if (compactHeader) {
+            lastReadSequence += NetUtils.decodeZigZag64(NetUtils.readVarInt64(msg));
+            return lastReadSequence;
+        } else {
+            return msg.readLong();
+        }
+    }
+
+    private void writeRequestGuid(ByteBuf byteBuf, long requestGuid) {
+        if (compactHeader) {
+            NetUtils.writeVarInt64(byteBuf, requestGuid);
+        } else {
+            byteBuf.writeLong(requestGuid);
+        }
+    }
+
+    private long readRequestGuid(ByteBuf msg) {
+        return compactHeader ? NetUtils.readVarInt64(msg) : msg.readLong();
+    }
+
+    private void writeMessageId(ByteBuf byteBuf, int messageId) {
+        writeVarIntIfCompact(byteBuf, messageId);
+    }
+
+    private int readMessageId(ByteBuf msg) {
+        return readVarIntIfCompact(msg);
+    }
+
+    /**
+     * 紧凑包头下写入varint32，否则写入4字节int
+     */
+    private void writeVarIntIfCompact(ByteBuf byteBuf, int value) {
+        if (compactHeader) {
+            NetUtils.writeVarInt32(byteBuf, value);
+        } else {
+            byteBuf.writeInt(value);
+        }
+    }
+
+    private int readVarIntIfCompact(ByteBuf msg) {
+        return compactHeader ? NetUtils.readVarInt32(msg) : msg.readInt();
+    }
     // ------------------------------------------ 分割线 --------------------------------------------
     /**
      * 关闭channel
@@ -345,6 +1107,16 @@ public abstract class BaseCodec extends ChannelDuplexHandler {
         NetUtils.closeQuietly(ctx);
     }
 
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        flushPendingEvents();
+        if (null != compressor) {
+            compressor.release();
+            compressor = null;
+        }
+        super.handlerRemoved(ctx);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         closeCtx(ctx,"decode exceptionCaught.");
@@ -353,23 +1125,99 @@ public abstract class BaseCodec extends ChannelDuplexHandler {
 
     /**
      * 创建一个初始化好的byteBuf
-     * 设置包总长度 和 校验和
+     * 预留包总长度 和 校验和，写入包类型
      * @param ctx handlerContext，用于获取allocator
-     * @param contentLength 有效内容的长度
+     * @param contentLength 有效内容的长度（预分配的大小，写入时可以超出）
      * @return 足够空间的byteBuf可以直接写入内容部分
      */
     private ByteBuf newInitializedByteBuf(ChannelHandlerContext ctx, int contentLength, NetPackageType netNetPackageType){
-        return NetUtils.newInitializedByteBuf(ctx, contentLength, netNetPackageType.pkgType);
+        return newInitializedByteBuf(ctx, contentLength, netNetPackageType.pkgType);
+    }
+
+    private ByteBuf newInitializedByteBuf(ChannelHandlerContext ctx, int contentLength, byte pkgTypeNumber){
+        if (compactHeader) {
+            // 预留varint帧长度 + 4字节校验和 + 包类型，帧长度在内容写完之后填充
+            ByteBuf byteBuf = ctx.alloc().buffer(COMPACT_LENGTH_FIELD_RESERVED + 4 + 1 + contentLength);
+            byteBuf.writerIndex(COMPACT_LENGTH_FIELD_RESERVED);
+            byteBuf.writeInt(0);
+            byteBuf.writeByte(pkgTypeNumber);
+            return byteBuf;
+        }
+        return NetUtils.newInitializedByteBuf(ctx, contentLength, pkgTypeNumber);
     }
 
     /**
-     * 添加校验和并发送
+     * 计算包类型字节
+     * @param extended 是否添加扩展标记
+     */
+    private static byte pkgTypeNumber(NetPackageType netPackageType, boolean extended) {
+        return extended ? (byte) (netPackageType.pkgType | NetPackageType.FLAG_EXTENDED) : netPackageType.pkgType;
+    }
+
+    /**
+     * 当前正在解码的包是否设置了指定标记
+     */
+    private boolean isReadingPkgFlagSet(int flag) {
+        return (readingPkgFlags & flag) != 0;
+    }
+
+    /**
+     * 如果协商了压缩方式，且包内容达到了阈值，则压缩包类型之后的内容。
+     * @param byteBuf 已写完内容，还未填充帧长度和校验和的包
+     * @return 用于发送的包，如果压缩了，原包已释放
+     */
+    private ByteBuf tryCompress(ChannelHandlerContext ctx, ByteBuf byteBuf) {
+        if (null == compressor) {
+            return byteBuf;
+        }
+        final int pkgTypeIndex = compactHeader ? COMPACT_LENGTH_FIELD_RESERVED + 4 : 4 + 8;
+        final int contentIndex = pkgTypeIndex + 1;
+        final int contentLength = byteBuf.writerIndex() - contentIndex;
+        if (contentLength < activeCompressThreshold) {
+            return byteBuf;
+        }
+        ByteBuf compressed = compressor.allocate(ctx.alloc(), contentIndex + 5 + compressor.maxCompressedLength(contentLength));
+        try {
+            // 复制预留的帧长度、校验和以及包类型
+            compressed.writeBytes(byteBuf, 0, contentIndex);
+            compressed.setByte(pkgTypeIndex, byteBuf.getByte(pkgTypeIndex) | NetPackageType.FLAG_COMPRESSED);
+            NetUtils.writeVarInt32(compressed, contentLength);
+            compressor.compress(byteBuf.slice(contentIndex, contentLength), compressed);
+        } catch (Throwable e) {
+            compressed.release();
+            byteBuf.release();
+            throw e;
+        }
+        if (!compressor.isStateful() && compressed.writerIndex() >= byteBuf.writerIndex()) {
+            // 没有压缩收益，发送原包(有状态的压缩器必须发送压缩结果)
+            compressed.release();
+            return byteBuf;
+        }
+        byteBuf.release();
+        return compressed;
+    }
+
+    /**
+     * 添加包总长度和校验和并发送
      * @param ctx handlerContext，用于将数据发送出去
      * @param byteBuf 待发送的数据包
      * @param promise 操作回执
      */
     private void appendSumAndWrite(ChannelHandlerContext ctx, ByteBuf byteBuf, ChannelPromise promise) {
-        NetUtils.appendCheckSum(byteBuf);
+        byteBuf = tryCompress(ctx, byteBuf);
+        if (compactHeader) {
+            final int contentIndex = COMPACT_LENGTH_FIELD_RESERVED + 4;
+            long sum = checksumStrategy.calChecksum(byteBuf, contentIndex, byteBuf.writerIndex() - contentIndex);
+            byteBuf.setInt(COMPACT_LENGTH_FIELD_RESERVED, (int) sum);
+            // 帧长度写在预留空间的末尾，跳过未使用的部分
+            int frameLength = byteBuf.writerIndex() - COMPACT_LENGTH_FIELD_RESERVED;
+            int lengthFieldIndex = COMPACT_LENGTH_FIELD_RESERVED - NetUtils.computeVarInt32Size(frameLength);
+            NetUtils.setVarInt32(byteBuf, lengthFieldIndex, frameLength);
+            byteBuf.readerIndex(lengthFieldIndex);
+        } else {
+            NetUtils.appendFrameLength(byteBuf);
+            NetUtils.appendCheckSum(byteBuf, checksumStrategy);
+        }
         ctx.write(byteBuf, promise);
     }
 }
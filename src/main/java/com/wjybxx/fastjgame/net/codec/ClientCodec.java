@@ -16,6 +16,7 @@
 
 package com.wjybxx.fastjgame.net.codec;
 
+import com.wjybxx.fastjgame.manager.NetConfigManager;
 import com.wjybxx.fastjgame.manager.NetEventManager;
 import com.wjybxx.fastjgame.net.*;
 import io.netty.buffer.ByteBuf;
@@ -43,13 +44,10 @@ public class ClientCodec extends BaseCodec {
     /** 是否已建立链接 */
     private boolean connect = false;
 
-    private final NetEventManager netEventManager;
-
-    public ClientCodec(CodecHelper codecHelper, long localGuid, long serverGuid, NetEventManager netEventManager) {
-        super(codecHelper);
+    public ClientCodec(CodecHelper codecHelper, long localGuid, long serverGuid, NetConfigManager netConfigManager, NetEventManager netEventManager) {
+        super(codecHelper, netConfigManager, netEventManager);
         this.localGuid = localGuid;
         this.serverGuid = serverGuid;
-        this.netEventManager = netEventManager;
     }
 
     // region 编码消息
@@ -71,6 +69,21 @@ public class ClientCodec extends BaseCodec {
         } else if (msgTO instanceof ConnectRequestTO){
             // 连接请求包(token验证包)
             writeConnectRequest(ctx, (ConnectRequestTO) msgTO, promise);
+        } else if (msgTO instanceof BatchMessageTO){
+            // 批量消息
+            writeBatchMessage(ctx, (BatchMessageTO) msgTO, promise, NetPackageType.ACK_PING);
+        } else if (msgTO instanceof FragmentMessageTO){
+            // 大消息的分片
+            writeFragmentMessage(ctx, (FragmentMessageTO) msgTO, promise);
+        } else if (msgTO instanceof NackMessageTO){
+            // 重传请求
+            writeNackMessage(ctx, (NackMessageTO) msgTO, promise);
+        } else if (msgTO instanceof AckMessageTO){
+            // 单独的确认包
+            writeAckMessage(ctx, (AckMessageTO) msgTO, promise);
+        } else if (msgTO instanceof UnreliableMessageTO){
+            // 不可靠消息
+            writeUnreliableMessage(ctx, (UnreliableMessageTO) msgTO, promise);
         } else {
             super.write(ctx, msgTO, promise);
         }
@@ -96,6 +109,21 @@ public class ClientCodec extends BaseCodec {
             case ACK_PONG:
                 tryReadAckPongMessage(ctx, msg);
                 break;
+            case BATCH:
+                tryReadBatchMessage(ctx, msg);
+                break;
+            case FRAGMENT:
+                tryReadFragmentMessage(ctx, msg);
+                break;
+            case NACK:
+                tryReadNackMessage(ctx, msg);
+                break;
+            case ACK:
+                tryReadAckMessage(ctx, msg);
+                break;
+            case UNRELIABLE_MESSAGE:
+                tryReadUnreliableMessage(ctx, msg);
+                break;
             default:
                 closeCtx(ctx,"unexpected netEventType " + netPackageType);
                 break;
@@ -107,8 +135,20 @@ public class ClientCodec extends BaseCodec {
      */
     private void tryReadConnectResponse(ChannelHandlerContext ctx, ByteBuf msg) {
         ConnectResponseTO responseTO = readConnectResponse(msg);
-        ConnectResponseEventParam connectResponseParam = new ConnectResponseEventParam(ctx.channel(), localGuid, serverGuid, responseTO);
-        netEventManager.publishEvent(NetEventType.CONNECT_RESPONSE, connectResponseParam);
+        if (responseTO.isSuccess() && !isNegotiated()) {
+            int capabilities = responseTO.getCapabilities();
+            if ((capabilities & ~supportedCapabilities(ctx)) != 0 || NetCapabilities.normalize(capabilities) != capabilities) {
+                // 服务器返回了未请求的扩展能力，无法继续通信
+                closeCtx(ctx, "unsupported capabilities " + capabilities);
+                return;
+            }
+            // 连接响应之后的包使用协商后的格式
+            completeNegotiation(ctx, capabilities);
+        }
+        int capabilities = responseTO.isSuccess() ? getCapabilities() : NetCapabilities.NONE;
+        ConnectResponseEventParam connectResponseParam = new ConnectResponseEventParam(ctx.channel(), localGuid, serverGuid, responseTO,
+                getCodecHelper(), fragmenterOf(capabilities), capabilities);
+        publishEvent(NetEventType.CONNECT_RESPONSE, connectResponseParam);
 
         // 标记为已连接
         if (connectResponseParam.isSuccess()) {
@@ -123,8 +163,12 @@ public class ClientCodec extends BaseCodec {
         ensureConnected();
 
         AckPingPongMessageTO ackPingPongMessage = readAckPingPongMessage(msg);
+        onRcvAckPongMessage(ctx, ackPingPongMessage);
+    }
+
+    private void onRcvAckPongMessage(ChannelHandlerContext ctx, AckPingPongMessageTO ackPingPongMessage) {
         AckPingPongEventParam ackPongParam = new AckPingPongEventParam(ctx.channel(), localGuid, serverGuid, ackPingPongMessage);
-        netEventManager.publishEvent(NetEventType.ACK_PONG, ackPongParam);
+        publishEvent(NetEventType.ACK_PONG, ackPongParam);
     }
 
     /**
@@ -134,8 +178,12 @@ public class ClientCodec extends BaseCodec {
         ensureConnected();
 
         RpcRequestMessageTO rpcRequestMessageTO = readRpcRequestMessage(msg);
+        onRcvRpcRequestMessage(ctx, rpcRequestMessageTO);
+    }
+
+    private void onRcvRpcRequestMessage(ChannelHandlerContext ctx, RpcRequestMessageTO rpcRequestMessageTO) {
         RpcRequestEventParam rpcRequestEventParam = new RpcRequestEventParam(ctx.channel(), localGuid, serverGuid, rpcRequestMessageTO);
-        netEventManager.publishEvent(NetEventType.S2C_RPC_REQUEST, rpcRequestEventParam);
+        publishEvent(NetEventType.S2C_RPC_REQUEST, rpcRequestEventParam);
     }
 
     /**
@@ -145,8 +193,12 @@ public class ClientCodec extends BaseCodec {
         ensureConnected();
 
         RpcResponseMessageTO rpcResponseMessageTO = readRpcResponseMessage(msg);
+        onRcvRpcResponseMessage(ctx, rpcResponseMessageTO);
+    }
+
+    private void onRcvRpcResponseMessage(ChannelHandlerContext ctx, RpcResponseMessageTO rpcResponseMessageTO) {
         RpcResponseEventParam rpcResponseEventParam = new RpcResponseEventParam(ctx.channel(), localGuid, serverGuid, rpcResponseMessageTO);
-        netEventManager.publishEvent(NetEventType.C2S_RPC_RESPONSE, rpcResponseEventParam);
+        publishEvent(NetEventType.C2S_RPC_RESPONSE, rpcResponseEventParam);
     }
 
     /**
@@ -156,8 +208,81 @@ public class ClientCodec extends BaseCodec {
         ensureConnected();
 
         OneWayMessageTO oneWayMessageTO = readOneWayMessage(msg);
+        onRcvOneWayMessage(ctx, oneWayMessageTO);
+    }
+
+    private void onRcvOneWayMessage(ChannelHandlerContext ctx, OneWayMessageTO oneWayMessageTO) {
         OneWayMessageEventParam oneWayMessageEventParam = new OneWayMessageEventParam(ctx.channel(), localGuid, serverGuid, oneWayMessageTO);
-        netEventManager.publishEvent(NetEventType.S2C_ONE_WAY_MESSAGE, oneWayMessageEventParam);
+        publishEvent(NetEventType.S2C_ONE_WAY_MESSAGE, oneWayMessageEventParam);
+    }
+
+    /**
+     * 读取服务器发来的分片
+     */
+    private void tryReadFragmentMessage(ChannelHandlerContext ctx, ByteBuf msg) {
+        ensureConnected();
+
+        FragmentMessageTO fragmentMessageTO = readFragmentMessage(msg);
+        onRcvFragmentMessage(ctx, fragmentMessageTO);
+    }
+
+    private void onRcvFragmentMessage(ChannelHandlerContext ctx, FragmentMessageTO fragmentMessageTO) {
+        FragmentEventParam fragmentEventParam = new FragmentEventParam(ctx.channel(), localGuid, serverGuid, fragmentMessageTO);
+        publishEvent(NetEventType.S2C_FRAGMENT, fragmentEventParam);
+    }
+
+    /**
+     * 读取服务器发来的重传请求
+     */
+    private void tryReadNackMessage(ChannelHandlerContext ctx, ByteBuf msg) {
+        ensureConnected();
+
+        NackMessageTO nackMessageTO = readNackMessage(msg);
+        NackEventParam nackEventParam = new NackEventParam(ctx.channel(), localGuid, serverGuid, nackMessageTO);
+        publishEvent(NetEventType.S2C_NACK, nackEventParam);
+    }
+
+    /**
+     * 读取服务器发来的单独的确认包
+     */
+    private void tryReadAckMessage(ChannelHandlerContext ctx, ByteBuf msg) {
+        ensureConnected();
+
+        AckMessageTO ackMessageTO = readAckMessage(msg);
+        AckEventParam ackEventParam = new AckEventParam(ctx.channel(), localGuid, serverGuid, ackMessageTO);
+        publishEvent(NetEventType.S2C_ACK, ackEventParam);
+    }
+
+    /**
+     * 读取服务器发来的不可靠消息
+     */
+    private void tryReadUnreliableMessage(ChannelHandlerContext ctx, ByteBuf msg) {
+        ensureConnected();
+
+        UnreliableMessageTO unreliableMessageTO = readUnreliableMessage(msg);
+        UnreliableMessageEventParam eventParam = new UnreliableMessageEventParam(ctx.channel(), localGuid, serverGuid, unreliableMessageTO);
+        publishEvent(NetEventType.S2C_UNRELIABLE_MESSAGE, eventParam);
+    }
+
+    /**
+     * 读取服务器发来的批量消息，拆分为普通的消息事件
+     */
+    private void tryReadBatchMessage(ChannelHandlerContext ctx, ByteBuf msg) {
+        ensureConnected();
+
+        for (MessageTO messageTO : readBatchMessage(msg, NetPackageType.ACK_PONG)) {
+            if (messageTO instanceof RpcRequestMessageTO) {
+                onRcvRpcRequestMessage(ctx, (RpcRequestMessageTO) messageTO);
+            } else if (messageTO instanceof RpcResponseMessageTO) {
+                onRcvRpcResponseMessage(ctx, (RpcResponseMessageTO) messageTO);
+            } else if (messageTO instanceof OneWayMessageTO) {
+                onRcvOneWayMessage(ctx, (OneWayMessageTO) messageTO);
+            } else if (messageTO instanceof FragmentMessageTO) {
+                onRcvFragmentMessage(ctx, (FragmentMessageTO) messageTO);
+            } else {
+                onRcvAckPongMessage(ctx, (AckPingPongMessageTO) messageTO);
+            }
+        }
     }
     // endregion
 
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.codec;
+
+import com.wjybxx.fastjgame.net.NetCapabilities;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.List;
+
+/**
+ * 自定义协议的分帧解码器，取代{@link io.netty.handler.codec.LengthFieldBasedFrameDecoder}。
+ * 默认使用4字节的帧长度，当协商启用{@link NetCapabilities#COMPACT_HEADER}之后，由{@link BaseCodec}切换为varint编码的帧长度。
+ *
+ * 输出的帧不包含长度字段。
+ * 它不是线程安全的，也不可共享。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/7
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public class NetFrameDecoder extends ByteToMessageDecoder {
+
+    /**
+     * 最大帧长度(包含长度字段)
+     */
+    private final int maxFrameLength;
+    /**
+     * 帧长度字段是否使用varint编码
+     */
+    private boolean compact = false;
+
+    public NetFrameDecoder(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * 最大帧长度，codec打包批量消息时不能超过该长度
+     */
+    int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    /**
+     * 切换为varint编码的帧长度，在codec中调用，之后的帧都按照新格式解码。
+     */
+    void changeToCompact() {
+        this.compact = true;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        final int readerIndex = in.readerIndex();
+        final int readableBytes = in.readableBytes();
+        int lengthFieldLength;
+        int frameLength;
+        if (compact) {
+            // varint32，最多5个字节
+            frameLength = 0;
+            lengthFieldLength = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (lengthFieldLength >= readableBytes) {
+                    // 长度字段还不完整
+                    return;
+                }
+                if (lengthFieldLength == 5) {
+                    throw new CorruptedFrameException("malformed varint frame length");
+                }
+                byte b = in.getByte(readerIndex + lengthFieldLength);
+                lengthFieldLength++;
+                frameLength |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+        } else {
+            if (readableBytes < 4) {
+                return;
+            }
+            lengthFieldLength = 4;
+            frameLength = in.getInt(readerIndex);
+        }
+
+        if (frameLength < 0) {
+            throw new CorruptedFrameException("negative frame length " + frameLength);
+        }
+        if (frameLength > maxFrameLength - lengthFieldLength) {
+            throw new TooLongFrameException("frame length exceeds " + maxFrameLength + ": " + (frameLength + lengthFieldLength));
+        }
+        if (readableBytes < lengthFieldLength + frameLength) {
+            // 帧还不完整
+            return;
+        }
+        in.skipBytes(lengthFieldLength);
+        out.add(in.readRetainedSlice(frameLength));
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.wjybxx.fastjgame.net.codec;
 
+import com.wjybxx.fastjgame.manager.NetConfigManager;
 import com.wjybxx.fastjgame.manager.NetEventManager;
 import com.wjybxx.fastjgame.net.*;
 import io.netty.buffer.ByteBuf;
@@ -39,13 +40,12 @@ public class ServerCodec extends BaseCodec {
     private final long localGuid;
     /** 缓存的客户端guid，关联的远程 */
     private long clientGuid = Long.MIN_VALUE;
+    /** 客户端请求的扩展能力中，本端可以支持的部分，在返回成功的连接响应之后生效 */
+    private int pendingCapabilities = NetCapabilities.NONE;
 
-    private final NetEventManager netEventManager;
-
-    public ServerCodec(CodecHelper codecHelper, long localGuid, NetEventManager netEventManager) {
-        super(codecHelper);
+    public ServerCodec(CodecHelper codecHelper, long localGuid, NetConfigManager netConfigManager, NetEventManager netEventManager) {
+        super(codecHelper, netConfigManager, netEventManager);
         this.localGuid = localGuid;
-        this.netEventManager = netEventManager;
     }
 
     /**
@@ -81,12 +81,41 @@ public class ServerCodec extends BaseCodec {
             writeAckPingPongMessage(ctx, (AckPingPongMessageTO) msg, promise, NetPackageType.ACK_PONG);
         } else if (msg instanceof ConnectResponseTO){
             // 请求连接结果(token验证结果)
-            writeConnectResponse(ctx, (ConnectResponseTO) msg, promise);
+            tryWriteConnectResponse(ctx, (ConnectResponseTO) msg, promise);
+        } else if (msg instanceof BatchMessageTO){
+            // 批量消息
+            writeBatchMessage(ctx, (BatchMessageTO) msg, promise, NetPackageType.ACK_PONG);
+        } else if (msg instanceof FragmentMessageTO){
+            // 大消息的分片
+            writeFragmentMessage(ctx, (FragmentMessageTO) msg, promise);
+        } else if (msg instanceof NackMessageTO){
+            // 重传请求
+            writeNackMessage(ctx, (NackMessageTO) msg, promise);
+        } else if (msg instanceof AckMessageTO){
+            // 单独的确认包
+            writeAckMessage(ctx, (AckMessageTO) msg, promise);
+        } else if (msg instanceof UnreliableMessageTO){
+            // 不可靠消息
+            writeUnreliableMessage(ctx, (UnreliableMessageTO) msg, promise);
         } else {
             super.write(ctx, msg, promise);
         }
     }
 
+    /**
+     * 发送连接响应，如果验证成功，则顺带完成扩展能力协商
+     */
+    private void tryWriteConnectResponse(ChannelHandlerContext ctx, ConnectResponseTO msgTO, ChannelPromise promise) {
+        if (!msgTO.isSuccess() || isNegotiated()) {
+            writeConnectResponse(ctx, msgTO, NetCapabilities.NONE, promise);
+            return;
+        }
+        int capabilities = pendingCapabilities;
+        writeConnectResponse(ctx, msgTO, capabilities, promise);
+        // 连接响应使用协商前的格式，之后的包使用协商后的格式
+        completeNegotiation(ctx, capabilities);
+    }
+
     // region 读取消息
     @Override
     protected void readMsg(ChannelHandlerContext ctx, NetPackageType netPackageType, ByteBuf msg) throws Exception {
@@ -106,6 +135,21 @@ public class ServerCodec extends BaseCodec {
             case ACK_PING:
                 tryReadAckPingMessage(ctx, msg);
                 break;
+            case BATCH:
+                tryReadBatchMessage(ctx, msg);
+                break;
+            case FRAGMENT:
+                tryReadFragmentMessage(ctx, msg);
+                break;
+            case NACK:
+                tryReadNackMessage(ctx, msg);
+                break;
+            case ACK:
+                tryReadAckMessage(ctx, msg);
+                break;
+            case UNRELIABLE_MESSAGE:
+                tryReadUnreliableMessage(ctx, msg);
+                break;
             default:
                 closeCtx(ctx,"unexpected netEventType " + netPackageType);
                 break;
@@ -117,8 +161,14 @@ public class ServerCodec extends BaseCodec {
      */
     private void tryReadConnectRequest(ChannelHandlerContext ctx, ByteBuf msg){
         ConnectRequestTO connectRequestTO = readConnectRequest(ctx.channel(), msg);
-        ConnectRequestEventParam connectRequestEventParam = new ConnectRequestEventParam(ctx.channel(), localGuid, connectRequestTO);
-        netEventManager.publishEvent(NetEventType.CONNECT_REQUEST, connectRequestEventParam);
+        if (!isNegotiated()) {
+            pendingCapabilities = NetCapabilities.normalize(connectRequestTO.getCapabilities() & supportedCapabilities(ctx));
+        }
+        // 会话在连接响应之后才会发送消息，此时协商已经完成
+        int capabilities = isNegotiated() ? getCapabilities() : pendingCapabilities;
+        ConnectRequestEventParam connectRequestEventParam = new ConnectRequestEventParam(ctx.channel(), localGuid, connectRequestTO,
+                getCodecHelper(), fragmenterOf(capabilities), capabilities);
+        publishEvent(NetEventType.CONNECT_REQUEST, connectRequestEventParam);
         if (!isInited()){
             init(connectRequestTO.getClientGuid());
         }
@@ -131,8 +181,12 @@ public class ServerCodec extends BaseCodec {
         ensureInited();
 
         AckPingPongMessageTO ackPingPongMessage = readAckPingPongMessage(msg);
+        onRcvAckPingMessage(ctx, ackPingPongMessage);
+    }
+
+    private void onRcvAckPingMessage(ChannelHandlerContext ctx, AckPingPongMessageTO ackPingPongMessage) {
         AckPingPongEventParam ackPingParam = new AckPingPongEventParam(ctx.channel(), localGuid, clientGuid, ackPingPongMessage);
-        netEventManager.publishEvent(NetEventType.ACK_PING, ackPingParam);
+        publishEvent(NetEventType.ACK_PING, ackPingParam);
     }
 
     /**
@@ -142,8 +196,12 @@ public class ServerCodec extends BaseCodec {
         ensureInited();
 
         RpcRequestMessageTO rpcRequestMessageTO = readRpcRequestMessage(msg);
+        onRcvRpcRequestMessage(ctx, rpcRequestMessageTO);
+    }
+
+    private void onRcvRpcRequestMessage(ChannelHandlerContext ctx, RpcRequestMessageTO rpcRequestMessageTO) {
         RpcRequestEventParam rpcRequestEventParam = new RpcRequestEventParam(ctx.channel(), localGuid, clientGuid, rpcRequestMessageTO);
-        netEventManager.publishEvent(NetEventType.C2S_RPC_REQUEST, rpcRequestEventParam);
+        publishEvent(NetEventType.C2S_RPC_REQUEST, rpcRequestEventParam);
     }
 
     /**
@@ -153,8 +211,12 @@ public class ServerCodec extends BaseCodec {
         ensureInited();
 
         RpcResponseMessageTO rpcResponseMessageTO = readRpcResponseMessage(msg);
+        onRcvRpcResponseMessage(ctx, rpcResponseMessageTO);
+    }
+
+    private void onRcvRpcResponseMessage(ChannelHandlerContext ctx, RpcResponseMessageTO rpcResponseMessageTO) {
         RpcResponseEventParam rpcResponseEventParam = new RpcResponseEventParam(ctx.channel(), localGuid, clientGuid, rpcResponseMessageTO);
-        netEventManager.publishEvent(NetEventType.S2C_RPC_RESPONSE, rpcResponseEventParam);
+        publishEvent(NetEventType.S2C_RPC_RESPONSE, rpcResponseEventParam);
     }
 
     /**
@@ -164,8 +226,81 @@ public class ServerCodec extends BaseCodec {
         ensureInited();
 
         OneWayMessageTO oneWayMessageTO = readOneWayMessage(msg);
+        onRcvOneWayMessage(ctx, oneWayMessageTO);
+    }
+
+    private void onRcvOneWayMessage(ChannelHandlerContext ctx, OneWayMessageTO oneWayMessageTO) {
         OneWayMessageEventParam oneWayMessageEventParam = new OneWayMessageEventParam(ctx.channel(), localGuid, clientGuid, oneWayMessageTO);
-        netEventManager.publishEvent(NetEventType.C2S_ONE_WAY_MESSAGE, oneWayMessageEventParam);
+        publishEvent(NetEventType.C2S_ONE_WAY_MESSAGE, oneWayMessageEventParam);
+    }
+
+    /**
+     * 读取客户端发来的分片
+     */
+    private void tryReadFragmentMessage(ChannelHandlerContext ctx, ByteBuf msg) {
+        ensureInited();
+
+        FragmentMessageTO fragmentMessageTO = readFragmentMessage(msg);
+        onRcvFragmentMessage(ctx, fragmentMessageTO);
+    }
+
+    private void onRcvFragmentMessage(ChannelHandlerContext ctx, FragmentMessageTO fragmentMessageTO) {
+        FragmentEventParam fragmentEventParam = new FragmentEventParam(ctx.channel(), localGuid, clientGuid, fragmentMessageTO);
+        publishEvent(NetEventType.C2S_FRAGMENT, fragmentEventParam);
+    }
+
+    /**
+     * 读取客户端发来的重传请求
+     */
+    private void tryReadNackMessage(ChannelHandlerContext ctx, ByteBuf msg) {
+        ensureInited();
+
+        NackMessageTO nackMessageTO = readNackMessage(msg);
+        NackEventParam nackEventParam = new NackEventParam(ctx.channel(), localGuid, clientGuid, nackMessageTO);
+        publishEvent(NetEventType.C2S_NACK, nackEventParam);
+    }
+
+    /**
+     * 读取客户端发来的单独的确认包
+     */
+    private void tryReadAckMessage(ChannelHandlerContext ctx, ByteBuf msg) {
+        ensureInited();
+
+        AckMessageTO ackMessageTO = readAckMessage(msg);
+        AckEventParam ackEventParam = new AckEventParam(ctx.channel(), localGuid, clientGuid, ackMessageTO);
+        publishEvent(NetEventType.C2S_ACK, ackEventParam);
+    }
+
+    /**
+     * 读取客户端发来的不可靠消息
+     */
+    private void tryReadUnreliableMessage(ChannelHandlerContext ctx, ByteBuf msg) {
+        ensureInited();
+
+        UnreliableMessageTO unreliableMessageTO = readUnreliableMessage(msg);
+        UnreliableMessageEventParam eventParam = new UnreliableMessageEventParam(ctx.channel(), localGuid, clientGuid, unreliableMessageTO);
+        publishEvent(NetEventType.C2S_UNRELIABLE_MESSAGE, eventParam);
+    }
+
+    /**
+     * 读取客户端发来的批量消息，拆分为普通的消息事件
+     */
+    private void tryReadBatchMessage(ChannelHandlerContext ctx, ByteBuf msg) {
+        ensureInited();
+
+        for (MessageTO messageTO : readBatchMessage(msg, NetPackageType.ACK_PING)) {
+            if (messageTO instanceof OneWayMessageTO) {
+                onRcvOneWayMessage(ctx, (OneWayMessageTO) messageTO);
+            } else if (messageTO instanceof RpcRequestMessageTO) {
+                onRcvRpcRequestMessage(ctx, (RpcRequestMessageTO) messageTO);
+            } else if (messageTO instanceof RpcResponseMessageTO) {
+                onRcvRpcResponseMessage(ctx, (RpcResponseMessageTO) messageTO);
+            } else if (messageTO instanceof FragmentMessageTO) {
+                onRcvFragmentMessage(ctx, (FragmentMessageTO) messageTO);
+            } else {
+                onRcvAckPingMessage(ctx, (AckPingPongMessageTO) messageTO);
+            }
+        }
     }
     // endregion
 
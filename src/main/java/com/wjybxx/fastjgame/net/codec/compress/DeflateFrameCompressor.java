@@ -0,0 +1,261 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.codec.compress;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 基于jdk{@link Deflater}的压缩器(raw deflate，不包含zlib头)。
+ *
+ * 有两种模式：
+ * 1. 逐包压缩：每个包独立压缩，压缩器无状态，{@link Deflater}/{@link Inflater}为线程局部变量，所有channel共享。
+ * 2. 流式压缩：每个channel持有独立的{@link Deflater}/{@link Inflater}，压缩上下文在包之间共享，
+ *    每个包以SYNC_FLUSH结束(并去掉固定的4字节结尾 00 00 FF FF)，小而相似的包也能获得较好的压缩率。
+ *    代价是每个channel需要额外的几百KB的native内存。
+ *
+ * jdk8的{@link Deflater}只支持数组，因此压缩结果和解压结果都写入heap buffer(见{@link #allocate(ByteBufAllocator, int)})，
+ * 输入如果不是heap buffer，则拷贝到池化的heap buffer中。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/8
+ * github - https://github.com/hl845740757
+ */
+class DeflateFrameCompressor implements FrameCompressor {
+
+    /**
+     * 逐包压缩的共享实例
+     */
+    static final DeflateFrameCompressor SHARED_INSTANCE = new DeflateFrameCompressor(null, null);
+
+    /**
+     * SYNC_FLUSH产生的结尾
+     */
+    private static final byte[] SYNC_FLUSH_TRAILER = {0, 0, (byte) 0xFF, (byte) 0xFF};
+    /**
+     * 每次deflate至少预留的空间
+     */
+    private static final int MIN_WRITABLE_BYTES = 64;
+
+    private static final FastThreadLocal<Deflater> SHARED_DEFLATER = new FastThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+
+        @Override
+        protected void onRemoval(Deflater value) {
+            value.end();
+        }
+    };
+
+    private static final FastThreadLocal<Inflater> SHARED_INFLATER = new FastThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+
+        @Override
+        protected void onRemoval(Inflater value) {
+            value.end();
+        }
+    };
+
+    /**
+     * 流式压缩时该channel独占的压缩上下文，逐包压缩时为null
+     */
+    private final Deflater streamDeflater;
+    private final Inflater streamInflater;
+    /**
+     * 用于消耗流中剩余输入的缓冲区，正常情况下不会有输出
+     */
+    private final byte[] drainBuffer;
+
+    private DeflateFrameCompressor(Deflater streamDeflater, Inflater streamInflater) {
+        this.streamDeflater = streamDeflater;
+        this.streamInflater = streamInflater;
+        this.drainBuffer = null == streamInflater ? null : new byte[1];
+    }
+
+    /**
+     * 创建一个流式压缩器，每个channel一个
+     */
+    static DeflateFrameCompressor newStreamCompressor() {
+        return new DeflateFrameCompressor(new Deflater(Deflater.DEFAULT_COMPRESSION, true), new Inflater(true));
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        // deflate的最坏情况 + SYNC_FLUSH产生的额外块
+        return length + (length >>> 12) + (length >>> 14) + (length >>> 25) + 13 + 16;
+    }
+
+    @Override
+    public ByteBuf allocate(ByteBufAllocator allocator, int initialCapacity) {
+        return allocator.heapBuffer(initialCapacity);
+    }
+
+    @Override
+    public void compress(ByteBuf in, ByteBuf out) {
+        if (!out.hasArray()) {
+            ByteBuf heapOut = allocate(out.alloc(), maxCompressedLength(in.readableBytes()));
+            try {
+                compress(in, heapOut);
+                out.writeBytes(heapOut);
+            } finally {
+                heapOut.release();
+            }
+            return;
+        }
+        ByteBuf heapIn = in.hasArray() ? in : copyToHeap(in);
+        try {
+            final Deflater deflater = isStateful() ? streamDeflater : SHARED_DEFLATER.get();
+            deflater.setInput(heapIn.array(), heapIn.arrayOffset() + heapIn.readerIndex(), heapIn.readableBytes());
+            if (isStateful()) {
+                deflate(deflater, out, Deflater.SYNC_FLUSH);
+                // 去掉固定的结尾，解压时补上
+                out.writerIndex(out.writerIndex() - SYNC_FLUSH_TRAILER.length);
+            } else {
+                deflater.finish();
+                deflate(deflater, out, Deflater.NO_FLUSH);
+                deflater.reset();
+            }
+            in.skipBytes(in.readableBytes());
+        } finally {
+            if (heapIn != in) {
+                heapIn.release();
+            }
+        }
+    }
+
+    private static void deflate(Deflater deflater, ByteBuf out, int flush) {
+        while (true) {
+            out.ensureWritable(MIN_WRITABLE_BYTES);
+            int writableBytes = out.writableBytes();
+            int numBytes = deflater.deflate(out.array(), out.arrayOffset() + out.writerIndex(), writableBytes, flush);
+            out.writerIndex(out.writerIndex() + numBytes);
+            // SYNC_FLUSH：输出未填满表示已全部刷新；FINISH：压缩结束
+            boolean done = flush == Deflater.SYNC_FLUSH ? numBytes < writableBytes : deflater.finished();
+            if (done) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out, int uncompressedLength) throws DecompressionException {
+        if (!out.hasArray()) {
+            ByteBuf heapOut = allocate(out.alloc(), uncompressedLength);
+            try {
+                decompress(in, heapOut, uncompressedLength);
+                out.writeBytes(heapOut);
+            } finally {
+                heapOut.release();
+            }
+            return;
+        }
+        ByteBuf heapIn = in.hasArray() ? in : copyToHeap(in);
+        try {
+            final Inflater inflater = isStateful() ? streamInflater : SHARED_INFLATER.get();
+            inflater.setInput(heapIn.array(), heapIn.arrayOffset() + heapIn.readerIndex(), heapIn.readableBytes());
+            try {
+                inflate(inflater, out, uncompressedLength);
+            } finally {
+                if (!isStateful()) {
+                    inflater.reset();
+                }
+            }
+            in.skipBytes(in.readableBytes());
+        } catch (DataFormatException e) {
+            throw new DecompressionException(e);
+        } finally {
+            if (heapIn != in) {
+                heapIn.release();
+            }
+        }
+    }
+
+    private void inflate(Inflater inflater, ByteBuf out, int uncompressedLength) throws DataFormatException {
+        final int dstEnd = out.writerIndex() + uncompressedLength;
+        out.ensureWritable(uncompressedLength);
+        boolean trailerAppended = false;
+        while (out.writerIndex() < dstEnd) {
+            int numBytes = inflater.inflate(out.array(), out.arrayOffset() + out.writerIndex(), dstEnd - out.writerIndex());
+            out.writerIndex(out.writerIndex() + numBytes);
+            if (numBytes == 0) {
+                if (isStateful() && !trailerAppended && inflater.needsInput()) {
+                    inflater.setInput(SYNC_FLUSH_TRAILER);
+                    trailerAppended = true;
+                    continue;
+                }
+                if (inflater.needsInput() || inflater.finished() || inflater.needsDictionary()) {
+                    break;
+                }
+            }
+        }
+        if (out.writerIndex() != dstEnd) {
+            throw new DecompressionException("deflate uncompressed length mismatch, expected " + uncompressedLength);
+        }
+        if (isStateful()) {
+            // 消耗该包剩余的输入(包括结尾)，保证下一个包从正确的位置开始
+            if (!trailerAppended) {
+                drain(inflater);
+                inflater.setInput(SYNC_FLUSH_TRAILER);
+            }
+            drain(inflater);
+        } else if (!inflater.finished() && (inflater.inflate(new byte[1]) != 0 || !inflater.finished())) {
+            // 逐包压缩的流必须恰好在声明的长度处结束，否则解压结果会被静默截断(如解压炸弹)
+            throw new DecompressionException("deflate stream has more data than expected");
+        }
+    }
+
+    private void drain(Inflater inflater) throws DataFormatException {
+        if (inflater.needsInput()) {
+            return;
+        }
+        // 剩余的输入只能是空的块，不会产生输出
+        if (inflater.inflate(drainBuffer) != 0 || inflater.finished() || !inflater.needsInput()) {
+            throw new DecompressionException("deflate stream has more data than expected");
+        }
+    }
+
+    private static ByteBuf copyToHeap(ByteBuf in) {
+        ByteBuf heapIn = in.alloc().heapBuffer(in.readableBytes());
+        heapIn.writeBytes(in, in.readerIndex(), in.readableBytes());
+        return heapIn;
+    }
+
+    @Override
+    public boolean isStateful() {
+        return null != streamDeflater;
+    }
+
+    @Override
+    public void release() {
+        if (isStateful()) {
+            streamDeflater.end();
+            streamInflater.end();
+        }
+    }
+}
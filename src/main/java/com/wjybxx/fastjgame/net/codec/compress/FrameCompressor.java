@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.codec.compress;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.compression.DecompressionException;
+
+/**
+ * 网络包内容的压缩器。
+ * 只压缩包类型之后的内容，压缩与否由包类型中的{@link com.wjybxx.fastjgame.net.NetPackageType#FLAG_COMPRESSED}标记。
+ *
+ * 实现可能是有状态的(流式压缩，共享压缩上下文)，此时每个channel必须使用独立的实例，
+ * 且每个压缩的包都必须按顺序发送和解压。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/8
+ * github - https://github.com/hl845740757
+ */
+public interface FrameCompressor {
+
+    /**
+     * 压缩后的最大长度，用于预分配空间
+     * @param length 压缩前的长度
+     * @return 压缩后可能的最大长度
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * 分配用于写入压缩结果或解压结果的buffer。
+     * 不同的实现适合不同类型的buffer，使用该方法分配可以避免额外的拷贝。
+     * @param allocator 分配器
+     * @param initialCapacity 初始容量
+     * @return buffer
+     */
+    ByteBuf allocate(ByteBufAllocator allocator, int initialCapacity);
+
+    /**
+     * 压缩{@code in}的所有可读字节，并追加到{@code out}。
+     * @param in 待压缩的内容
+     * @param out 压缩结果
+     */
+    void compress(ByteBuf in, ByteBuf out);
+
+    /**
+     * 解压{@code in}的所有可读字节，并追加到{@code out}。
+     * @param in 压缩的内容
+     * @param out 解压结果
+     * @param uncompressedLength 压缩前的长度
+     * @throws DecompressionException 压缩的内容错误或解压后的长度不一致
+     */
+    void decompress(ByteBuf in, ByteBuf out, int uncompressedLength) throws DecompressionException;
+
+    /**
+     * 是否是有状态的压缩器。
+     * 有状态的压缩器调用了{@link #compress(ByteBuf, ByteBuf)}之后，必须发送压缩的结果，否则对方无法解压后续的包。
+     */
+    boolean isStateful();
+
+    /**
+     * 释放压缩器持有的资源，channel关闭时调用
+     */
+    void release();
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.codec.compress;
+
+import com.wjybxx.fastjgame.net.NetCapabilities;
+
+import javax.annotation.Nullable;
+
+/**
+ * {@link FrameCompressor}的工厂方法
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/8
+ * github - https://github.com/hl845740757
+ */
+public final class FrameCompressors {
+
+    private FrameCompressors() {
+
+    }
+
+    /**
+     * 为一个channel创建压缩器
+     * @param capabilities 协商之后的扩展能力，最多只包含一种压缩方式
+     * @return 如果未启用压缩，则返回null
+     */
+    @Nullable
+    public static FrameCompressor newCompressor(int capabilities) {
+        if (NetCapabilities.isEnabled(capabilities, NetCapabilities.COMPRESS_LZ4)) {
+            return Lz4FrameCompressor.INSTANCE;
+        }
+        if (NetCapabilities.isEnabled(capabilities, NetCapabilities.COMPRESS_DEFLATE_STREAM)) {
+            return DeflateFrameCompressor.newStreamCompressor();
+        }
+        if (NetCapabilities.isEnabled(capabilities, NetCapabilities.COMPRESS_DEFLATE)) {
+            return DeflateFrameCompressor.SHARED_INSTANCE;
+        }
+        return null;
+    }
+}
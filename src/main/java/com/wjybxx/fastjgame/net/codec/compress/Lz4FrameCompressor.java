@@ -0,0 +1,263 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.codec.compress;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+
+/**
+ * LZ4 block格式的压缩器(纯java实现)，压缩率一般，但是压缩和解压都非常快。
+ * 直接通过索引读写{@link ByteBuf}，不论heap还是direct buffer都不需要拷贝到中间数组。
+ *
+ * 它是无状态的(哈希表为线程局部变量，每次压缩前重置)，因此所有channel可以共享一个实例。
+ *
+ * 格式见 https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/8
+ * github - https://github.com/hl845740757
+ */
+@ThreadSafe
+class Lz4FrameCompressor implements FrameCompressor {
+
+    static final Lz4FrameCompressor INSTANCE = new Lz4FrameCompressor();
+
+    private static final int MIN_MATCH = 4;
+    /** 最后5个字节必须是字面量 */
+    private static final int LAST_LITERALS = 5;
+    /** 最后一个匹配必须在结束前12个字节之前开始 */
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int RUN_MASK = 15;
+
+    private static final int HASH_LOG = 12;
+    /** 连续未匹配时逐渐加大步长，避免在不可压缩的数据上浪费时间 */
+    private static final int SKIP_TRIGGER = 6;
+
+    private static final FastThreadLocal<int[]> HASH_TABLE = new FastThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1 << HASH_LOG];
+        }
+    };
+
+    private Lz4FrameCompressor() {
+
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    @Override
+    public ByteBuf allocate(ByteBufAllocator allocator, int initialCapacity) {
+        return allocator.buffer(initialCapacity);
+    }
+
+    @Override
+    public void compress(ByteBuf in, ByteBuf out) {
+        final int srcStart = in.readerIndex();
+        final int srcEnd = in.writerIndex();
+        out.ensureWritable(maxCompressedLength(srcEnd - srcStart));
+
+        int anchor = srcStart;
+        if (srcEnd - srcStart > MF_LIMIT) {
+            final int[] hashTable = HASH_TABLE.get();
+            Arrays.fill(hashTable, -1);
+            final int mfLimit = srcEnd - MF_LIMIT;
+            final int matchLimit = srcEnd - LAST_LITERALS;
+
+            int ip = srcStart;
+            hashTable[hash(in.getIntLE(ip))] = ip;
+            ip++;
+            outer:
+            while (true) {
+                // 查找下一个匹配
+                int ref;
+                int searchCount = 1 << SKIP_TRIGGER;
+                while (true) {
+                    if (ip >= mfLimit) {
+                        break outer;
+                    }
+                    int sequence = in.getIntLE(ip);
+                    int h = hash(sequence);
+                    ref = hashTable[h];
+                    hashTable[h] = ip;
+                    if (ref >= 0 && ip - ref <= MAX_DISTANCE && in.getIntLE(ref) == sequence) {
+                        break;
+                    }
+                    ip += searchCount++ >>> SKIP_TRIGGER;
+                }
+                // 向前扩展匹配
+                while (ip > anchor && ref > srcStart && in.getByte(ip - 1) == in.getByte(ref - 1)) {
+                    ip--;
+                    ref--;
+                }
+                // 向后扩展匹配
+                int matchLength = MIN_MATCH + countMatch(in, ip + MIN_MATCH, ref + MIN_MATCH, matchLimit);
+                writeSequence(in, anchor, ip - anchor, ip - ref, matchLength, out);
+
+                ip += matchLength;
+                anchor = ip;
+                if (ip < mfLimit) {
+                    hashTable[hash(in.getIntLE(ip - 2))] = ip - 2;
+                }
+            }
+        }
+        // 剩余部分全部作为字面量
+        int literalLength = srcEnd - anchor;
+        int tokenIndex = out.writerIndex();
+        out.writeByte(0);
+        out.setByte(tokenIndex, literalToken(literalLength, out));
+        out.writeBytes(in, anchor, literalLength);
+
+        in.readerIndex(srcEnd);
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    /**
+     * 计算两个位置开始的相同字节数
+     */
+    private static int countMatch(ByteBuf buf, int ip, int ref, int limit) {
+        final int start = ip;
+        while (ip <= limit - 8) {
+            long diff = buf.getLongLE(ip) ^ buf.getLongLE(ref);
+            if (diff != 0) {
+                return ip - start + (Long.numberOfTrailingZeros(diff) >>> 3);
+            }
+            ip += 8;
+            ref += 8;
+        }
+        while (ip < limit && buf.getByte(ip) == buf.getByte(ref)) {
+            ip++;
+            ref++;
+        }
+        return ip - start;
+    }
+
+    private static void writeSequence(ByteBuf in, int literalStart, int literalLength, int offset, int matchLength, ByteBuf out) {
+        int tokenIndex = out.writerIndex();
+        out.writeByte(0);
+        int token = literalToken(literalLength, out);
+        out.writeBytes(in, literalStart, literalLength);
+
+        out.writeShortLE(offset);
+        int matchCode = matchLength - MIN_MATCH;
+        if (matchCode >= RUN_MASK) {
+            token |= RUN_MASK;
+            writeLength(matchCode - RUN_MASK, out);
+        } else {
+            token |= matchCode;
+        }
+        out.setByte(tokenIndex, token);
+    }
+
+    /**
+     * 写入字面量长度的扩展部分，返回token的高4位
+     */
+    private static int literalToken(int literalLength, ByteBuf out) {
+        if (literalLength >= RUN_MASK) {
+            writeLength(literalLength - RUN_MASK, out);
+            return RUN_MASK << 4;
+        }
+        return literalLength << 4;
+    }
+
+    private static void writeLength(int length, ByteBuf out) {
+        while (length >= 255) {
+            out.writeByte(255);
+            length -= 255;
+        }
+        out.writeByte(length);
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out, int uncompressedLength) throws DecompressionException {
+        final int dstStart = out.writerIndex();
+        final int dstEnd = dstStart + uncompressedLength;
+        out.ensureWritable(uncompressedLength);
+        while (true) {
+            if (!in.isReadable()) {
+                throw new DecompressionException("lz4 block truncated");
+            }
+            int token = in.readUnsignedByte();
+            // 字面量
+            int literalLength = readLength(token >>> 4, in);
+            if (literalLength > dstEnd - out.writerIndex() || literalLength > in.readableBytes()) {
+                throw new DecompressionException("lz4 literal out of bounds");
+            }
+            out.writeBytes(in, literalLength);
+            if (!in.isReadable()) {
+                // 最后一个序列只有字面量
+                break;
+            }
+            // 匹配
+            if (in.readableBytes() < 2) {
+                throw new DecompressionException("lz4 offset truncated");
+            }
+            int offset = in.readUnsignedShortLE();
+            int matchLength = readLength(token & RUN_MASK, in) + MIN_MATCH;
+            if (offset == 0 || offset > out.writerIndex() - dstStart || matchLength > dstEnd - out.writerIndex()) {
+                throw new DecompressionException("lz4 match out of bounds");
+            }
+            // 匹配可能与输出重叠(offset < matchLength)，分段拷贝
+            while (matchLength > 0) {
+                int length = Math.min(offset, matchLength);
+                out.writeBytes(out, out.writerIndex() - offset, length);
+                matchLength -= length;
+            }
+        }
+        if (out.writerIndex() != dstEnd) {
+            throw new DecompressionException("lz4 uncompressed length mismatch, expected " + uncompressedLength
+                    + ", actual " + (out.writerIndex() - dstStart));
+        }
+    }
+
+    private static int readLength(int length, ByteBuf in) {
+        if (length == RUN_MASK) {
+            int b;
+            do {
+                if (length < 0 || !in.isReadable()) {
+                    throw new DecompressionException("lz4 length truncated");
+                }
+                b = in.readUnsignedByte();
+                length += b;
+            } while (b == 255);
+        }
+        return length;
+    }
+
+    @Override
+    public boolean isStateful() {
+        return false;
+    }
+
+    @Override
+    public void release() {
+        // 无状态，什么也不做
+    }
+}
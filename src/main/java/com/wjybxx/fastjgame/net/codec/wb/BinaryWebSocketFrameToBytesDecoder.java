@@ -21,7 +21,7 @@ import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 
 /**
- * websocket二进制帧 -> ByteBuf 解码器，取出内容传递给下一个handler {@link io.netty.handler.codec.LengthFieldBasedFrameDecoder}
+ * websocket二进制帧 -> ByteBuf 解码器，取出内容传递给下一个handler {@link com.wjybxx.fastjgame.net.codec.NetFrameDecoder}
  * @author wjybxx
  * @version 1.0
  * date - 2019/4/27 22:31
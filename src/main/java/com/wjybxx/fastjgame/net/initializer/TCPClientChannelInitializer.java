@@ -16,13 +16,14 @@
 
 package com.wjybxx.fastjgame.net.initializer;
 
+import com.wjybxx.fastjgame.manager.NetConfigManager;
 import com.wjybxx.fastjgame.manager.NetEventManager;
 import com.wjybxx.fastjgame.net.CodecHelper;
 import com.wjybxx.fastjgame.net.codec.ClientCodec;
+import com.wjybxx.fastjgame.net.codec.NetFrameDecoder;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -40,14 +41,16 @@ public class TCPClientChannelInitializer extends ChannelInitializer<SocketChanne
     private final long localGuid;
     private final long serverGuid;
 
+    private final NetConfigManager netConfigManager;
     private final int maxFrameLength;
     private final NetEventManager netEventManager;
     private final CodecHelper codecHelper;
 
-    public TCPClientChannelInitializer(long localGuid, long serverGuid, int maxFrameLength, CodecHelper codecHelper, NetEventManager netEventManager) {
+    public TCPClientChannelInitializer(long localGuid, long serverGuid, NetConfigManager netConfigManager, CodecHelper codecHelper, NetEventManager netEventManager) {
         this.localGuid = localGuid;
         this.serverGuid = serverGuid;
-        this.maxFrameLength = maxFrameLength;
+        this.netConfigManager = netConfigManager;
+        this.maxFrameLength = netConfigManager.maxFrameLength();
         this.netEventManager = netEventManager;
         this.codecHelper = codecHelper;
     }
@@ -55,7 +58,7 @@ public class TCPClientChannelInitializer extends ChannelInitializer<SocketChanne
     @Override
     protected void initChannel(SocketChannel ch) throws Exception {
         ChannelPipeline pipeline = ch.pipeline();
-        pipeline.addLast(new LengthFieldBasedFrameDecoder(maxFrameLength, 0, 4, 0, 4));
-        pipeline.addLast(new ClientCodec(codecHelper, localGuid, serverGuid, netEventManager));
+        pipeline.addLast(new NetFrameDecoder(maxFrameLength));
+        pipeline.addLast(new ClientCodec(codecHelper, localGuid, serverGuid, netConfigManager, netEventManager));
     }
 }
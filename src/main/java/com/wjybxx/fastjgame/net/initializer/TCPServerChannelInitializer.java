@@ -16,13 +16,14 @@
 
 package com.wjybxx.fastjgame.net.initializer;
 
+import com.wjybxx.fastjgame.manager.NetConfigManager;
 import com.wjybxx.fastjgame.manager.NetEventManager;
+import com.wjybxx.fastjgame.net.codec.NetFrameDecoder;
 import com.wjybxx.fastjgame.net.codec.ServerCodec;
 import com.wjybxx.fastjgame.net.CodecHelper;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -38,14 +39,16 @@ public class TCPServerChannelInitializer extends ChannelInitializer<SocketChanne
 
     /** 本地发起监听的角色guid */
     private final long localGuid;
+    private final NetConfigManager netConfigManager;
     private final int maxFrameLength;
     private final CodecHelper codecHelper;
     private final NetEventManager netEventManager;
 
-    public TCPServerChannelInitializer(long localGuid, int maxFrameLength, CodecHelper codecHelper,
+    public TCPServerChannelInitializer(long localGuid, NetConfigManager netConfigManager, CodecHelper codecHelper,
                                        NetEventManager netEventManager) {
         this.localGuid = localGuid;
-        this.maxFrameLength = maxFrameLength;
+        this.netConfigManager = netConfigManager;
+        this.maxFrameLength = netConfigManager.maxFrameLength();
         this.netEventManager = netEventManager;
         this.codecHelper = codecHelper;
     }
@@ -53,7 +56,7 @@ public class TCPServerChannelInitializer extends ChannelInitializer<SocketChanne
     @Override
     protected void initChannel(SocketChannel ch) throws Exception {
         ChannelPipeline pipeline=ch.pipeline();
-        pipeline.addLast(new LengthFieldBasedFrameDecoder(maxFrameLength, 0, 4, 0, 4));
-        pipeline.addLast(new ServerCodec(codecHelper, localGuid, netEventManager));
+        pipeline.addLast(new NetFrameDecoder(maxFrameLength));
+        pipeline.addLast(new ServerCodec(codecHelper, localGuid, netConfigManager, netEventManager));
     }
 }
@@ -16,15 +16,16 @@
 
 package com.wjybxx.fastjgame.net.initializer;
 
+import com.wjybxx.fastjgame.manager.NetConfigManager;
 import com.wjybxx.fastjgame.manager.NetEventManager;
 import com.wjybxx.fastjgame.net.CodecHelper;
 import com.wjybxx.fastjgame.net.codec.ClientCodec;
+import com.wjybxx.fastjgame.net.codec.NetFrameDecoder;
 import com.wjybxx.fastjgame.net.codec.wb.BinaryWebSocketFrameToBytesDecoder;
 import com.wjybxx.fastjgame.net.codec.wb.BytesToBinaryWebSocketFrameEncoder;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.HttpClientCodec;
 import io.netty.handler.codec.http.HttpObjectAggregator;
@@ -54,17 +55,19 @@ public class WsClientChannelInitializer extends ChannelInitializer<SocketChannel
      * 触发升级为websocket的url (eg: http://localhost:8088/ws)
      */
     private final String websocketUrl;
+    private final NetConfigManager netConfigManager;
     private final int maxFrameLength;
     private final NetEventManager netEventManager;
     private final CodecHelper codecHelper;
 
     public WsClientChannelInitializer(long localGuid, long serverGuid,
-                                      String websocketUrl, int maxFrameLength,
+                                      String websocketUrl, NetConfigManager netConfigManager,
                                       CodecHelper codecHelper, NetEventManager netEventManager) {
         this.localGuid = localGuid;
         this.serverGuid = serverGuid;
         this.websocketUrl = websocketUrl;
-        this.maxFrameLength = maxFrameLength;
+        this.netConfigManager = netConfigManager;
+        this.maxFrameLength = netConfigManager.maxFrameLength();
         this.netEventManager = netEventManager;
         this.codecHelper = codecHelper;
     }
@@ -112,7 +115,7 @@ public class WsClientChannelInitializer extends ChannelInitializer<SocketChannel
      * 自定义二进制协议支持
      */
     private void appendCustomProtocolCodec(ChannelPipeline pipeline) {
-        pipeline.addLast(new LengthFieldBasedFrameDecoder(maxFrameLength,0,4,0,4));
-        pipeline.addLast(new ClientCodec(codecHelper, localGuid, serverGuid, netEventManager));
+        pipeline.addLast(new NetFrameDecoder(maxFrameLength));
+        pipeline.addLast(new ClientCodec(codecHelper, localGuid, serverGuid, netConfigManager, netEventManager));
     }
 }
@@ -16,7 +16,9 @@
 
 package com.wjybxx.fastjgame.net.initializer;
 
+import com.wjybxx.fastjgame.manager.NetConfigManager;
 import com.wjybxx.fastjgame.manager.NetEventManager;
+import com.wjybxx.fastjgame.net.codec.NetFrameDecoder;
 import com.wjybxx.fastjgame.net.codec.ServerCodec;
 import com.wjybxx.fastjgame.net.codec.wb.BinaryWebSocketFrameToBytesDecoder;
 import com.wjybxx.fastjgame.net.codec.wb.BytesToBinaryWebSocketFrameEncoder;
@@ -24,7 +26,6 @@ import com.wjybxx.fastjgame.net.CodecHelper;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.websocketx.WebSocket13FrameEncoder;
@@ -48,14 +49,16 @@ public class WsServerChannelInitializer extends ChannelInitializer<SocketChannel
      * url路径(eg: "http://127.0.0.1:8888/ws" 中的 /ws )
      */
     private final String websocketPath;
+    private final NetConfigManager netConfigManager;
     private final int maxFrameLength;
     private final CodecHelper codecHelper;
     private final NetEventManager netEventManager;
 
-    public WsServerChannelInitializer(long localGuid, String websocketPath, int maxFrameLength, CodecHelper codecHelper, NetEventManager netEventManager) {
+    public WsServerChannelInitializer(long localGuid, String websocketPath, NetConfigManager netConfigManager, CodecHelper codecHelper, NetEventManager netEventManager) {
         this.localGuid = localGuid;
         this.websocketPath = websocketPath;
-        this.maxFrameLength = maxFrameLength;
+        this.netConfigManager = netConfigManager;
+        this.maxFrameLength = netConfigManager.maxFrameLength();
         this.netEventManager = netEventManager;
         this.codecHelper = codecHelper;
     }
@@ -97,7 +100,7 @@ public class WsServerChannelInitializer extends ChannelInitializer<SocketChannel
     }
 
     private void appendCustomProtocolCodec(ChannelPipeline pipeline) {
-        pipeline.addLast(new LengthFieldBasedFrameDecoder(maxFrameLength,0,4,0,4));
-        pipeline.addLast(new ServerCodec(codecHelper, localGuid, netEventManager));
+        pipeline.addLast(new NetFrameDecoder(maxFrameLength));
+        pipeline.addLast(new ServerCodec(codecHelper, localGuid, netConfigManager, netEventManager));
     }
 }
@@ -18,6 +18,7 @@ package com.wjybxx.fastjgame.utils;
 
 import com.wjybxx.fastjgame.configwrapper.ConfigWrapper;
 import com.wjybxx.fastjgame.manager.NetConfigManager;
+import com.wjybxx.fastjgame.net.ChecksumStrategy;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
@@ -139,7 +140,15 @@ public class NetUtils {
      */
     public static long calChecksum(ByteBuf byteBuf, int offset, int length){
         long checkSum=0;
-        for (int index=offset,end=offset+length;index<end;index++){
+        int index=offset;
+        final int end=offset+length;
+        // 每次读取8个字节，并行累加：先两两相加为4个16位的和，再通过乘法将4个16位的和累加到最高的16位
+        for (;index+8<=end;index+=8){
+            long word = byteBuf.getLong(index);
+            long pairSum = (word & 0x00FF00FF00FF00FFL) + ((word >>> 8) & 0x00FF00FF00FF00FFL);
+            checkSum += (pairSum * 0x0001000100010001L) >>> 48;
+        }
+        for (;index<end;index++){
             checkSum += (byteBuf.getByte(index) & 255);
         }
         return checkSum;
@@ -226,28 +235,150 @@ public class NetUtils {
     /**
      * 创建一个初始化好的byteBuf
      * 预分配消息长度 校验和 和包类型字段
+     * 消息长度在内容写完之后由{@link #appendFrameLength(ByteBuf)}填充，因此内容长度可以不精确。
      * @param ctx 获取allocator
-     * @param contentLength 有效内容长度
+     * @param contentLength 有效内容长度(预分配的大小)
      * @param pkgType 包类型
      * @return 以初始化前三个字段
      */
     public static ByteBuf newInitializedByteBuf(ChannelHandlerContext ctx, int contentLength, byte pkgType){
         // 消息长度字段 + 校验和 + 包类型
         ByteBuf byteBuf = ctx.alloc().buffer(4 + 8 + 1 + contentLength);
-        byteBuf.writeInt(8 + 1 + contentLength);
+        byteBuf.writeInt(0);
         byteBuf.writeLong(0);
         byteBuf.writeByte(pkgType);
         return byteBuf;
     }
 
+    /**
+     * 添加消息长度(不包含长度字段自身)
+     */
+    public static void appendFrameLength(ByteBuf byteBuf) {
+        byteBuf.setInt(0, byteBuf.readableBytes() - 4);
+    }
+
     /**
      * 添加校验和
+     * @param checksumStrategy 校验策略
      */
-    public static void appendCheckSum(ByteBuf byteBuf) {
-        long sum= NetUtils.calChecksum(byteBuf,12,byteBuf.readableBytes()-12);
+    public static void appendCheckSum(ByteBuf byteBuf, ChecksumStrategy checksumStrategy) {
+        long sum= checksumStrategy.calChecksum(byteBuf,12,byteBuf.readableBytes()-12);
         byteBuf.setLong(4,sum);
     }
 
+    /**
+     * 计算varint32编码需要的字节数(负数视为无符号数，需要5个字节)
+     */
+    public static int computeVarInt32Size(int value) {
+        if ((value & (0xFFFFFFFF << 7)) == 0) {
+            return 1;
+        }
+        if ((value & (0xFFFFFFFF << 14)) == 0) {
+            return 2;
+        }
+        if ((value & (0xFFFFFFFF << 21)) == 0) {
+            return 3;
+        }
+        if ((value & (0xFFFFFFFF << 28)) == 0) {
+            return 4;
+        }
+        return 5;
+    }
+
+    /**
+     * 计算varint64编码需要的字节数(负数视为无符号数，需要10个字节)
+     */
+    public static int computeVarInt64Size(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    /**
+     * 写入一个varint32(负数视为无符号数，需要5个字节)
+     */
+    public static void writeVarInt32(ByteBuf byteBuf, int value) {
+        while ((value & ~0x7F) != 0) {
+            byteBuf.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        byteBuf.writeByte(value);
+    }
+
+    /**
+     * 在指定位置写入一个varint32，不修改writerIndex
+     * @return 写入的字节数
+     */
+    public static int setVarInt32(ByteBuf byteBuf, int index, int value) {
+        int start = index;
+        while ((value & ~0x7F) != 0) {
+            byteBuf.setByte(index++, (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        byteBuf.setByte(index++, value);
+        return index - start;
+    }
+
+    /**
+     * 读取一个varint32
+     * @throws IllegalArgumentException 编码错误
+     */
+    public static int readVarInt32(ByteBuf byteBuf) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = byteBuf.readByte();
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint32");
+    }
+
+    /**
+     * 写入一个varint64(负数视为无符号数，需要10个字节)
+     */
+    public static void writeVarInt64(ByteBuf byteBuf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            byteBuf.writeByte(((int) value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        byteBuf.writeByte((int) value);
+    }
+
+    /**
+     * 读取一个varint64
+     * @throws IllegalArgumentException 编码错误
+     */
+    public static long readVarInt64(ByteBuf byteBuf) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = byteBuf.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint64");
+    }
+
+    /**
+     * zigzag编码，使绝对值小的负数也可以用较少的字节表示
+     */
+    public static long encodeZigZag64(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * zigzag解码
+     */
+    public static long decodeZigZag64(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
     /**
      * 将byteBuf中剩余的字节读取到一个字节数组中。
      * @param byteBuf 方法返回之后 readableBytes == 0
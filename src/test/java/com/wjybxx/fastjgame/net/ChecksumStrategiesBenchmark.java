@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 帧校验策略基准测试，帧大小覆盖64B~8KB。
+ * {@code tableCrc32c}为JDK8下的查表实现，{@code crc32c}在JDK9+下使用硬件指令，
+ * 在JDK8与JDK9+上分别运行即可比较两者。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChecksumStrategiesBenchmark {
+
+    @Param({"64", "256", "1024", "4096", "8192"})
+    public int frameSize;
+
+    private ByteBuf heapBuf;
+    private ByteBuf directBuf;
+
+    private final ChecksumStrategy sum = ChecksumStrategies.sum();
+    private final ChecksumStrategy crc32c = ChecksumStrategies.crc32c();
+
+    @Setup
+    public void setup() {
+        byte[] data = new byte[frameSize];
+        new Random(frameSize).nextBytes(data);
+        heapBuf = Unpooled.wrappedBuffer(data);
+        directBuf = Unpooled.directBuffer(frameSize).writeBytes(data);
+    }
+
+    @TearDown
+    public void tearDown() {
+        heapBuf.release();
+        directBuf.release();
+    }
+
+    @Benchmark
+    public long sum() {
+        return sum.calChecksum(heapBuf, 0, frameSize);
+    }
+
+    @Benchmark
+    public long crc32cHeap() {
+        return crc32c.calChecksum(heapBuf, 0, frameSize);
+    }
+
+    @Benchmark
+    public long crc32cDirect() {
+        return crc32c.calChecksum(directBuf, 0, frameSize);
+    }
+
+    @Benchmark
+    public long tableCrc32cHeap() {
+        return ChecksumStrategies.Crc32cChecksumStrategy.tableCrc32c(heapBuf, 0, frameSize);
+    }
+
+    @Benchmark
+    public long tableCrc32cDirect() {
+        return ChecksumStrategies.Crc32cChecksumStrategy.tableCrc32c(directBuf, 0, frameSize);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ChecksumStrategiesBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
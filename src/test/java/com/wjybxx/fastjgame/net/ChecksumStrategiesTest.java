@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * CRC32C校验测试：
+ * 1. 查表实现与已知结果(RFC 3720 B.4)比对；
+ * 2. 查表实现与{@code java.util.zip.CRC32C}(JDK9+)在随机长度、随机偏移下比对。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+public class ChecksumStrategiesTest {
+
+    @Test
+    public void tableKnownAnswer() {
+        assertTable(0xE3069283L, "123456789".getBytes(StandardCharsets.US_ASCII));
+        assertTable(0x8A9136AAL, new byte[32]);
+
+        byte[] ones = new byte[32];
+        byte[] ascending = new byte[32];
+        byte[] descending = new byte[32];
+        for (int index = 0; index < 32; index++) {
+            ones[index] = (byte) 0xFF;
+            ascending[index] = (byte) index;
+            descending[index] = (byte) (31 - index);
+        }
+        assertTable(0x62A8AB43L, ones);
+        assertTable(0x46DD794EL, ascending);
+        assertTable(0x113FDB5CL, descending);
+        // 空数据
+        assertTable(0L, new byte[0]);
+    }
+
+    @Test
+    public void tableEqualsJdk() {
+        Assume.assumeTrue("java.util.zip.CRC32C is unavailable", ChecksumStrategies.Crc32cChecksumStrategy.isJdkCrc32cAvailable());
+
+        Random random = new Random(20190811L);
+        byte[] data = new byte[16 * 1024];
+        random.nextBytes(data);
+        ByteBuf byteBuf = Unpooled.wrappedBuffer(data);
+        // 覆盖不足8字节、8字节对齐与不对齐的各种情况
+        for (int length = 0; length <= 64; length++) {
+            for (int offset = 0; offset < 8; offset++) {
+                assertSame(byteBuf, offset, length);
+            }
+        }
+        for (int round = 0; round < 2000; round++) {
+            int length = random.nextInt(8 * 1024 + 1);
+            int offset = random.nextInt(data.length - length + 1);
+            assertSame(byteBuf, offset, length);
+        }
+    }
+
+    @Test
+    public void tableEqualsJdkOnCompositeBuffer() {
+        Assume.assumeTrue("java.util.zip.CRC32C is unavailable", ChecksumStrategies.Crc32cChecksumStrategy.isJdkCrc32cAvailable());
+
+        Random random = new Random(8L);
+        CompositeByteBuf composite = Unpooled.compositeBuffer();
+        for (int index = 0; index < 5; index++) {
+            byte[] data = new byte[13 + random.nextInt(300)];
+            random.nextBytes(data);
+            composite.addComponent(true, Unpooled.wrappedBuffer(data));
+        }
+        for (int offset = 0; offset < 32; offset++) {
+            assertSame(composite, offset, composite.readableBytes() - offset);
+        }
+        composite.release();
+    }
+
+    private static void assertTable(long expected, byte[] data) {
+        ByteBuf byteBuf = Unpooled.wrappedBuffer(data);
+        assertEquals(expected, ChecksumStrategies.Crc32cChecksumStrategy.tableCrc32c(byteBuf, 0, data.length));
+    }
+
+    private static void assertSame(ByteBuf byteBuf, int offset, int length) {
+        assertEquals("offset=" + offset + ", length=" + length,
+                ChecksumStrategies.Crc32cChecksumStrategy.jdkCrc32c(byteBuf, offset, length),
+                ChecksumStrategies.Crc32cChecksumStrategy.tableCrc32c(byteBuf, offset, length));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import io.netty.buffer.ByteBuf;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link EncodedMessageCache}上限与淘汰测试。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+public class EncodedMessageCacheTest {
+
+    private final JsonMessageSerializer serializer = new JsonMessageSerializer();
+
+    @Test
+    public void maxCountEvictsLeastRecentlyUsed() throws IOException {
+        EncodedMessageCache cache = EncodedMessageCache.newInstance(EncodedMessageCache.DEFAULT_MAX_BYTES, 3);
+        List<Sample> samples = new ArrayList<>();
+        for (int index = 0; index < 3; index++) {
+            samples.add(new Sample(index));
+            acquireAndRelease(cache, samples.get(index));
+        }
+        // 访问第一个，使第二个成为最近最少使用的
+        acquireAndRelease(cache, samples.get(0));
+        assertEquals(1, cache.getHitCount());
+
+        acquireAndRelease(cache, new Sample(3));
+        assertEquals(3, cache.getCachedCount());
+        assertEquals(1, cache.getEvictionCount());
+
+        acquireAndRelease(cache, samples.get(0));
+        acquireAndRelease(cache, samples.get(2));
+        assertEquals(3, cache.getHitCount());
+        acquireAndRelease(cache, samples.get(1));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(2, cache.getEvictionCount());
+        cache.clear();
+    }
+
+    @Test
+    public void evictedEncodingStaysValidForHolder() throws IOException {
+        EncodedMessageCache cache = EncodedMessageCache.newInstance(EncodedMessageCache.DEFAULT_MAX_BYTES, 1);
+        Sample first = new Sample(1);
+        ByteBuf holding = cache.acquire(first, serializer);
+        try {
+            acquireAndRelease(cache, new Sample(2));
+            assertEquals(1, cache.getEvictionCount());
+            assertEquals(first, serializer.deserialize(Sample.class, holding.duplicate()));
+        } finally {
+            holding.release();
+        }
+        assertEquals(0, holding.refCnt());
+        cache.clear();
+        assertEquals(0, cache.getCachedBytes());
+    }
+
+    @Test
+    public void zeroMaxCountDisablesCache() throws IOException {
+        EncodedMessageCache cache = EncodedMessageCache.newInstance(EncodedMessageCache.DEFAULT_MAX_BYTES, 0);
+        Sample sample = new Sample(1);
+        acquireAndRelease(cache, sample);
+        acquireAndRelease(cache, sample);
+        assertEquals(0, cache.getCachedCount());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeMaxCountIsRejected() {
+        EncodedMessageCache.newInstance(EncodedMessageCache.DEFAULT_MAX_BYTES, -1);
+    }
+
+    private void acquireAndRelease(EncodedMessageCache cache, Sample sample) throws IOException {
+        ByteBuf encoded = cache.acquire(sample, serializer);
+        assertTrue(encoded.isReadable());
+        encoded.release();
+    }
+
+    private static class Sample implements CacheableMessage {
+
+        int id;
+
+        Sample(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Sample && ((Sample) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+    }
+}
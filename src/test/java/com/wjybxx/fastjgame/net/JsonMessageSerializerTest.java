@@ -0,0 +1,228 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * json序列化与utf-8流式读写测试，以{@link String#getBytes(java.nio.charset.Charset)}为准。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+public class JsonMessageSerializerTest {
+
+    private static final String[] SAMPLES = {
+            "",
+            "ascii only",
+            "中文消息",
+            "\u00e9\u07ff\u0800\uffff",
+            "emoji \ud83d\ude00 and \ud800\udc00 \udbff\udfff",
+            // 未配对的代理项，jdk编码为'?'
+            "lone \ud83d high",
+            "lone \ude00 low",
+            "\ud83d",
+            "\ud83d\ud83d\ude00",
+    };
+
+    @Test
+    public void writerMatchesJdk() {
+        for (String sample : SAMPLES) {
+            assertArrayEquals(sample, sample.getBytes(StandardCharsets.UTF_8), writeByChars(sample));
+            assertArrayEquals(sample, sample.getBytes(StandardCharsets.UTF_8), writeByString(sample));
+        }
+        Random random = new Random(2019L);
+        for (int round = 0; round < 500; round++) {
+            String sample = randomString(random);
+            assertArrayEquals(sample.getBytes(StandardCharsets.UTF_8), writeByChars(sample));
+        }
+    }
+
+    @Test
+    public void readerMatchesJdk() {
+        for (String sample : SAMPLES) {
+            byte[] bytes = sample.getBytes(StandardCharsets.UTF_8);
+            String expected = new String(bytes, StandardCharsets.UTF_8);
+            for (int bufferSize = 1; bufferSize <= 4; bufferSize++) {
+                assertEquals(expected, read(bytes, bufferSize));
+            }
+        }
+        Random random = new Random(811L);
+        for (int round = 0; round < 500; round++) {
+            String sample = randomString(random);
+            // 缓冲区大小为1时，代理对一定会被拆分到两次read()中
+            assertEquals(sample, read(sample.getBytes(StandardCharsets.UTF_8), 1 + random.nextInt(7)));
+        }
+    }
+
+    @Test
+    public void readerReplacesMalformedInput() {
+        final String r = "\uFFFD";
+        // 截断的多字节序列
+        assertEquals("ab" + r, read(bytes(0x61, 0x62, 0xC3), 8));
+        assertEquals(r, read(bytes(0xE4, 0xB8), 8));
+        assertEquals(r, read(bytes(0xF0, 0x9F, 0x98), 8));
+        // 缺少后续字节时，不吞掉之后的字符
+        assertEquals(r + "(", read(bytes(0xC3, 0x28), 8));
+        assertEquals(r + "a", read(bytes(0xF0, 0x9F, 0x61), 8));
+        // 孤立的后续字节、非法的首字节
+        assertEquals(r + "a" + r, read(bytes(0x80, 0x61, 0xFF), 8));
+        // 超长编码
+        assertEquals(r + r, read(bytes(0xC0, 0xAF), 8));
+        assertEquals(r, read(bytes(0xE0, 0x80, 0xAF), 8));
+        // 编码后的代理项、超出unicode范围
+        assertEquals(r, read(bytes(0xED, 0xA0, 0x80), 8));
+        assertEquals(r, read(bytes(0xF4, 0x90, 0x80, 0x80), 8));
+        // 非法输入之后能继续正确解码
+        assertEquals(r + "😀", read(bytes(0xFE, 0xF0, 0x9F, 0x98, 0x80), 1));
+    }
+
+    @Test
+    public void readerRespectsReadableRange() {
+        ByteBuf byteBuf = Unpooled.buffer();
+        byteBuf.writeBytes("xx中文yy".getBytes(StandardCharsets.UTF_8));
+        byteBuf.readerIndex(2);
+        byteBuf.writerIndex(byteBuf.writerIndex() - 2);
+        assertEquals("中文", read(byteBuf, 3));
+        assertEquals(2, byteBuf.readerIndex());
+    }
+
+    @Test
+    public void serializeRoundTrip() throws IOException {
+        JsonMessageSerializer serializer = new JsonMessageSerializer();
+        Sample sample = new Sample();
+        sample.id = 10086;
+        sample.name = "名字😀<tag>";
+        sample.values = new int[]{1, 2, 3};
+
+        byte[] bytes = serializer.serialize(sample);
+        ByteBuf byteBuf = Unpooled.buffer();
+        serializer.serialize(sample, byteBuf);
+        assertArrayEquals(ByteBufUtil.getBytes(byteBuf), bytes);
+
+        Sample copy = serializer.deserialize(Sample.class, bytes);
+        assertEquals(sample.id, copy.id);
+        assertEquals(sample.name, copy.name);
+        assertArrayEquals(sample.values, copy.values);
+        byteBuf.release();
+    }
+
+    @Test
+    public void sizeCounterNeverUnderestimates() throws IOException {
+        for (String sample : SAMPLES) {
+            JsonMessageSerializer.Utf8CountingWriter writer = new JsonMessageSerializer.Utf8CountingWriter();
+            writer.write(sample);
+            // 只有未配对的代理项会多算
+            assertTrue(sample, writer.getCount() >= writeByChars(sample).length);
+        }
+        Random random = new Random(2020L);
+        for (int round = 0; round < 500; round++) {
+            String sample = randomString(random);
+            JsonMessageSerializer.Utf8CountingWriter writer = new JsonMessageSerializer.Utf8CountingWriter();
+            writer.write(sample);
+            assertEquals(sample.getBytes(StandardCharsets.UTF_8).length, writer.getCount());
+        }
+
+        JsonMessageSerializer serializer = new JsonMessageSerializer();
+        Sample sample = new Sample();
+        sample.id = 1;
+        sample.name = "名字😀";
+        int length = serializer.serialize(sample).length;
+        assertFalse(serializer.isSerializedSizeExceeded(sample, length));
+        assertTrue(serializer.isSerializedSizeExceeded(sample, length - 1));
+    }
+
+    private static class Sample {
+        int id;
+        String name;
+        int[] values;
+    }
+
+    private static byte[] writeByChars(String sample) {
+        ByteBuf byteBuf = Unpooled.buffer();
+        JsonMessageSerializer.ByteBufUtf8Writer writer = new JsonMessageSerializer.ByteBufUtf8Writer(byteBuf);
+        // 逐个字符写入，代理对一定会被拆分到两次write()中
+        for (int index = 0; index < sample.length(); index++) {
+            writer.write(sample.charAt(index));
+        }
+        writer.flush();
+        return ByteBufUtil.getBytes(byteBuf);
+    }
+
+    private static byte[] writeByString(String sample) {
+        ByteBuf byteBuf = Unpooled.buffer();
+        JsonMessageSerializer.ByteBufUtf8Writer writer = new JsonMessageSerializer.ByteBufUtf8Writer(byteBuf);
+        int half = sample.length() / 2;
+        writer.write(sample, 0, half);
+        writer.write(sample.toCharArray(), half, sample.length() - half);
+        writer.flush();
+        return ByteBufUtil.getBytes(byteBuf);
+    }
+
+    private static String read(byte[] bytes, int bufferSize) {
+        return read(Unpooled.wrappedBuffer(bytes), bufferSize);
+    }
+
+    private static String read(ByteBuf byteBuf, int bufferSize) {
+        JsonMessageSerializer.ByteBufUtf8Reader reader = new JsonMessageSerializer.ByteBufUtf8Reader(byteBuf);
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[bufferSize];
+        int count;
+        while ((count = reader.read(buffer, 0, bufferSize)) >= 0) {
+            sb.append(buffer, 0, count);
+        }
+        return sb.toString();
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int index = 0; index < values.length; index++) {
+            result[index] = (byte) values[index];
+        }
+        return result;
+    }
+
+    private static String randomString(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(32);
+        for (int index = 0; index < length; index++) {
+            int kind = random.nextInt(4);
+            if (kind == 0) {
+                sb.append((char) random.nextInt(0x80));
+            } else if (kind == 1) {
+                sb.append((char) (0x80 + random.nextInt(0x800 - 0x80)));
+            } else if (kind == 2) {
+                char c = (char) (0x800 + random.nextInt(0x10000 - 0x800));
+                sb.append(Character.isSurrogate(c) ? 'x' : c);
+            } else {
+                sb.appendCodePoint(0x10000 + random.nextInt(Character.MAX_CODE_POINT - 0x10000 + 1));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link MessageFragmenter}拆分与{@link FragmentBuffer}重组测试。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+public class MessageFragmenterTest {
+
+    private static final int SAMPLE_MESSAGE_ID = 1;
+    private static final int MAX_FRAGMENT_LENGTH = 64;
+
+    private MessageMapper messageMapper;
+    private JsonMessageSerializer serializer;
+    private MessageFragmenter fragmenter;
+
+    @Before
+    public void init() {
+        messageMapper = MessageMapper.newInstance(() -> {
+            Object2IntMap<Class<?>> mapping = new Object2IntOpenHashMap<>();
+            mapping.put(Sample.class, SAMPLE_MESSAGE_ID);
+            return mapping;
+        });
+        serializer = new JsonMessageSerializer();
+        CodecHelper codecHelper = CodecHelper.newInstance(messageMapper, serializer);
+        // 帧长度减去预留的包头空间即为分片长度
+        fragmenter = MessageFragmenter.newInstance(codecHelper, MAX_FRAGMENT_LENGTH + 128);
+        assertEquals(MAX_FRAGMENT_LENGTH, fragmenter.getMaxFragmentLength());
+    }
+
+    @Test
+    public void smallMessageIsNotEncoded() throws Exception {
+        Sample sample = new Sample("small");
+        assertFalse(serializer.isSerializedSizeExceeded(sample, MAX_FRAGMENT_LENGTH));
+        // 不替换消息体，留给codec序列化
+        assertNull(fragmenter.fragmentIfNecessary(new UnsentOneWayMessage(sample)));
+    }
+
+    @Test
+    public void splitAndReassemble() throws Exception {
+        Sample sample = new Sample(repeat("分片", 100));
+        byte[] expected = serializer.serialize(sample);
+        List<UnsentMessage> unsentMessages = fragmenter.fragmentIfNecessary(new UnsentOneWayMessage(sample));
+        assertNotNull(unsentMessages);
+        assertEquals((expected.length + MAX_FRAGMENT_LENGTH - 1) / MAX_FRAGMENT_LENGTH, unsentMessages.size());
+
+        FragmentBuffer fragmentBuffer = new FragmentBuffer(expected.length);
+        ByteBuf concatenated = Unpooled.buffer();
+        long sequence = 0;
+        for (UnsentMessage unsentMessage : unsentMessages.subList(0, unsentMessages.size() - 1)) {
+            ByteBuf fragment = ((UnsentFragment) unsentMessage).build(++sequence).build(0).getFragment();
+            assertEquals(MAX_FRAGMENT_LENGTH, fragment.readableBytes());
+            concatenated.writeBytes(fragment, fragment.readerIndex(), fragment.readableBytes());
+            assertTrue(fragmentBuffer.accept(receivedFragment(sequence, fragment)));
+        }
+        UnsentMessage last = unsentMessages.get(unsentMessages.size() - 1);
+        FragmentedBody fragmentedBody = (FragmentedBody) last.getBody();
+        assertEquals(SAMPLE_MESSAGE_ID, fragmentedBody.getMessageId());
+        ByteBuf lastFragment = fragmentedBody.getLastFragment();
+        concatenated.writeBytes(lastFragment, lastFragment.readerIndex(), lastFragment.readableBytes());
+        assertArrayEquals(expected, toBytes(concatenated));
+
+        DeferredMessage deferredMessage = receivedLastPart(lastFragment);
+        assertTrue(fragmentBuffer.accept(new OneWayMessageTO(0, ++sequence, deferredMessage)));
+        Sample copy = (Sample) deferredMessage.decode();
+        assertNotNull(copy);
+        assertEquals(sample.name, copy.name);
+    }
+
+    @Test
+    public void bufferCapReleasesFragments() {
+        FragmentBuffer fragmentBuffer = new FragmentBuffer(100);
+        ByteBuf first = Unpooled.buffer().writeZero(60);
+        ByteBuf second = Unpooled.buffer().writeZero(60);
+        assertTrue(fragmentBuffer.accept(new FragmentMessageTO(0, 1, first)));
+        // 超出上限的分片被释放，已缓存的分片在会话删除时释放
+        assertFalse(fragmentBuffer.accept(new FragmentMessageTO(0, 2, second)));
+        assertEquals(0, second.refCnt());
+        assertEquals(1, first.refCnt());
+        fragmentBuffer.release();
+        assertEquals(0, first.refCnt());
+    }
+
+    @Test
+    public void interruptedFragmentRunIsRejected() {
+        FragmentBuffer fragmentBuffer = new FragmentBuffer(1024);
+        ByteBuf fragment = Unpooled.buffer().writeZero(32);
+        assertTrue(fragmentBuffer.accept(new FragmentMessageTO(0, 1, fragment)));
+        // 分片消息还未结束就收到了其它消息
+        ByteBuf otherPayload = Unpooled.buffer().writeZero(8);
+        DeferredMessage other = new DeferredMessage(DecodeStage.IO_THREAD, SAMPLE_MESSAGE_ID, otherPayload, messageMapper, serializer);
+        assertFalse(fragmentBuffer.accept(new OneWayMessageTO(0, 2, other)));
+        assertEquals(0, fragment.refCnt());
+        assertEquals(0, otherPayload.refCnt());
+
+        // 没有之前的分片，却收到了分片消息的最后一部分
+        ByteBuf lastPayload = Unpooled.buffer().writeZero(8);
+        DeferredMessage lastPart = new DeferredMessage(DecodeStage.IO_THREAD, SAMPLE_MESSAGE_ID, lastPayload, messageMapper, serializer, true);
+        assertFalse(fragmentBuffer.accept(new OneWayMessageTO(0, 3, lastPart)));
+        assertEquals(0, lastPayload.refCnt());
+    }
+
+    /**
+     * 模拟接收方收到的分片(网络包的切片，由缓冲区负责释放)
+     */
+    private static FragmentMessageTO receivedFragment(long sequence, ByteBuf fragment) {
+        return new FragmentMessageTO(0, sequence, fragment.copy());
+    }
+
+    private DeferredMessage receivedLastPart(ByteBuf lastFragment) {
+        return new DeferredMessage(DecodeStage.IO_THREAD, SAMPLE_MESSAGE_ID, lastFragment.copy(), messageMapper, serializer, true);
+    }
+
+    private static byte[] toBytes(ByteBuf byteBuf) {
+        byte[] bytes = new byte[byteBuf.readableBytes()];
+        byteBuf.readBytes(bytes);
+        return bytes;
+    }
+
+    private static String repeat(String value, int times) {
+        StringBuilder sb = new StringBuilder(value.length() * times);
+        for (int index = 0; index < times; index++) {
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    private static class Sample {
+
+        String name;
+
+        Sample(String name) {
+            this.name = name;
+        }
+    }
+}
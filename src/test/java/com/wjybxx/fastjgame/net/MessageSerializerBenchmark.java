@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import com.wjybxx.fastjgame.example.p_center_scene;
+import com.wjybxx.fastjgame.example.p_common;
+import com.wjybxx.fastjgame.net.binary.PlayerDataMessage;
+import com.wjybxx.fastjgame.net.binary.SceneRegionsMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息序列化基准测试：{@link ProtoBufMessageSerializer}、{@link BinaryMessageSerializer}(编译时生成的编解码器)、
+ * {@link JsonMessageSerializer}在字段相同的消息上的编码(写入byteBuf)与解码(从byteBuf读取)。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageSerializerBenchmark {
+
+    private static final int PLAYER_DATA_ID = 1;
+    private static final int SCENE_REGIONS_ID = 2;
+
+    @Param({"protoBuf", "binary", "json"})
+    public String serializerType;
+
+    @Param({"playerData", "sceneRegions"})
+    public String messageType;
+
+    private MessageSerializer serializer;
+    private MessageMapper messageMapper;
+    private Object message;
+    private int messageId;
+
+    private ByteBuf encodeBuf;
+    private ByteBuf encodedBuf;
+
+    @Setup
+    public void setup() throws Exception {
+        final boolean protoBuf = "protoBuf".equals(serializerType);
+        final Object2IntMap<Class<?>> mapping = new Object2IntOpenHashMap<>();
+        if (protoBuf) {
+            mapping.put(p_common.p_player_data.class, PLAYER_DATA_ID);
+            mapping.put(p_center_scene.p_center_cross_scene_hello_result.class, SCENE_REGIONS_ID);
+            serializer = new ProtoBufMessageSerializer();
+        } else {
+            mapping.put(PlayerDataMessage.class, PLAYER_DATA_ID);
+            mapping.put(SceneRegionsMessage.class, SCENE_REGIONS_ID);
+            serializer = "binary".equals(serializerType) ? new BinaryMessageSerializer() : new JsonMessageSerializer();
+        }
+        messageMapper = MessageMapper.newInstance(() -> mapping);
+        serializer.init(messageMapper);
+
+        if ("playerData".equals(messageType)) {
+            messageId = PLAYER_DATA_ID;
+            message = protoBuf ? newPlayerDataProto() : newPlayerData();
+        } else {
+            messageId = SCENE_REGIONS_ID;
+            message = protoBuf ? newSceneRegionsProto() : newSceneRegions();
+        }
+
+        encodeBuf = PooledByteBufAllocator.DEFAULT.directBuffer(1024);
+        encodedBuf = PooledByteBufAllocator.DEFAULT.directBuffer(1024);
+        serializer.serialize(message, encodedBuf);
+    }
+
+    @TearDown
+    public void tearDown() {
+        encodeBuf.release();
+        encodedBuf.release();
+    }
+
+    @Benchmark
+    public ByteBuf encode() throws IOException {
+        encodeBuf.clear();
+        serializer.serialize(message, encodeBuf);
+        return encodeBuf;
+    }
+
+    @Benchmark
+    public Object decode() throws IOException {
+        return serializer.deserialize(messageMapper, messageId, encodedBuf.duplicate());
+    }
+
+    private static PlayerDataMessage newPlayerData() {
+        PlayerDataMessage playerData = new PlayerDataMessage();
+        playerData.playerGuid = 1234567890123L;
+        playerData.platformNumber = 8;
+        playerData.logicServerId = 10086;
+        return playerData;
+    }
+
+    private static p_common.p_player_data newPlayerDataProto() {
+        return p_common.p_player_data.newBuilder()
+                .setPlayerGuid(1234567890123L)
+                .setPlatformNumber(8)
+                .setLogicServerId(10086)
+                .build();
+    }
+
+    private static SceneRegionsMessage newSceneRegions() {
+        SceneRegionsMessage sceneRegions = new SceneRegionsMessage();
+        sceneRegions.configuredRegions.addAll(regions(32));
+        sceneRegions.activeRegions.addAll(regions(16));
+        return sceneRegions;
+    }
+
+    private static p_center_scene.p_center_cross_scene_hello_result newSceneRegionsProto() {
+        return p_center_scene.p_center_cross_scene_hello_result.newBuilder()
+                .addAllConfiguredRegions(regions(32))
+                .addAllActiveRegions(regions(16))
+                .build();
+    }
+
+    private static List<Integer> regions(int count) {
+        List<Integer> regions = new ArrayList<>(count);
+        for (int index = 1; index <= count; index++) {
+            regions.add(index * 100);
+        }
+        return regions;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MessageSerializerBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
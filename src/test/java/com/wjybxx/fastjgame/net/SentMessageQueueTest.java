@@ -0,0 +1,195 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link SentMessageQueue}及{@link MessageQueue#updateSentQueue(long)}测试。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+public class SentMessageQueueTest {
+
+    private static final long TRIM_INTERVAL_MS = 30 * 1000;
+
+    @Test
+    public void wraparoundKeepsOrder() {
+        SentMessageQueue queue = new SentMessageQueue();
+        addRange(queue, 1, 6);
+        assertEquals(4, queue.removeUntil(4));
+        // 队首在数组中间，继续添加会绕回数组开头
+        addRange(queue, 7, 12);
+        assertEquals(SentMessageQueue.INITIAL_CAPACITY, queue.capacity());
+        assertSequences(queue, 5, 12);
+
+        // 绕回状态下扩容，顺序不变
+        addRange(queue, 13, 13);
+        assertEquals(SentMessageQueue.INITIAL_CAPACITY << 1, queue.capacity());
+        assertSequences(queue, 5, 13);
+        assertEquals(13L, queue.getLastTimeout());
+    }
+
+    @Test
+    public void headAdvancesBySequence() {
+        SentMessageQueue queue = new SentMessageQueue();
+        addRange(queue, 101, 110);
+        // 小于队首的ack不移除任何消息
+        assertEquals(0, queue.removeUntil(100));
+        assertEquals(101, queue.getFirstSequence());
+
+        assertEquals(3, queue.removeUntil(103));
+        assertEquals(104, queue.getFirstSequence());
+        assertEquals(104L, queue.getFirstTimeout());
+        assertSequences(queue, 104, 110);
+
+        // 重复的ack
+        assertEquals(0, queue.removeUntil(103));
+        // 超出队尾的ack最多移除全部
+        assertEquals(7, queue.removeUntil(200));
+        assertTrue(queue.isEmpty());
+
+        // 清空之后，队首sequence以新加入的消息为准
+        addRange(queue, 111, 112);
+        assertEquals(111, queue.getFirstSequence());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void discontinuousSequenceIsRejected() {
+        SentMessageQueue queue = new SentMessageQueue();
+        addRange(queue, 1, 3);
+        queue.addLast(new OneWayMessage(5, "gap"), 5);
+    }
+
+    @Test
+    public void resetTimeoutsAfterWraparound() {
+        SentMessageQueue queue = new SentMessageQueue();
+        addRange(queue, 1, 6);
+        queue.removeUntil(5);
+        addRange(queue, 7, 10);
+        queue.resetTimeouts(-1);
+        assertEquals(-1L, queue.getFirstTimeout());
+        assertEquals(-1L, queue.getLastTimeout());
+    }
+
+    @Test
+    public void idleShrink() {
+        SentMessageQueue queue = new SentMessageQueue();
+        addRange(queue, 1, 40);
+        assertEquals(64, queue.capacity());
+        queue.removeUntil(40);
+
+        // 峰值仍然是40，不缩容
+        queue.trim();
+        assertEquals(64, queue.capacity());
+        // 空闲一个周期之后缩小到初始容量
+        queue.trim();
+        assertEquals(SentMessageQueue.INITIAL_CAPACITY, queue.capacity());
+
+        // 缩容时保留剩余的消息
+        addRange(queue, 41, 100);
+        assertEquals(64, queue.capacity());
+        queue.removeUntil(95);
+        queue.trim();
+        queue.trim();
+        assertEquals(SentMessageQueue.INITIAL_CAPACITY << 1, queue.capacity());
+        assertSequences(queue, 96, 100);
+    }
+
+    @Test
+    public void trimmedCapacity() {
+        assertEquals(SentMessageQueue.INITIAL_CAPACITY, SentMessageQueue.trimmedCapacity(SentMessageQueue.INITIAL_CAPACITY, 0));
+        assertEquals(1024, SentMessageQueue.trimmedCapacity(1024, 257));
+        assertEquals(512, SentMessageQueue.trimmedCapacity(1024, 256));
+        assertEquals(16, SentMessageQueue.trimmedCapacity(1024, 5));
+        assertEquals(SentMessageQueue.INITIAL_CAPACITY, SentMessageQueue.trimmedCapacity(1024, 0));
+    }
+
+    @Test
+    public void updateSentQueueAcrossGrowAndShrink() {
+        MessageQueue messageQueue = new MessageQueue(new AckStatistics());
+        SentMessageQueue sentQueue = messageQueue.getSentQueue();
+        long curMillTime = 0;
+        // 初始状态只接受INIT_ACK
+        messageQueue.updateSentQueue(MessageQueue.INIT_ACK);
+        assertFalse(messageQueue.isAckOK(MessageQueue.INIT_ACK + 1));
+
+        // 每次发送多于确认，队列在绕回的状态下多次扩容
+        long acked = MessageQueue.INIT_ACK;
+        for (int round = 0; round < 20; round++) {
+            send(messageQueue, 5);
+            acked += 2;
+            messageQueue.updateSentQueue(acked);
+            assertEquals(acked + 1, sentQueue.getFirstSequence());
+            assertEquals(messageQueue.getLastSequence(), sentQueue.getLastSequence());
+        }
+        assertEquals(60, sentQueue.size());
+        assertEquals(64, sentQueue.capacity());
+
+        // ack不能回退，也不能超过已发送的最大sequence
+        assertFalse(messageQueue.isAckOK(acked - 1));
+        assertFalse(messageQueue.isAckOK(messageQueue.getLastSequence() + 1));
+        try {
+            messageQueue.updateSentQueue(messageQueue.getLastSequence() + 1);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+
+        // 全部确认之后空闲缩容
+        messageQueue.updateSentQueue(messageQueue.getLastSequence());
+        assertTrue(sentQueue.isEmpty());
+        messageQueue.trimIfNecessary(curMillTime);
+        curMillTime += TRIM_INTERVAL_MS;
+        messageQueue.trimIfNecessary(curMillTime);
+        assertEquals(SentMessageQueue.INITIAL_CAPACITY, sentQueue.capacity());
+
+        // 缩容之后sequence和ack仍然连续
+        send(messageQueue, 10);
+        assertEquals(16, sentQueue.capacity());
+        messageQueue.updateSentQueue(messageQueue.getLastSequence() - 3);
+        assertEquals(3, sentQueue.size());
+        assertSequences(sentQueue, messageQueue.getLastSequence() - 2, messageQueue.getLastSequence());
+    }
+
+    private static void send(MessageQueue messageQueue, int num) {
+        for (int index = 0; index < num; index++) {
+            long sequence = messageQueue.nextSequence();
+            messageQueue.getSentQueue().addLast(new OneWayMessage(sequence, "message"), sequence);
+        }
+    }
+
+    private static void addRange(SentMessageQueue queue, long firstSequence, long lastSequence) {
+        for (long sequence = firstSequence; sequence <= lastSequence; sequence++) {
+            queue.addLast(new OneWayMessage(sequence, "message"), sequence);
+        }
+    }
+
+    private static void assertSequences(SentMessageQueue queue, long firstSequence, long lastSequence) {
+        assertEquals(lastSequence - firstSequence + 1, queue.size());
+        assertEquals(firstSequence, queue.getFirstSequence());
+        assertEquals(lastSequence, queue.getLastSequence());
+        for (int index = 0; index < queue.size(); index++) {
+            assertEquals(firstSequence + index, queue.get(index).getSequence());
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link UnsentMessageQueue}测试(不启用溢出)。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+public class UnsentMessageQueueTest {
+
+    @Test
+    public void higherPriorityFirstAndFifoWithinPriority() {
+        UnsentMessageQueue queue = new UnsentMessageQueue();
+        queue.add(message(1, MessagePriority.BULK));
+        queue.add(message(2, MessagePriority.NORMAL));
+        queue.add(message(3, MessagePriority.CONTROL));
+        queue.add(message(4, MessagePriority.NORMAL));
+        queue.add(message(5, MessagePriority.RPC));
+        assertEquals(5, queue.size());
+        assertEquals(2, queue.size(MessagePriority.NORMAL));
+
+        int[] expectedIds = {3, 5, 2, 4, 1};
+        MessagePriority[] expectedPriorities = {MessagePriority.CONTROL, MessagePriority.RPC,
+                MessagePriority.NORMAL, MessagePriority.NORMAL, MessagePriority.BULK};
+        for (int index = 0; index < expectedIds.length; index++) {
+            assertEquals(expectedPriorities[index], queue.peekPriority());
+            assertEquals(expectedIds[index], idOf(queue.pollFirst()));
+        }
+        assertTrue(queue.isEmpty());
+        assertNull(queue.peekPriority());
+        assertNull(queue.pollFirst());
+    }
+
+    @Test
+    public void wraparoundKeepsOrder() {
+        UnsentMessageQueue queue = new UnsentMessageQueue();
+        int nextId = 0;
+        int expectedId = 0;
+        // 交替添加和取出，队首在数组中多次绕回
+        for (int round = 0; round < 10; round++) {
+            for (int index = 0; index < 5; index++) {
+                queue.add(message(nextId++, MessagePriority.NORMAL));
+            }
+            for (int index = 0; index < 4; index++) {
+                assertEquals(expectedId++, idOf(queue.pollFirst()));
+            }
+        }
+        // 消息数10，在绕回的状态下扩容了一次
+        assertEquals(10, queue.size());
+        assertEquals(SentMessageQueue.INITIAL_CAPACITY << 1, queue.capacity(MessagePriority.NORMAL));
+        while (!queue.isEmpty()) {
+            assertEquals(expectedId++, idOf(queue.pollFirst()));
+        }
+        assertEquals(nextId, expectedId);
+    }
+
+    @Test
+    public void clearDropsOnlyThatPriority() {
+        UnsentMessageQueue queue = new UnsentMessageQueue();
+        for (int index = 0; index < 20; index++) {
+            queue.add(message(index, index % 2 == 0 ? MessagePriority.BULK : MessagePriority.NORMAL));
+        }
+        assertEquals(10, queue.clear(MessagePriority.BULK));
+        assertEquals(0, queue.clear(MessagePriority.BULK));
+        assertEquals(10, queue.size());
+        assertEquals(0, queue.size(MessagePriority.BULK));
+        // 清空之后可以继续使用
+        queue.add(message(100, MessagePriority.BULK));
+        assertEquals(11, queue.size());
+        for (int index = 1; index < 20; index += 2) {
+            assertEquals(index, idOf(queue.pollFirst()));
+        }
+        assertEquals(100, idOf(queue.pollFirst()));
+    }
+
+    @Test
+    public void idleShrink() {
+        UnsentMessageQueue queue = new UnsentMessageQueue();
+        for (int index = 0; index < 40; index++) {
+            queue.add(message(index, MessagePriority.NORMAL));
+        }
+        queue.add(message(40, MessagePriority.CONTROL));
+        assertEquals(64, queue.capacity(MessagePriority.NORMAL));
+        for (int index = 0; index < 36; index++) {
+            queue.pollFirst();
+        }
+
+        // 峰值仍然是40，不缩容
+        queue.trim();
+        assertEquals(64, queue.capacity(MessagePriority.NORMAL));
+        // 空闲一个周期之后缩小为剩余消息数的2倍(向上取2的幂)，保留剩余的消息
+        queue.trim();
+        assertEquals(SentMessageQueue.INITIAL_CAPACITY << 1, queue.capacity(MessagePriority.NORMAL));
+        assertEquals(SentMessageQueue.INITIAL_CAPACITY, queue.capacity(MessagePriority.CONTROL));
+        assertEquals(5, queue.size());
+        for (int index = 35; index < 40; index++) {
+            assertEquals(index, idOf(queue.pollFirst()));
+        }
+    }
+
+    private static UnsentMessage message(int id, MessagePriority priority) {
+        return new UnsentOneWayMessage(id, priority);
+    }
+
+    private static int idOf(UnsentMessage unsentMessage) {
+        return (Integer) unsentMessage.getBody();
+    }
+}
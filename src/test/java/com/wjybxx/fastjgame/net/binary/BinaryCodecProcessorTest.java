@@ -0,0 +1,174 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.binary;
+
+import com.wjybxx.fastjgame.net.BinaryMessageSerializer;
+import com.wjybxx.fastjgame.net.MessageMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link BinaryCodecProcessor}生成的编解码器测试(测试类编译时生成)。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+public class BinaryCodecProcessorTest {
+
+    private BinaryMessageSerializer serializer;
+    private MessageMapper messageMapper;
+
+    @Before
+    public void init() throws Exception {
+        messageMapper = MessageMapper.newInstance(() -> {
+            Object2IntMap<Class<?>> mapping = new Object2IntOpenHashMap<>();
+            mapping.put(SampleMessage.class, 1);
+            mapping.put(SampleMessageV2.class, 2);
+            mapping.put(SampleItem.class, 3);
+            return mapping;
+        });
+        // 不显式注册，按照约定的命名找到生成的编解码器
+        serializer = new BinaryMessageSerializer();
+        serializer.init(messageMapper);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        SampleMessage message = newSampleMessage();
+        ByteBuf byteBuf = PooledByteBufAllocator.DEFAULT.directBuffer(16);
+        try {
+            serializer.serialize(message, byteBuf);
+            SampleMessage copy = (SampleMessage) serializer.deserialize(messageMapper, 1, byteBuf);
+            assertSampleEquals(message, copy);
+            assertEquals(0, copy.cache);
+        } finally {
+            byteBuf.release();
+        }
+        assertSampleEquals(message, serializer.deserialize(SampleMessage.class, serializer.serialize(message)));
+    }
+
+    @Test
+    public void sizeCounterMatchesWrittenBytes() throws Exception {
+        SampleMessage message = newSampleMessage();
+        assertSizeCounted(message);
+        // 超过预留长度字段(16K)的嵌套消息
+        StringBuilder sb = new StringBuilder();
+        for (int index = 0; index < 20000; index++) {
+            sb.append(index % 10);
+        }
+        message.weapon = new SampleItem(1001, sb.toString(), -1L);
+        assertSizeCounted(message);
+    }
+
+    private void assertSizeCounted(SampleMessage message) throws Exception {
+        int length = serializer.serialize(message).length;
+        assertFalse(serializer.isSerializedSizeExceeded(message, length));
+        assertTrue(serializer.isSerializedSizeExceeded(message, length - 1));
+    }
+
+    @Test
+    public void defaultValuesAreNotWritten() throws Exception {
+        assertEquals(0, serializer.serialize(new SampleMessage()).length);
+
+        SampleMessage copy = serializer.deserialize(SampleMessage.class, new byte[0]);
+        assertNull(copy.getNickName());
+        assertNull(copy.items);
+        assertTrue(copy.regions.isEmpty());
+    }
+
+    @Test
+    public void schemaEvolution() throws Exception {
+        SampleMessage message = newSampleMessage();
+        // 新版本读取旧数据：删除的字段被跳过
+        SampleMessageV2 v2 = serializer.deserialize(SampleMessageV2.class, serializer.serialize(message));
+        assertEquals(message.playerGuid, v2.playerGuid);
+        assertItemEquals(message.weapon, v2.weapon);
+        assertEquals(message.items.size(), v2.items.size());
+        assertNull(v2.guildName);
+
+        // 旧版本读取新数据：新增的字段被跳过，删除的字段保持默认值
+        v2.guildName = "公会";
+        SampleMessage v1 = serializer.deserialize(SampleMessage.class, serializer.serialize(v2));
+        assertEquals(message.playerGuid, v1.playerGuid);
+        assertItemEquals(message.weapon, v1.weapon);
+        assertEquals(0, v1.level);
+        assertNull(v1.getNickName());
+    }
+
+    private static SampleMessage newSampleMessage() {
+        SampleMessage message = new SampleMessage();
+        message.playerGuid = Long.MAX_VALUE - 1;
+        message.level = 99;
+        message.hpChange = -1024;
+        message.online = true;
+        message.camp = -3;
+        message.rank = Short.MAX_VALUE;
+        message.grade = 'S';
+        message.x = -0.5f;
+        message.y = Math.PI;
+        message.setNickName("玩家😀");
+        message.data = new byte[]{1, 2, 3, -1};
+        message.weapon = new SampleItem(1001, "sword", -1L);
+        message.items = new ArrayList<>(Arrays.asList(new SampleItem(1, "a", 1), new SampleItem(2, "", Long.MIN_VALUE), new SampleItem()));
+        message.regions.addAll(Arrays.asList(0, -1, Integer.MAX_VALUE));
+        message.setDeltas(new ArrayList<>(Arrays.asList(-1L, 0L, Long.MAX_VALUE)));
+        message.tags = new ArrayList<>(Arrays.asList("x", ""));
+        message.cache = 10;
+        return message;
+    }
+
+    private static void assertSampleEquals(SampleMessage expected, SampleMessage actual) {
+        assertEquals(expected.playerGuid, actual.playerGuid);
+        assertEquals(expected.level, actual.level);
+        assertEquals(expected.hpChange, actual.hpChange);
+        assertEquals(expected.online, actual.online);
+        assertEquals(expected.camp, actual.camp);
+        assertEquals(expected.rank, actual.rank);
+        assertEquals(expected.grade, actual.grade);
+        assertEquals(expected.x, actual.x, 0);
+        assertEquals(expected.y, actual.y, 0);
+        assertEquals(expected.getNickName(), actual.getNickName());
+        assertArrayEquals(expected.data, actual.data);
+        assertItemEquals(expected.weapon, actual.weapon);
+        assertEquals(expected.items.size(), actual.items.size());
+        for (int index = 0; index < expected.items.size(); index++) {
+            assertItemEquals(expected.items.get(index), actual.items.get(index));
+        }
+        assertEquals(expected.regions, actual.regions);
+        assertEquals(expected.getDeltas(), actual.getDeltas());
+        // 列表元素总是写入，包括默认值
+        assertEquals(expected.tags, actual.tags);
+    }
+
+    private static void assertItemEquals(SampleItem expected, SampleItem actual) {
+        assertEquals(expected.itemId, actual.itemId);
+        // 空字符串不写入，读取为null
+        assertEquals(expected.name == null || expected.name.isEmpty() ? null : expected.name, actual.name);
+        assertEquals(expected.delta, actual.delta);
+    }
+}
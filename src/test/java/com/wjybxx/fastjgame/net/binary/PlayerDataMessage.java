@@ -0,0 +1,38 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.binary;
+
+/**
+ * 与{@link com.wjybxx.fastjgame.example.p_common.p_player_data}字段相同的普通java消息，基准测试使用
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@BinaryMessage
+public class PlayerDataMessage {
+
+    @BinaryField(number = 1)
+    public long playerGuid;
+
+    @BinaryField(number = 2)
+    public int platformNumber;
+
+    @BinaryField(number = 3)
+    public int logicServerId;
+}
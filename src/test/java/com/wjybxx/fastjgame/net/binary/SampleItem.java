@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.binary;
+
+/**
+ * 测试用的嵌套消息
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@BinaryMessage
+public class SampleItem {
+
+    @BinaryField(number = 1)
+    int itemId;
+
+    @BinaryField(number = 2)
+    String name;
+
+    @BinaryField(number = 3, zigzag = true)
+    long delta;
+
+    public SampleItem() {
+
+    }
+
+    public SampleItem(int itemId, String name, long delta) {
+        this.itemId = itemId;
+        this.name = name;
+        this.delta = delta;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.binary;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 测试用的消息，覆盖{@link BinaryCodecProcessor}支持的所有字段类型和访问方式
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@BinaryMessage
+public class SampleMessage {
+
+    @BinaryField(number = 1)
+    long playerGuid;
+
+    @BinaryField(number = 2)
+    int level;
+
+    @BinaryField(number = 3, zigzag = true)
+    int hpChange;
+
+    @BinaryField(number = 4)
+    boolean online;
+
+    @BinaryField(number = 5)
+    byte camp;
+
+    @BinaryField(number = 6)
+    short rank;
+
+    @BinaryField(number = 7)
+    char grade;
+
+    @BinaryField(number = 8)
+    float x;
+
+    @BinaryField(number = 9)
+    double y;
+
+    @BinaryField(number = 10)
+    private String nickName;
+
+    @BinaryField(number = 11)
+    byte[] data;
+
+    @BinaryField(number = 12)
+    SampleItem weapon;
+
+    @BinaryField(number = 13)
+    List<SampleItem> items;
+
+    @BinaryField(number = 14)
+    final List<Integer> regions = new ArrayList<>();
+
+    @BinaryField(number = 15, zigzag = true)
+    private List<Long> deltas;
+
+    @BinaryField(number = 16)
+    List<String> tags;
+
+    /**
+     * 不需要编解码的字段
+     */
+    transient int cache;
+
+    public String getNickName() {
+        return nickName;
+    }
+
+    public void setNickName(String nickName) {
+        this.nickName = nickName;
+    }
+
+    public List<Long> getDeltas() {
+        return deltas;
+    }
+
+    public void setDeltas(List<Long> deltas) {
+        this.deltas = deltas;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.binary;
+
+import java.util.List;
+
+/**
+ * {@link SampleMessage}的新版本：删除了部分字段(编号保留不用)，新增了字段17
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+@BinaryMessage
+public class SampleMessageV2 {
+
+    @BinaryField(number = 1)
+    long playerGuid;
+
+    // 2-11 已删除
+
+    @BinaryField(number = 12)
+    SampleItem weapon;
+
+    @BinaryField(number = 13)
+    List<SampleItem> items;
+
+    // 14-16 已删除
+
+    @BinaryField(number = 17)
+    String guildName;
+}
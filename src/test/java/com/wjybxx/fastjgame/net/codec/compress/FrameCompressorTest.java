@@ -0,0 +1,294 @@
+/*
+ * Copyright 2019 wjybxx
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.codec.compress;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.compression.DecompressionException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link Lz4FrameCompressor}和{@link DeflateFrameCompressor}(逐包与流式)的测试。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2019/8/11
+ * github - https://github.com/hl845740757
+ */
+public class FrameCompressorTest {
+
+    private static final byte[] SYNC_FLUSH_TRAILER = {0, 0, (byte) 0xFF, (byte) 0xFF};
+
+    private final List<FrameCompressor> streamCompressors = new ArrayList<>();
+
+    @After
+    public void releaseStreamCompressors() {
+        streamCompressors.forEach(FrameCompressor::release);
+    }
+
+    private DeflateFrameCompressor newStreamCompressor() {
+        DeflateFrameCompressor compressor = DeflateFrameCompressor.newStreamCompressor();
+        streamCompressors.add(compressor);
+        return compressor;
+    }
+
+    @Test
+    public void lz4RoundTrip() {
+        for (byte[] sample : samples()) {
+            assertRoundTrip(Lz4FrameCompressor.INSTANCE, Lz4FrameCompressor.INSTANCE, sample, false);
+            assertRoundTrip(Lz4FrameCompressor.INSTANCE, Lz4FrameCompressor.INSTANCE, sample, true);
+        }
+    }
+
+    @Test
+    public void deflateRoundTrip() {
+        for (byte[] sample : samples()) {
+            assertRoundTrip(DeflateFrameCompressor.SHARED_INSTANCE, DeflateFrameCompressor.SHARED_INSTANCE, sample, false);
+            assertRoundTrip(DeflateFrameCompressor.SHARED_INSTANCE, DeflateFrameCompressor.SHARED_INSTANCE, sample, true);
+        }
+    }
+
+    @Test
+    public void deflateStreamRoundTrip() {
+        // 两端各自持有一个流，包必须按顺序解压
+        DeflateFrameCompressor sender = newStreamCompressor();
+        DeflateFrameCompressor receiver = newStreamCompressor();
+        boolean direct = false;
+        for (byte[] sample : samples()) {
+            assertRoundTrip(sender, receiver, sample, direct);
+            direct = !direct;
+        }
+    }
+
+    @Test
+    public void syncFlushTrailerIsStrippedAndRestored() {
+        DeflateFrameCompressor sender = newStreamCompressor();
+        DeflateFrameCompressor receiver = newStreamCompressor();
+        byte[] sample = "{\"playerGuid\":10086,\"x\":128,\"y\":256,\"state\":\"MOVING\"}".getBytes(StandardCharsets.UTF_8);
+
+        int firstLength = 0;
+        for (int index = 0; index < 10; index++) {
+            ByteBuf compressed = compress(sender, sample, false);
+            try {
+                assertFalse("trailer not stripped", endsWithTrailer(compressed));
+                if (index == 0) {
+                    firstLength = compressed.readableBytes();
+                } else {
+                    // 共享压缩上下文，重复的包只需要引用之前的内容
+                    assertTrue(compressed.readableBytes() < firstLength);
+                }
+                assertArrayEquals(sample, decompress(receiver, compressed, sample.length));
+            } finally {
+                compressed.release();
+            }
+        }
+    }
+
+    @Test
+    public void deflateStreamRejectsOutOfOrderFrame() {
+        DeflateFrameCompressor sender = newStreamCompressor();
+        DeflateFrameCompressor receiver = newStreamCompressor();
+        byte[] sample = "repeat repeat repeat repeat".getBytes(StandardCharsets.UTF_8);
+        ByteBuf first = compress(sender, sample, false);
+        ByteBuf second = compress(sender, sample, false);
+        try {
+            // 跳过第一个包，第二个包引用的内容不存在
+            decompress(receiver, second, sample.length);
+            fail("expected DecompressionException");
+        } catch (DecompressionException expected) {
+            // expected
+        } finally {
+            first.release();
+            second.release();
+        }
+    }
+
+    @Test
+    public void lz4RejectsMalformedInput() {
+        byte[] sample = samples().get(2);
+        ByteBuf compressed = compress(Lz4FrameCompressor.INSTANCE, sample, false);
+        try {
+            // 截断
+            assertDecompressFails(Lz4FrameCompressor.INSTANCE, compressed.slice(0, compressed.readableBytes() / 2), sample.length);
+            // 长度不一致
+            assertDecompressFails(Lz4FrameCompressor.INSTANCE, compressed.duplicate(), sample.length + 1);
+            assertDecompressFails(Lz4FrameCompressor.INSTANCE, compressed.duplicate(), sample.length - 1);
+        } finally {
+            compressed.release();
+        }
+        // offset为0
+        assertDecompressFails(Lz4FrameCompressor.INSTANCE, Unpooled.wrappedBuffer(new byte[]{0x10, 'a', 0, 0}), 8);
+        // offset超出已解压的内容
+        assertDecompressFails(Lz4FrameCompressor.INSTANCE, Unpooled.wrappedBuffer(new byte[]{0x10, 'a', 2, 0}), 8);
+        // 字面量长度超出输入
+        assertDecompressFails(Lz4FrameCompressor.INSTANCE, Unpooled.wrappedBuffer(new byte[]{(byte) 0xF0, (byte) 0xFF, (byte) 0xFF}), 1024);
+        assertDecompressFails(Lz4FrameCompressor.INSTANCE, Unpooled.EMPTY_BUFFER, 0);
+
+        Random random = new Random(2019L);
+        for (int round = 0; round < 1000; round++) {
+            byte[] garbage = new byte[1 + random.nextInt(64)];
+            random.nextBytes(garbage);
+            assertDecompressFailsOrMatchesLength(Lz4FrameCompressor.INSTANCE, garbage, 256);
+        }
+    }
+
+    @Test
+    public void deflateRejectsMalformedInput() {
+        byte[] sample = samples().get(2);
+        ByteBuf compressed = compress(DeflateFrameCompressor.SHARED_INSTANCE, sample, false);
+        try {
+            assertDecompressFails(DeflateFrameCompressor.SHARED_INSTANCE, compressed.slice(0, compressed.readableBytes() / 2), sample.length);
+            assertDecompressFails(DeflateFrameCompressor.SHARED_INSTANCE, compressed.duplicate(), sample.length + 1);
+        } finally {
+            compressed.release();
+        }
+        // 保留的块类型
+        assertDecompressFails(DeflateFrameCompressor.SHARED_INSTANCE, Unpooled.wrappedBuffer(new byte[]{(byte) 0xFF, 0x12, 0x34}), 16);
+        assertDecompressFails(newStreamCompressor(), Unpooled.wrappedBuffer(new byte[]{(byte) 0xFF, 0x12, 0x34}), 16);
+
+        Random random = new Random(2019L);
+        for (int round = 0; round < 1000; round++) {
+            byte[] garbage = new byte[1 + random.nextInt(64)];
+            random.nextBytes(garbage);
+            assertDecompressFailsOrMatchesLength(DeflateFrameCompressor.SHARED_INSTANCE, garbage, 256);
+        }
+    }
+
+    @Test
+    public void decompressionBombIsRejected() {
+        // 1MB的0只需要很少的字节，对方声明的压缩前长度很小
+        byte[] bomb = new byte[1024 * 1024];
+        final int declaredLength = 16 * 1024;
+        assertBombRejected(Lz4FrameCompressor.INSTANCE, Lz4FrameCompressor.INSTANCE, bomb, declaredLength);
+        assertBombRejected(DeflateFrameCompressor.SHARED_INSTANCE, DeflateFrameCompressor.SHARED_INSTANCE, bomb, declaredLength);
+        assertBombRejected(newStreamCompressor(), newStreamCompressor(), bomb, declaredLength);
+    }
+
+    private void assertBombRejected(FrameCompressor sender, FrameCompressor receiver, byte[] bomb, int declaredLength) {
+        ByteBuf compressed = compress(sender, bomb, false);
+        ByteBuf out = receiver.allocate(ByteBufAllocator.DEFAULT, declaredLength);
+        try {
+            assertTrue(compressed.readableBytes() < declaredLength);
+            receiver.decompress(compressed, out, declaredLength);
+            fail("expected DecompressionException");
+        } catch (DecompressionException expected) {
+            // 解压结果不会超过声明的长度
+            assertTrue(out.writerIndex() <= declaredLength);
+        } finally {
+            compressed.release();
+            out.release();
+        }
+    }
+
+    private static List<byte[]> samples() {
+        List<byte[]> samples = new ArrayList<>();
+        samples.add(new byte[0]);
+        samples.add("a".getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        for (int index = 0; index < 200; index++) {
+            sb.append("{\"id\":").append(index).append(",\"name\":\"item").append(index % 7).append("\"}");
+        }
+        samples.add(sb.toString().getBytes(StandardCharsets.UTF_8));
+        // 不可压缩的内容
+        byte[] random = new byte[64 * 1024];
+        new Random(2019L).nextBytes(random);
+        samples.add(random);
+        // 长的重复内容(匹配长度超过255)
+        samples.add(new byte[100 * 1024]);
+        return samples;
+    }
+
+    private static void assertRoundTrip(FrameCompressor sender, FrameCompressor receiver, byte[] sample, boolean direct) {
+        ByteBuf compressed = compress(sender, sample, direct);
+        try {
+            assertTrue(compressed.readableBytes() <= sender.maxCompressedLength(sample.length));
+            assertArrayEquals(sample, decompress(receiver, compressed, sample.length));
+            assertFalse(compressed.isReadable());
+        } finally {
+            compressed.release();
+        }
+    }
+
+    private static ByteBuf compress(FrameCompressor compressor, byte[] sample, boolean direct) {
+        ByteBuf in = direct ? Unpooled.directBuffer(sample.length) : Unpooled.buffer(sample.length);
+        in.writeBytes(sample);
+        ByteBuf out = direct ? Unpooled.directBuffer() : compressor.allocate(ByteBufAllocator.DEFAULT, compressor.maxCompressedLength(sample.length));
+        try {
+            compressor.compress(in, out);
+            assertFalse(in.isReadable());
+            return out;
+        } catch (Throwable e) {
+            out.release();
+            throw e;
+        } finally {
+            in.release();
+        }
+    }
+
+    private static byte[] decompress(FrameCompressor compressor, ByteBuf compressed, int uncompressedLength) {
+        ByteBuf out = compressor.allocate(ByteBufAllocator.DEFAULT, uncompressedLength);
+        try {
+            compressor.decompress(compressed, out, uncompressedLength);
+            return ByteBufUtil.getBytes(out);
+        } finally {
+            out.release();
+        }
+    }
+
+    private static void assertDecompressFails(FrameCompressor compressor, ByteBuf compressed, int uncompressedLength) {
+        try {
+            decompress(compressor, compressed, uncompressedLength);
+            fail("expected DecompressionException");
+        } catch (DecompressionException expected) {
+            // expected
+        }
+    }
+
+    /**
+     * 随机内容可能恰好是合法的压缩结果，此时长度必须与声明的一致
+     */
+    private static void assertDecompressFailsOrMatchesLength(FrameCompressor compressor, byte[] garbage, int uncompressedLength) {
+        try {
+            assertEquals(uncompressedLength, decompress(compressor, Unpooled.wrappedBuffer(garbage), uncompressedLength).length);
+        } catch (DecompressionException expected) {
+            // expected
+        }
+    }
+
+    private static boolean endsWithTrailer(ByteBuf compressed) {
+        if (compressed.readableBytes() < SYNC_FLUSH_TRAILER.length) {
+            return false;
+        }
+        int start = compressed.writerIndex() - SYNC_FLUSH_TRAILER.length;
+        for (int index = 0; index < SYNC_FLUSH_TRAILER.length; index++) {
+            if (compressed.getByte(start + index) != SYNC_FLUSH_TRAILER[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}